@@ -0,0 +1,16 @@
+#!/bin/sh
+# Собирает основной модуль и бенчмарки и запускает JMH с профилем памяти (-prof gc).
+# Результат пишется в benchmarks/results/<коммит>.json, чтобы сравнивать прогоны разных коммитов
+# (например, в JMH Visualizer). Аргументы передаются JMH: ./benchmarks/run.sh PacketCodecBenchmark
+set -e
+cd "$(dirname "$0")/.."
+./mvnw -B -q install -DskipTests
+./mvnw -B -q -f benchmarks/pom.xml package
+commit=$(git rev-parse --short HEAD)
+if ! git diff --quiet HEAD -- src; then
+    commit="$commit-dirty"
+fi
+mkdir -p benchmarks/results
+# фиксированная куча, чтобы размер журнала 1M записей не менял поведение GC между прогонами
+java -jar benchmarks/target/benchmarks.jar -jvmArgsPrepend "-Xms2g -Xmx2g" -prof gc \
+    -rf json -rff "benchmarks/results/$commit.json" "$@"
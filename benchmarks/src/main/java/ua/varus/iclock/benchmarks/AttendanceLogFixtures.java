@@ -0,0 +1,55 @@
+package ua.varus.iclock.benchmarks;
+
+import ua.varus.iclock.utils.AttendanceLogParser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Синтетический журнал посещений, нарезанный так же, как его отдаёт терминал:
+ * 4 байта размера в начале, затем пакеты данных по 1024 байта.
+ */
+final class AttendanceLogFixtures {
+
+    static final int CHUNK_SIZE = 1024;
+
+    private AttendanceLogFixtures() {
+    }
+
+    static List<ByteBuffer> payloads(int records) {
+        int size = records * AttendanceLogParser.RECORD_SIZE;
+        ByteBuffer log = ByteBuffer.allocate(4 + size).order(ByteOrder.LITTLE_ENDIAN);
+        log.putInt(size);
+        Random random = new Random(records);
+        for (int i = 0; i < records; i++) {
+            int start = log.position();
+            log.putShort((short) (i + 1));
+            String userId = Integer.toString(1 + random.nextInt(5000));
+            for (int c = 0; c < userId.length(); c++) {
+                log.put((byte) userId.charAt(c));
+            }
+            log.position(start + 26);
+            log.put((byte) random.nextInt(2));
+            log.putInt(packed(2024, 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+            log.put((byte) random.nextInt(2));
+            log.position(start + AttendanceLogParser.RECORD_SIZE);
+        }
+        log.flip();
+
+        List<ByteBuffer> payloads = new ArrayList<>();
+        while (log.hasRemaining()) {
+            int n = Math.min(CHUNK_SIZE, log.remaining());
+            payloads.add(log.slice(log.position(), n).order(ByteOrder.LITTLE_ENDIAN));
+            log.position(log.position() + n);
+        }
+        return payloads;
+    }
+
+    private static int packed(int year, int month, int day, int hour, int minute, int second) {
+        return ((((((year - 2000) * 12 + (month - 1)) * 31 + (day - 1)) * 24 + hour) * 60 + minute) * 60) + second;
+    }
+}
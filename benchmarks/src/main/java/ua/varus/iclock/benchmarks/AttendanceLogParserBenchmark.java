@@ -0,0 +1,110 @@
+package ua.varus.iclock.benchmarks;
+
+import com.zkteco.commands.AttendanceRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ua.varus.iclock.utils.AttendanceLogParser;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор журнала посещений: прежний hex-конвейер против разбора из буферов.
+ * <p>
+ * Запуск: {@code java -jar benchmarks/target/benchmarks.jar AttendanceLogParserBenchmark}.
+ * Прежний разбор квадратичный, поэтому на журналах 10k/100k/1M записей ({@code logRecords})
+ * меряется только новый ({@link #binaryLargeLog}); сравнение обоих идёт на размерах из {@code records}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AttendanceLogParserBenchmark {
+
+    @Param({"1000", "10000", "30000"})
+    public int records;
+
+    private List<ByteBuffer> payloads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.payloads = AttendanceLogFixtures.payloads(this.records);
+    }
+
+    @Benchmark
+    public List<AttendanceRecord> legacyHex() throws ParseException {
+        return LegacyHexAttendanceParser.parse(this.payloads);
+    }
+
+    @Benchmark
+    public List<AttendanceRecord> binary() {
+        return parseBinary(this.payloads);
+    }
+
+    @Benchmark
+    public void binaryLargeLog(LargeLog log, Blackhole blackhole) {
+        AttendanceLogParser parser = new AttendanceLogParser();
+        // без сбора в список: проверяем, что сам разбор не требует памяти по размеру журнала
+        AttendanceLogParser.RecordVisitor visitor = (buffer, offset) -> {
+            blackhole.consume(AttendanceLogParser.seq(buffer, offset));
+            blackhole.consume(AttendanceLogParser.userId(buffer, offset));
+            blackhole.consume(AttendanceLogParser.packedTime(buffer, offset));
+        };
+        boolean first = true;
+        for (ByteBuffer payload : log.payloads) {
+            ByteBuffer chunk = payload.duplicate();
+            if (first) {
+                chunk.position(chunk.position() + 4);
+                first = false;
+            }
+            parser.feed(chunk, visitor);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeLog {
+
+        @Param({"10000", "100000", "1000000"})
+        public int logRecords;
+
+        List<ByteBuffer> payloads;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.payloads = AttendanceLogFixtures.payloads(this.logRecords);
+        }
+    }
+
+    static List<AttendanceRecord> parseBinary(List<ByteBuffer> payloads) {
+        List<AttendanceRecord> attendanceRecords = new ArrayList<>();
+        AttendanceLogParser parser = new AttendanceLogParser();
+        AttendanceLogParser.RecordVisitor visitor =
+                (buffer, offset) -> attendanceRecords.add(AttendanceLogParser.toAttendanceRecord(buffer, offset));
+        boolean first = true;
+        for (ByteBuffer payload : payloads) {
+            ByteBuffer chunk = payload.duplicate();
+            if (first) {
+                chunk.position(chunk.position() + 4);
+                first = false;
+            }
+            parser.feed(chunk, visitor);
+        }
+        return attendanceRecords;
+    }
+}
@@ -0,0 +1,68 @@
+package ua.varus.iclock.benchmarks;
+
+import com.zkteco.Enum.AttendanceStateEnum;
+import com.zkteco.Enum.AttendanceTypeEnum;
+import com.zkteco.commands.AttendanceRecord;
+import com.zkteco.utils.HexUtils;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Копия прежнего разбора журнала из ZKTerminalV.getAttendanceRecords():
+ * пакеты переводятся в hex-строку, записи режутся через substring. Оставлена только для сравнения.
+ */
+final class LegacyHexAttendanceParser {
+
+    private LegacyHexAttendanceParser() {
+    }
+
+    static List<AttendanceRecord> parse(List<ByteBuffer> payloads) throws ParseException {
+        List<AttendanceRecord> attendanceRecords = new ArrayList();
+        StringBuilder attendanceBuffer = new StringBuilder();
+        boolean first = true;
+        for (ByteBuffer payload : payloads) {
+            int[] data = new int[payload.remaining()];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = payload.get(payload.position() + i) & 255;
+            }
+            String readPacket = HexUtils.bytesToHex(data);
+            attendanceBuffer.append(readPacket.substring(first ? 8 : 0));
+            first = false;
+        }
+
+        String attendance = attendanceBuffer.toString();
+
+        while(attendance.length() > 0) {
+            String record = attendance.substring(0, 80);
+            int seq = Integer.valueOf(record.substring(2, 4) + record.substring(0, 2), 16);
+            record = record.substring(4);
+            String userId = Character.toString((char)Integer.valueOf(record.substring(0, 2), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(2, 4), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(4, 6), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(6, 8), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(8, 10), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(10, 12), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(12, 14), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(14, 16), 16).intValue())
+                    + Character.toString((char)Integer.valueOf(record.substring(16, 18), 16).intValue());
+            record = record.substring(48);
+            int method = Integer.valueOf(record.substring(0, 2), 16);
+            AttendanceTypeEnum attendanceType = AttendanceTypeEnum.values()[method];
+            record = record.substring(2);
+            long encDate = (long)Integer.valueOf(record.substring(6, 8), 16) * 16777216L + (long)Integer.valueOf(record.substring(4, 6), 16) * 65536L + (long)Integer.valueOf(record.substring(2, 4), 16) * 256L + (long)Integer.valueOf(record.substring(0, 2), 16);
+            Date attendanceDate = HexUtils.extractDate(encDate);
+            record = record.substring(8);
+            int operation = Integer.valueOf(record.substring(0, 2), 16);
+            AttendanceStateEnum attendanceState = AttendanceStateEnum.values()[operation];
+            attendance = attendance.substring(80);
+            AttendanceRecord attendanceRecord = new AttendanceRecord(seq, userId.trim(), attendanceType, attendanceDate, attendanceState);
+            attendanceRecords.add(attendanceRecord);
+        }
+
+        return attendanceRecords;
+    }
+}
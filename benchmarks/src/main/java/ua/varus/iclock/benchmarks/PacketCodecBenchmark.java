@@ -0,0 +1,99 @@
+package ua.varus.iclock.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKCommand;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кодек пакетов: сборка команды (массивы {@code getPacket}/{@code getPacketByte} против записи
+ * в переиспользуемый буфер), контрольная сумма и разбор ответа (прежний {@code int[]}
+ * из {@code readResponse} против {@link ZKReplyFrame}).
+ * <p>
+ * Данные — записанный шаблон отпечатка; {@code payload} 0 — пустая команда,
+ * 1024 — полный пакет данных.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PacketCodecBenchmark {
+
+    @Param({"0", "64", "1024"})
+    public int payload;
+
+    private byte[] data;
+    private int[] dataInts;
+    private final ByteBuffer out = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer reply;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.reply = RecordedFixtures.dataReply(this.payload);
+        this.data = new byte[this.payload];
+        this.reply.get(ZKCommand.HEADER_SIZE, this.data);
+        this.dataInts = new int[this.payload];
+        for (int i = 0; i < this.payload; i++) {
+            this.dataInts[i] = this.data[i] & 255;
+        }
+    }
+
+    @Benchmark
+    public int[] getPacket() {
+        return ZKCommand.getPacket(CommandCodeEnum.CMD_DATA, 0x3A5F, 17, this.dataInts);
+    }
+
+    @Benchmark
+    public int[] getPacketByte() {
+        return ZKCommand.getPacketByte(CommandCodeEnum.CMD_DATA, 0x3A5F, 17, this.data);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeReused() {
+        return ZKCommand.encode(this.out, CommandCodeEnum.CMD_DATA, 0x3A5F, 17, this.data);
+    }
+
+    @Benchmark
+    public int checksum() {
+        return ZKCommand.checksum(this.reply, 0, this.reply.limit());
+    }
+
+    /**
+     * Прежний {@code readResponse}: весь пакет в {@code int[]} по байту.
+     */
+    @Benchmark
+    public int[] decodeIntArray() {
+        ByteBuffer frame = this.reply;
+        int[] response = new int[frame.limit()];
+        for (int i = 0; i < response.length; i++) {
+            response[i] = frame.get(i) & 255;
+        }
+        return response;
+    }
+
+    @Benchmark
+    public void decodeFrame(Blackhole blackhole) {
+        ZKReplyFrame frame = ZKReplyFrame.decode(this.reply.duplicate());
+        blackhole.consume(frame.getRawCode());
+        blackhole.consume(frame.getReplyId());
+        blackhole.consume(frame.payload());
+    }
+}
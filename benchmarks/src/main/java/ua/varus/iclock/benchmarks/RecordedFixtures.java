@@ -0,0 +1,125 @@
+package ua.varus.iclock.benchmarks;
+
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKCommand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Входные данные из записанных с терминала файлов ({@code src/main/resources} основного модуля)
+ * и построенные из них пакеты и таблицы. Все генераторы детерминированы, чтобы результаты
+ * разных коммитов можно было сравнивать.
+ * <p>
+ * Файл шаблона: [size(4)][reserved(4)][template(size)].
+ */
+final class RecordedFixtures {
+
+    static final List<String> TEMPLATE_FILES = List.of("/46633_t1", "/46633_t2");
+    static final int USER_RECORD_SIZE = 72;
+
+    private RecordedFixtures() {
+    }
+
+    static byte[] resource(String name) {
+        try (InputStream in = RecordedFixtures.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Fixture " + name + " is not on the classpath (mvn install the root module)");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Шаблоны отпечатков из записанных файлов.
+     */
+    static byte[][] templates() {
+        byte[][] templates = new byte[TEMPLATE_FILES.size()][];
+        for (int i = 0; i < templates.length; i++) {
+            byte[] file = resource(TEMPLATE_FILES.get(i));
+            int size = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+            templates[i] = Arrays.copyOfRange(file, 8, 8 + size);
+        }
+        return templates;
+    }
+
+    /**
+     * Таблица шаблонов (CMD_DB_RRQ, FCT_FINGERTMP) из записанных шаблонов по кругу, нарезанная на пакеты.
+     */
+    static List<ByteBuffer> templateTable(int records, int chunkSize) {
+        byte[][] templates = templates();
+        int size = 0;
+        for (int i = 0; i < records; i++) {
+            size += 6 + templates[i % templates.length].length;
+        }
+        ByteBuffer table = ByteBuffer.allocate(4 + size).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(size);
+        for (int i = 0; i < records; i++) {
+            byte[] template = templates[i % templates.length];
+            table.putShort((short) (6 + template.length))
+                    .putShort((short) (1 + i / 10))
+                    .put((byte) (i % 10))
+                    .put((byte) 1)
+                    .put(template);
+        }
+        return slice(table.flip(), chunkSize);
+    }
+
+    /**
+     * Таблица пользователей (CMD_USERTEMP_RRQ) из 72-байтных записей:
+     * [uid(2)][role(1)][password(8)][name(24)][card(4)][pad(1)][group(7)][pad(1)][user_id(24)].
+     */
+    static List<ByteBuffer> userTable(int records, int chunkSize) {
+        ByteBuffer table = ByteBuffer.allocate(4 + records * USER_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(records * USER_RECORD_SIZE);
+        Random random = new Random(records);
+        for (int i = 0; i < records; i++) {
+            int start = table.position();
+            table.putShort((short) (i + 1));
+            table.put((byte) (i % 50 == 0 ? 14 : 0));
+            putAscii(table, start + 3, random.nextInt(10) == 0 ? Integer.toString(1000 + random.nextInt(9000)) : "");
+            putAscii(table, start + 11, "Employee " + (i + 1));
+            table.putInt(start + 35, random.nextInt(1 << 24));
+            putAscii(table, start + 40, "1");
+            putAscii(table, start + 48, Integer.toString(10_000 + i));
+            table.position(start + USER_RECORD_SIZE);
+        }
+        return slice(table.flip(), chunkSize);
+    }
+
+    /**
+     * Ответ CMD_DATA с записанным шаблоном в качестве данных, как его отдаёт транспорт.
+     */
+    static ByteBuffer dataReply(int payloadSize) {
+        byte[] template = templates()[0];
+        byte[] payload = new byte[payloadSize];
+        for (int i = 0; i < payloadSize; i += template.length) {
+            System.arraycopy(template, 0, payload, i, Math.min(template.length, payloadSize - i));
+        }
+        return ZKCommand.encode(ByteBuffer.allocate(ZKCommand.HEADER_SIZE + payloadSize), CommandCodeEnum.CMD_DATA,
+                0x3A5F, 17, payload);
+    }
+
+    private static void putAscii(ByteBuffer buffer, int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put(offset + i, (byte) text.charAt(i));
+        }
+    }
+
+    private static List<ByteBuffer> slice(ByteBuffer data, int chunkSize) {
+        ByteBuffer[] chunks = new ByteBuffer[(data.remaining() + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            int start = i * chunkSize;
+            chunks[i] = data.slice(start, Math.min(chunkSize, data.limit() - start)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return List.of(chunks);
+    }
+}
@@ -0,0 +1,95 @@
+package ua.varus.iclock.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ua.varus.iclock.utils.TemplateTableParser;
+import ua.varus.iclock.utils.ZKBufferWriter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Шаблоны отпечатков: Base64 в обе стороны (выгрузка в JSON и заданное состояние пользователей),
+ * контрольная сумма буфера перед загрузкой и потоковый разбор таблицы шаблонов.
+ * Шаблоны — записанные с терминала файлы 46633_t1/46633_t2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+    private byte[] template;
+    private String base64;
+    private byte[] base64Ascii;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.template = RecordedFixtures.templates()[0];
+        this.base64 = Base64.getEncoder().encodeToString(this.template);
+        this.base64Ascii = this.base64.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public String encodeToString() {
+        return Base64.getEncoder().encodeToString(this.template);
+    }
+
+    @Benchmark
+    public byte[] decodeString() {
+        return Base64.getDecoder().decode(this.base64);
+    }
+
+    @Benchmark
+    public byte[] decodeAscii() {
+        return Base64.getDecoder().decode(this.base64Ascii);
+    }
+
+    @Benchmark
+    public long bufferChecksum() {
+        return ZKBufferWriter.bufferChecksum(this.template, 0, this.template.length);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void parseTable(Table table, Blackhole blackhole) {
+        TemplateTableParser parser = new TemplateTableParser();
+        TemplateTableParser.TemplateVisitor visitor = (uid, finger, flag, data) -> {
+            blackhole.consume(uid);
+            blackhole.consume(data.remaining());
+        };
+        for (ByteBuffer payload : table.payloads) {
+            parser.feed(payload.duplicate(), visitor);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Table {
+
+        @Param({"1000", "10000"})
+        public int templates;
+
+        List<ByteBuffer> payloads;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.payloads = RecordedFixtures.templateTable(this.templates, AttendanceLogFixtures.CHUNK_SIZE);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ua.varus.iclock.benchmarks;
+
+import com.zkteco.commands.UserInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.varus.iclock.utils.UserTableParser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор таблицы пользователей (72-байтные записи, разрезанные между пакетами по 1024 байта)
+ * через {@link UserTableParser}, как в {@code ZKTerminalV.getAllUsers()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserTableBenchmark {
+
+    @Param({"1000", "10000"})
+    public int users;
+
+    private List<ByteBuffer> payloads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.payloads = RecordedFixtures.userTable(this.users, AttendanceLogFixtures.CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public List<UserInfo> decode() {
+        List<UserInfo> userList = new ArrayList<>(this.users);
+        UserTableParser parser = new UserTableParser();
+        UserTableParser.RecordVisitor visitor =
+                userRecord -> userList.add(UserInfo.encodeUser(userRecord, UserTableParser.RECORD_SIZE));
+        boolean first = true;
+        for (ByteBuffer payload : this.payloads) {
+            ByteBuffer chunk = payload.duplicate();
+            if (first) {
+                // размер таблицы снимает чтение передачи, как в ZKTerminalV.readDataStream
+                chunk.position(4);
+                first = false;
+            }
+            parser.feed(chunk, visitor);
+        }
+        return userList;
+    }
+}
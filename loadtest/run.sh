@@ -0,0 +1,15 @@
+#!/bin/sh
+# Собирает основной модуль и генератор нагрузки и запускает прогон (LoadTestMain).
+# Отчёт печатается и пишется в loadtest/results/<коммит>.json, чтобы сравнивать коммиты.
+# Аргументы передаются генератору: ./loadtest/run.sh --sessions 300 --duration 120 --latency 20
+set -e
+cd "$(dirname "$0")/.."
+./mvnw -B -q install -DskipTests
+./mvnw -B -q -f loadtest/pom.xml package -DskipTests
+commit=$(git rev-parse --short HEAD)
+if ! git diff --quiet HEAD -- src; then
+    commit="$commit-dirty"
+fi
+# фиксированная куча, чтобы скорость выделения и сборки были сравнимы между прогонами
+java -Xms2g -Xmx2g -cp loadtest/target/loadtest.jar ua.varus.iclock.loadtest.LoadTestMain \
+    --json "loadtest/results/$commit.json" "$@"
@@ -0,0 +1,142 @@
+package ua.varus.iclock.loadtest;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKMetrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Задержки и счётчики по каждой команде протокола со всех сессий прогона.
+ * Подключается к терминалам через {@code ZKTerminalV.setMetrics}; запись без блокировок
+ * ({@link Recorder}), гистограмма команды создаётся при первом обмене.
+ */
+final class CommandLatencies implements ZKMetrics {
+
+    /** Микросекунды, до 5 минут, три значащие цифры. */
+    static final long HIGHEST_MICROS = 300_000_000L;
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final CommandCodeEnum[] COMMANDS = CommandCodeEnum.values();
+
+    private final AtomicReferenceArray<Recorder> latency = new AtomicReferenceArray<>(COMMANDS.length);
+    private final LongAdder[] retransmits = adders();
+    private final LongAdder[] timeouts = adders();
+    private final LongAdder[] rejections = adders();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder dataPackets = new LongAdder();
+
+    @Override
+    public void sent(CommandCodeEnum command, int bytes) {
+        this.bytesSent.add(bytes);
+    }
+
+    @Override
+    public void received(CommandCodeEnum command, int bytes) {
+        this.bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void exchange(CommandCodeEnum command, int replyCode, long nanos) {
+        this.recorder(command).recordValue(Math.min(HIGHEST_MICROS, Math.max(0, nanos / 1000)));
+        if (isRejection(replyCode)) {
+            this.rejections[command.ordinal()].increment();
+        }
+    }
+
+    @Override
+    public void chunks(CommandCodeEnum command, int count) {
+        this.dataPackets.add(count);
+    }
+
+    @Override
+    public void retransmit(CommandCodeEnum command) {
+        this.retransmits[command.ordinal()].increment();
+    }
+
+    @Override
+    public void timeout(CommandCodeEnum command) {
+        this.timeouts[command.ordinal()].increment();
+    }
+
+    private Recorder recorder(CommandCodeEnum command) {
+        Recorder recorder = this.latency.get(command.ordinal());
+        if (recorder == null) {
+            this.latency.compareAndSet(command.ordinal(), null, new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS));
+            recorder = this.latency.get(command.ordinal());
+        }
+        return recorder;
+    }
+
+    /**
+     * Сбрасывает всё накопленное — конец прогрева.
+     */
+    void reset() {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            Recorder recorder = this.latency.get(i);
+            if (recorder != null) {
+                recorder.reset();
+            }
+            this.retransmits[i].reset();
+            this.timeouts[i].reset();
+            this.rejections[i].reset();
+        }
+        this.bytesSent.reset();
+        this.bytesReceived.reset();
+        this.dataPackets.reset();
+    }
+
+    /**
+     * Сводка с момента {@link #reset()} (или прошлой сводки) по командам, которые выполнялись.
+     */
+    Map<CommandCodeEnum, LoadReport.CommandStats> snapshot() {
+        Map<CommandCodeEnum, LoadReport.CommandStats> stats = new EnumMap<>(CommandCodeEnum.class);
+        for (CommandCodeEnum command : COMMANDS) {
+            int i = command.ordinal();
+            Recorder recorder = this.latency.get(i);
+            Histogram histogram = recorder != null ? recorder.getIntervalHistogram() : null;
+            long timeouts = this.timeouts[i].sum();
+            if ((histogram == null || histogram.getTotalCount() == 0) && timeouts == 0) {
+                continue;
+            }
+            stats.put(command, new LoadReport.CommandStats(LatencyStats.of(histogram), this.retransmits[i].sum(), timeouts,
+                    this.rejections[i].sum()));
+        }
+        return stats;
+    }
+
+    long bytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    long bytesReceived() {
+        return this.bytesReceived.sum();
+    }
+
+    long dataPackets() {
+        return this.dataPackets.sum();
+    }
+
+    /**
+     * Как и в метриках сервиса: подтверждение, начало передачи и данные — нормальные ответы.
+     */
+    private static boolean isRejection(int replyCode) {
+        return replyCode != CommandReplyCodeEnum.CMD_ACK_OK.getCode()
+                && replyCode != CommandReplyCodeEnum.CMD_PREPARE_DATA.getCode()
+                && replyCode != CommandCodeEnum.CMD_DATA.getCode();
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[COMMANDS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,29 @@
+package ua.varus.iclock.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Распределение задержек в миллисекундах.
+ */
+public record LatencyStats(long count, double p50, double p99, double p999, double max) {
+
+    static final LatencyStats EMPTY = new LatencyStats(0, 0, 0, 0, 0);
+
+    /**
+     * @param micros гистограмма в микросекундах или {@code null}
+     */
+    static LatencyStats of(Histogram micros) {
+        if (micros == null || micros.getTotalCount() == 0) {
+            return EMPTY;
+        }
+        return new LatencyStats(micros.getTotalCount(),
+                millis(micros.getValueAtPercentile(50)),
+                millis(micros.getValueAtPercentile(99)),
+                millis(micros.getValueAtPercentile(99.9)),
+                millis(micros.getMaxValue()));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,347 @@
+package ua.varus.iclock.loadtest;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.command.events.EventCode;
+import org.HdrHistogram.Recorder;
+import ua.varus.iclock.simulator.SimulatedDevice;
+import ua.varus.iclock.utils.FingerTemplate;
+import ua.varus.iclock.utils.TemplateUploadSession;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Генератор нагрузки: держит {@link LoadSettings#sessions()} сессий {@code ZKTerminalV}, каждая в своём
+ * виртуальном потоке, и выполняет в них смешанную нагрузку по весам {@link Workload}.
+ * <p>
+ * Задержки команд снимаются через {@code ZKTerminalV.setMetrics} ({@link CommandLatencies}), задержки
+ * операций — здесь же. После прогрева счётчики сбрасываются, и всё, что попадает в {@link LoadReport},
+ * относится только к окну измерения. Сессия после ошибки закрывается и подключается заново.
+ */
+public final class LoadGenerator {
+
+    private static final Logger log = Logger.getLogger(LoadGenerator.class.getName());
+
+    private static final Workload[] WORKLOADS = Workload.values();
+    /** Пауза после ошибки, чтобы недоступный терминал не превращался в цикл подключений. */
+    private static final long ERROR_PAUSE_MILLIS = 200;
+
+    private final LoadSettings settings;
+    private final boolean inProcessSimulator;
+    private final CommandLatencies commands = new CommandLatencies();
+    private final Recorder[] latency = new Recorder[WORKLOADS.length];
+    private final LongAdder[] succeeded = adders();
+    private final LongAdder[] failed = adders();
+    private final LongAdder[] items = adders();
+    private final AtomicReferenceArray<String> lastError = new AtomicReferenceArray<>(WORKLOADS.length);
+    private final LongAdder connectFailures = new LongAdder();
+    private final int[] cumulativeWeights = new int[WORKLOADS.length];
+    private final byte[][] templates = SimulatedDevice.recordedTemplates();
+
+    private volatile boolean running = true;
+    private volatile boolean measuring;
+
+    /**
+     * @param inProcessSimulator цели — симуляторы в этом же процессе (отмечается в отчёте)
+     */
+    public LoadGenerator(LoadSettings settings, boolean inProcessSimulator) {
+        this.settings = settings;
+        this.inProcessSimulator = inProcessSimulator;
+        int total = 0;
+        for (Workload workload : WORKLOADS) {
+            this.latency[workload.ordinal()] = new Recorder(CommandLatencies.HIGHEST_MICROS, CommandLatencies.SIGNIFICANT_DIGITS);
+            total += Math.max(0, settings.weight(workload));
+            this.cumulativeWeights[workload.ordinal()] = total;
+        }
+    }
+
+    /**
+     * Прогрев, измерение и остановка сессий; блокирует вызывающего на всё время прогона.
+     */
+    public LoadReport run() throws InterruptedException {
+        List<Thread> sessions = new ArrayList<>(this.settings.sessions());
+        for (int i = 0; i < this.settings.sessions(); i++) {
+            int index = i;
+            sessions.add(Thread.ofVirtual().name("load-session-" + i).start(() -> this.runSession(index)));
+        }
+        try {
+            Thread.sleep(this.settings.warmup());
+            return this.measure(sessions);
+        } finally {
+            this.running = false;
+            long joinMillis = (long) this.settings.transport().readTimeoutMillis() * (this.settings.transport().retries() + 2);
+            for (Thread session : sessions) {
+                session.join(joinMillis);
+            }
+        }
+    }
+
+    private LoadReport measure(List<Thread> sessions) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        this.commands.reset();
+        for (int i = 0; i < WORKLOADS.length; i++) {
+            this.latency[i].reset();
+            this.succeeded[i].reset();
+            this.failed[i].reset();
+            this.items[i].reset();
+            this.lastError.set(i, null);
+        }
+        this.connectFailures.reset();
+        threads.resetPeakThreadCount();
+        long allocatedBefore = allocatedBytes(threads);
+        long[] gcBefore = gcTotals();
+        long start = System.nanoTime();
+        this.measuring = true;
+
+        long end = start + this.settings.duration().toNanos();
+        long interval = Math.max(1, this.settings.reportInterval().toNanos());
+        long lastOps = 0;
+        long lastTime = start;
+        double minInterval = Double.MAX_VALUE;
+        double maxInterval = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(interval, end - now));
+            now = System.nanoTime();
+            long ops = this.totalSucceeded();
+            double rate = (ops - lastOps) / ((now - lastTime) / 1e9);
+            // последний неполный интервал короче — в минимум и максимум не берётся
+            if (now - lastTime >= interval / 2) {
+                minInterval = Math.min(minInterval, rate);
+                maxInterval = Math.max(maxInterval, rate);
+            }
+            log.info(String.format("%.0f ops/s, %d failed, %d session(s) alive", rate, this.totalFailed(),
+                    sessions.stream().filter(Thread::isAlive).count()));
+            lastOps = ops;
+            lastTime = now;
+        }
+
+        this.measuring = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes(threads) - allocatedBefore;
+        long[] gcAfter = gcTotals();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        LoadReport.JvmStats jvm = new LoadReport.JvmStats(
+                allocated < 0 ? -1 : allocated / 1e6 / seconds, allocated,
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1],
+                heap.getUsed(), heap.getMax(),
+                threads.getThreadCount(), threads.getPeakThreadCount(), threads.getDaemonThreadCount(),
+                (int) sessions.stream().filter(Thread::isAlive).count(),
+                Runtime.getRuntime().availableProcessors());
+
+        Map<Workload, LoadReport.WorkloadStats> workloads = new EnumMap<>(Workload.class);
+        for (Workload workload : WORKLOADS) {
+            int i = workload.ordinal();
+            if (this.settings.weight(workload) <= 0) {
+                continue;
+            }
+            long ok = this.succeeded[i].sum();
+            long count = this.items[i].sum();
+            workloads.put(workload, new LoadReport.WorkloadStats(ok, this.failed[i].sum(), ok / seconds,
+                    count, count / seconds, LatencyStats.of(this.latency[i].getIntervalHistogram()), this.lastError.get(i)));
+        }
+        long operations = this.totalSucceeded();
+        return new LoadReport(this.settings.sessions(), this.settings.targets().size(),
+                this.settings.transport().protocol().name(), this.inProcessSimulator, seconds,
+                operations, operations / seconds,
+                minInterval == Double.MAX_VALUE ? operations / seconds : minInterval,
+                maxInterval == 0 ? operations / seconds : maxInterval,
+                this.connectFailures.sum(), workloads, this.commands.snapshot(),
+                this.commands.bytesSent(), this.commands.bytesReceived(), this.commands.dataPackets(), jvm);
+    }
+
+    private void runSession(int index) {
+        InetSocketAddress target = this.settings.targets().get(index % this.settings.targets().size());
+        ZKTerminalV terminal = new ZKTerminalV(target.getHostString(), target.getPort(), this.settings.transport());
+        terminal.setMetrics(this.commands);
+        LongAdder events = this.items[Workload.EVENTS.ordinal()];
+        terminal.events().subscribe(EventCode.EF_ATTLOG.getCode(), event -> {
+            if (this.measuring) {
+                events.increment();
+            }
+        });
+        SplittableRandom random = new SplittableRandom(index);
+        try {
+            while (this.running) {
+                if (!terminal.isConnected() && !this.connect(terminal)) {
+                    pause(ERROR_PAUSE_MILLIS);
+                    continue;
+                }
+                Workload workload = this.pick(random);
+                long start = System.nanoTime();
+                try {
+                    long count = this.execute(workload, terminal, random);
+                    if (this.measuring) {
+                        this.latency[workload.ordinal()].recordValue(
+                                Math.min(CommandLatencies.HIGHEST_MICROS, (System.nanoTime() - start) / 1000));
+                        this.succeeded[workload.ordinal()].increment();
+                        if (workload != Workload.EVENTS) {
+                            this.items[workload.ordinal()].add(count);
+                        }
+                    }
+                } catch (Exception e) {
+                    if (this.measuring) {
+                        this.failed[workload.ordinal()].increment();
+                        this.lastError.set(workload.ordinal(), e.toString());
+                    }
+                    log.log(Level.FINE, "Session " + index + " " + workload + " failed", e);
+                    terminal.socketClose();
+                    pause(ERROR_PAUSE_MILLIS);
+                }
+                if (this.settings.thinkTime().isPositive()) {
+                    pause(this.settings.thinkTime().toMillis());
+                }
+            }
+        } finally {
+            if (terminal.isConnected()) {
+                try {
+                    terminal.disconnect();
+                } catch (IOException e) {
+                    terminal.socketClose();
+                }
+            }
+        }
+    }
+
+    private boolean connect(ZKTerminalV terminal) {
+        try {
+            CommandReplyCodeEnum code = terminal.connect().getCode();
+            if (code != CommandReplyCodeEnum.CMD_ACK_OK) {
+                throw new IOException("CMD_CONNECT replied " + code);
+            }
+            if (this.settings.weight(Workload.EVENTS) > 0) {
+                terminal.enableRealtime(EventCode.EF_ATTLOG);
+            }
+            return true;
+        } catch (Exception e) {
+            if (this.measuring) {
+                this.connectFailures.increment();
+            }
+            log.log(Level.FINE, "Connect to " + terminal.getIp() + ":" + terminal.getPort() + " failed", e);
+            terminal.socketClose();
+            return false;
+        }
+    }
+
+    /**
+     * @return сколько элементов перенесла операция (записей, пользователей, шаблонов)
+     */
+    private long execute(Workload workload, ZKTerminalV terminal, SplittableRandom random) throws Exception {
+        switch (workload) {
+            case ATTENDANCE -> {
+                long[] records = new long[1];
+                terminal.streamAttendanceLog((buffer, offset) -> records[0]++);
+                return records[0];
+            }
+            case USERS -> {
+                terminal.invalidateUserCache();
+                return terminal.getAllUsers().size();
+            }
+            case TEMPLATES -> {
+                try (TemplateUploadSession upload = terminal.beginTemplateUpload()) {
+                    for (int i = 0; i < this.settings.uploadBatch(); i++) {
+                        byte[] template = this.templates[random.nextInt(this.templates.length)];
+                        upload.writeTemplate(new FingerTemplate(1 + random.nextInt(this.settings.uploadUids()),
+                                random.nextInt(10), 1, template));
+                    }
+                    if (upload.failures() > 0) {
+                        throw new IOException(upload.failures() + " of " + this.settings.uploadBatch() + " template(s) failed");
+                    }
+                }
+                return this.settings.uploadBatch();
+            }
+            case STATUS -> {
+                terminal.getDeviceStatus();
+                terminal.getSerialNumber();
+                return 1;
+            }
+            case EVENTS -> {
+                return terminal.pollEvents((int) this.settings.eventWindow().toMillis());
+            }
+        }
+        throw new IllegalStateException("Unknown workload " + workload);
+    }
+
+    private Workload pick(SplittableRandom random) {
+        int value = random.nextInt(this.cumulativeWeights[WORKLOADS.length - 1]);
+        for (Workload workload : WORKLOADS) {
+            if (value < this.cumulativeWeights[workload.ordinal()]) {
+                return workload;
+            }
+        }
+        return WORKLOADS[WORKLOADS.length - 1];
+    }
+
+    private long totalSucceeded() {
+        long total = 0;
+        for (LongAdder adder : this.succeeded) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    private long totalFailed() {
+        long total = 0;
+        for (LongAdder adder : this.failed) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Байты, выделенные в куче всеми потоками (и виртуальными — через их несущие потоки); -1, если не поддерживается.
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean extended && extended.isThreadAllocatedMemorySupported()) {
+            return extended.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /**
+     * @return [число сборок, время сборок в мс] по всем сборщикам
+     */
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[WORKLOADS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
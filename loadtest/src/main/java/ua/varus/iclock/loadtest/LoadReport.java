@@ -0,0 +1,96 @@
+package ua.varus.iclock.loadtest;
+
+import ua.varus.iclock.utils.CommandCodeEnum;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Итог прогона нагрузки за окно измерения (без прогрева).
+ *
+ * @param sessions           одновременных сессий
+ * @param targets            терминалов (или симуляторов), по которым распределены сессии
+ * @param inProcessSimulator симулятор работал в том же процессе — его потоки и выделения памяти входят в показатели JVM
+ * @param seconds            длительность окна измерения
+ * @param operations         успешных операций всех видов
+ * @param opsPerSecond       средняя пропускная способность
+ * @param minIntervalOps     худший промежуточный интервал, операций в секунду
+ * @param maxIntervalOps     лучший промежуточный интервал, операций в секунду
+ * @param connectFailures    неудачных подключений (включая переподключения после ошибок)
+ */
+public record LoadReport(int sessions, int targets, String protocol, boolean inProcessSimulator, double seconds,
+                         long operations, double opsPerSecond, double minIntervalOps, double maxIntervalOps,
+                         long connectFailures, Map<Workload, WorkloadStats> workloads,
+                         Map<CommandCodeEnum, CommandStats> commands, long bytesSent, long bytesReceived,
+                         long dataPackets, JvmStats jvm) {
+
+    /**
+     * @param items          что перенесла операция: записи журнала, пользователи, шаблоны, события
+     * @param latency        время операции целиком
+     * @param lastError      текст последней ошибки или {@code null}
+     */
+    public record WorkloadStats(long succeeded, long failed, double opsPerSecond, long items, double itemsPerSecond,
+                                LatencyStats latency, String lastError) {
+    }
+
+    /**
+     * @param latency от первой отправки команды до ответа с её номером
+     */
+    public record CommandStats(LatencyStats latency, long retransmits, long timeouts, long rejections) {
+    }
+
+    /**
+     * @param allocationMbPerSecond выделение памяти в куче всеми потоками, МБ/с; -1, если JVM его не считает
+     * @param platformThreads       платформенных потоков в конце окна
+     * @param peakPlatformThreads   наибольшее число платформенных потоков за окно
+     * @param sessionThreads        виртуальных потоков сессий
+     */
+    public record JvmStats(double allocationMbPerSecond, long allocatedBytes, long gcCount, long gcMillis,
+                           long heapUsedBytes, long heapMaxBytes, int platformThreads, int peakPlatformThreads,
+                           int daemonThreads, int sessionThreads, int availableProcessors) {
+    }
+
+    public void print(PrintStream out) {
+        out.printf(Locale.ROOT, "%d session(s) over %d target(s), %s, %.1f s%s%n", this.sessions, this.targets,
+                this.protocol, this.seconds, this.inProcessSimulator ? ", simulator in process" : "");
+        out.printf(Locale.ROOT, "throughput: %.1f ops/s (intervals %.1f .. %.1f), %d operations, %d connect failure(s)%n",
+                this.opsPerSecond, this.minIntervalOps, this.maxIntervalOps, this.operations, this.connectFailures);
+        out.printf(Locale.ROOT, "traffic: %.1f MB sent, %.1f MB received, %d data packets%n",
+                this.bytesSent / 1e6, this.bytesReceived / 1e6, this.dataPackets);
+
+        out.println();
+        out.printf(Locale.ROOT, "%-12s %10s %8s %10s %12s %10s %10s %10s %10s%n",
+                "workload", "ok", "failed", "ops/s", "items/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<Workload, WorkloadStats> entry : this.workloads.entrySet()) {
+            WorkloadStats stats = entry.getValue();
+            out.printf(Locale.ROOT, "%-12s %10d %8d %10.1f %12.1f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(),
+                    stats.succeeded(), stats.failed(), stats.opsPerSecond(), stats.itemsPerSecond(),
+                    stats.latency().p50(), stats.latency().p99(), stats.latency().p999(), stats.latency().max());
+        }
+        for (Map.Entry<Workload, WorkloadStats> entry : this.workloads.entrySet()) {
+            if (entry.getValue().lastError() != null) {
+                out.println("  " + entry.getKey() + " last error: " + entry.getValue().lastError());
+            }
+        }
+
+        out.println();
+        out.printf(Locale.ROOT, "%-22s %10s %10s %10s %10s %10s %8s %8s %8s%n",
+                "command", "count", "p50 ms", "p99 ms", "p999 ms", "max ms", "retx", "timeout", "reject");
+        for (Map.Entry<CommandCodeEnum, CommandStats> entry : this.commands.entrySet()) {
+            CommandStats stats = entry.getValue();
+            LatencyStats latency = stats.latency();
+            out.printf(Locale.ROOT, "%-22s %10d %10.2f %10.2f %10.2f %10.2f %8d %8d %8d%n", entry.getKey(),
+                    latency.count(), latency.p50(), latency.p99(), latency.p999(), latency.max(),
+                    stats.retransmits(), stats.timeouts(), stats.rejections());
+        }
+
+        out.println();
+        out.printf(Locale.ROOT, "heap: %.1f MB/s allocated, %d GC(s) taking %d ms, %.0f of %.0f MB used%n",
+                this.jvm.allocationMbPerSecond(), this.jvm.gcCount(), this.jvm.gcMillis(),
+                this.jvm.heapUsedBytes() / 1e6, this.jvm.heapMaxBytes() / 1e6);
+        out.printf(Locale.ROOT, "threads: %d platform (peak %d, %d daemon), %d session virtual thread(s), %d CPU(s)%n",
+                this.jvm.platformThreads(), this.jvm.peakPlatformThreads(), this.jvm.daemonThreads(),
+                this.jvm.sessionThreads(), this.jvm.availableProcessors());
+    }
+}
@@ -0,0 +1,60 @@
+package ua.varus.iclock.loadtest;
+
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Параметры прогона нагрузки.
+ *
+ * @param sessions       сколько сессий держать одновременно (одна сессия — один {@code ZKTerminalV} в своём потоке)
+ * @param targets        адреса терминалов или симуляторов; сессии распределяются по ним по кругу
+ * @param transport      протокол и таймауты сессий
+ * @param weights        доли операций смешанной нагрузки; операции с весом 0 не выполняются
+ * @param warmup         прогрев: операции выполняются, но в отчёт не попадают
+ * @param duration       длительность измерения
+ * @param thinkTime      пауза сессии между операциями
+ * @param eventWindow    сколько ждать событий в одной операции {@link Workload#EVENTS}
+ * @param uploadUids     шаблоны загружаются пользователям с uid от 1 до этого значения
+ * @param uploadBatch    шаблонов в одной сессии загрузки
+ * @param reportInterval период промежуточного вывода пропускной способности
+ */
+public record LoadSettings(int sessions, List<InetSocketAddress> targets, ZKTransportSettings transport,
+                           Map<Workload, Integer> weights, Duration warmup, Duration duration, Duration thinkTime,
+                           Duration eventWindow, int uploadUids, int uploadBatch, Duration reportInterval) {
+
+    public LoadSettings {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("sessions must be positive: " + sessions);
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one target is required");
+        }
+        targets = List.copyOf(targets);
+        weights = new EnumMap<>(weights);
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("At least one workload must have a positive weight: " + weights);
+        }
+    }
+
+    /**
+     * Смесь по умолчанию: в основном короткие запросы, реже выгрузки и загрузки.
+     */
+    public static Map<Workload, Integer> defaultWeights() {
+        Map<Workload, Integer> weights = new EnumMap<>(Workload.class);
+        weights.put(Workload.ATTENDANCE, 2);
+        weights.put(Workload.USERS, 1);
+        weights.put(Workload.TEMPLATES, 1);
+        weights.put(Workload.STATUS, 6);
+        weights.put(Workload.EVENTS, 2);
+        return weights;
+    }
+
+    public int weight(Workload workload) {
+        return this.weights.getOrDefault(workload, 0);
+    }
+}
@@ -0,0 +1,103 @@
+package ua.varus.iclock.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ua.varus.iclock.simulator.SimulatedFleet;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Прогон нагрузки из командной строки:
+ * <pre>
+ * java -cp loadtest/target/loadtest.jar ua.varus.iclock.loadtest.LoadTestMain \
+ *      --sessions 300 --duration 60 --warmup 10 --protocol udp \
+ *      --mix attendance=2,users=1,templates=1,status=6,events=2 --json loadtest/results/run.json
+ * </pre>
+ * Без {@code --targets host:port,...} в этом же процессе запускаются симуляторы ({@code --devices},
+ * по умолчанию по одному на сессию) с параметрами {@link SimulatorMain}: {@code --users --attlog --latency --loss --events}.
+ * Для чистых цифр памяти и потоков клиента симуляторы лучше запускать отдельным процессом.
+ * Длительности — в секундах, {@code --think} и таймауты — в миллисекундах.
+ */
+public final class LoadTestMain {
+
+    private LoadTestMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = SimulatorMain.parse(args);
+        int sessions = SimulatorMain.intOption(options, "sessions", 10);
+        ZKTransportSettings transport = new ZKTransportSettings(
+                ZKTransportSettings.Protocol.valueOf(options.getOrDefault("protocol", "udp").toUpperCase(Locale.ROOT)),
+                SimulatorMain.intOption(options, "connect-timeout", 5000),
+                SimulatorMain.intOption(options, "read-timeout", 3000),
+                SimulatorMain.intOption(options, "retries", 3));
+
+        SimulatedFleet fleet = null;
+        List<InetSocketAddress> targets = new ArrayList<>();
+        String targetList = options.get("targets");
+        if (targetList != null) {
+            for (String target : targetList.split(",")) {
+                int colon = target.lastIndexOf(':');
+                targets.add(colon < 0 ? new InetSocketAddress(target, 4370)
+                        : new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1))));
+            }
+        } else {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            fleet = SimulatedFleet.start(loopback, 0, SimulatorMain.intOption(options, "devices", sessions),
+                    SimulatorMain.simulatorSettings(options));
+            for (int port : fleet.ports()) {
+                targets.add(new InetSocketAddress(loopback.getHostAddress(), port));
+            }
+        }
+
+        LoadSettings settings = new LoadSettings(sessions, targets, transport, mix(options.get("mix")),
+                Duration.ofSeconds(SimulatorMain.intOption(options, "warmup", 10)),
+                Duration.ofSeconds(SimulatorMain.intOption(options, "duration", 60)),
+                Duration.ofMillis(SimulatorMain.intOption(options, "think", 0)),
+                Duration.ofMillis(SimulatorMain.intOption(options, "event-window", 500)),
+                SimulatorMain.intOption(options, "upload-uids", 100),
+                SimulatorMain.intOption(options, "upload-batch", 10),
+                Duration.ofSeconds(SimulatorMain.intOption(options, "report-interval", 5)));
+        try {
+            LoadReport report = new LoadGenerator(settings, fleet != null).run();
+            report.print(System.out);
+            String json = options.get("json");
+            if (json != null) {
+                File file = new File(json);
+                if (file.getParentFile() != null) {
+                    file.getParentFile().mkdirs();
+                }
+                new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+            }
+        } finally {
+            if (fleet != null) {
+                fleet.close();
+            }
+        }
+    }
+
+    /**
+     * {@code attendance=2,status=6,...}; не названные операции получают вес 0.
+     */
+    static Map<Workload, Integer> mix(String text) {
+        if (text == null) {
+            return LoadSettings.defaultWeights();
+        }
+        Map<Workload, Integer> weights = new EnumMap<>(Workload.class);
+        for (String part : text.split(",")) {
+            String[] pair = part.split("=", 2);
+            weights.put(Workload.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)),
+                    pair.length == 2 ? Integer.parseInt(pair[1].trim()) : 1);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,89 @@
+package ua.varus.iclock.loadtest;
+
+import ua.varus.iclock.simulator.SimulatedFleet;
+import ua.varus.iclock.simulator.SimulatorSettings;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+/**
+ * Запуск симулированных терминалов отдельным процессом:
+ * <pre>
+ * java -jar loadtest/target/loadtest.jar --devices 50 --port 14370 --users 2000 --attlog 100000 \
+ *      --latency 15 --jitter 5 --loss 0.01 --events 1000
+ * </pre>
+ * Задержки в миллисекундах; {@code --events} — период отметок реального времени, 0 — без них.
+ * Процесс работает до Ctrl+C.
+ */
+public final class SimulatorMain {
+
+    private static final Logger log = Logger.getLogger(SimulatorMain.class.getName());
+
+    private SimulatorMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        SimulatorSettings settings = simulatorSettings(options);
+        int devices = intOption(options, "devices", 1);
+        int port = intOption(options, "port", 4370);
+        InetAddress bind = InetAddress.getByName(options.getOrDefault("bind", "127.0.0.1"));
+
+        SimulatedFleet fleet = SimulatedFleet.start(bind, port, devices, settings);
+        log.info(devices + " simulated device(s) on " + bind.getHostAddress() + ", ports " + fleet.ports());
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            fleet.close();
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+
+    /**
+     * Параметры симулятора из {@code --users --fingers --attlog --latency --jitter --loss --events --comm-key --seed}.
+     */
+    static SimulatorSettings simulatorSettings(Map<String, String> options) {
+        SimulatorSettings defaults = SimulatorSettings.DEFAULT;
+        return new SimulatorSettings(
+                intOption(options, "users", defaults.users()),
+                intOption(options, "fingers", defaults.fingersPerUser()),
+                intOption(options, "attlog", defaults.attlogRecords()),
+                Duration.ofMillis(intOption(options, "latency", 0)),
+                Duration.ofMillis(intOption(options, "jitter", 0)),
+                Double.parseDouble(options.getOrDefault("loss", "0")),
+                Duration.ofMillis(intOption(options, "events", 0)),
+                intOption(options, "comm-key", 0),
+                Long.parseLong(options.getOrDefault("seed", Long.toString(defaults.seed()))));
+    }
+
+    /**
+     * {@code --key value} и {@code --key=value}.
+     */
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (i + 1 < args.length) {
+                options.put(arg.substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+        }
+        return options;
+    }
+
+    static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,18 @@
+package ua.varus.iclock.loadtest;
+
+/**
+ * Операции смешанной нагрузки; каждая выполняется через публичный API {@code ZKTerminalV}.
+ */
+public enum Workload {
+
+    /** Полный журнал посещений потоком ({@code streamAttendanceLog}). */
+    ATTENDANCE,
+    /** Таблица пользователей без кэша ({@code invalidateUserCache} + {@code getAllUsers}). */
+    USERS,
+    /** Пакетная загрузка шаблонов ({@code beginTemplateUpload}); только для симулятора или тестового терминала. */
+    TEMPLATES,
+    /** Короткие запросы: {@code getDeviceStatus} и {@code getSerialNumber}. */
+    STATUS,
+    /** Ожидание событий реального времени ({@code pollEvents}); сессия подписывается на EF_ATTLOG при подключении. */
+    EVENTS
+}
@@ -0,0 +1,53 @@
+package ua.varus.iclock.loadtest;
+
+import org.junit.jupiter.api.Test;
+import ua.varus.iclock.simulator.SimulatedFleet;
+import ua.varus.iclock.simulator.SimulatorSettings;
+import ua.varus.iclock.transport.ZKTransportSettings;
+import ua.varus.iclock.utils.CommandCodeEnum;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoadGeneratorTest {
+
+    @Test
+    void mixedWorkloadIsReportedPerWorkloadAndCommand() throws Exception {
+        SimulatorSettings simulator = SimulatorSettings.DEFAULT
+                .withRecords(200, 1, 2000)
+                .withEventInterval(Duration.ofMillis(20));
+        try (SimulatedFleet fleet = SimulatedFleet.start(InetAddress.getLoopbackAddress(), 0, 2, simulator)) {
+            List<InetSocketAddress> targets = fleet.ports().stream()
+                    .map(port -> new InetSocketAddress("127.0.0.1", port))
+                    .toList();
+            // USERS не входит: в тестовой сборке UserInfo из ZKTeco4J заглушечный
+            LoadSettings settings = new LoadSettings(4, targets,
+                    new ZKTransportSettings(ZKTransportSettings.Protocol.UDP, 2000, 2000, 3),
+                    LoadTestMain.mix("attendance=1,templates=1,status=4,events=1"),
+                    Duration.ofMillis(200), Duration.ofSeconds(1), Duration.ZERO, Duration.ofMillis(50),
+                    100, 2, Duration.ofMillis(500));
+
+            LoadReport report = new LoadGenerator(settings, true).run();
+
+            assertTrue(report.operations() > 0);
+            assertEquals(0, report.connectFailures());
+            for (LoadReport.WorkloadStats stats : report.workloads().values()) {
+                assertEquals(0, stats.failed());
+                assertNull(stats.lastError());
+            }
+            LoadReport.WorkloadStats attendance = report.workloads().get(Workload.ATTENDANCE);
+            assertTrue(attendance.items() >= 2000 * attendance.succeeded());
+            assertTrue(report.workloads().get(Workload.EVENTS).items() > 0);
+            assertTrue(report.commands().get(CommandCodeEnum.CMD_GET_FREE_SIZES).latency().count() > 0);
+            assertTrue(report.commands().get(CommandCodeEnum.CMD_TMP_WRITE).latency().count() > 0);
+            assertEquals(4, report.jvm().sessionThreads());
+            assertTrue(report.jvm().allocatedBytes() > 0);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ua.varus.iclock;
+
+import com.zkteco.command.events.EventCode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.varus.iclock.config.ZktecoProperties;
+import ua.varus.iclock.device.DeviceRegistry;
+import ua.varus.iclock.device.FleetExecutor;
+import ua.varus.iclock.device.FleetResult;
+import ua.varus.iclock.device.ManagedDevice;
+import ua.varus.iclock.ingest.AttendancePipeline;
+import ua.varus.iclock.ingest.AttendancePunch;
+import ua.varus.iclock.utils.AttendanceSyncStore;
+import ua.varus.iclock.utils.ZKEvent;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+
+/**
+ * Передача отметок всех терминалов в {@link AttendancePipeline}: события EF_ATTLOG — сразу
+ * по приходу, журналы — инкрементальной выгрузкой. Отметка синхронизации журнала сдвигается
+ * только после того, как приёмник подтвердил запись выгруженных отметок.
+ */
+@Slf4j
+@Service
+public class AttendanceIngestService {
+
+    private final DeviceRegistry deviceRegistry;
+    private final FleetExecutor executor;
+    private final AttendanceSyncStore attendanceSyncStore;
+    private final AttendancePipeline pipeline;
+    private final RealtimeEventService realtimeEventService;
+    private final Duration jobTimeout;
+    private AutoCloseable subscription;
+
+    public AttendanceIngestService(DeviceRegistry deviceRegistry, FleetExecutor executor,
+                                   AttendanceSyncStore attendanceSyncStore, AttendancePipeline pipeline,
+                                   RealtimeEventService realtimeEventService, ZktecoProperties properties) {
+        this.deviceRegistry = deviceRegistry;
+        this.executor = executor;
+        this.attendanceSyncStore = attendanceSyncStore;
+        this.pipeline = pipeline;
+        this.realtimeEventService = realtimeEventService;
+        this.jobTimeout = properties.getFleet().getJobTimeout();
+    }
+
+    @PostConstruct
+    public void start() {
+        this.subscription = this.realtimeEventService.subscribe(EventCode.EF_ATTLOG, this::onPunch);
+    }
+
+    /**
+     * Инкрементальная выгрузка журналов всех устройств в конвейер.
+     *
+     * @return число новых записей по каждому устройству
+     */
+    public FleetResult<Integer> ingestAll() throws InterruptedException {
+        return this.executor.runEach("ingest", this.deviceRegistry.devices(), device -> terminal -> {
+            String serial = device.serialNumber() != null ? device.serialNumber() : terminal.getSerialNumber();
+            return terminal.syncAttendanceLog(this.attendanceSyncStore, (record, offset) -> {
+                try {
+                    this.pipeline.offer(AttendancePunch.of(serial, record, offset));
+                } catch (InterruptedIOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, this.pipeline);
+        }, this.jobTimeout);
+    }
+
+    /**
+     * Выгрузка по расписанию {@code zkteco.ingest.cron}.
+     */
+    @Scheduled(cron = "${zkteco.ingest.cron:-}")
+    public void scheduledIngest() throws InterruptedException {
+        FleetResult<Integer> result = this.ingestAll();
+        log.info("attendance ingest: {} device(s) succeeded, {} failed in {}",
+                result.succeeded().size(), result.failed().size(), result.elapsed());
+    }
+
+    private void onPunch(String deviceName, ZKEvent event) {
+        ManagedDevice device = this.deviceRegistry.get(deviceName);
+        String serial = device.serialNumber();
+        AttendancePunch punch = serial != null ? AttendancePunch.of(serial, event, device.cachedUsers()) : null;
+        if (punch == null) {
+            // отметка останется в журнале устройства и придёт при следующей выгрузке
+            log.debug("{}: punch event without user ID, time or serial number skipped", deviceName);
+            return;
+        }
+        try {
+            this.pipeline.offer(punch);
+        } catch (InterruptedIOException e) {
+            // отметка останется в журнале устройства и придёт при следующей выгрузке
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        if (this.subscription != null) {
+            this.subscription.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ua.varus.iclock;
+
+import com.zkteco.command.events.EventCode;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import ua.varus.iclock.config.ZktecoProperties;
+import ua.varus.iclock.device.DeviceEvent;
+import ua.varus.iclock.device.DeviceRegistry;
+
+import java.time.Duration;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api")
+public class DeviceEventController {
+
+    private final RealtimeEventService realtimeEventService;
+    private final DeviceRegistry deviceRegistry;
+    private final ZktecoProperties.Realtime settings;
+
+    public DeviceEventController(RealtimeEventService realtimeEventService, DeviceRegistry deviceRegistry,
+                                 ZktecoProperties properties) {
+        this.realtimeEventService = realtimeEventService;
+        this.deviceRegistry = deviceRegistry;
+        this.settings = properties.getRealtime();
+    }
+
+    /**
+     * События всех терминалов в виде Server-Sent Events; {@code types} — фильтр по кодам EventCode
+     * (по умолчанию все регистрируемые на устройствах). Коды вне {@code zkteco.realtime.events}
+     * устройства не присылают, поэтому такой фильтр — ошибка запроса (400).
+     */
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<DeviceEvent>> events(@RequestParam(required = false) List<EventCode> types) {
+        return this.stream(null, types);
+    }
+
+    /**
+     * События одного терминала; для устройства, которого нет в реестре, — 404.
+     */
+    @GetMapping(path = "/devices/{device}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<DeviceEvent>> deviceEvents(@PathVariable String device,
+                                                           @RequestParam(required = false) List<EventCode> types) {
+        return this.stream(device, types);
+    }
+
+    private Flux<ServerSentEvent<DeviceEvent>> stream(String device, List<EventCode> types) {
+        if (device != null && !this.deviceRegistry.contains(device)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown device: " + device);
+        }
+        int mask = this.settings.eventMask();
+        if (types != null && !types.isEmpty()) {
+            mask = 0;
+            for (EventCode type : types) {
+                if (!this.settings.getEvents().contains(type)) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                            "Event " + type + " is not registered on devices, expected one of " + this.settings.getEvents());
+                }
+                mask |= type.getCode();
+            }
+        }
+        Flux<ServerSentEvent<DeviceEvent>> events = this.realtimeEventService.stream(device, mask)
+                .map(event -> ServerSentEvent.builder(event).event(event.type()).build());
+        Duration heartbeat = this.settings.getHeartbeat();
+        Flux<ServerSentEvent<DeviceEvent>> keepAlive = Flux.interval(heartbeat, heartbeat)
+                .map(tick -> ServerSentEvent.<DeviceEvent>builder().comment("keep-alive").build());
+        return Flux.merge(events, keepAlive);
+    }
+}
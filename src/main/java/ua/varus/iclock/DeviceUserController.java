@@ -0,0 +1,29 @@
+package ua.varus.iclock;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ua.varus.iclock.device.DesiredState;
+import ua.varus.iclock.device.UserSyncReport;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+@RestController
+@RequestMapping("/api/devices")
+@RequiredArgsConstructor
+public class DeviceUserController {
+
+    private final UserSyncService userSyncService;
+
+    /**
+     * Приводит пользователей терминала к переданному состоянию; в ответе — что было изменено и что не удалось.
+     */
+    @PutMapping("/{device}/users")
+    public UserSyncReport putUsers(@PathVariable String device, @RequestBody DesiredState state) throws IOException, ParseException {
+        return this.userSyncService.reconcile(device, state);
+    }
+}
@@ -0,0 +1,125 @@
+package ua.varus.iclock;
+
+import com.zkteco.commands.AttendanceRecord;
+import com.zkteco.commands.UserInfo;
+import com.zkteco.commands.ZKCommandReply;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ua.varus.iclock.config.ZktecoProperties;
+import ua.varus.iclock.device.DeviceCall;
+import ua.varus.iclock.device.DeviceRegistry;
+import ua.varus.iclock.device.FleetExecutor;
+import ua.varus.iclock.device.FleetResult;
+import ua.varus.iclock.device.UserSyncReport;
+import ua.varus.iclock.device.UserReplicator;
+import ua.varus.iclock.utils.AttendanceSyncStore;
+import ua.varus.iclock.utils.DeviceInfo;
+import ua.varus.iclock.utils.DeviceSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Групповые операции над всеми терминалами реестра. Устройства обрабатываются параллельно
+ * на виртуальных потоках, поэтому общий прогон занимает примерно столько, сколько самое
+ * медленное устройство, а не сумму по всем.
+ */
+@Slf4j
+@Service
+public class FleetOperationsService {
+
+    private final DeviceRegistry deviceRegistry;
+    private final AttendanceSyncStore attendanceSyncStore;
+    private final FleetExecutor executor;
+    private final UserReplicator replicator;
+    private final Duration jobTimeout;
+    private final Path backupDir;
+    private final int backupRetain;
+
+    public FleetOperationsService(DeviceRegistry deviceRegistry, AttendanceSyncStore attendanceSyncStore,
+                                  FleetExecutor executor, ZktecoProperties properties) {
+        this.deviceRegistry = deviceRegistry;
+        this.attendanceSyncStore = attendanceSyncStore;
+        this.executor = executor;
+        this.replicator = new UserReplicator(this.executor);
+        this.jobTimeout = properties.getFleet().getJobTimeout();
+        this.backupDir = Path.of(properties.getFleet().getBackupDir());
+        this.backupRetain = properties.getFleet().getBackupRetain();
+    }
+
+    /**
+     * Произвольная задача на каждом устройстве.
+     */
+    public <T> FleetResult<T> runOnAll(String job, DeviceCall<T> call) throws InterruptedException {
+        return this.executor.run(job, this.deviceRegistry.devices(), call, this.jobTimeout);
+    }
+
+    /**
+     * Инкрементальная выгрузка журналов посещений.
+     *
+     * @param handler получает имя устройства и запись; вызывается из нескольких потоков одновременно
+     * @return число новых записей по каждому устройству
+     */
+    public FleetResult<Integer> pullAttendance(BiConsumer<String, AttendanceRecord> handler) throws InterruptedException {
+        return this.executor.runEach("attendance", this.deviceRegistry.devices(), device -> terminal ->
+                terminal.syncAttendanceRecords(this.attendanceSyncStore,
+                        record -> handler.accept(device.getName(), record)), this.jobTimeout);
+    }
+
+    /**
+     * Какие устройства отвечают; проверка идёт мимо сессий устройств и не ждёт их текущих команд.
+     *
+     * @return имя устройства -> ответило ли оно (устройства с TCP не проверяются)
+     */
+    public Map<String, Boolean> probe() throws IOException, InterruptedException {
+        try {
+            return this.deviceRegistry.probe().get(this.jobTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Fleet probe failed", e);
+        }
+    }
+
+    public FleetResult<List<UserInfo>> fetchUsers() throws InterruptedException {
+        return this.runOnAll("users", terminal -> terminal.getAllUsers());
+    }
+
+    /**
+     * Сведения обо всех устройствах; в пределах TTL параметры не перечитываются, а берутся из кэша терминала.
+     */
+    public FleetResult<DeviceInfo> deviceInfo() throws InterruptedException {
+        return this.runOnAll("info", terminal -> terminal.getDeviceInfo());
+    }
+
+    public FleetResult<ZKCommandReply> syncTime() throws InterruptedException {
+        return this.runOnAll("time", terminal -> terminal.syncTime());
+    }
+
+    /**
+     * Снимки всех устройств параллельно, по каталогу на серийный номер в каталоге резервных копий
+     * (см. {@link DeviceSnapshot}); у каждого устройства хранятся последние {@code backup-retain} снимков.
+     */
+    public FleetResult<DeviceSnapshot.Summary> backup() throws InterruptedException {
+        try {
+            Files.createDirectories(this.backupDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create backup directory " + this.backupDir, e);
+        }
+        return this.runOnAll("backup", terminal -> DeviceSnapshot.write(terminal, this.backupDir, this.backupRetain));
+    }
+
+    /**
+     * Копирует пользователей и отпечатки с устройства {@code sourceName} на все остальные устройства реестра.
+     */
+    public FleetResult<UserSyncReport> replicateUsers(String sourceName) throws IOException, ParseException, InterruptedException {
+        return this.replicator.replicate(this.deviceRegistry.get(sourceName), this.deviceRegistry.devices(), this.jobTimeout);
+    }
+}
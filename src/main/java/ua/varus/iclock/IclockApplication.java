@@ -3,8 +3,10 @@ package ua.varus.iclock;
 import lombok.RequiredArgsConstructor;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @RequiredArgsConstructor
+@EnableScheduling
 @SpringBootApplication
 public class IclockApplication {
 
@@ -0,0 +1,137 @@
+package ua.varus.iclock;
+
+import com.zkteco.command.events.EventCode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import ua.varus.iclock.config.ZktecoProperties;
+import ua.varus.iclock.device.DeviceEvent;
+import ua.varus.iclock.device.DeviceEventListener;
+import ua.varus.iclock.device.DeviceEventPump;
+import ua.varus.iclock.device.DeviceRegistry;
+import ua.varus.iclock.device.ManagedDevice;
+import ua.varus.iclock.utils.ZKEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * События реального времени со всех терминалов (отметки, подтверждения, касания сканера, тревоги)
+ * вместо периодического опроса журнала. На каждое устройство — свой {@link DeviceEventPump};
+ * подписчики получают события с указанием устройства.
+ */
+@Slf4j
+@Service
+public class RealtimeEventService {
+
+    private final DeviceRegistry deviceRegistry;
+    private final ZktecoProperties.Realtime settings;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<DeviceEventPump> pumps = new ArrayList<>();
+
+    private record Listener(int mask, DeviceEventListener listener) {
+    }
+
+    public RealtimeEventService(DeviceRegistry deviceRegistry, ZktecoProperties properties) {
+        this.deviceRegistry = deviceRegistry;
+        this.settings = properties.getRealtime();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!this.settings.isEnabled()) {
+            return;
+        }
+        int mask = this.settings.eventMask();
+        Duration slice = this.settings.getPollSlice();
+        for (ManagedDevice device : this.deviceRegistry.devices()) {
+            String name = device.getName();
+            synchronized (this.pumps) {
+                this.pumps.add(DeviceEventPump.start(device, mask, event -> this.dispatch(name, event), slice));
+            }
+        }
+        log.info("realtime events {} enabled on {} devices", this.settings.getEvents(), this.pumps.size());
+    }
+
+    /**
+     * Подписка на события с маской из кодов EventCode; закрытие возвращённого объекта её отменяет.
+     */
+    public AutoCloseable subscribe(int mask, DeviceEventListener listener) {
+        Listener entry = new Listener(mask, listener);
+        this.listeners.add(entry);
+        return () -> this.listeners.remove(entry);
+    }
+
+    public AutoCloseable subscribe(EventCode event, DeviceEventListener listener) {
+        return this.subscribe(event.getCode(), listener);
+    }
+
+    /**
+     * Поток событий для медленных потребителей (SSE, WebSocket, дашборды).
+     * <p>
+     * Каждый подписчик получает свой буфер на {@code zkteco.realtime.subscriber-buffer} событий;
+     * при переполнении отбрасываются самые старые, так что отстающий клиент не задерживает
+     * приём с устройств и других подписчиков. Подписка на устройства снимается при отмене потока.
+     *
+     * @param device имя устройства или {@code null} для всех
+     * @param mask   маска из кодов EventCode
+     */
+    public Flux<DeviceEvent> stream(String device, int mask) {
+        int capacity = this.settings.getSubscriberBuffer();
+        return Flux.<DeviceEvent>create(sink -> {
+                    AutoCloseable subscription = this.subscribe(mask, (name, event) -> {
+                        if (device == null || device.equals(name)) {
+                            sink.next(DeviceEvent.of(name, event));
+                        }
+                    });
+                    sink.onDispose(() -> {
+                        try {
+                            subscription.close();
+                        } catch (Exception e) {
+                            log.debug("event subscription close failed: {}", e.getMessage());
+                        }
+                    });
+                })
+                .onBackpressureBuffer(capacity,
+                        dropped -> log.debug("{}: subscriber buffer full, dropped {} event", dropped.device(), dropped.type()),
+                        BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    /**
+     * Раздаёт событие устройства подписчикам; вызывается из потока приёма этого устройства.
+     */
+    void dispatch(String device, ZKEvent event) {
+        for (Listener entry : this.listeners) {
+            if ((entry.mask() & event.type()) == 0) {
+                continue;
+            }
+            try {
+                entry.listener().onEvent(device, event);
+            } catch (RuntimeException e) {
+                log.warn("{}: event listener failed: {}", device, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Число действующих подписок, включая потоки {@link #stream}.
+     */
+    int subscriberCount() {
+        return this.listeners.size();
+    }
+
+    @PreDestroy
+    public void stop() {
+        synchronized (this.pumps) {
+            for (DeviceEventPump pump : this.pumps) {
+                pump.close();
+            }
+            this.pumps.clear();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ua.varus.iclock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.varus.iclock.config.ZktecoProperties;
+import ua.varus.iclock.device.DesiredState;
+import ua.varus.iclock.device.DeviceRegistry;
+import ua.varus.iclock.device.FleetExecutor;
+import ua.varus.iclock.device.FleetResult;
+import ua.varus.iclock.device.ManagedDevice;
+import ua.varus.iclock.device.UserDiff;
+import ua.varus.iclock.device.UserSnapshot;
+import ua.varus.iclock.device.UserSyncReport;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Приведение пользователей терминалов к заданному состоянию (выгрузка из HR).
+ * <p>
+ * Текущее состояние каждый раз читается с устройства: кэш таблицы пользователей проверяется только
+ * по числу пользователей и шаблонов и не заметит правку без изменения этих чисел (таблица шаблонов
+ * читается, только если в заданном состоянии есть шаблоны). На устройство уходят лишь нужные
+ * создания, изменения, удаления и записи шаблонов — одной пакетной сессией.
+ * Для ночной сверки по расписанию {@code zkteco.sync.cron} заданные состояния лежат в каталоге
+ * {@code zkteco.sync.desired-dir}, по файлу {@code <имя устройства>.json}.
+ */
+@Slf4j
+@Service
+public class UserSyncService {
+
+    private final DeviceRegistry deviceRegistry;
+    private final FleetExecutor executor;
+    private final ObjectMapper objectMapper;
+    private final Duration jobTimeout;
+    private final Path desiredDir;
+
+    public UserSyncService(DeviceRegistry deviceRegistry, FleetExecutor executor, ObjectMapper objectMapper,
+                           ZktecoProperties properties) {
+        this.deviceRegistry = deviceRegistry;
+        this.executor = executor;
+        this.objectMapper = objectMapper;
+        this.jobTimeout = properties.getFleet().getJobTimeout();
+        this.desiredDir = Path.of(properties.getSync().getDesiredDir());
+    }
+
+    public UserSyncReport reconcile(String deviceName, DesiredState state) throws IOException, ParseException {
+        UserSyncReport report = this.deviceRegistry.get(deviceName).execute(terminal -> apply(state, terminal));
+        log.info("reconcile {}: {} written, {} deleted, {} templates, {} failed", deviceName,
+                report.usersWritten(), report.usersDeleted(), report.templatesWritten(), report.failures().size());
+        return report;
+    }
+
+    public UserSyncReport reconcile(String deviceName, Path file) throws IOException, ParseException {
+        return this.reconcile(deviceName, this.objectMapper.readValue(file.toFile(), DesiredState.class));
+    }
+
+    /**
+     * Сверка всех устройств, для которых в каталоге заданных состояний есть файл.
+     */
+    public FleetResult<UserSyncReport> reconcileAll() throws InterruptedException {
+        List<ManagedDevice> devices = this.deviceRegistry.devices().stream()
+                .filter(device -> Files.isRegularFile(this.desiredFile(device)))
+                .toList();
+        return this.executor.runEach("reconcile", devices, device -> terminal -> {
+            DesiredState state = this.objectMapper.readValue(this.desiredFile(device).toFile(), DesiredState.class);
+            return apply(state, terminal);
+        }, this.jobTimeout);
+    }
+
+    /**
+     * Сверка по расписанию {@code zkteco.sync.cron}.
+     */
+    @Scheduled(cron = "${zkteco.sync.cron:-}")
+    public void scheduledReconcile() throws InterruptedException {
+        FleetResult<UserSyncReport> result = this.reconcileAll();
+        log.info("reconcile: {} device(s) succeeded, {} failed in {}",
+                result.succeeded().size(), result.failed().size(), result.elapsed());
+    }
+
+    private static UserSyncReport apply(DesiredState state, ZKTerminalV terminal) throws IOException, ParseException {
+        terminal.invalidateUserCache();
+        UserSnapshot current = UserSnapshot.read(terminal, state.hasTemplates());
+        return UserDiff.compute(state.toSnapshot(), current).applyTo(terminal, state.prune());
+    }
+
+    private Path desiredFile(ManagedDevice device) {
+        return this.desiredDir.resolve(device.getName().replaceAll("[^A-Za-z0-9_.-]", "_") + ".json");
+    }
+}
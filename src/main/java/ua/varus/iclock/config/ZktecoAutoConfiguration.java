@@ -1,29 +1,86 @@
 package ua.varus.iclock.config;
 
-import com.zkteco.Exception.DeviceNotConnectException;
-import com.zkteco.commands.ZKCommandReply;
-import org.springframework.beans.factory.annotation.Value;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import ua.varus.iclock.utils.ZKTerminalV;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StringUtils;
+import ua.varus.iclock.device.DeviceRegistry;
+import ua.varus.iclock.device.FleetExecutor;
+import ua.varus.iclock.device.ManagedDevice;
+import ua.varus.iclock.device.MicrometerZKMetrics;
+import ua.varus.iclock.ingest.AttendancePipeline;
+import ua.varus.iclock.ingest.AttendanceSink;
+import ua.varus.iclock.ingest.JdbcAttendanceSink;
+import ua.varus.iclock.utils.AttendanceSyncStore;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
+@EnableConfigurationProperties(ZktecoProperties.class)
 public class ZktecoAutoConfiguration {
 
-    @Value("${zkteco.host}")
-    private String host;
+    @Bean(destroyMethod = "close")
+    public DeviceRegistry deviceRegistry(ZktecoProperties properties, ObjectProvider<MeterRegistry> meterRegistry)
+            throws IOException {
+        // Терминалы подключаются при первом обращении, а не при старте приложения
+        List<ManagedDevice> devices = new ArrayList<>();
+        for (ZktecoProperties.Device device : properties.getDevices()) {
+            String name = device.getName() != null ? device.getName() : device.getHost();
+            ManagedDevice managed = new ManagedDevice(name, device.getHost(), device.getPort(), device.getCommKey(),
+                    properties.transportSettings(device));
+            managed.setBufferChecksum(device.isBufferChecksum());
+            devices.add(managed);
+        }
+        if (devices.isEmpty() && properties.getHost() != null) {
+            devices.add(new ManagedDevice("default", properties.getHost(), properties.getPort(), 0,
+                    properties.transportSettings(null)));
+        }
+        for (ManagedDevice device : devices) {
+            device.setDeviceInfoTtl(properties.getDeviceInfoTtl());
+        }
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry != null) {
+            for (ManagedDevice device : devices) {
+                device.setMetrics(new MicrometerZKMetrics(registry, device.getName()));
+            }
+        }
+        DeviceRegistry deviceRegistry = new DeviceRegistry(devices);
+        if (properties.getFleet().isSharedUdpSocket()) {
+            deviceRegistry.shareUdpSocket();
+        }
+        return deviceRegistry;
+    }
+
+    @Bean
+    public AttendanceSyncStore attendanceSyncStore(ZktecoProperties properties) {
+        return new AttendanceSyncStore(Path.of(properties.getSync().getDir()));
+    }
 
-    @Value("${zkteco.port}")
-    private int port;
+    @Bean
+    public FleetExecutor fleetExecutor(ZktecoProperties properties) {
+        return new FleetExecutor(properties.getFleet().getMaxParallel());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public AttendanceSink attendanceSink(JdbcTemplate jdbcTemplate) {
+        // Для локальной проверки; система учёта времени подключается своим бином AttendanceSink
+        return new JdbcAttendanceSink(jdbcTemplate);
+    }
 
-    @Bean(destroyMethod = "disconnect")
-    public ZKTerminalV zkClient() throws IOException, DeviceNotConnectException {
-        // Создаём клиент, указываем host и порт
-        ZKTerminalV zk = new ZKTerminalV(host, port);
-        ZKCommandReply connected = zk.connect();
-        System.out.println("connects code: " + connected.getCode());
-        return zk;
+    @Bean(destroyMethod = "close")
+    public AttendancePipeline attendancePipeline(AttendanceSink sink, ZktecoProperties properties) {
+        ZktecoProperties.Ingest ingest = properties.getIngest();
+        return new AttendancePipeline(sink, ingest.getBatchSize(), ingest.getMaxDelay(), ingest.getQueueCapacity(),
+                ingest.getDedupCapacity(), ingest.getRetryBackoff(), ingest.getMaxBackoff(), ingest.getFlushTimeout(),
+                ingest.getMaxAttempts(),
+                StringUtils.hasText(ingest.getDeadLetterDir()) ? Path.of(ingest.getDeadLetterDir()) : null);
     }
 }
@@ -0,0 +1,237 @@
+package ua.varus.iclock.config;
+
+import com.zkteco.command.events.EventCode;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Настройки терминалов. Список {@code zkteco.devices} задаёт парк устройств;
+ * если он пуст, используется одно устройство из {@code zkteco.host}/{@code zkteco.port}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "zkteco")
+public class ZktecoProperties {
+
+    private String host;
+
+    private int port = 4370;
+
+    private ZKTransportSettings.Protocol transport = ZKTransportSettings.Protocol.UDP;
+
+    private Timeout timeout = new Timeout();
+
+    /**
+     * Сколько кэшируются сведения об устройстве (параметры и версия прошивки).
+     */
+    private Duration deviceInfoTtl = Duration.ofMinutes(1);
+
+    private List<Device> devices = new ArrayList<>();
+
+    private Fleet fleet = new Fleet();
+
+    private Sync sync = new Sync();
+
+    private Realtime realtime = new Realtime();
+
+    private Ingest ingest = new Ingest();
+
+    @Getter
+    @Setter
+    public static class Device {
+
+        private String name;
+
+        private String host;
+
+        private int port = 4370;
+
+        /**
+         * Ключ связи (CommKey) устройства; 0 — без авторизации.
+         */
+        private int commKey;
+
+        /**
+         * Протокол для этого устройства; по умолчанию — {@code zkteco.transport}.
+         */
+        private ZKTransportSettings.Protocol transport;
+
+        /**
+         * Сверять контрольную сумму буфера при загрузке; выключать только для прошивки,
+         * которая считает сумму буфера по-своему.
+         */
+        private boolean bufferChecksum = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Timeout {
+
+        /**
+         * Ожидание TCP-соединения и ответа на CMD_CONNECT, мс.
+         */
+        private int connect = 5000;
+
+        /**
+         * Ожидание ответа на команду, мс; при каждом повторе удваивается.
+         */
+        private int read = 3000;
+
+        /**
+         * Повторы команды по UDP при потере пакета.
+         */
+        private int retries = 3;
+    }
+
+    public ZKTransportSettings transportSettings(Device device) {
+        ZKTransportSettings.Protocol protocol = device != null && device.getTransport() != null
+                ? device.getTransport() : this.transport;
+        return new ZKTransportSettings(protocol, this.timeout.getConnect(), this.timeout.getRead(), this.timeout.getRetries());
+    }
+
+    @Getter
+    @Setter
+    public static class Fleet {
+
+        /**
+         * Сколько устройств обрабатывается одновременно во всём парке.
+         */
+        private int maxParallel = 64;
+
+        /**
+         * Предельное время одной групповой операции; по истечении незавершённые задачи прерываются.
+         */
+        private Duration jobTimeout = Duration.ofMinutes(30);
+
+        /**
+         * Каталог снимков устройств, по подкаталогу на серийный номер.
+         */
+        private String backupDir = "data/backups";
+
+        /**
+         * Сколько последних снимков хранить для каждого устройства; 0 — все.
+         */
+        private int backupRetain = 14;
+
+        /**
+         * Команды всех UDP-устройств через один сокет и поток-селектор; {@code false} — свой сокет у каждого.
+         */
+        private boolean sharedUdpSocket = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Sync {
+
+        /**
+         * Отметки инкрементальной синхронизации журнала, по файлу на серийный номер терминала.
+         */
+        private String dir = "data/attendance-sync";
+
+        /**
+         * Заданные состояния пользователей для сверки, по файлу {@code <имя устройства>.json}.
+         */
+        private String desiredDir = "data/desired-users";
+
+        /**
+         * Расписание сверки всех устройств с заданными состояниями (cron); {@code -} — выключено.
+         */
+        private String cron = "-";
+    }
+
+    @Getter
+    @Setter
+    public static class Realtime {
+
+        /**
+         * Подписываться на события реального времени всех устройств при старте.
+         */
+        private boolean enabled;
+
+        /**
+         * Регистрируемые на устройствах события.
+         */
+        private List<EventCode> events = new ArrayList<>(List.of(EventCode.EF_ATTLOG));
+
+        /**
+         * Сколько ожидание событий держит устройство, прежде чем уступить очередь командам.
+         */
+        private Duration pollSlice = Duration.ofMillis(500);
+
+        /**
+         * Сколько событий держится для одного подписчика потока; при переполнении теряются самые старые.
+         */
+        private int subscriberBuffer = 256;
+
+        /**
+         * Интервал пустых комментариев в SSE, чтобы прокси не закрывали простаивающее соединение.
+         */
+        private Duration heartbeat = Duration.ofSeconds(15);
+
+        public int eventMask() {
+            int mask = 0;
+            for (EventCode event : this.events) {
+                mask |= event.getCode();
+            }
+            return mask;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Ingest {
+
+        /**
+         * Отметки в одном пакете записи.
+         */
+        private int batchSize = 500;
+
+        /**
+         * Сколько неполный пакет ждёт добора, прежде чем уйти в приёмник.
+         */
+        private Duration maxDelay = Duration.ofSeconds(1);
+
+        /**
+         * Очередь перед приёмником; при заполнении источники ждут.
+         */
+        private int queueCapacity = 10_000;
+
+        /**
+         * Сколько последних ключей отметок помнится для отбрасывания повторов.
+         */
+        private int dedupCapacity = 100_000;
+
+        /**
+         * Первая пауза перед повтором неудачного пакета; дальше удваивается до {@code maxBackoff}.
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+
+        private Duration maxBackoff = Duration.ofMinutes(1);
+
+        /**
+         * Сколько выгрузка журнала ждёт подтверждения записи, прежде чем не сдвигать отметку синхронизации.
+         */
+        private Duration flushTimeout = Duration.ofMinutes(2);
+
+        /**
+         * Попыток записи пакета, прежде чем он уйдёт в недоставленные.
+         */
+        private int maxAttempts = 10;
+
+        /**
+         * Каталог CSV-файлов недоставленных отметок; пусто — только в журнал приложения.
+         */
+        private String deadLetterDir = "data/attendance-dead-letter";
+
+        /**
+         * Расписание выгрузки журналов всех устройств (cron); {@code -} — выключено.
+         */
+        private String cron = "-";
+    }
+}
@@ -0,0 +1,68 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.Enum.UserRoleEnum;
+import com.zkteco.commands.UserInfo;
+import ua.varus.iclock.utils.FingerTemplate;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Заданный состав пользователей терминала (из файла или REST-запроса).
+ *
+ * @param users пользователи с шаблонами отпечатков
+ * @param prune удалять пользователей терминала, которых нет в списке
+ */
+public record DesiredState(List<DesiredUser> users, boolean prune) {
+
+    /**
+     * @param uid       внутренний номер; {@code null} — подобрать свободный
+     * @param role      роль; {@code null} — обычный пользователь
+     * @param templates шаблоны, которые должны быть у пользователя; прочие его шаблоны не удаляются
+     */
+    public record DesiredUser(String userId, Integer uid, String name, String password, UserRoleEnum role,
+                              long cardNo, List<DesiredTemplate> templates) {
+    }
+
+    /**
+     * @param template шаблон в Base64
+     */
+    public record DesiredTemplate(int fingerIndex, int flag, String template) {
+    }
+
+    public DesiredState {
+        users = users != null ? users : List.of();
+    }
+
+    public boolean hasTemplates() {
+        return this.users.stream().anyMatch(user -> user.templates() != null && !user.templates().isEmpty());
+    }
+
+    /**
+     * Снимок для {@link UserDiff#compute}. Пользователям без UID достаются отрицательные номера —
+     * они только связывают пользователя с его шаблонами, а реальный UID выбирается при сравнении.
+     */
+    public UserSnapshot toSnapshot() {
+        List<UserInfo> users = new ArrayList<>(this.users.size());
+        Map<Integer, List<FingerTemplate>> templates = new HashMap<>();
+        int placeholder = 0;
+        for (DesiredUser user : this.users) {
+            int uid = user.uid() != null ? user.uid() : --placeholder;
+            users.add(new UserInfo(uid, user.userId(), user.name() != null ? user.name() : "",
+                    user.password() != null ? user.password() : "",
+                    user.role() != null ? user.role() : UserRoleEnum.USER_DEFAULT, user.cardNo()));
+            if (user.templates() != null) {
+                List<FingerTemplate> list = new ArrayList<>(user.templates().size());
+                for (DesiredTemplate template : user.templates()) {
+                    list.add(new FingerTemplate(uid, template.fingerIndex(), template.flag(),
+                            Base64.getDecoder().decode(template.template())));
+                }
+                templates.put(uid, list);
+            }
+        }
+        return new UserSnapshot(List.copyOf(users), templates);
+    }
+}
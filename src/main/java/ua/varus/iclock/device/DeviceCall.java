@@ -0,0 +1,15 @@
+package ua.varus.iclock.device;
+
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Операция над подключённым терминалом, выполняемая через {@link ManagedDevice#execute(DeviceCall)}.
+ */
+@FunctionalInterface
+public interface DeviceCall<T> {
+
+    T apply(ZKTerminalV terminal) throws IOException, ParseException;
+}
@@ -0,0 +1,44 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.command.events.EventCode;
+import ua.varus.iclock.utils.ZKEvent;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+/**
+ * Неизменяемая копия события реального времени для передачи за пределы потока приёма
+ * (очереди подписчиков, SSE). {@link ZKEvent} переиспользуется и живёт только во время обработчика.
+ *
+ * @param device     имя устройства
+ * @param type       имя кода события (EF_ATTLOG, EF_VERIFY...) или число для неизвестных кодов
+ * @param userId     user ID или номер пользователя; {@code null}, если событие его не несёт
+ * @param verifyType способ подтверждения, -1 если нет
+ * @param state      состояние отметки, -1 если нет
+ * @param time       время отметки по часам терминала; {@code null}, если нет
+ * @param alarmType  тип тревоги для EF_ALARM, иначе -1
+ * @param receivedAt момент приёма пакета сервером
+ */
+public record DeviceEvent(String device, String type, String userId, int verifyType, int state,
+                          LocalDateTime time, int alarmType, Instant receivedAt) {
+
+    private static final EventCode[] CODES = EventCode.values();
+
+    public static DeviceEvent of(String device, ZKEvent event) {
+        int code = event.type();
+        if (code == EventCode.EF_ALARM.getCode()) {
+            return new DeviceEvent(device, typeName(code), null, -1, -1, null, event.alarmType(), Instant.now());
+        }
+        return new DeviceEvent(device, typeName(code), event.userId(), event.verifyType(), event.state(),
+                event.time(), -1, Instant.now());
+    }
+
+    static String typeName(int code) {
+        for (EventCode candidate : CODES) {
+            if (candidate.getCode() == code) {
+                return candidate.name();
+            }
+        }
+        return Integer.toString(code);
+    }
+}
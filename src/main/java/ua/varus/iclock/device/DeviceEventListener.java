@@ -0,0 +1,13 @@
+package ua.varus.iclock.device;
+
+import ua.varus.iclock.utils.ZKEvent;
+
+/**
+ * Получатель событий реального времени со всех устройств реестра.
+ * Вызывается из потока приёма устройства; {@code event} действителен только во время вызова.
+ */
+@FunctionalInterface
+public interface DeviceEventListener {
+
+    void onEvent(String device, ZKEvent event);
+}
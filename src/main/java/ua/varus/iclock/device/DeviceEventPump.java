@@ -0,0 +1,101 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.commands.ZKCommandReply;
+import lombok.extern.slf4j.Slf4j;
+import ua.varus.iclock.utils.ZKEventDispatcher;
+import ua.varus.iclock.utils.ZKEventListener;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Приём событий реального времени с одного устройства на отдельном виртуальном потоке.
+ * <p>
+ * Поток по кругу берёт устройство ({@link ManagedDevice#execute}) на время {@code pollSlice},
+ * при необходимости регистрирует события (после переподключения регистрация теряется)
+ * и раздаёт пришедшие события. Между отрезками устройство свободно для команд; события,
+ * пришедшие во время чужой команды, раздаются тем же подписчикам из потока этой команды.
+ * При ошибке связи приём возобновляется с нарастающей паузой.
+ */
+@Slf4j
+public final class DeviceEventPump implements AutoCloseable {
+
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private final ManagedDevice device;
+    private final int eventMask;
+    private final int sliceMillis;
+    private final ZKEventDispatcher.Subscription subscription;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private DeviceEventPump(ManagedDevice device, int eventMask, ZKEventListener listener, Duration pollSlice) {
+        this.device = device;
+        this.eventMask = eventMask;
+        this.sliceMillis = (int) pollSlice.toMillis();
+        this.subscription = device.events().subscribe(eventMask, listener);
+        this.thread = Thread.ofVirtual().name("events-" + device.getName()).unstarted(this::run);
+    }
+
+    /**
+     * @param eventMask объединение кодов EventCode
+     */
+    public static DeviceEventPump start(ManagedDevice device, int eventMask, ZKEventListener listener, Duration pollSlice) {
+        DeviceEventPump pump = new DeviceEventPump(device, eventMask, listener, pollSlice);
+        pump.thread.start();
+        return pump;
+    }
+
+    private void run() {
+        Duration backoff = Duration.ofSeconds(1);
+        while (this.running) {
+            try {
+                this.device.execute(terminal -> {
+                    int mask = terminal.getRealtimeMask() | this.device.events().mask();
+                    if (mask != terminal.getRealtimeMask()) {
+                        ZKCommandReply reply = terminal.enableRealtime(mask);
+                        if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                            throw new IOException("event registration rejected with " + reply.getCode());
+                        }
+                    }
+                    return terminal.pollEvents(this.sliceMillis);
+                });
+                backoff = Duration.ofSeconds(1);
+            } catch (Exception e) {
+                if (!this.running) {
+                    break;
+                }
+                log.warn("{}: event pump paused for {} s: {}", this.device.getName(), backoff.toSeconds(), e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                backoff = backoff.multipliedBy(2).compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff.multipliedBy(2);
+            }
+        }
+    }
+
+    public int getEventMask() {
+        return this.eventMask;
+    }
+
+    /**
+     * Останавливает приём; текущий отрезок ожидания дорабатывает до конца, чтобы не рвать соединение.
+     * Если закрывающий поток прерван, приём прерывается сразу, а флаг прерывания сохраняется.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.subscription.close();
+        try {
+            if (!this.thread.join(Duration.ofMillis(this.sliceMillis * 2L + 1000))) {
+                this.thread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            this.thread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ua.varus.iclock.device;
+
+import java.time.Instant;
+
+/**
+ * Снимок состояния устройства.
+ *
+ * @param state               последнее известное состояние
+ * @param lastSuccess         время последнего успешного обмена, {@code null} — не было
+ * @param lastFailure         время последней ошибки, {@code null} — не было
+ * @param consecutiveFailures ошибок подряд с момента последнего успеха
+ * @param lastError           текст последней ошибки
+ */
+public record DeviceHealth(String name, String host, int port, State state, Instant lastSuccess,
+                           Instant lastFailure, int consecutiveFailures, String lastError) {
+
+    public enum State {
+        /** Обращений ещё не было. */
+        UNKNOWN,
+        ONLINE,
+        OFFLINE
+    }
+}
@@ -0,0 +1,24 @@
+package ua.varus.iclock.device;
+
+import java.time.Duration;
+
+/**
+ * Результат задачи на одном устройстве.
+ *
+ * @param value   результат при {@link Status#SUCCESS}, иначе {@code null}
+ * @param error   причина при {@link Status#FAILED}, иначе {@code null}
+ * @param elapsed время выполнения, включая ожидание своей очереди на устройстве
+ */
+public record DeviceOutcome<T>(String device, Status status, T value, Throwable error, Duration elapsed) {
+
+    public enum Status {
+        SUCCESS,
+        FAILED,
+        /** Прервана по таймауту групповой операции или отменена вызывающим. */
+        CANCELLED
+    }
+
+    public boolean isSuccess() {
+        return this.status == Status.SUCCESS;
+    }
+}
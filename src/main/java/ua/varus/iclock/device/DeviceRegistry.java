@@ -0,0 +1,154 @@
+package ua.varus.iclock.device;
+
+import lombok.extern.slf4j.Slf4j;
+import ua.varus.iclock.transport.ZKAsyncSession;
+import ua.varus.iclock.transport.ZKUdpEventLoop;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Реестр терминалов из конфигурации. Каждое устройство держит свою сессию и подключается
+ * при первом обращении. После {@link #shareUdpSocket()} команды всех UDP-устройств идут
+ * через один сокет и один поток-селектор, иначе у каждого устройства свой эфемерный порт.
+ */
+@Slf4j
+public class DeviceRegistry implements AutoCloseable {
+
+    private final Map<String, ManagedDevice> devices;
+    /** Общий цикл для {@link #probe()}; создаётся при первой проверке. */
+    private ZKUdpEventLoop eventLoop;
+    /** Общий цикл команд UDP-устройств; {@code null}, пока {@link #shareUdpSocket()} не вызван. */
+    private ZKUdpEventLoop commandLoop;
+
+    public DeviceRegistry(Collection<ManagedDevice> devices) {
+        Map<String, ManagedDevice> byName = new LinkedHashMap<>();
+        for (ManagedDevice device : devices) {
+            if (byName.putIfAbsent(device.getName(), device) != null) {
+                throw new IllegalArgumentException("Duplicate device name: " + device.getName());
+            }
+        }
+        this.devices = Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * Переводит команды UDP-устройств на общий {@link ZKUdpEventLoop}: вместо сокета и блокирующего
+     * чтения на каждое устройство — один канал и один поток-селектор на парк. Вызывается при сборке
+     * реестра, до первых команд. Цикл отдельный от {@link #probe()}: проверочная сессия не должна
+     * приходить с того же адреса, что и рабочая.
+     */
+    public synchronized void shareUdpSocket() throws IOException {
+        if (this.commandLoop == null) {
+            this.commandLoop = new ZKUdpEventLoop();
+        }
+        for (ManagedDevice device : this.devices.values()) {
+            device.useEventLoop(this.commandLoop);
+        }
+    }
+
+    public ManagedDevice get(String name) {
+        ManagedDevice device = this.devices.get(name);
+        if (device == null) {
+            throw new IllegalArgumentException("Unknown device: " + name);
+        }
+        return device;
+    }
+
+    public boolean contains(String name) {
+        return this.devices.containsKey(name);
+    }
+
+    /**
+     * Первое устройство из конфигурации — для однотерминальных сценариев.
+     */
+    public ManagedDevice primary() {
+        if (this.devices.isEmpty()) {
+            throw new IllegalStateException("No devices configured");
+        }
+        return this.devices.values().iterator().next();
+    }
+
+    public Collection<ManagedDevice> devices() {
+        return this.devices.values();
+    }
+
+    public List<DeviceHealth> health() {
+        List<DeviceHealth> health = new ArrayList<>(this.devices.size());
+        for (ManagedDevice device : this.devices.values()) {
+            health.add(device.health());
+        }
+        return health;
+    }
+
+    /**
+     * Проверяет, отвечают ли устройства, одним потоком на весь парк и не занимая их сессии:
+     * CMD_CONNECT и CMD_EXIT в отдельной сессии через общий {@link ZKUdpEventLoop}.
+     * Отказ в подключении (например, из-за CommKey) тоже ответ. Устройства с TCP не проверяются.
+     *
+     * @return имя устройства -> ответило ли оно
+     */
+    public CompletableFuture<Map<String, Boolean>> probe() throws IOException {
+        ZKUdpEventLoop loop = this.eventLoop();
+        Map<String, CompletableFuture<Boolean>> probes = new LinkedHashMap<>();
+        for (ManagedDevice device : this.devices.values()) {
+            ZKAsyncSession session = device.openAsyncSession(loop);
+            if (session != null) {
+                probes.put(device.getName(), probe(session));
+            }
+        }
+        return CompletableFuture.allOf(probes.values().toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Map<String, Boolean> reachable = new LinkedHashMap<>();
+                    probes.forEach((name, probe) -> reachable.put(name, probe.join()));
+                    return reachable;
+                });
+    }
+
+    private static CompletableFuture<Boolean> probe(ZKAsyncSession session) {
+        return session.connect()
+                .thenCompose(reply -> session.disconnect())
+                .handle((reply, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    return !(cause instanceof SocketTimeoutException || cause instanceof ClosedChannelException);
+                });
+    }
+
+    private synchronized ZKUdpEventLoop eventLoop() throws IOException {
+        if (this.eventLoop == null) {
+            this.eventLoop = new ZKUdpEventLoop();
+        }
+        return this.eventLoop;
+    }
+
+    @Override
+    public void close() {
+        for (ManagedDevice device : this.devices.values()) {
+            device.disconnect();
+        }
+        synchronized (this) {
+            if (this.eventLoop != null) {
+                try {
+                    this.eventLoop.close();
+                } catch (IOException e) {
+                    log.warn("Closing the probe event loop failed: {}", e.getMessage());
+                }
+            }
+            if (this.commandLoop != null) {
+                try {
+                    this.commandLoop.close();
+                } catch (IOException e) {
+                    log.warn("Closing the command event loop failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ua.varus.iclock.device;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Выполняет задачу на наборе устройств параллельно, по виртуальному потоку на устройство.
+ * <p>
+ * На одном устройстве задачи идут по очереди (блокировка {@link ManagedDevice}), общее число
+ * одновременно обслуживаемых устройств ограничено семафором. Операция структурная: метод
+ * возвращается только после завершения всех своих задач; по таймауту или прерыванию вызывающего
+ * незавершённые задачи прерываются (прерывание виртуального потока в сокетном ожидании
+ * закрывает сокет, и устройство переподключится при следующем обращении).
+ */
+@Slf4j
+public class FleetExecutor {
+
+    private final Semaphore permits;
+
+    public FleetExecutor(int maxParallel) {
+        if (maxParallel < 1) {
+            throw new IllegalArgumentException("maxParallel must be positive: " + maxParallel);
+        }
+        this.permits = new Semaphore(maxParallel);
+    }
+
+    public <T> FleetResult<T> run(String job, Collection<ManagedDevice> devices, DeviceCall<T> call,
+                                  Duration timeout) throws InterruptedException {
+        return this.runEach(job, devices, device -> call, timeout);
+    }
+
+    /**
+     * Вариант, в котором задача зависит от устройства (например, имя файла или получатель записей).
+     */
+    public <T> FleetResult<T> runEach(String job, Collection<ManagedDevice> devices,
+                                      Function<ManagedDevice, DeviceCall<T>> calls,
+                                      Duration timeout) throws InterruptedException {
+        long started = System.nanoTime();
+        List<ManagedDevice> targets = List.copyOf(devices);
+        List<Future<DeviceOutcome<T>>> futures = new ArrayList<>(targets.size());
+        List<DeviceOutcome<T>> outcomes = new ArrayList<>(targets.size());
+
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("fleet-" + job + "-", 0).factory())) {
+            for (ManagedDevice device : targets) {
+                futures.add(executor.submit(() -> this.runOne(device, calls.apply(device))));
+            }
+
+            long deadline = started + timeout.toNanos();
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    outcomes.add(this.await(targets.get(i), futures.get(i), deadline - System.nanoTime()));
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw e;
+            }
+        }
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+        log.info("fleet job {}: {} devices in {} ms", job, targets.size(), elapsed.toMillis());
+        return new FleetResult<>(job, List.copyOf(outcomes), elapsed);
+    }
+
+    private <T> DeviceOutcome<T> await(ManagedDevice device, Future<DeviceOutcome<T>> future,
+                                       long remainingNanos) throws InterruptedException {
+        try {
+            return future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | CancellationException e) {
+            future.cancel(true);
+            return new DeviceOutcome<>(device.getName(), DeviceOutcome.Status.CANCELLED, null, null, null);
+        } catch (ExecutionException e) {
+            return new DeviceOutcome<>(device.getName(), DeviceOutcome.Status.FAILED, null, e.getCause(), null);
+        }
+    }
+
+    private <T> DeviceOutcome<T> runOne(ManagedDevice device, DeviceCall<T> call) throws InterruptedException {
+        long started = System.nanoTime();
+        this.permits.acquire();
+        try {
+            T value = device.execute(call);
+            return new DeviceOutcome<>(device.getName(), DeviceOutcome.Status.SUCCESS, value, null,
+                    Duration.ofNanos(System.nanoTime() - started));
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException(device.getName() + ": cancelled");
+            }
+            return new DeviceOutcome<>(device.getName(), DeviceOutcome.Status.FAILED, null, e,
+                    Duration.ofNanos(System.nanoTime() - started));
+        } finally {
+            this.permits.release();
+        }
+    }
+}
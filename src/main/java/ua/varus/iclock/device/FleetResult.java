@@ -0,0 +1,18 @@
+package ua.varus.iclock.device;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Итог групповой операции по парку: результаты в порядке устройств в реестре.
+ */
+public record FleetResult<T>(String job, List<DeviceOutcome<T>> outcomes, Duration elapsed) {
+
+    public List<DeviceOutcome<T>> succeeded() {
+        return this.outcomes.stream().filter(DeviceOutcome::isSuccess).toList();
+    }
+
+    public List<DeviceOutcome<T>> failed() {
+        return this.outcomes.stream().filter(outcome -> !outcome.isSuccess()).toList();
+    }
+}
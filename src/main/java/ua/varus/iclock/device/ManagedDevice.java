@@ -0,0 +1,221 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.Exception.DeviceNotConnectException;
+import com.zkteco.commands.ZKCommandReply;
+import lombok.extern.slf4j.Slf4j;
+import ua.varus.iclock.transport.ZKAsyncSession;
+import ua.varus.iclock.transport.ZKTransportSettings;
+import ua.varus.iclock.transport.ZKUdpEventLoop;
+import ua.varus.iclock.utils.UserDirectory;
+import ua.varus.iclock.utils.ZKEventDispatcher;
+import ua.varus.iclock.utils.ZKMetrics;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Терминал из реестра: собственная сессия (sessionId/replyNo живут в своём {@link ZKTerminalV}),
+ * подключение при первом обращении и учёт состояния связи.
+ * <p>
+ * Протокол не допускает параллельных команд в одной сессии, поэтому обращения к одному
+ * устройству выполняются по очереди; разные устройства друг другу не мешают.
+ */
+@Slf4j
+public class ManagedDevice {
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final int commKey;
+    private final ZKTransportSettings settings;
+    private final ZKTerminalV terminal;
+    /** Честная очередь: иначе приём событий, сразу берущий блокировку снова, мог бы не пускать команды. */
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private volatile DeviceHealth.State state = DeviceHealth.State.UNKNOWN;
+    private volatile Instant lastSuccess;
+    private volatile Instant lastFailure;
+    private volatile int consecutiveFailures;
+    private volatile String lastError;
+    private volatile String serialNumber;
+
+    public ManagedDevice(String name, String host, int port, int commKey) {
+        this(name, host, port, commKey, ZKTransportSettings.DEFAULT);
+    }
+
+    public ManagedDevice(String name, String host, int port, int commKey, ZKTransportSettings settings) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.commKey = commKey;
+        this.settings = settings;
+        this.terminal = new ZKTerminalV(host, port, settings);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Подключает метрики обмена; вызывается при сборке реестра, до первых команд.
+     */
+    public void setMetrics(ZKMetrics metrics) {
+        this.terminal.setMetrics(metrics);
+    }
+
+    /**
+     * Сверка контрольной суммы буфера при загрузке шаблонов; задаётся при сборке реестра.
+     */
+    public void setBufferChecksum(boolean verify) {
+        this.terminal.setBufferChecksum(verify);
+    }
+
+    /**
+     * Сколько живут закэшированные сведения {@link ZKTerminalV#getDeviceInfo()}; задаётся при сборке реестра.
+     */
+    public void setDeviceInfoTtl(Duration ttl) {
+        this.terminal.setDeviceInfoTtl(ttl);
+    }
+
+    /**
+     * Выполняет операцию, при необходимости подключаясь. После ошибки ввода-вывода
+     * соединение сбрасывается, и следующее обращение подключится заново.
+     */
+    public <T> T execute(DeviceCall<T> call) throws IOException, ParseException {
+        this.lockInterruptibly();
+        try {
+            this.ensureConnected();
+            T result = call.apply(this.terminal);
+            this.markSuccess();
+            return result;
+        } catch (IOException e) {
+            this.markFailure(e);
+            this.terminal.socketClose();
+            throw e;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Подписки на события реального времени; доступны без подключения.
+     */
+    public ZKEventDispatcher events() {
+        return this.terminal.events();
+    }
+
+    public void disconnect() {
+        this.lock.lock();
+        try {
+            if (this.terminal.isConnected()) {
+                this.terminal.disconnect();
+            }
+        } catch (IOException e) {
+            log.warn("{}: disconnect failed: {}", this.name, e.getMessage());
+        } finally {
+            this.terminal.socketClose();
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Серийный номер, прочитанный при последнем подключении; {@code null}, пока устройство не отвечало.
+     * Нужен там, где команду отправить нельзя, — например, в обработчике события.
+     */
+    public String serialNumber() {
+        return this.serialNumber;
+    }
+
+    /**
+     * Таблица пользователей из последней выгрузки, без обращения к устройству; {@code null}, если её нет.
+     */
+    public UserDirectory cachedUsers() {
+        return this.terminal.cachedUsers();
+    }
+
+    /**
+     * Отдельная асинхронная сессия с устройством поверх общего цикла, в обход очереди {@link #execute};
+     * {@code null}, если устройство работает по TCP.
+     */
+    ZKAsyncSession openAsyncSession(ZKUdpEventLoop loop) {
+        if (this.settings.protocol() != ZKTransportSettings.Protocol.UDP) {
+            return null;
+        }
+        return loop.openSession(this.host, this.port, this.settings);
+    }
+
+    /**
+     * Команды устройства пойдут через общий канал цикла со следующего подключения;
+     * протокол обмена остаётся в {@link ZKTerminalV}. Устройства с TCP не меняются.
+     */
+    void useEventLoop(ZKUdpEventLoop loop) {
+        if (this.settings.protocol() != ZKTransportSettings.Protocol.UDP) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.terminal.setTransportFactory(loop::newTransport);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public boolean isConnected() {
+        return this.terminal.isConnected();
+    }
+
+    public DeviceHealth health() {
+        return new DeviceHealth(this.name, this.host, this.port, this.state, this.lastSuccess,
+                this.lastFailure, this.consecutiveFailures, this.lastError);
+    }
+
+    private void lockInterruptibly() throws InterruptedIOException {
+        try {
+            this.lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(this.name + ": interrupted while waiting for the device");
+        }
+    }
+
+    private void ensureConnected() throws IOException {
+        if (this.terminal.isConnected()) {
+            return;
+        }
+        try {
+            ZKCommandReply reply = this.terminal.connect();
+            // устройство с заданным CommKey отвечает на CMD_CONNECT кодом UNAUTH
+            if (this.commKey != 0 || reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                reply = this.terminal.connectAuth(this.commKey);
+            }
+            if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                this.terminal.socketClose();
+                throw new IOException(this.name + ": connect rejected with " + reply.getCode());
+            }
+            log.info("{}: connected to {}:{}", this.name, this.host, this.port);
+            this.serialNumber = this.terminal.getSerialNumber();
+        } catch (DeviceNotConnectException e) {
+            throw new IOException(this.name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void markSuccess() {
+        this.state = DeviceHealth.State.ONLINE;
+        this.lastSuccess = Instant.now();
+        this.consecutiveFailures = 0;
+    }
+
+    private void markFailure(IOException e) {
+        this.state = DeviceHealth.State.OFFLINE;
+        this.lastFailure = Instant.now();
+        this.consecutiveFailures++;
+        this.lastError = e.getMessage();
+        log.warn("{}: {}", this.name, e.getMessage());
+    }
+}
@@ -0,0 +1,151 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKMetrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики обмена одного терминала в Micrometer, с тегами {@code device} и {@code command}:
+ * <ul>
+ *     <li>{@code zkteco.command.duration} — время от отправки команды до ответа, тег {@code reply};
+ *     гистограмма по фиксированным границам {@link #DURATION_BUCKETS}, чтобы число рядов на
+ *     устройство × команду × ответ оставалось малым;</li>
+ *     <li>{@code zkteco.command.rejected} — ответы, отличные от подтверждения и данных, тег {@code reply};</li>
+ *     <li>{@code zkteco.command.retransmits}, {@code zkteco.command.timeouts};</li>
+ *     <li>{@code zkteco.bytes.sent}, {@code zkteco.bytes.received};</li>
+ *     <li>{@code zkteco.transfer.chunks} — пакеты данных многопакетных передач.</li>
+ * </ul>
+ * Счётчики по команде создаются при первом обращении и дальше берутся из массива без поиска в реестре.
+ */
+public class MicrometerZKMetrics implements ZKMetrics {
+
+    private static final CommandCodeEnum[] COMMANDS = CommandCodeEnum.values();
+
+    /**
+     * Границы гистограммы времени обмена: от ответа по локальной сети до выгрузки большого журнала.
+     */
+    static final Duration[] DURATION_BUCKETS = {
+            Duration.ofMillis(5), Duration.ofMillis(20), Duration.ofMillis(50), Duration.ofMillis(100),
+            Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofSeconds(2),
+            Duration.ofSeconds(5), Duration.ofSeconds(10), Duration.ofSeconds(30)
+    };
+
+    private final MeterRegistry registry;
+    private final String device;
+    private final CommandMeters[] byCommand = new CommandMeters[COMMANDS.length];
+
+    public MicrometerZKMetrics(MeterRegistry registry, String device) {
+        this.registry = registry;
+        this.device = device;
+    }
+
+    private final class CommandMeters {
+
+        private final String command;
+        private final Counter bytesSent;
+        private final Counter bytesReceived;
+        private final Counter chunks;
+        private final Counter retransmits;
+        private final Counter timeouts;
+        /** Код ответа → таймер; кодов у одной команды единицы. */
+        private final Map<Integer, Timer> durations = new ConcurrentHashMap<>();
+
+        private CommandMeters(CommandCodeEnum command) {
+            this.command = command.name();
+            this.bytesSent = this.counter("zkteco.bytes.sent", "bytes");
+            this.bytesReceived = this.counter("zkteco.bytes.received", "bytes");
+            this.chunks = this.counter("zkteco.transfer.chunks", "packets");
+            this.retransmits = this.counter("zkteco.command.retransmits", null);
+            this.timeouts = this.counter("zkteco.command.timeouts", null);
+        }
+
+        private Counter counter(String name, String unit) {
+            return Counter.builder(name)
+                    .baseUnit(unit)
+                    .tag("device", MicrometerZKMetrics.this.device)
+                    .tag("command", this.command)
+                    .register(MicrometerZKMetrics.this.registry);
+        }
+
+        private Timer duration(int replyCode) {
+            return this.durations.computeIfAbsent(replyCode, code -> Timer.builder("zkteco.command.duration")
+                    .description("Command round trip, first send to matching reply")
+                    .tag("device", MicrometerZKMetrics.this.device)
+                    .tag("command", this.command)
+                    .tag("reply", replyName(code))
+                    .serviceLevelObjectives(DURATION_BUCKETS)
+                    .register(MicrometerZKMetrics.this.registry));
+        }
+    }
+
+    private CommandMeters meters(CommandCodeEnum command) {
+        CommandMeters meters = this.byCommand[command.ordinal()];
+        if (meters == null) {
+            // гонка безвредна: реестр вернёт те же счётчики
+            meters = new CommandMeters(command);
+            this.byCommand[command.ordinal()] = meters;
+        }
+        return meters;
+    }
+
+    @Override
+    public void sent(CommandCodeEnum command, int bytes) {
+        this.meters(command).bytesSent.increment(bytes);
+    }
+
+    @Override
+    public void received(CommandCodeEnum command, int bytes) {
+        this.meters(command).bytesReceived.increment(bytes);
+    }
+
+    @Override
+    public void exchange(CommandCodeEnum command, int replyCode, long nanos) {
+        CommandMeters meters = this.meters(command);
+        meters.duration(replyCode).record(nanos, TimeUnit.NANOSECONDS);
+        if (isRejection(replyCode)) {
+            Counter.builder("zkteco.command.rejected")
+                    .tag("device", this.device)
+                    .tag("command", meters.command)
+                    .tag("reply", replyName(replyCode))
+                    .register(this.registry)
+                    .increment();
+        }
+    }
+
+    @Override
+    public void chunks(CommandCodeEnum command, int count) {
+        this.meters(command).chunks.increment(count);
+    }
+
+    @Override
+    public void retransmit(CommandCodeEnum command) {
+        this.meters(command).retransmits.increment();
+    }
+
+    @Override
+    public void timeout(CommandCodeEnum command) {
+        this.meters(command).timeouts.increment();
+    }
+
+    /**
+     * Подтверждение, начало передачи данных и сами данные — нормальные ответы; остальное — отказ.
+     */
+    static boolean isRejection(int replyCode) {
+        return replyCode != CommandReplyCodeEnum.CMD_ACK_OK.getCode()
+                && replyCode != CommandReplyCodeEnum.CMD_PREPARE_DATA.getCode()
+                && replyCode != CommandCodeEnum.CMD_DATA.getCode();
+    }
+
+    private static String replyName(int replyCode) {
+        CommandReplyCodeEnum code = CommandReplyCodeEnum.decode(replyCode);
+        return code != null ? code.name() : Integer.toString(replyCode);
+    }
+}
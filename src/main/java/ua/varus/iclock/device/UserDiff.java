@@ -0,0 +1,158 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.commands.UserInfo;
+import ua.varus.iclock.utils.FingerTemplate;
+import ua.varus.iclock.utils.TemplateUploadSession;
+import ua.varus.iclock.utils.UserDirectory;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Разница между пользователями двух терминалов (или заданным состоянием и терминалом):
+ * что нужно записать в целевой, чтобы он совпал с исходным. Пользователи сопоставляются по user ID.
+ * <p>
+ * Внутренний номер (UID) у одного и того же пользователя на разных терминалах может отличаться,
+ * поэтому шаблоны переносятся на UID пользователя в целевом терминале. Новому пользователю
+ * достаётся исходный UID, если он задан (больше 0) и свободен, иначе — следующий свободный.
+ *
+ * @param users     пользователи для записи (новые и изменившиеся), уже с UID целевого терминала
+ * @param templates шаблоны для записи (отсутствующие и отличающиеся), уже с UID целевого терминала
+ * @param extra     пользователи целевого терминала, которых нет в исходном
+ */
+public record UserDiff(List<UserInfo> users, List<FingerTemplate> templates, List<UserInfo> extra) {
+
+    private static final int MAX_UID = 65535;
+
+    public static UserDiff compute(UserSnapshot source, UserSnapshot target) {
+        Map<String, UserInfo> targetByUserId = new HashMap<>();
+        Set<Integer> usedUids = new HashSet<>();
+        int nextUid = 1;
+        Set<String> sourceUserIds = new HashSet<>();
+        for (UserInfo user : source.users()) {
+            sourceUserIds.add(UserDirectory.normalize(user.getUserid()));
+        }
+        List<UserInfo> extra = new ArrayList<>();
+        for (UserInfo user : target.users()) {
+            String userId = UserDirectory.normalize(user.getUserid());
+            targetByUserId.put(userId, user);
+            if (!sourceUserIds.contains(userId)) {
+                extra.add(user);
+            }
+            usedUids.add(user.getUid());
+            nextUid = Math.max(nextUid, user.getUid() + 1);
+        }
+
+        List<UserInfo> users = new ArrayList<>();
+        List<FingerTemplate> templates = new ArrayList<>();
+        for (UserInfo user : source.users()) {
+            UserInfo existing = targetByUserId.get(UserDirectory.normalize(user.getUserid()));
+            int targetUid;
+            if (existing != null) {
+                targetUid = existing.getUid();
+                if (!sameUser(user, existing)) {
+                    users.add(withUid(user, targetUid));
+                }
+            } else {
+                if (user.getUid() > 0 && usedUids.add(user.getUid())) {
+                    targetUid = user.getUid();
+                } else {
+                    while (usedUids.contains(nextUid)) {
+                        nextUid++;
+                    }
+                    if (nextUid > MAX_UID) {
+                        throw new IllegalStateException("No free UID on target for user " + user.getUserid());
+                    }
+                    targetUid = nextUid;
+                    usedUids.add(targetUid);
+                }
+                users.add(withUid(user, targetUid));
+            }
+
+            List<FingerTemplate> present = existing != null ? target.templates(targetUid) : List.of();
+            for (FingerTemplate template : source.templates(user.getUid())) {
+                if (!contains(present, template)) {
+                    templates.add(new FingerTemplate(targetUid, template.fingerIndex(), template.flag(), template.template()));
+                }
+            }
+        }
+        return new UserDiff(List.copyOf(users), List.copyOf(templates), List.copyOf(extra));
+    }
+
+    /**
+     * Нечего записывать; лишние пользователи не учитываются.
+     */
+    public boolean isEmpty() {
+        return this.users.isEmpty() && this.templates.isEmpty();
+    }
+
+    /**
+     * Записывает разницу в терминал одной пакетной сессией.
+     *
+     * @param deleteExtra удалять пользователей, которых нет в исходном
+     */
+    public UserSyncReport applyTo(ZKTerminalV terminal, boolean deleteExtra) throws IOException {
+        List<UserInfo> deletions = deleteExtra ? this.extra : List.of();
+        if (this.isEmpty() && deletions.isEmpty()) {
+            return UserSyncReport.UP_TO_DATE;
+        }
+        try (TemplateUploadSession session = terminal.beginTemplateUpload()) {
+            int deleted = 0;
+            for (UserInfo user : deletions) {
+                if (session.deleteUser(user)) {
+                    deleted++;
+                }
+            }
+            int written = 0;
+            for (UserInfo user : this.users) {
+                if (session.writeUser(user)) {
+                    written++;
+                }
+            }
+            int templates = 0;
+            for (FingerTemplate template : this.templates) {
+                if (session.writeTemplate(template)) {
+                    templates++;
+                }
+            }
+            List<TemplateUploadSession.ItemResult> failures = session.results().stream()
+                    .filter(result -> !result.success())
+                    .toList();
+            return new UserSyncReport(written, deleted, templates, failures);
+        }
+    }
+
+    private static boolean sameUser(UserInfo a, UserInfo b) {
+        return Objects.equals(UserDirectory.normalize(a.getName()), UserDirectory.normalize(b.getName()))
+                && Objects.equals(UserDirectory.normalize(a.getPassword()), UserDirectory.normalize(b.getPassword()))
+                && a.getRole() == b.getRole()
+                && a.getCardno() == b.getCardno();
+    }
+
+    /**
+     * Тот же палец с тем же флагом и теми же байтами шаблона.
+     */
+    private static boolean contains(List<FingerTemplate> present, FingerTemplate template) {
+        for (FingerTemplate candidate : present) {
+            if (candidate.fingerIndex() == template.fingerIndex()
+                    && candidate.flag() == template.flag()
+                    && Arrays.equals(candidate.template(), template.template())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static UserInfo withUid(UserInfo user, int uid) {
+        return new UserInfo(uid, UserDirectory.normalize(user.getUserid()), UserDirectory.normalize(user.getName()),
+                UserDirectory.normalize(user.getPassword()), user.getRole(), user.getCardno());
+    }
+}
@@ -0,0 +1,50 @@
+package ua.varus.iclock.device;
+
+import lombok.extern.slf4j.Slf4j;
+import ua.varus.iclock.utils.TemplateUploadSession;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Копирует пользователей и отпечатки с одного терминала на другие.
+ * <p>
+ * Исходный терминал читается один раз (таблица пользователей и общая таблица шаблонов),
+ * затем для каждого целевого параллельно: снимок целевого, {@link UserDiff} и запись только
+ * отсутствующего или изменившегося одной {@link TemplateUploadSession}. Оба терминала читаются
+ * мимо кэша пользователей: он замечает только изменение числа пользователей и шаблонов.
+ */
+@Slf4j
+public class UserReplicator {
+
+    private final FleetExecutor executor;
+
+    public UserReplicator(FleetExecutor executor) {
+        this.executor = executor;
+    }
+
+    public FleetResult<UserSyncReport> replicate(ManagedDevice source, Collection<ManagedDevice> targets,
+                                                 Duration timeout) throws IOException, ParseException, InterruptedException {
+        UserSnapshot snapshot = source.execute(terminal -> {
+            terminal.invalidateUserCache();
+            return UserSnapshot.read(terminal);
+        });
+        log.info("replication source {}: {} users, {} templates", source.getName(),
+                snapshot.users().size(), snapshot.templateCount());
+        List<ManagedDevice> others = targets.stream().filter(target -> target != source).toList();
+        return this.executor.run("replicate-" + source.getName(), others, terminal -> apply(snapshot, terminal), timeout);
+    }
+
+    /**
+     * Приводит один терминал к снимку; вызывается под блокировкой устройства.
+     * Пользователи, которых нет на исходном терминале, не удаляются.
+     */
+    public static UserSyncReport apply(UserSnapshot source, ZKTerminalV terminal) throws IOException, ParseException {
+        terminal.invalidateUserCache();
+        return UserDiff.compute(source, UserSnapshot.read(terminal)).applyTo(terminal, false);
+    }
+}
@@ -0,0 +1,48 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.commands.UserInfo;
+import ua.varus.iclock.utils.FingerTemplate;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Пользователи и шаблоны отпечатков терминала, прочитанные двумя выгрузками
+ * (таблица пользователей и общая таблица шаблонов).
+ *
+ * @param templatesByUid шаблоны, сгруппированные по внутреннему номеру пользователя
+ */
+public record UserSnapshot(List<UserInfo> users, Map<Integer, List<FingerTemplate>> templatesByUid) {
+
+    public static UserSnapshot read(ZKTerminalV terminal) throws IOException, ParseException {
+        return read(terminal, true);
+    }
+
+    /**
+     * @param withTemplates читать ли таблицу шаблонов; таблица пользователей берётся из кэша терминала,
+     *                      если он актуален
+     */
+    public static UserSnapshot read(ZKTerminalV terminal, boolean withTemplates) throws IOException, ParseException {
+        List<UserInfo> users = terminal.getAllUsers();
+        if (!withTemplates) {
+            return new UserSnapshot(List.copyOf(users), Map.of());
+        }
+        Map<Integer, List<FingerTemplate>> templates = new HashMap<>();
+        terminal.streamFingerTemplates(template ->
+                templates.computeIfAbsent(template.uid(), uid -> new ArrayList<>()).add(template));
+        return new UserSnapshot(List.copyOf(users), templates);
+    }
+
+    public List<FingerTemplate> templates(int uid) {
+        return this.templatesByUid.getOrDefault(uid, List.of());
+    }
+
+    public int templateCount() {
+        return this.templatesByUid.values().stream().mapToInt(List::size).sum();
+    }
+}
@@ -0,0 +1,23 @@
+package ua.varus.iclock.device;
+
+import ua.varus.iclock.utils.TemplateUploadSession;
+
+import java.util.List;
+
+/**
+ * Итог синхронизации пользователей одного терминала (репликация или приведение к заданному состоянию).
+ *
+ * @param usersWritten     пользователей, которых устройство создало или изменило
+ * @param usersDeleted     пользователей, которых устройство удалило
+ * @param templatesWritten шаблонов, которые устройство записало
+ * @param failures         элементы, которые записать не удалось; в счётчики выше они не входят
+ */
+public record UserSyncReport(int usersWritten, int usersDeleted, int templatesWritten,
+                             List<TemplateUploadSession.ItemResult> failures) {
+
+    public static final UserSyncReport UP_TO_DATE = new UserSyncReport(0, 0, 0, List.of());
+
+    public boolean isComplete() {
+        return this.failures.isEmpty();
+    }
+}
@@ -0,0 +1,272 @@
+package ua.varus.iclock.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Конвейер загрузки отметок: отбрасывает повторы, собирает пакеты по размеру и по времени
+ * и пишет их в {@link AttendanceSink} одним потоком.
+ * <p>
+ * Повторы определяются по {@link AttendancePunch#key()} среди последних {@code dedupCapacity} ключей;
+ * повторы, вышедшие за это окно, и повторная доставка после перезапуска гасятся идемпотентной
+ * записью приёмника. Неудачный пакет повторяется с растущей паузой до {@code maxAttempts} раз —
+ * следующие пакеты ждут его, порядок сохраняется; затем пакет уходит в файл недоставленных отметок
+ * в {@code deadLetterDir} (или, если каталог не задан, в журнал приложения), и конвейер идёт дальше.
+ * Очередь ограничена: если приёмник отстаёт, {@link #offer} блокирует источник.
+ * <p>
+ * {@link #flush()} возвращается, когда записано всё, что было принято до вызова, поэтому
+ * отметку синхронизации журнала можно сохранять только после него: при сбое записи журнал
+ * будет прочитан повторно (доставка «хотя бы один раз»). Если после предыдущего {@code flush}
+ * пакет ушёл в недоставленные, {@code flush} тоже завершается ошибкой.
+ */
+@Slf4j
+public class AttendancePipeline implements Flushable, AutoCloseable {
+
+    private final AttendanceSink sink;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Duration retryBackoff;
+    private final Duration maxBackoff;
+    private final Duration flushTimeout;
+    private final int maxAttempts;
+    private final Path deadLetterDir;
+    /** Отметки и метки {@link FlushRequest} в порядке поступления. */
+    private final BlockingQueue<Object> queue;
+    private final Map<AttendancePunch.Key, Boolean> recent;
+    private final Thread worker;
+
+    private volatile long written;
+    private volatile long deadLettered;
+    /** Пакет ушёл в недоставленные после последней метки {@link FlushRequest}; только для потока записи. */
+    private boolean deadLetteredSinceFlush;
+    private volatile boolean running = true;
+
+    /**
+     * Метка в очереди: всё, что стоит перед ней, обработано, когда открыт {@code done};
+     * {@code deadLettered} — часть из этого ушла в недоставленные.
+     */
+    private record FlushRequest(CountDownLatch done, AtomicBoolean deadLettered) {
+    }
+
+    /**
+     * @param maxAttempts   попыток записи пакета, прежде чем он уйдёт в недоставленные
+     * @param deadLetterDir каталог файлов недоставленных отметок; {@code null} — только в журнал приложения
+     */
+    public AttendancePipeline(AttendanceSink sink, int batchSize, Duration maxDelay, int queueCapacity,
+                              int dedupCapacity, Duration retryBackoff, Duration maxBackoff, Duration flushTimeout,
+                              int maxAttempts, Path deadLetterDir) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.retryBackoff = retryBackoff;
+        this.maxBackoff = maxBackoff;
+        this.flushTimeout = flushTimeout;
+        this.maxAttempts = maxAttempts;
+        this.deadLetterDir = deadLetterDir;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.recent = new LinkedHashMap<>(Math.min(dedupCapacity, 1 << 16), 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AttendancePunch.Key, Boolean> eldest) {
+                return this.size() > dedupCapacity;
+            }
+        };
+        this.worker = Thread.ofVirtual().name("attendance-pipeline").start(this::run);
+    }
+
+    /**
+     * Принимает отметку; ждёт, если очередь заполнена.
+     *
+     * @return {@code false}, если отметка — повтор недавно принятой
+     */
+    public boolean offer(AttendancePunch punch) throws InterruptedIOException {
+        if (!this.running) {
+            throw new IllegalStateException("Attendance pipeline is closed");
+        }
+        synchronized (this.recent) {
+            if (this.recent.put(punch.key(), Boolean.TRUE) != null) {
+                return false;
+            }
+        }
+        try {
+            this.queue.put(punch);
+        } catch (InterruptedException e) {
+            synchronized (this.recent) {
+                this.recent.remove(punch.key());
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing attendance punch");
+        }
+        return true;
+    }
+
+    /**
+     * Ждёт записи всех отметок, принятых до вызова; накопленный пакет пишется, не дожидаясь окна.
+     *
+     * @throws IOException если приёмник не записал их за {@code flushTimeout} или часть ушла в недоставленные
+     */
+    @Override
+    public void flush() throws IOException {
+        FlushRequest request = new FlushRequest(new CountDownLatch(1), new AtomicBoolean());
+        try {
+            long deadline = System.nanoTime() + this.flushTimeout.toNanos();
+            if (!this.queue.offer(request, this.flushTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                    || !request.done().await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new IOException("Attendance sink has not confirmed queued punches within " + this.flushTimeout);
+            }
+            if (request.deadLettered().get()) {
+                throw new IOException("Attendance sink rejected queued punches, moved to dead letter");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing attendance punches");
+        }
+    }
+
+    public long writtenCount() {
+        return this.written;
+    }
+
+    /**
+     * Сколько отметок ушло в недоставленные.
+     */
+    public long deadLetteredCount() {
+        return this.deadLettered;
+    }
+
+    public int queued() {
+        return this.queue.size();
+    }
+
+    private void run() {
+        List<AttendancePunch> batch = new ArrayList<>(this.batchSize);
+        long deadline = 0;
+        while (this.running || !this.queue.isEmpty() || !batch.isEmpty()) {
+            Object item;
+            try {
+                long wait = batch.isEmpty() ? this.maxDelayNanos : deadline - System.nanoTime();
+                item = this.queue.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                // close(): дописываем то, что уже в очереди
+                item = this.queue.poll();
+            }
+            if (item instanceof AttendancePunch punch) {
+                if (batch.isEmpty()) {
+                    deadline = System.nanoTime() + this.maxDelayNanos;
+                }
+                batch.add(punch);
+            }
+            boolean due = batch.size() >= this.batchSize || item instanceof FlushRequest
+                    || !this.running || System.nanoTime() - deadline >= 0;
+            if (!batch.isEmpty() && due) {
+                this.writeWithRetry(batch);
+                batch.clear();
+            }
+            if (item instanceof FlushRequest request) {
+                request.deadLettered().set(this.deadLetteredSinceFlush);
+                this.deadLetteredSinceFlush = false;
+                request.done().countDown();
+            }
+        }
+    }
+
+    /**
+     * Пишет пакет, повторяя с растущей паузой; после {@code maxAttempts} неудач (при закрытии — после первой)
+     * пакет уходит в недоставленные.
+     */
+    private void writeWithRetry(List<AttendancePunch> batch) {
+        Duration backoff = this.retryBackoff;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                this.sink.write(batch);
+                this.written += batch.size();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("attendance batch of {} failed, attempt {}: {}", batch.size(), attempt, e.getMessage());
+            }
+            if (attempt >= this.maxAttempts || !this.running) {
+                this.deadLetter(batch);
+                return;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                // close() во время паузы: последняя попытка на следующем круге
+            }
+            backoff = backoff.multipliedBy(2);
+            if (backoff.compareTo(this.maxBackoff) > 0) {
+                backoff = this.maxBackoff;
+            }
+        }
+    }
+
+    /**
+     * Сохраняет незаписанный пакет в отдельный CSV-файл каталога недоставленных для повторной загрузки;
+     * если каталога нет или файл не записался, отметки остаются в журнале приложения.
+     */
+    private void deadLetter(List<AttendancePunch> batch) {
+        this.deadLettered += batch.size();
+        this.deadLetteredSinceFlush = true;
+        // повторная выгрузка журнала должна снова принять эти отметки, а не отбросить как повторы
+        synchronized (this.recent) {
+            for (AttendancePunch punch : batch) {
+                this.recent.remove(punch.key());
+            }
+        }
+        List<String> lines = new ArrayList<>(batch.size() + 1);
+        lines.add("deviceSerial,seq,userId,verifyType,state,time");
+        for (AttendancePunch punch : batch) {
+            lines.add(punch.deviceSerial() + "," + punch.seq() + "," + punch.userId() + "," + punch.verifyType()
+                    + "," + punch.state() + "," + punch.time());
+        }
+        if (this.deadLetterDir != null) {
+            Path file = this.deadLetterDir.resolve("attendance-" + System.currentTimeMillis() + "-" + this.deadLettered + ".csv");
+            try {
+                Files.createDirectories(this.deadLetterDir);
+                Files.write(file, lines);
+                log.error("attendance batch of {} moved to dead letter {}", batch.size(), file);
+                return;
+            } catch (IOException e) {
+                log.error("cannot write dead letter {}: {}", file, e.getMessage());
+            }
+        }
+        log.error("attendance batch of {} dropped after {} attempt(s):\n{}", batch.size(), this.maxAttempts,
+                String.join("\n", lines));
+    }
+
+    /**
+     * Дописывает очередь и останавливает поток записи. Если приёмник недоступен,
+     * делается одна попытка на пакет, после неё пакет уходит в недоставленные.
+     * Если закрывающий поток прерван, ожидание прекращается, а флаг прерывания сохраняется.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.worker.interrupt();
+        try {
+            this.worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
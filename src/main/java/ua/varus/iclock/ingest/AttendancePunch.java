@@ -0,0 +1,76 @@
+package ua.varus.iclock.ingest;
+
+import com.zkteco.commands.UserInfo;
+import ua.varus.iclock.utils.AttendanceLogParser;
+import ua.varus.iclock.utils.UserDirectory;
+import ua.varus.iclock.utils.ZKEvent;
+import ua.varus.iclock.utils.ZKTime;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * Отметка, передаваемая в конвейер загрузки: из журнала устройства или из события реального времени.
+ *
+ * @param deviceSerial серийный номер терминала
+ * @param seq          номер записи в журнале; -1 для события реального времени
+ * @param userId       user ID
+ * @param verifyType   способ подтверждения
+ * @param state        состояние (приход, уход...)
+ * @param packedTime   время по часам терминала в упакованном виде {@link ZKTime}
+ */
+public record AttendancePunch(String deviceSerial, int seq, String userId, int verifyType, int state, long packedTime) {
+
+    /**
+     * Ключ идемпотентности. В событии реального времени нет номера записи журнала, поэтому
+     * вместо него используется user ID: отметка, пришедшая событием, и её копия из журнала
+     * дают один ключ (одна и та же отметка на одном терминале в ту же секунду). Для этого
+     * короткие форматы события, где есть только внутренний номер пользователя, переводятся
+     * в user ID при создании отметки ({@link #of(String, ZKEvent, UserDirectory)}).
+     */
+    public record Key(String deviceSerial, String userId, long packedTime) {
+    }
+
+    public static AttendancePunch of(String deviceSerial, ByteBuffer record, int offset) {
+        return new AttendancePunch(deviceSerial,
+                AttendanceLogParser.seq(record, offset),
+                AttendanceLogParser.userId(record, offset),
+                AttendanceLogParser.verifyType(record, offset),
+                AttendanceLogParser.state(record, offset),
+                AttendanceLogParser.packedTime(record, offset));
+    }
+
+    /**
+     * Отметка из события EF_ATTLOG. Внутренний номер пользователя коротких форматов переводится
+     * в user ID по таблице пользователей терминала.
+     *
+     * @param users таблица пользователей из кэша терминала; {@code null}, если её нет
+     * @return {@code null}, если в событии нет времени или user ID не удалось определить —
+     * такая отметка придёт копией из журнала
+     */
+    public static AttendancePunch of(String deviceSerial, ZKEvent event, UserDirectory users) {
+        long packedTime = event.packedTime();
+        if (packedTime < 0) {
+            return null;
+        }
+        String userId;
+        if (event.hasUserId()) {
+            userId = event.userId();
+        } else {
+            UserInfo user = users != null && event.userSn() >= 0 ? users.byUid(event.userSn()) : null;
+            userId = user != null ? UserDirectory.normalize(user.getUserid()) : null;
+        }
+        if (userId == null || userId.isEmpty()) {
+            return null;
+        }
+        return new AttendancePunch(deviceSerial, -1, userId, event.verifyType(), event.state(), packedTime);
+    }
+
+    public Key key() {
+        return new Key(this.deviceSerial, this.userId, this.packedTime);
+    }
+
+    public LocalDateTime time() {
+        return ZKTime.toLocalDateTime(this.packedTime);
+    }
+}
@@ -0,0 +1,19 @@
+package ua.varus.iclock.ingest;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Приёмник пакетов отметок (система учёта рабочего времени, база данных...).
+ * <p>
+ * Доставка «хотя бы один раз»: после сбоя или перезапуска тот же пакет может прийти повторно,
+ * поэтому запись должна быть идемпотентной по {@link AttendancePunch#key()}.
+ */
+@FunctionalInterface
+public interface AttendanceSink {
+
+    /**
+     * Записывает пакет целиком; исключение означает, что пакет будет отправлен ещё раз.
+     */
+    void write(List<AttendancePunch> batch) throws IOException;
+}
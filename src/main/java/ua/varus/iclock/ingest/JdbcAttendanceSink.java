@@ -0,0 +1,65 @@
+package ua.varus.iclock.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Приёмник в таблицу {@code attendance_punch} через JDBC (по умолчанию встроенная H2).
+ * <p>
+ * Пакет уходит одним batch-запросом MERGE по ключу отметки, так что повторная доставка
+ * не создаёт дублей. Событие реального времени пишется с номером записи -1, а пришедшая
+ * позже копия из журнала проставляет настоящий номер.
+ */
+@Slf4j
+public class JdbcAttendanceSink implements AttendanceSink {
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS attendance_punch (
+                device_serial VARCHAR(32) NOT NULL,
+                user_id VARCHAR(24) NOT NULL,
+                punch_time TIMESTAMP NOT NULL,
+                seq INT NOT NULL,
+                verify_type INT NOT NULL,
+                state INT NOT NULL,
+                PRIMARY KEY (device_serial, user_id, punch_time)
+            )""";
+
+    private static final String MERGE = """
+            MERGE INTO attendance_punch t
+            USING (SELECT CAST(? AS VARCHAR(32)) AS device_serial, CAST(? AS VARCHAR(24)) AS user_id,
+                          CAST(? AS TIMESTAMP) AS punch_time, CAST(? AS INT) AS seq,
+                          CAST(? AS INT) AS verify_type, CAST(? AS INT) AS state) s
+            ON t.device_serial = s.device_serial AND t.user_id = s.user_id AND t.punch_time = s.punch_time
+            WHEN MATCHED AND t.seq < s.seq THEN UPDATE SET seq = s.seq
+            WHEN NOT MATCHED THEN INSERT (device_serial, user_id, punch_time, seq, verify_type, state)
+                VALUES (s.device_serial, s.user_id, s.punch_time, s.seq, s.verify_type, s.state)""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcAttendanceSink(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcTemplate.execute(CREATE_TABLE);
+    }
+
+    @Override
+    public void write(List<AttendancePunch> batch) throws IOException {
+        try {
+            this.jdbcTemplate.batchUpdate(MERGE, batch, batch.size(), (statement, punch) -> {
+                statement.setString(1, punch.deviceSerial());
+                statement.setString(2, punch.userId());
+                statement.setTimestamp(3, Timestamp.valueOf(punch.time()));
+                statement.setInt(4, punch.seq());
+                statement.setInt(5, punch.verifyType());
+                statement.setInt(6, punch.state());
+            });
+        } catch (DataAccessException e) {
+            throw new IOException("Attendance batch of " + batch.size() + " failed: " + e.getMessage(), e);
+        }
+        log.debug("wrote {} punches", batch.size());
+    }
+}
@@ -0,0 +1,103 @@
+package ua.varus.iclock.transport;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.commands.ZKCommandReply;
+import ua.varus.iclock.utils.CommandCodeEnum;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Асинхронная сессия с одним терминалом поверх {@link ZKUdpEventLoop}.
+ * <p>
+ * Протокол последовательный: следующая команда сессии уходит только после ответа на предыдущую.
+ * Команды, поставленные подряд, выстраиваются в цепочку без блокировки вызывающего потока.
+ * Каждая команда завершается ответом или ошибкой по истечении ожидания и повторов,
+ * поэтому потерянный ответ не останавливает очередь.
+ */
+public final class ZKAsyncSession {
+
+    private final ZKUdpEventLoop loop;
+    private final InetSocketAddress address;
+    private final ZKTransportSettings settings;
+    private volatile int sessionId;
+    private int replyNo;
+    private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+    ZKAsyncSession(ZKUdpEventLoop loop, InetSocketAddress address, ZKTransportSettings settings) {
+        this.loop = loop;
+        this.address = address;
+        this.settings = settings;
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    public int getSessionId() {
+        return this.sessionId;
+    }
+
+    public boolean isConnected() {
+        return this.sessionId != 0;
+    }
+
+    /**
+     * CMD_CONNECT: номер сессии берётся из ответа устройства.
+     */
+    public CompletableFuture<ZKCommandReply> connect() {
+        return this.enqueue(CommandCodeEnum.CMD_CONNECT, null, true);
+    }
+
+    public CompletableFuture<ZKCommandReply> disconnect() {
+        return this.send(CommandCodeEnum.CMD_EXIT, null)
+                .whenComplete((reply, error) -> this.sessionId = 0);
+    }
+
+    /**
+     * Отправляет команду после завершения предыдущих команд этой сессии.
+     */
+    public CompletableFuture<ZKCommandReply> send(CommandCodeEnum command, byte[] data) {
+        return this.enqueue(command, data, false);
+    }
+
+    private synchronized CompletableFuture<ZKCommandReply> enqueue(CommandCodeEnum command, byte[] data, boolean connect) {
+        CompletableFuture<ZKCommandReply> result = this.tail
+                // ошибка предыдущей команды не должна блокировать очередь
+                .handle((previous, error) -> null)
+                .thenCompose(ignored -> this.exchange(command, data, connect));
+        this.tail = result;
+        return result;
+    }
+
+    private CompletableFuture<ZKCommandReply> exchange(CommandCodeEnum command, byte[] data, boolean connect) {
+        if (connect) {
+            this.sessionId = 0;
+            this.replyNo = 0;
+        } else if (this.sessionId == 0) {
+            return CompletableFuture.failedFuture(new IOException("Session is not connected: " + this.address));
+        }
+        int replyNo = this.nextReplyNo();
+        if (!connect) {
+            return this.loop.exchange(this.address, command, this.sessionId, replyNo, data, null, this.settings);
+        }
+        int[] granted = new int[1];
+        return this.loop.exchange(this.address, command, 0, replyNo, data, session -> granted[0] = session,
+                        this.settings)
+                .thenApply(reply -> {
+                    if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                        throw new CompletionException(new IOException("Connect rejected by " + this.address + ": " + reply.getCode()));
+                    }
+                    this.sessionId = granted[0];
+                    return reply;
+                });
+    }
+
+    private synchronized int nextReplyNo() {
+        int replyNo = this.replyNo;
+        this.replyNo = (replyNo + 1) & 0xFFFF;
+        return replyNo;
+    }
+}
@@ -0,0 +1,121 @@
+package ua.varus.iclock.transport;
+
+import ua.varus.iclock.utils.ZKBufferPool;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * UDP-транспорт поверх общего канала {@link ZKUdpEventLoop}: своего сокета нет,
+ * отправка идёт через канал цикла, а датаграммы от адреса устройства, не ответившие
+ * ни одному асинхронному обмену, поток цикла кладёт в очередь этого транспорта.
+ * <p>
+ * На один адрес в цикле допускается один такой транспорт.
+ */
+final class ZKLoopTransport implements ZKTransport {
+
+    private static final Logger log = Logger.getLogger(ZKLoopTransport.class.getName());
+
+    /** Табличная выгрузка приходит пачкой датаграмм, очередь вмещает её с запасом. */
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final byte[] CLOSED = new byte[0];
+
+    private final ZKUdpEventLoop loop;
+    private final BlockingQueue<byte[]> inbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(ZKBufferPool.MAX_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private InetSocketAddress address;
+    private volatile boolean open;
+
+    ZKLoopTransport(ZKUdpEventLoop loop) {
+        this.loop = loop;
+    }
+
+    @Override
+    public void open(InetAddress address, int port, int connectTimeoutMillis) throws IOException {
+        InetSocketAddress target = new InetSocketAddress(address, port);
+        this.inbound.clear();
+        this.loop.attach(target, this);
+        this.address = target;
+        this.open = true;
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        this.loop.send(packet, this.address);
+    }
+
+    @Override
+    public ZKReplyFrame receive(int timeoutMillis) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        byte[] datagram;
+        try {
+            datagram = timeoutMillis == 0 ? this.inbound.take() : this.inbound.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + this.address);
+        }
+        if (datagram == null) {
+            throw new SocketTimeoutException("Receive timed out");
+        }
+        if (datagram == CLOSED) {
+            throw new ClosedChannelException();
+        }
+        this.receiveBuffer.clear().put(datagram).flip();
+        return ZKReplyFrame.decode(this.receiveBuffer);
+    }
+
+    /**
+     * Вызывается потоком цикла; копирует датаграмму из [position, limit), позиция не меняется.
+     */
+    void deliver(ByteBuffer datagram) {
+        byte[] bytes = new byte[datagram.remaining()];
+        datagram.get(datagram.position(), bytes);
+        if (!this.inbound.offer(bytes)) {
+            log.fine("Inbound queue full, dropping datagram from " + this.address);
+        }
+    }
+
+    /**
+     * Цикл закрыт: ожидающий {@link #receive} завершается {@link ClosedChannelException}.
+     */
+    void loopClosed() {
+        this.open = false;
+        this.inbound.clear();
+        this.inbound.offer(CLOSED);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public boolean isReliable() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        this.open = false;
+        if (this.address != null) {
+            this.loop.detach(this.address, this);
+        }
+        this.inbound.clear();
+    }
+}
@@ -0,0 +1,126 @@
+package ua.varus.iclock.transport;
+
+import ua.varus.iclock.utils.ZKBufferPool;
+import ua.varus.iclock.utils.ZKCommand;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * TCP: каждый пакет протокола предваряется 8-байтной обёрткой
+ * [50 50 82 7D][длина пакета, 4 байта LE]. Табличные ответы по TCP могут
+ * превышать размер кадра UDP — для них буфер выделяется отдельно.
+ */
+public final class ZKTcpTransport implements ZKTransport {
+
+    private static final int PACKET_START = 0x7D825050;
+    private static final int TCP_HEADER_SIZE = 8;
+
+    private final ZKBufferPool bufferPool = ZKBufferPool.shared();
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(ZKBufferPool.MAX_FRAME_SIZE + TCP_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] header = new byte[TCP_HEADER_SIZE];
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+    private ByteBuffer receiveBuffer;
+
+    @Override
+    public void open(InetAddress address, int port, int connectTimeoutMillis) throws IOException {
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+        this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        this.out = this.socket.getOutputStream();
+        this.receiveBuffer = this.bufferPool.acquire();
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        int length = packet.remaining();
+        this.sendBuffer.clear();
+        this.sendBuffer.putInt(PACKET_START).putInt(length).put(packet.duplicate());
+        this.out.write(this.sendBuffer.array(), 0, this.sendBuffer.position());
+        this.out.flush();
+    }
+
+    /**
+     * Если время вышло посреди пакета, соединение закрывается: остаток пакета придёт позже
+     * и был бы прочитан как начало следующего.
+     */
+    @Override
+    public ZKReplyFrame receive(int timeoutMillis) throws IOException {
+        this.socket.setSoTimeout(timeoutMillis);
+        this.readFully(this.header, TCP_HEADER_SIZE, false);
+        ByteBuffer header = ByteBuffer.wrap(this.header).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != PACKET_START) {
+            throw new IOException("Invalid TCP packet start: " + Integer.toHexString(header.getInt(0)));
+        }
+        int length = header.getInt(4);
+        if (length < ZKCommand.HEADER_SIZE) {
+            throw new IOException("Invalid TCP packet length: " + length);
+        }
+        ByteBuffer target = length <= this.receiveBuffer.capacity()
+                ? this.receiveBuffer
+                : ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        this.readFully(target.array(), length, true);
+        target.clear().limit(length);
+        return ZKReplyFrame.decode(target);
+    }
+
+    /**
+     * @param started часть пакета уже прочитана
+     */
+    private void readFully(byte[] target, int length, boolean started) throws IOException {
+        int read = 0;
+        try {
+            while (read < length) {
+                int n = this.in.read(target, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("Connection closed by device");
+                }
+                read += n;
+            }
+        } catch (SocketTimeoutException e) {
+            if (!started && read == 0) {
+                throw e;
+            }
+            this.socket.close();
+            throw new IOException("Timed out in the middle of a TCP packet, connection closed", e);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.socket != null && !this.socket.isClosed();
+    }
+
+    @Override
+    public boolean isReliable() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.socket != null) {
+                this.socket.close();
+            }
+        } finally {
+            if (this.receiveBuffer != null) {
+                this.bufferPool.release(this.receiveBuffer);
+                this.receiveBuffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ua.varus.iclock.transport;
+
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Канал обмена пакетами с терминалом: UDP-датаграммы или TCP-поток с обёрткой ZK.
+ * Реализация не знает о командах и номерах ответов — этим занимается {@code ZKTerminalV}.
+ */
+public interface ZKTransport extends Closeable {
+
+    void open(InetAddress address, int port, int connectTimeoutMillis) throws IOException;
+
+    /**
+     * Отправляет пакет протокола из диапазона [position, limit); позиция буфера не меняется.
+     */
+    void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Принимает следующий пакет. Кадр ссылается на внутренний буфер транспорта
+     * и действителен до следующего вызова.
+     *
+     * @param timeoutMillis сколько ждать; 0 — без ограничения
+     * @throws java.net.SocketTimeoutException если пакет не пришёл вовремя
+     */
+    ZKReplyFrame receive(int timeoutMillis) throws IOException;
+
+    boolean isOpen();
+
+    /**
+     * Транспорт сам гарантирует доставку (TCP), повторная отправка не нужна.
+     */
+    boolean isReliable();
+}
@@ -0,0 +1,22 @@
+package ua.varus.iclock.transport;
+
+/**
+ * Параметры обмена с терминалом.
+ *
+ * @param connectTimeoutMillis ожидание TCP-соединения и ответа на CMD_CONNECT
+ * @param readTimeoutMillis    ожидание ответа на команду; при повторах удваивается
+ * @param retries              сколько раз повторить команду по UDP, если ответ не пришёл
+ */
+public record ZKTransportSettings(Protocol protocol, int connectTimeoutMillis, int readTimeoutMillis, int retries) {
+
+    public enum Protocol {
+        UDP,
+        TCP
+    }
+
+    public static final ZKTransportSettings DEFAULT = new ZKTransportSettings(Protocol.UDP, 5000, 3000, 3);
+
+    public ZKTransport newTransport() {
+        return this.protocol == Protocol.TCP ? new ZKTcpTransport() : new ZKUdpTransport();
+    }
+}
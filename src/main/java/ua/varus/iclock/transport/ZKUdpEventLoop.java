@@ -0,0 +1,335 @@
+package ua.varus.iclock.transport;
+
+import com.zkteco.commands.ZKCommandReply;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKBufferPool;
+import ua.varus.iclock.utils.ZKCommand;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Неблокирующий UDP-транспорт: один {@link DatagramChannel} и один поток-селектор
+ * обслуживают обмен с любым числом терминалов.
+ * <p>
+ * Отправка ставится в очередь и выполняется потоком цикла через общий буфер кодирования.
+ * Ответ сопоставляется с запросом по адресу устройства, номеру ответа (replyId)
+ * и номеру сессии; ответы без ожидающего запроса отбрасываются.
+ * <p>
+ * У каждого обмена есть срок ответа: таймеры ведёт тот же поток цикла. Без ответа команда
+ * повторяется с тем же номером ответа (ожидание удваивается, как в {@code ZKTerminalV}),
+ * после последнего повтора future завершается {@link SocketTimeoutException}.
+ * Подходит для команд с одним ответом.
+ * <p>
+ * {@link #newTransport()} даёт {@code ZKTerminalV} транспорт поверх того же канала: протокол
+ * (повторы, табличные выгрузки, события) остаётся в терминале, а датаграммы от устройства,
+ * не ответившие ни одному обмену, поток цикла раскладывает по очередям транспортов.
+ * Так команды всего парка идут через один сокет и один поток-селектор.
+ */
+public final class ZKUdpEventLoop implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(ZKUdpEventLoop.class.getName());
+
+    /** Общий канал принимает табличные выгрузки всех устройств парка. */
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    /** Сколько раз повторять отправку, пока буфер отправки сокета заполнен. */
+    private static final int SEND_SPINS = 1000;
+
+    private final Selector selector;
+    private final DatagramChannel channel;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(ZKBufferPool.MAX_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(ZKBufferPool.MAX_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Queue<Exchange> outbound = new ConcurrentLinkedQueue<>();
+    private final Map<ExchangeKey, Exchange> pending = new ConcurrentHashMap<>();
+    /** Сроки ответов ожидающих обменов; только для потока цикла. */
+    private final PriorityQueue<Exchange> deadlines = new PriorityQueue<>(Comparator.comparingLong((Exchange e) -> e.deadline));
+    private final Map<InetSocketAddress, ZKLoopTransport> transports = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public ZKUdpEventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        this.channel.bind(null);
+        this.channel.register(this.selector, SelectionKey.OP_READ);
+        this.thread = new Thread(this::run, "zk-udp-loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Новая сессия с терминалом с ожиданием и повторами из {@link ZKTransportSettings#DEFAULT};
+     * подключение — {@link ZKAsyncSession#connect()}.
+     */
+    public ZKAsyncSession openSession(String host, int port) {
+        return this.openSession(host, port, ZKTransportSettings.DEFAULT);
+    }
+
+    /**
+     * @param settings ожидание ответа и число повторов; протокол не учитывается
+     */
+    public ZKAsyncSession openSession(String host, int port, ZKTransportSettings settings) {
+        return new ZKAsyncSession(this, new InetSocketAddress(host, port), settings);
+    }
+
+    /**
+     * Транспорт для {@code ZKTerminalV} поверх канала цикла. Адрес устройства занимается
+     * при {@link ZKTransport#open} и освобождается при {@link ZKTransport#close}; второй
+     * транспорт к тому же адресу не откроется.
+     */
+    public ZKTransport newTransport() {
+        return new ZKLoopTransport(this);
+    }
+
+    /**
+     * Количество запросов, ожидающих ответа.
+     */
+    public int pendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * @param sessionListener получает номер сессии из заголовка ответа до завершения future
+     *                        (нужно для CMD_CONNECT); может быть {@code null}
+     */
+    CompletableFuture<ZKCommandReply> exchange(InetSocketAddress target, CommandCodeEnum command, int sessionId,
+                                               int replyNo, byte[] data, IntConsumer sessionListener,
+                                               ZKTransportSettings settings) {
+        Exchange exchange = new Exchange(new ExchangeKey(target, replyNo), command, sessionId, data, sessionListener,
+                settings.readTimeoutMillis(), settings.retries());
+        if (!this.running) {
+            exchange.future.completeExceptionally(new ClosedChannelException());
+            return exchange.future;
+        }
+        // снятие с ожидания при любом завершении, в том числе по таймауту вызывающего
+        exchange.future.whenComplete((reply, error) -> this.pending.remove(exchange.key, exchange));
+        this.outbound.add(exchange);
+        this.selector.wakeup();
+        return exchange.future;
+    }
+
+    void attach(InetSocketAddress address, ZKLoopTransport transport) throws IOException {
+        if (!this.running) {
+            throw new ClosedChannelException();
+        }
+        if (this.transports.putIfAbsent(address, transport) != null) {
+            throw new IOException(address + " already has a transport on this loop");
+        }
+    }
+
+    void detach(InetSocketAddress address, ZKLoopTransport transport) {
+        this.transports.remove(address, transport);
+    }
+
+    /**
+     * Отправка из потока вызывающего: канал потокобезопасен, позиция пакета не меняется.
+     */
+    void send(ByteBuffer packet, InetSocketAddress target) throws IOException {
+        ByteBuffer data = packet.duplicate();
+        // неблокирующий канал возвращает 0, если буфер отправки сокета заполнен
+        for (int spins = 0; this.channel.send(data, target) == 0; spins++) {
+            if (spins >= SEND_SPINS) {
+                throw new IOException("Send buffer full, dropping packet to " + target);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                this.flushOutbound();
+                this.selector.select(this.selectTimeoutMillis());
+                this.selector.selectedKeys().clear();
+                this.drainInbound();
+                this.expire();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                log.log(Level.WARNING, "UDP loop error", e);
+            }
+        }
+        this.failAll(new ClosedChannelException());
+    }
+
+    private void flushOutbound() throws IOException {
+        Exchange exchange;
+        while ((exchange = this.outbound.poll()) != null) {
+            if (exchange.future.isDone()) {
+                continue;
+            }
+            Exchange previous = this.pending.put(exchange.key, exchange);
+            if (previous != null && previous != exchange) {
+                previous.future.completeExceptionally(new IOException("Reply number reused before reply: " + exchange.key));
+            }
+            if (exchange.future.isDone()) {
+                this.pending.remove(exchange.key, exchange);
+                continue;
+            }
+            this.transmit(exchange, exchange.timeoutMillis);
+        }
+    }
+
+    /**
+     * Отправляет команду обмена и ставит срок ответа.
+     */
+    private void transmit(Exchange exchange, long timeoutMillis) throws IOException {
+        ZKCommand.encode(this.sendBuffer, exchange.command, exchange.sessionId, exchange.key.replyNo(), exchange.data);
+        try {
+            this.channel.send(this.sendBuffer, exchange.key.address());
+        } catch (IOException e) {
+            exchange.future.completeExceptionally(e);
+            if (e instanceof ClosedChannelException) {
+                throw e;
+            }
+            return;
+        }
+        exchange.timeoutMillis = timeoutMillis;
+        exchange.deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        this.deadlines.add(exchange);
+    }
+
+    /**
+     * Сколько ждать в select до ближайшего срока ответа; 0 — без ограничения.
+     */
+    private long selectTimeoutMillis() {
+        Exchange next;
+        while ((next = this.deadlines.peek()) != null && next.future.isDone()) {
+            this.deadlines.poll();
+        }
+        if (next == null) {
+            return 0;
+        }
+        return Math.max(1, (next.deadline - System.nanoTime() + 999_999) / 1_000_000L);
+    }
+
+    /**
+     * Повторяет команды, на которые не пришёл ответ, и завершает обмены с исчерпанными повторами.
+     */
+    private void expire() throws IOException {
+        long now = System.nanoTime();
+        Exchange exchange;
+        while ((exchange = this.deadlines.peek()) != null && (exchange.future.isDone() || exchange.deadline - now <= 0)) {
+            this.deadlines.poll();
+            if (exchange.future.isDone()) {
+                continue;
+            }
+            if (exchange.attempt >= exchange.retries) {
+                this.pending.remove(exchange.key, exchange);
+                exchange.future.completeExceptionally(new SocketTimeoutException(exchange.key.address()
+                        + " did not reply to " + exchange.command + " #" + exchange.key.replyNo()
+                        + " after " + (exchange.attempt + 1) + " attempt(s)"));
+                continue;
+            }
+            exchange.attempt++;
+            log.fine("Retransmitting " + exchange.command + " #" + exchange.key.replyNo() + " to "
+                    + exchange.key.address() + ", attempt " + (exchange.attempt + 1));
+            this.transmit(exchange, exchange.timeoutMillis * 2);
+        }
+    }
+
+    private void drainInbound() throws IOException {
+        SocketAddress source;
+        while ((source = this.channel.receive(this.receiveBuffer.clear())) != null) {
+            this.receiveBuffer.flip();
+            if (this.receiveBuffer.remaining() < ZKCommand.HEADER_SIZE) {
+                continue;
+            }
+            ZKReplyFrame reply = ZKReplyFrame.decode(this.receiveBuffer);
+            Exchange exchange = this.pending.get(new ExchangeKey((InetSocketAddress) source, reply.getReplyId()));
+            // до подключения сессии нет; после — чужая сессия означает запоздавший ответ
+            if (exchange == null || exchange.sessionId != 0 && reply.getSessionId() != exchange.sessionId) {
+                ZKLoopTransport transport = this.transports.get(source);
+                if (transport != null) {
+                    transport.deliver(this.receiveBuffer);
+                }
+                continue;
+            }
+            if (exchange.sessionListener != null) {
+                exchange.sessionListener.accept(reply.getSessionId());
+            }
+            // снимается до завершения: зависимые действия future выполняются раньше whenComplete из exchange()
+            this.pending.remove(exchange.key, exchange);
+            // ZKCommandReply копирует полезную нагрузку, буфер приёма можно переиспользовать
+            exchange.future.complete(reply.toCommandReply(reply.getSessionId()));
+        }
+    }
+
+    private void failAll(Throwable error) {
+        Exchange exchange;
+        while ((exchange = this.outbound.poll()) != null) {
+            exchange.future.completeExceptionally(error);
+        }
+        for (Exchange waiting : this.pending.values()) {
+            waiting.future.completeExceptionally(error);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.channel.close();
+        this.selector.close();
+        this.failAll(new ClosedChannelException());
+        for (ZKLoopTransport transport : this.transports.values()) {
+            transport.loopClosed();
+        }
+        this.transports.clear();
+    }
+
+    private record ExchangeKey(InetSocketAddress address, int replyNo) {
+    }
+
+    private static final class Exchange {
+        final ExchangeKey key;
+        final CommandCodeEnum command;
+        final int sessionId;
+        final byte[] data;
+        final IntConsumer sessionListener;
+        final int retries;
+        final CompletableFuture<ZKCommandReply> future = new CompletableFuture<>();
+        // только для потока цикла
+        long timeoutMillis;
+        long deadline;
+        int attempt;
+
+        Exchange(ExchangeKey key, CommandCodeEnum command, int sessionId, byte[] data, IntConsumer sessionListener,
+                 int timeoutMillis, int retries) {
+            this.key = key;
+            this.command = command;
+            this.sessionId = sessionId;
+            this.data = data;
+            this.sessionListener = sessionListener;
+            this.timeoutMillis = timeoutMillis;
+            this.retries = retries;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ua.varus.iclock.transport;
+
+import ua.varus.iclock.utils.ZKBufferPool;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * UDP: один пакет протокола — одна датаграмма. Локальный порт эфемерный,
+ * сокет привязан к адресу устройства, поэтому чужие датаграммы не принимаются.
+ */
+public final class ZKUdpTransport implements ZKTransport {
+
+    /** Табличные ответы приходят пачкой датаграмм; буфер по умолчанию переполняется, и пакеты теряются. */
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+
+    private final ZKBufferPool bufferPool = ZKBufferPool.shared();
+    private final DatagramPacket sendPacket = new DatagramPacket(new byte[0], 0);
+    private DatagramSocket socket;
+    private ByteBuffer receiveBuffer;
+    private DatagramPacket receivePacket;
+
+    @Override
+    public void open(InetAddress address, int port, int connectTimeoutMillis) throws IOException {
+        this.socket = new DatagramSocket();
+        this.socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        this.socket.connect(address, port);
+        this.receiveBuffer = this.bufferPool.acquire();
+        this.receivePacket = new DatagramPacket(this.receiveBuffer.array(), this.receiveBuffer.capacity());
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        if (packet.hasArray()) {
+            this.sendPacket.setData(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+        } else {
+            byte[] bytes = new byte[packet.remaining()];
+            packet.get(packet.position(), bytes);
+            this.sendPacket.setData(bytes);
+        }
+        this.socket.send(this.sendPacket);
+    }
+
+    @Override
+    public ZKReplyFrame receive(int timeoutMillis) throws IOException {
+        this.socket.setSoTimeout(timeoutMillis);
+        this.receivePacket.setLength(this.receiveBuffer.capacity());
+        this.socket.receive(this.receivePacket);
+        this.receiveBuffer.clear().limit(this.receivePacket.getLength());
+        return ZKReplyFrame.decode(this.receiveBuffer);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.socket != null && !this.socket.isClosed();
+    }
+
+    @Override
+    public boolean isReliable() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (this.socket != null) {
+            this.socket.close();
+        }
+        if (this.receiveBuffer != null) {
+            this.bufferPool.release(this.receiveBuffer);
+            this.receiveBuffer = null;
+            this.receivePacket = null;
+        }
+    }
+}
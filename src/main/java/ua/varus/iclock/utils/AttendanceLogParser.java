@@ -0,0 +1,134 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.AttendanceStateEnum;
+import com.zkteco.Enum.AttendanceTypeEnum;
+import com.zkteco.commands.AttendanceRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковый разбор журнала посещений прямо из принятых буферов.
+ * <p>
+ * Запись журнала занимает 40 байт (little-endian):
+ * [seq(2)][user_id(24)][verify_type(1)][time(4)][state(1)][reserved(8)].
+ * Записи могут быть разрезаны между пакетами, поэтому хвост пакета (до 39 байт)
+ * переносится во внутренний буфер. Разбор линейный, дополнительная память постоянна.
+ */
+public final class AttendanceLogParser {
+
+    public static final int RECORD_SIZE = 40;
+
+    private static final int USER_ID_OFFSET = 2;
+    private static final int USER_ID_LENGTH = 9;
+    private static final int VERIFY_TYPE_OFFSET = 26;
+    private static final int TIME_OFFSET = 27;
+    private static final int STATE_OFFSET = 31;
+
+    private static final AttendanceTypeEnum[] TYPES = AttendanceTypeEnum.values();
+    private static final AttendanceStateEnum[] STATES = AttendanceStateEnum.values();
+
+    private final ByteBuffer carry = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Получатель записи: буфер и смещение начала 40-байтной записи.
+     * Буфер действителен только на время вызова; поля читаются статическими методами парсера.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(ByteBuffer buffer, int offset);
+    }
+
+    /**
+     * Передаёт очередной фрагмент журнала. Позиция фрагмента сдвигается до limit.
+     */
+    public void feed(ByteBuffer chunk, RecordVisitor visitor) {
+        if (this.carry.position() > 0) {
+            int n = Math.min(this.carry.remaining(), chunk.remaining());
+            this.carry.put(this.carry.position(), chunk, chunk.position(), n);
+            this.carry.position(this.carry.position() + n);
+            chunk.position(chunk.position() + n);
+            if (this.carry.hasRemaining()) {
+                return;
+            }
+            visitor.visit(this.carry, 0);
+            this.carry.clear();
+        }
+
+        int offset = chunk.position();
+        int limit = chunk.limit();
+        while (limit - offset >= RECORD_SIZE) {
+            visitor.visit(chunk, offset);
+            offset += RECORD_SIZE;
+        }
+
+        int tail = limit - offset;
+        if (tail > 0) {
+            this.carry.put(0, chunk, offset, tail);
+            this.carry.position(tail);
+        }
+        chunk.position(limit);
+    }
+
+    /**
+     * Количество байт неполной записи, ожидающих продолжения.
+     */
+    public int pendingBytes() {
+        return this.carry.position();
+    }
+
+    public void reset() {
+        this.carry.clear();
+    }
+
+    public static int seq(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) & 255) | (buffer.get(offset + 1) & 255) << 8;
+    }
+
+    public static int verifyType(ByteBuffer buffer, int offset) {
+        return buffer.get(offset + VERIFY_TYPE_OFFSET) & 255;
+    }
+
+    public static long packedTime(ByteBuffer buffer, int offset) {
+        int base = offset + TIME_OFFSET;
+        return (buffer.get(base) & 255L)
+                | (buffer.get(base + 1) & 255L) << 8
+                | (buffer.get(base + 2) & 255L) << 16
+                | (buffer.get(base + 3) & 255L) << 24;
+    }
+
+    public static int state(ByteBuffer buffer, int offset) {
+        return buffer.get(offset + STATE_OFFSET) & 255;
+    }
+
+    /**
+     * ID пользователя: первые 9 байт поля, без управляющих символов и пробелов по краям
+     * (так же, как прежний разбор через hex-строку с trim()).
+     */
+    public static String userId(ByteBuffer buffer, int offset) {
+        int start = offset + USER_ID_OFFSET;
+        int end = start + USER_ID_LENGTH;
+        while (start < end && (buffer.get(start) & 255) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 255) <= ' ') {
+            end--;
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    public static AttendanceRecord toAttendanceRecord(ByteBuffer buffer, int offset) {
+        return new AttendanceRecord(
+                seq(buffer, offset),
+                userId(buffer, offset),
+                TYPES[verifyType(buffer, offset)],
+                ZKTime.toDate(packedTime(buffer, offset)),
+                STATES[state(buffer, offset)]);
+    }
+}
@@ -0,0 +1,81 @@
+package ua.varus.iclock.utils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Диапазон времени для выборки из журнала посещений.
+ * <p>
+ * Границы один раз переводятся в упакованное время устройства, после чего проверка записи —
+ * два сравнения целых чисел без декодирования даты. Упакованное время упорядочено так же,
+ * как календарное, поэтому строгая граница x &gt; p сводится к x &gt;= p + 1.
+ * Время записей хранится с точностью до секунды.
+ */
+public final class AttendanceRange {
+
+    private final long lowerPacked;
+    private final long upperPacked;
+
+    private AttendanceRange(long lowerPacked, long upperPacked) {
+        this.lowerPacked = lowerPacked;
+        this.upperPacked = upperPacked;
+    }
+
+    /**
+     * Диапазон по местному времени терминала.
+     *
+     * @param from          нижняя граница, {@code null} — без ограничения
+     * @param fromInclusive включать ли записи ровно в {@code from}
+     * @param to            верхняя граница, {@code null} — без ограничения
+     * @param toInclusive   включать ли записи ровно в {@code to}
+     */
+    public static AttendanceRange of(LocalDateTime from, boolean fromInclusive, LocalDateTime to, boolean toInclusive) {
+        long lower = Long.MIN_VALUE;
+        if (from != null) {
+            lower = ZKTime.pack(from);
+            // запись в ту же секунду, но раньше дробной части границы, в диапазон не входит
+            if (!fromInclusive || from.getNano() > 0) {
+                lower++;
+            }
+        }
+        long upper = Long.MAX_VALUE;
+        if (to != null) {
+            upper = ZKTime.pack(to);
+            if (!toInclusive && to.getNano() == 0) {
+                upper--;
+            }
+        }
+        return new AttendanceRange(lower, upper);
+    }
+
+    /**
+     * Диапазон [from, to] включительно с обеих сторон.
+     */
+    public static AttendanceRange closed(LocalDateTime from, LocalDateTime to) {
+        return of(from, true, to, true);
+    }
+
+    /**
+     * Диапазон [from, to): удобен для суток, недель и других смежных периодов.
+     */
+    public static AttendanceRange halfOpen(LocalDateTime from, LocalDateTime to) {
+        return of(from, true, to, false);
+    }
+
+    /**
+     * Диапазон по абсолютному времени; {@code zone} — часовой пояс, в котором идут часы терминала.
+     */
+    public static AttendanceRange of(Instant from, boolean fromInclusive, Instant to, boolean toInclusive, ZoneId zone) {
+        return of(from != null ? LocalDateTime.ofInstant(from, zone) : null, fromInclusive,
+                to != null ? LocalDateTime.ofInstant(to, zone) : null, toInclusive);
+    }
+
+    public boolean contains(long packedTime) {
+        return packedTime >= this.lowerPacked && packedTime <= this.upperPacked;
+    }
+
+    public boolean isEmpty() {
+        return this.lowerPacked > this.upperPacked;
+    }
+}
@@ -0,0 +1,96 @@
+package ua.varus.iclock.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Локальное хранилище отметок синхронизации журнала посещений: по одному файлу
+ * {@code <serial>.properties} на терминал. Запись атомарная (через временный файл),
+ * поэтому прерванная синхронизация не портит сохранённую отметку.
+ */
+public class AttendanceSyncStore {
+
+    private static final String LAST_INDEX = "lastIndex";
+    private static final String LAST_SEQ = "lastSeq";
+    private static final String LAST_TIME = "lastPackedTime";
+
+    private final Path directory;
+
+    public AttendanceSyncStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Отметка последней переданной записи: её позиция в журнале, номер записи и упакованное время.
+     * Курсор — позиция: всё, что в журнале после неё, новое, даже если время устройства меньше
+     * (переход с летнего времени, коррекция часов, отметки, накопленные терминалом без связи).
+     * Номер и время нужны, чтобы узнать запись под отметкой и заметить очистку или сдвиг журнала.
+     */
+    public record Watermark(int lastIndex, int lastSeq, long lastPackedTime) {
+
+        public static final Watermark EMPTY = new Watermark(-1, -1, -1L);
+
+        public boolean isEmpty() {
+            return this.lastIndex < 0;
+        }
+
+        /**
+         * Та же ли это запись, что под отметкой. Для отметок, сохранённых без номера записи,
+         * сравнивается только время.
+         */
+        public boolean matches(int seq, long packedTime) {
+            return packedTime == this.lastPackedTime && (this.lastSeq < 0 || seq == this.lastSeq);
+        }
+    }
+
+    public Watermark load(String serialNumber) throws IOException {
+        Path file = this.fileFor(serialNumber);
+        if (!Files.exists(file)) {
+            return Watermark.EMPTY;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            return new Watermark(
+                    Integer.parseInt(properties.getProperty(LAST_INDEX, "-1")),
+                    Integer.parseInt(properties.getProperty(LAST_SEQ, "-1")),
+                    Long.parseLong(properties.getProperty(LAST_TIME, "-1")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupted sync state: " + file, e);
+        }
+    }
+
+    public void save(String serialNumber, Watermark watermark) throws IOException {
+        Files.createDirectories(this.directory);
+        Path file = this.fileFor(serialNumber);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Properties properties = new Properties();
+        properties.setProperty(LAST_INDEX, Integer.toString(watermark.lastIndex()));
+        properties.setProperty(LAST_SEQ, Integer.toString(watermark.lastSeq()));
+        properties.setProperty(LAST_TIME, Long.toString(watermark.lastPackedTime()));
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "attendance sync state for " + serialNumber);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path fileFor(String serialNumber) throws IOException {
+        if (serialNumber == null || serialNumber.isBlank()) {
+            throw new IOException("Device serial number is empty");
+        }
+        return this.directory.resolve(serialNumber.replaceAll("[^A-Za-z0-9_.-]", "_") + ".properties");
+    }
+}
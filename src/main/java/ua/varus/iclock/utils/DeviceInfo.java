@@ -0,0 +1,80 @@
+package ua.varus.iclock.utils;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сведения об устройстве из его параметров (CMD_OPTIONS_RRQ) и версии прошивки.
+ * Параметры, которых устройство не знает, дают пустую строку, 0 или {@code false}.
+ * Ключ связи (COMKey) намеренно не входит: сведения кэшируются и отдаются наружу.
+ *
+ * @param fetchedAt когда сведения прочитаны с устройства
+ */
+public record DeviceInfo(String serialNumber, String deviceName, String platform, String oemVendor,
+                         String firmwareVersion, String productTime, int fingerprintVersion, String faceVersion,
+                         String mac, String ipAddress, int udpPort, int deviceId, boolean dhcp, String dns,
+                         boolean proxyEnabled, String proxyServerIp, int proxyServerPort, boolean daylightSaving,
+                         String language, boolean voiceOn, boolean lockPowerKey, boolean showState,
+                         boolean onlyRfMachine, int pin2Width, boolean workCode, Instant fetchedAt) {
+
+    /** Параметры, из которых собирается запись. */
+    public static final List<String> OPTION_KEYS = List.of(
+            "~SerialNumber", "~DeviceName", "~Platform", "~OEMVendor", "~ProductTime", "~ZKFPVersion",
+            "ZKFaceVersion", "MAC", "IPAddress", "UDPPort", "DeviceID", "DHCP", "DNS", "EnableProxyServer",
+            "ProxyServerIP", "ProxyServerPort", "DaylightSavingTime", "Language", "VoiceOn", "LockPowerKey",
+            "~ShowState", "~IsOnlyRFMachine", "~PIN2Width", "WorkCode");
+
+    /**
+     * @param options значения параметров по ключам из {@link #OPTION_KEYS}
+     */
+    public static DeviceInfo of(Map<String, String> options, String firmwareVersion, Instant fetchedAt) {
+        return new DeviceInfo(
+                text(options, "~SerialNumber"),
+                text(options, "~DeviceName"),
+                text(options, "~Platform"),
+                text(options, "~OEMVendor"),
+                firmwareVersion,
+                text(options, "~ProductTime"),
+                number(options, "~ZKFPVersion"),
+                text(options, "ZKFaceVersion"),
+                text(options, "MAC"),
+                text(options, "IPAddress"),
+                number(options, "UDPPort"),
+                number(options, "DeviceID"),
+                flag(options, "DHCP"),
+                text(options, "DNS"),
+                flag(options, "EnableProxyServer"),
+                text(options, "ProxyServerIP"),
+                number(options, "ProxyServerPort"),
+                flag(options, "DaylightSavingTime"),
+                text(options, "Language"),
+                flag(options, "VoiceOn"),
+                flag(options, "LockPowerKey"),
+                flag(options, "~ShowState"),
+                flag(options, "~IsOnlyRFMachine"),
+                number(options, "~PIN2Width"),
+                flag(options, "WorkCode"),
+                fetchedAt);
+    }
+
+    private static String text(Map<String, String> options, String key) {
+        return options.getOrDefault(key, "");
+    }
+
+    private static boolean flag(Map<String, String> options, String key) {
+        return "1".equals(options.get(key));
+    }
+
+    private static int number(Map<String, String> options, String key) {
+        String value = options.get(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // нечисловое значение считается отсутствующим
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,321 @@
+package ua.varus.iclock.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Снимок устройства в сжатом архиве: параметры, счётчики и таблицы пользователей, журнала
+ * и шаблонов в том виде, в каком их отдаёт устройство, без разбора в объекты.
+ * <p>
+ * Параметры читаются одним {@link ZKTerminalV#getOptions}, таблицы — потоковыми передачами;
+ * каждый принятый пакет сразу уходит в архив, так что память не зависит от размера журнала.
+ * Архив пишется во временный файл и переименовывается только после успешного чтения всех таблиц.
+ * <p>
+ * Формат (gzip, длины big-endian): {@code "ZKSN"}, версия (2), время снимка в мс (8), серийный номер (UTF),
+ * затем секции: тег (1) и блоки {@code [длина (4)][байты]} до блока нулевой длины; тег 0 завершает архив.
+ * Записи таблиц внутри секций — в формате устройства (little-endian).
+ */
+public final class DeviceSnapshot {
+
+    private static final Logger log = Logger.getLogger(DeviceSnapshot.class.getName());
+
+    public static final int FORMAT_VERSION = 1;
+    public static final String FILE_SUFFIX = ".zks";
+
+    /** Параметры устройства, сохраняемые в снимке. */
+    public static final List<String> OPTION_KEYS = List.of(
+            "~SerialNumber", "~DeviceName", "~Platform", "~OEMVendor", "~ProductTime", "~ZKFPVersion",
+            "ZKFaceVersion", "~IsOnlyRFMachine", "~PIN2Width", "~ShowState", "MAC", "IPAddress", "NetMask",
+            "GATEIPAddress", "UDPPort", "COMKey", "DeviceID", "DHCP", "DNS", "EnableProxyServer", "ProxyServerIP",
+            "ProxyServerPort", "DaylightSavingTime", "Language", "LockPowerKey", "VoiceOn", "WorkCode");
+
+    private static final byte[] MAGIC = {'Z', 'K', 'S', 'N'};
+    private static final int SECTION_END = 0;
+    private static final int SECTION_OPTIONS = 1;
+    private static final int SECTION_FIRMWARE = 2;
+    private static final int SECTION_FREE_SIZES = 3;
+    private static final int SECTION_USERS = 4;
+    private static final int SECTION_ATTLOG = 5;
+    private static final int SECTION_TEMPLATES = 6;
+
+    private static final int USER_RECORD_SIZE = 72;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private DeviceSnapshot() {
+    }
+
+    /**
+     * Итог записи снимка.
+     *
+     * @param bytes размер архива на диске
+     */
+    public record Summary(String serialNumber, Path file, int users, int attendanceRecords, int templates,
+                         long bytes) {
+    }
+
+    /**
+     * Прочитанный архив; таблицы — сырые байты в формате устройства.
+     *
+     * @param templates таблица шаблонов вместе с 4-байтным заголовком, для {@link TemplateTableParser}
+     */
+    public record Archive(int version, Instant capturedAt, String serialNumber, Map<String, String> options,
+                          String firmwareVersion, byte[] freeSizes, byte[] users, byte[] attendanceLog,
+                          byte[] templates) {
+
+        public int userCount() {
+            return this.users.length / USER_RECORD_SIZE;
+        }
+
+        public int attendanceCount() {
+            return this.attendanceLog.length / AttendanceLogParser.RECORD_SIZE;
+        }
+    }
+
+    /**
+     * Снимок в {@code dir/<серийный номер>/<серийный номер>-<время UTC>.zks}; из старых снимков
+     * этого устройства остаются последние {@code retain} (0 — хранить все).
+     * Без серийного номера каталог называется по адресу устройства.
+     */
+    public static Summary write(ZKTerminalV terminal, Path dir, int retain) throws IOException {
+        Instant capturedAt = Instant.now();
+        Map<String, String> options = terminal.getOptions(OPTION_KEYS);
+        String serialNumber = options.getOrDefault("~SerialNumber", "");
+        String name = fileName(serialNumber.isBlank() ? terminal.getIp() + "_" + terminal.getPort() : serialNumber);
+        Path deviceDir = Files.createDirectories(dir.resolve(name));
+        Path file = deviceDir.resolve(name + "-" + FILE_TIME.format(capturedAt) + FILE_SUFFIX);
+        Path partial = deviceDir.resolve(file.getFileName() + ".part");
+
+        Summary summary;
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            summary = capture(terminal, options, capturedAt, out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (retain > 0) {
+            prune(deviceDir, name, retain);
+        }
+        summary = new Summary(serialNumber, file, summary.users(), summary.attendanceRecords(), summary.templates(),
+                Files.size(file));
+        log.info("Snapshot of " + name + ": " + summary.users() + " users, " + summary.attendanceRecords()
+                + " attendance records, " + summary.templates() + " templates, " + summary.bytes() + " bytes");
+        return summary;
+    }
+
+    /**
+     * Пишет снимок в поток; поток не закрывается.
+     */
+    public static Summary capture(ZKTerminalV terminal, OutputStream target) throws IOException {
+        return capture(terminal, terminal.getOptions(OPTION_KEYS), Instant.now(), target);
+    }
+
+    private static Summary capture(ZKTerminalV terminal, Map<String, String> options, Instant capturedAt,
+                                   OutputStream target) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(target, BUFFER_SIZE), BUFFER_SIZE);
+        DataOutputStream out = new DataOutputStream(gzip);
+        String serialNumber = options.getOrDefault("~SerialNumber", "");
+        out.write(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(capturedAt.toEpochMilli());
+        out.writeUTF(serialNumber);
+
+        StringBuilder text = new StringBuilder();
+        options.forEach((key, value) -> text.append(key).append('=').append(value).append('\0'));
+        writeSection(out, SECTION_OPTIONS, text.toString().getBytes(StandardCharsets.US_ASCII));
+        writeSection(out, SECTION_FIRMWARE, terminal.getFirmwareVersion().getBytes(StandardCharsets.US_ASCII));
+        writeSection(out, SECTION_FREE_SIZES, terminal.readFreeSizes());
+
+        long users = streamSection(out, SECTION_USERS,
+                chunks -> terminal.readTable(CommandCodeEnum.CMD_USERTEMP_RRQ, chunks));
+        long attlog = streamSection(out, SECTION_ATTLOG,
+                chunks -> terminal.readTable(CommandCodeEnum.CMD_ATTLOG_RRQ, chunks));
+        int[] templates = new int[1];
+        TemplateTableParser parser = new TemplateTableParser();
+        streamSection(out, SECTION_TEMPLATES, chunks -> terminal.readTemplateTable(chunk -> {
+            chunks.accept(chunk.duplicate());
+            parser.feed(chunk, (uid, finger, flag, template) -> templates[0]++);
+        }));
+
+        out.writeByte(SECTION_END);
+        out.flush();
+        gzip.finish();
+        gzip.flush();
+        return new Summary(serialNumber, null, (int) (users / USER_RECORD_SIZE),
+                (int) (attlog / AttendanceLogParser.RECORD_SIZE), templates[0], -1);
+    }
+
+    public static Archive read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    public static Archive read(InputStream source) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(source, BUFFER_SIZE), BUFFER_SIZE));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a device snapshot");
+        }
+        int version = in.readUnsignedShort();
+        if (version > FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        Instant capturedAt = Instant.ofEpochMilli(in.readLong());
+        String serialNumber = in.readUTF();
+
+        Map<String, String> options = Collections.emptyMap();
+        String firmware = "";
+        byte[] freeSizes = new byte[0];
+        byte[] users = new byte[0];
+        byte[] attlog = new byte[0];
+        byte[] templates = new byte[0];
+        int tag;
+        while ((tag = in.readUnsignedByte()) != SECTION_END) {
+            byte[] data = readSection(in);
+            switch (tag) {
+                case SECTION_OPTIONS -> options = parseOptions(data);
+                case SECTION_FIRMWARE -> firmware = new String(data, StandardCharsets.US_ASCII);
+                case SECTION_FREE_SIZES -> freeSizes = data;
+                case SECTION_USERS -> users = data;
+                case SECTION_ATTLOG -> attlog = data;
+                case SECTION_TEMPLATES -> templates = data;
+                default -> log.fine("Skipping unknown snapshot section " + tag);
+            }
+        }
+        return new Archive(version, capturedAt, serialNumber, options, firmware, freeSizes, users, attlog, templates);
+    }
+
+    @FunctionalInterface
+    private interface TableRead {
+        void read(Consumer<ByteBuffer> chunks) throws IOException;
+    }
+
+    private static void writeSection(DataOutputStream out, int tag, byte[] data) throws IOException {
+        out.writeByte(tag);
+        if (data.length > 0) {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        out.writeInt(0);
+    }
+
+    /**
+     * @return байт в секции
+     */
+    private static long streamSection(DataOutputStream out, int tag, TableRead table) throws IOException {
+        out.writeByte(tag);
+        long[] total = new long[1];
+        try {
+            table.read(chunk -> {
+                int length = chunk.remaining();
+                if (length == 0) {
+                    return;
+                }
+                try {
+                    out.writeInt(length);
+                    if (chunk.hasArray()) {
+                        out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+                    } else {
+                        byte[] bytes = new byte[length];
+                        chunk.get(chunk.position(), bytes);
+                        out.write(bytes);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                total[0] += length;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeInt(0);
+        return total[0];
+    }
+
+    private static byte[] readSection(DataInputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] block = new byte[0];
+        int length;
+        while ((length = in.readInt()) != 0) {
+            if (length < 0) {
+                throw new EOFException("Corrupt snapshot block length " + length);
+            }
+            if (block.length < length) {
+                block = new byte[length];
+            }
+            in.readFully(block, 0, length);
+            data.write(block, 0, length);
+        }
+        return data.toByteArray();
+    }
+
+    /**
+     * {@code key=value\0key=value\0...}
+     */
+    private static Map<String, String> parseOptions(byte[] data) {
+        Map<String, String> options = new LinkedHashMap<>();
+        int start = 0;
+        int eq = -1;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '=' && eq < 0) {
+                eq = i;
+            } else if (data[i] == 0) {
+                if (eq > start) {
+                    options.put(new String(data, start, eq - start, StandardCharsets.US_ASCII),
+                            new String(data, eq + 1, i - eq - 1, StandardCharsets.US_ASCII));
+                }
+                start = i + 1;
+                eq = -1;
+            }
+        }
+        return options;
+    }
+
+    private static void prune(Path deviceDir, String name, int retain) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(deviceDir, name + "-*" + FILE_SUFFIX)) {
+            files.forEach(snapshots::add);
+        }
+        // время в имени файла сортируется как строка
+        snapshots.sort(null);
+        for (int i = 0; i < snapshots.size() - retain; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    private static String fileName(String text) {
+        return text.replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
+}
@@ -0,0 +1,12 @@
+package ua.varus.iclock.utils;
+
+/**
+ * Шаблон отпечатка из таблицы устройства.
+ *
+ * @param uid         внутренний номер пользователя (userSn)
+ * @param fingerIndex индекс пальца 0–9
+ * @param flag        флаг шаблона (1 — действительный, 3 — «палец под принуждением»)
+ * @param template    данные шаблона
+ */
+public record FingerTemplate(int uid, int fingerIndex, int flag, byte[] template) {
+}
@@ -0,0 +1,124 @@
+package ua.varus.iclock.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Потоковый разбор таблицы шаблонов отпечатков (CMD_DB_RRQ, FCT_FINGERTMP).
+ * <p>
+ * Таблица начинается с 4 байт общего размера, затем идут записи переменной длины (little-endian):
+ * [size(2)][uid(2)][finger(1)][flag(1)][template(size - 6)], где size — длина всей записи.
+ * Запись, разрезанная между пакетами, собирается во внутреннем буфере, который растёт
+ * до размера самой длинной записи.
+ */
+public final class TemplateTableParser {
+
+    private static final int TABLE_HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 6;
+
+    private ByteBuffer carry = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+    private int headerToSkip = TABLE_HEADER_SIZE;
+
+    /**
+     * Получатель шаблона. Буфер template (от position до limit) действителен только на время вызова.
+     */
+    @FunctionalInterface
+    public interface TemplateVisitor {
+        void visit(int uid, int fingerIndex, int flag, ByteBuffer template);
+    }
+
+    /**
+     * Передаёт очередной фрагмент таблицы. Позиция фрагмента сдвигается до limit.
+     */
+    public void feed(ByteBuffer chunk, TemplateVisitor visitor) {
+        ByteBuffer data = chunk.order() == ByteOrder.LITTLE_ENDIAN ? chunk : chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.headerToSkip > 0) {
+            int n = Math.min(this.headerToSkip, data.remaining());
+            data.position(data.position() + n);
+            this.headerToSkip -= n;
+        }
+
+        if (this.carry.position() > 0) {
+            // сначала добираем 2 байта длины, затем остаток записи
+            this.takeInto(data, 2 - this.carry.position());
+            if (this.carry.position() < 2) {
+                chunk.position(chunk.limit());
+                return;
+            }
+            int size = this.carry.getShort(0) & 0xFFFF;
+            checkSize(size);
+            this.ensureCarryCapacity(size);
+            this.takeInto(data, size - this.carry.position());
+            if (this.carry.position() < size) {
+                chunk.position(chunk.limit());
+                return;
+            }
+            visit(this.carry, 0, visitor);
+            this.carry.clear();
+        }
+
+        int offset = data.position();
+        int limit = data.limit();
+        while (limit - offset >= 2) {
+            int size = data.getShort(offset) & 0xFFFF;
+            checkSize(size);
+            if (limit - offset < size) {
+                break;
+            }
+            visit(data, offset, visitor);
+            offset += size;
+        }
+
+        int tail = limit - offset;
+        if (tail > 0) {
+            this.ensureCarryCapacity(tail);
+            this.carry.put(0, data, offset, tail);
+            this.carry.position(tail);
+        }
+        chunk.position(chunk.limit());
+    }
+
+    /**
+     * Байты неполной записи, ожидающие продолжения.
+     */
+    public int pendingBytes() {
+        return this.carry.position();
+    }
+
+    public void reset() {
+        this.carry.clear();
+        this.headerToSkip = TABLE_HEADER_SIZE;
+    }
+
+    private void takeInto(ByteBuffer data, int count) {
+        int n = Math.min(Math.max(count, 0), data.remaining());
+        this.carry.put(this.carry.position(), data, data.position(), n);
+        this.carry.position(this.carry.position() + n);
+        data.position(data.position() + n);
+    }
+
+    private static void checkSize(int size) {
+        if (size < RECORD_HEADER_SIZE) {
+            throw new IllegalStateException("Corrupted template record size: " + size);
+        }
+    }
+
+    private void ensureCarryCapacity(int capacity) {
+        if (this.carry.capacity() < capacity) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, this.carry.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+            bigger.put(0, this.carry, 0, this.carry.position());
+            bigger.position(this.carry.position());
+            this.carry = bigger;
+        }
+    }
+
+    private static void visit(ByteBuffer buffer, int offset, TemplateVisitor visitor) {
+        int size = buffer.getShort(offset) & 0xFFFF;
+        int uid = buffer.getShort(offset + 2) & 0xFFFF;
+        int finger = buffer.get(offset + 4) & 255;
+        int flag = buffer.get(offset + 5) & 255;
+        ByteBuffer template = buffer.duplicate();
+        template.limit(offset + size).position(offset + RECORD_HEADER_SIZE);
+        visitor.visit(uid, finger, flag, template);
+    }
+}
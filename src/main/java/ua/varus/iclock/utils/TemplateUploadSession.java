@@ -0,0 +1,192 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.commands.UserInfo;
+import com.zkteco.commands.ZKCommandReply;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Пакетная загрузка (и удаление) пользователей и шаблонов отпечатков.
+ * <p>
+ * Устройство отключается один раз при открытии сессии; каждый шаблон проходит через буфер
+ * ({@link ZKBufferWriter} с проверкой контрольной суммы → CMD_TMP_WRITE → CMD_FREE_DATA),
+ * а CMD_REFRESHDATA и включение устройства выполняются один раз при закрытии.
+ * Ошибка отдельного элемента не прерывает сессию и попадает в {@link #results()}.
+ * <pre>{@code
+ * try (TemplateUploadSession session = terminal.beginTemplateUpload()) {
+ *     session.writeUser(user);
+ *     session.writeTemplate(user.getUserid(), 0, 1, template);
+ * }
+ * }</pre>
+ */
+public final class TemplateUploadSession implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(TemplateUploadSession.class.getName());
+
+    private final ZKTerminalV terminal;
+    private final ZKBufferWriter writer;
+    private final List<ItemResult> results = new ArrayList<>();
+    /** user ID → uid для пользователей, записанных в этой сессии, чтобы не перечитывать таблицу. */
+    private final Map<String, Integer> sessionUids = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * Результат по одному элементу пакета.
+     *
+     * @param userId      user ID пользователя
+     * @param fingerIndex индекс пальца; -1 для записи самого пользователя
+     * @param success     элемент записан
+     * @param failedStep  команда, на которой произошла ошибка; {@code null} при успехе
+     * @param message     код ответа устройства или текст исключения
+     */
+    public record ItemResult(String userId, int fingerIndex, boolean success, String failedStep, String message) {
+
+        static ItemResult ok(String userId, int fingerIndex) {
+            return new ItemResult(userId, fingerIndex, true, null, null);
+        }
+    }
+
+    TemplateUploadSession(ZKTerminalV terminal) throws IOException {
+        this.terminal = terminal;
+        this.writer = terminal.bufferWriter();
+        ZKCommandReply reply = terminal.disableDevice();
+        if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+            throw new IOException("Failed to disable device " + terminal.getIp() + ": " + reply.getCode());
+        }
+    }
+
+    /**
+     * Создаёт или обновляет пользователя (CMD_USER_WRQ).
+     */
+    public boolean writeUser(UserInfo user) {
+        String userId = user.getUserid();
+        try {
+            ZKCommandReply reply = this.terminal.modifyUserInfo(user);
+            if (reply == null) {
+                return this.record(new ItemResult(userId, -1, false, "CMD_USER_WRQ", "rejected"));
+            }
+            this.sessionUids.put(UserDirectory.normalize(userId), user.getUid());
+            return this.record(ItemResult.ok(userId, -1));
+        } catch (IOException e) {
+            return this.record(new ItemResult(userId, -1, false, "CMD_USER_WRQ", e.toString()));
+        }
+    }
+
+    /**
+     * Удаляет пользователя вместе с его шаблонами (CMD_DELETE_USER).
+     */
+    public boolean deleteUser(UserInfo user) {
+        String userId = user.getUserid();
+        try {
+            if (this.terminal.delUser(user.getUid()) == null) {
+                return this.record(new ItemResult(userId, -1, false, "CMD_DELETE_USER", "rejected"));
+            }
+            this.sessionUids.remove(UserDirectory.normalize(userId));
+            return this.record(ItemResult.ok(userId, -1));
+        } catch (IOException e) {
+            return this.record(new ItemResult(userId, -1, false, "CMD_DELETE_USER", e.toString()));
+        }
+    }
+
+    /**
+     * Записывает шаблон пользователю, найденному по user ID: сначала среди записанных в сессии,
+     * затем в таблице пользователей устройства.
+     */
+    public boolean writeTemplate(String userId, int fingerIndex, int flag, byte[] template) {
+        Integer uid = this.sessionUids.get(UserDirectory.normalize(userId));
+        if (uid == null) {
+            try {
+                UserInfo user = this.terminal.findUser(userId);
+                if (user == null) {
+                    return this.record(new ItemResult(userId, fingerIndex, false, "lookup", "User not found"));
+                }
+                uid = user.getUid();
+            } catch (Exception e) {
+                return this.record(new ItemResult(userId, fingerIndex, false, "lookup", e.toString()));
+            }
+        }
+        return this.writeTemplate(userId, uid, fingerIndex, flag, template);
+    }
+
+    /**
+     * Записывает шаблон, уже привязанный к внутреннему номеру пользователя (например, из выгрузки другого терминала).
+     */
+    public boolean writeTemplate(FingerTemplate template) {
+        return this.writeTemplate(String.valueOf(template.uid()), template.uid(), template.fingerIndex(), template.flag(), template.template());
+    }
+
+    private boolean writeTemplate(String userId, int uid, int fingerIndex, int flag, byte[] template) {
+        String step = "CMD_DATA";
+        try {
+            this.writer.load(template);
+            // tmp_wreq: [user_sn(2LE)][fp_index(1)][fp_flag(1)][fp_size(2LE)]
+            ByteBuffer write = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN)
+                    .putShort((short) uid)
+                    .put((byte) fingerIndex)
+                    .put((byte) flag)
+                    .putShort((short) template.length);
+            step = "CMD_TMP_WRITE";
+            ZKReplyFrame reply = this.terminal.exchange(CommandCodeEnum.CMD_TMP_WRITE, write.array());
+            boolean written = reply.getCode() == CommandReplyCodeEnum.CMD_ACK_OK;
+            String message = written ? null : "reply " + reply.getRawCode();
+
+            // буфер освобождаем в любом случае, чтобы следующий шаблон начинался с чистого
+            ZKReplyFrame free = this.terminal.exchange(CommandCodeEnum.CMD_FREE_DATA, null);
+            if (written && free.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                log.fine("CMD_FREE_DATA returned " + free.getRawCode() + " after template " + userId + "/" + fingerIndex);
+            }
+            return this.record(written ? ItemResult.ok(userId, fingerIndex)
+                    : new ItemResult(userId, fingerIndex, false, step, message));
+        } catch (IOException e) {
+            return this.record(new ItemResult(userId, fingerIndex, false, step, e.toString()));
+        }
+    }
+
+    public List<ItemResult> results() {
+        return Collections.unmodifiableList(this.results);
+    }
+
+    public long failures() {
+        return this.results.stream().filter(result -> !result.success()).count();
+    }
+
+    /**
+     * Применяет изменения (CMD_REFRESHDATA) и включает устройство. Повторный вызов ничего не делает.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.terminal.invalidateUserCache();
+        try {
+            this.terminal.refreshData();
+        } finally {
+            ZKCommandReply reply = this.terminal.enableDevice();
+            if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                log.warning("Failed to enable device " + this.terminal.getIp() + ": " + reply.getCode());
+            }
+            log.info("Template upload session on " + this.terminal.getIp() + " finished: "
+                    + this.results.size() + " item(s), " + this.failures() + " failed");
+        }
+    }
+
+    private boolean record(ItemResult result) {
+        this.results.add(result);
+        if (!result.success()) {
+            log.warning("Upload of " + result.userId() + "/" + result.fingerIndex() + " failed at "
+                    + result.failedStep() + ": " + result.message());
+        }
+        return result.success();
+    }
+}
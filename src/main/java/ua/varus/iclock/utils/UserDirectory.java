@@ -0,0 +1,82 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.commands.UserInfo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Кэш таблицы пользователей одного терминала с индексами по user ID и по UID.
+ * <p>
+ * Актуальность проверяется дёшево — по счётчикам userCount и fpCount из CMD_GET_FREE_SIZES:
+ * пока они совпадают с запомненными, повторная выгрузка таблицы не нужна. Собственные записи
+ * (создание, изменение, удаление пользователя) сбрасывают кэш явно, потому что изменение
+ * существующего пользователя счётчиков не меняет.
+ * <p>
+ * Обновляется под блокировкой устройства, а читается и из обработчиков событий, поэтому таблица
+ * и индексы заменяются целиком.
+ */
+public final class UserDirectory {
+
+    private volatile List<UserInfo> users = Collections.emptyList();
+    private volatile Map<String, UserInfo> byUserId = Collections.emptyMap();
+    private volatile Map<Integer, UserInfo> byUid = Collections.emptyMap();
+    private int userCount = -1;
+    private int fpCount = -1;
+    private volatile boolean valid;
+
+    public boolean isFresh(int userCount, int fpCount) {
+        return this.valid && this.userCount == userCount && this.fpCount == fpCount;
+    }
+
+    public void update(List<UserInfo> users, int userCount, int fpCount) {
+        Map<String, UserInfo> byUserId = new HashMap<>(users.size() * 2);
+        Map<Integer, UserInfo> byUid = new HashMap<>(users.size() * 2);
+        for (UserInfo user : users) {
+            byUserId.put(normalize(user.getUserid()), user);
+            byUid.put(user.getUid(), user);
+        }
+        this.users = List.copyOf(users);
+        this.byUserId = byUserId;
+        this.byUid = byUid;
+        this.userCount = userCount;
+        this.fpCount = fpCount;
+        this.valid = true;
+    }
+
+    public void invalidate() {
+        this.valid = false;
+    }
+
+    /**
+     * Таблица выгружена и не сброшена собственными изменениями.
+     */
+    public boolean isValid() {
+        return this.valid;
+    }
+
+    public List<UserInfo> users() {
+        return this.users;
+    }
+
+    public UserInfo byUserId(String userId) {
+        return this.byUserId.get(normalize(userId));
+    }
+
+    public UserInfo byUid(int uid) {
+        return this.byUid.get(uid);
+    }
+
+    /**
+     * user ID хранится в устройстве как строка фиксированной длины, дополненная нулями.
+     */
+    public static String normalize(String userId) {
+        if (userId == null) {
+            return "";
+        }
+        int end = userId.indexOf('\u0000');
+        return (end >= 0 ? userId.substring(0, end) : userId).trim();
+    }
+}
@@ -0,0 +1,49 @@
+package ua.varus.iclock.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Потоковый разбор таблицы пользователей (CMD_USERTEMP_RRQ) без 4 байт размера таблицы.
+ * <p>
+ * Запись пользователя занимает 72 байта и может быть разрезана между пакетами. Каждая запись
+ * собирается во внутреннем буфере: {@code UserInfo.encodeUser} читает запись относительными
+ * чтениями с начала буфера, поэтому получатель всегда видит буфер с position 0 и limit 72.
+ */
+public final class UserTableParser {
+
+    public static final int RECORD_SIZE = 72;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    /**
+     * Получатель записи. Буфер действителен только на время вызова.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(ByteBuffer record);
+    }
+
+    /**
+     * Передаёт очередной фрагмент таблицы. Позиция фрагмента сдвигается до limit.
+     */
+    public void feed(ByteBuffer chunk, RecordVisitor visitor) {
+        while (chunk.hasRemaining()) {
+            int n = Math.min(this.record.remaining(), chunk.remaining());
+            this.record.put(this.record.position(), chunk, chunk.position(), n);
+            this.record.position(this.record.position() + n);
+            chunk.position(chunk.position() + n);
+            if (!this.record.hasRemaining()) {
+                this.record.rewind();
+                visitor.visit(this.record);
+                this.record.clear();
+            }
+        }
+    }
+
+    /**
+     * Количество байт неполной записи, ожидающих продолжения.
+     */
+    public int pendingBytes() {
+        return this.record.position();
+    }
+}
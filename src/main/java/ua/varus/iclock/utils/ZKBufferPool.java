@@ -0,0 +1,55 @@
+package ua.varus.iclock.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Пул буферов приёма, размер которых равен максимальному кадру протокола.
+ * Каждое соединение берёт буфер при подключении и возвращает при закрытии,
+ * поэтому чтение ответа не создаёт новых массивов.
+ */
+public final class ZKBufferPool {
+
+    /**
+     * Максимальный размер кадра: 64 КБ данных (предел UDP-датаграммы и чанка TCP) плюс заголовок.
+     */
+    public static final int MAX_FRAME_SIZE = 65536 + ZKCommand.HEADER_SIZE;
+
+    private static final ZKBufferPool SHARED = new ZKBufferPool(MAX_FRAME_SIZE, 512);
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free;
+
+    public ZKBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public static ZKBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Возвращает очищенный heap-буфер (с доступным array()), чтобы его можно было
+     * напрямую отдать в DatagramPacket без копирования.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = this.free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(this.bufferSize);
+        }
+        return buffer.clear().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == this.bufferSize) {
+            this.free.offer(buffer);
+        }
+    }
+
+    public int bufferSize() {
+        return this.bufferSize;
+    }
+}
@@ -0,0 +1,139 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.logging.Logger;
+
+/**
+ * Загрузка больших данных (шаблоны, таблицы пользователей, файлы) в буфер устройства.
+ * <p>
+ * Данные режутся на куски CMD_DATA, которые помещаются в одну датаграмму без IP-фрагментации,
+ * и отправляются окном без ожидания подтверждения каждого куска. После передачи
+ * контрольная сумма буфера (CMD_CHECKSUM_BUFFER) сравнивается с локальной; передача
+ * повторяется целиком только при расхождении или потере подтверждения. Устройство, не сообщившее
+ * сумму, и расхождение после всех попыток — ошибка загрузки. Сверку можно выключить только явно,
+ * для устройства с прошивкой, которая считает сумму буфера иначе ({@link ZKTerminalV#setBufferChecksum}).
+ * После {@link #load} данные лежат в буфере — вызывающий отправляет команду, которая их применяет,
+ * и освобождает буфер (CMD_FREE_DATA).
+ */
+public final class ZKBufferWriter {
+
+    private static final Logger log = Logger.getLogger(ZKBufferWriter.class.getName());
+
+    /** Кусок, который принимают все прошивки; кадр 1032 байта, как и при чтении. */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+    /** Ethernet MTU 1500 минус заголовки IP (20), UDP (8) и пакета ZK. */
+    static final int MAX_UDP_CHUNK = 1500 - 20 - 8 - ZKCommand.HEADER_SIZE;
+
+    private static final int UDP_WINDOW = 8;
+    private static final int TCP_WINDOW = 32;
+
+    private final ZKTerminalV terminal;
+    private final int chunkSize;
+    private final int window;
+    private final int maxAttempts;
+    private final boolean verifyChecksum;
+
+    ZKBufferWriter(ZKTerminalV terminal, boolean reliable, int chunkSize, int maxAttempts, boolean verifyChecksum) {
+        this.terminal = terminal;
+        this.chunkSize = reliable ? chunkSize : Math.min(chunkSize, MAX_UDP_CHUNK);
+        this.window = reliable ? TCP_WINDOW : UDP_WINDOW;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.verifyChecksum = verifyChecksum;
+    }
+
+    public void load(byte[] data) throws IOException {
+        this.load(data, 0, data.length);
+    }
+
+    /**
+     * Передаёт данные в буфер устройства и проверяет контрольную сумму.
+     *
+     * @throws IOException если устройство отклонило команду, не сообщило сумму
+     *                     или сумма не сошлась после всех попыток
+     */
+    public void load(byte[] data, int offset, int length) throws IOException {
+        long expected = bufferChecksum(data, offset, length);
+        String failure = null;
+        for (int attempt = 1; attempt <= this.maxAttempts; attempt++) {
+            try {
+                long actual = this.transfer(data, offset, length);
+                if (!this.verifyChecksum || actual == expected) {
+                    return;
+                }
+                if (actual < 0) {
+                    throw new IOException(this.terminal.getIp() + " did not report the buffer checksum for "
+                            + length + " bytes");
+                }
+                failure = "checksum mismatch: device " + Long.toHexString(actual) + ", local " + Long.toHexString(expected);
+            } catch (SocketTimeoutException e) {
+                failure = e.getMessage();
+            }
+            log.warning("Buffer upload of " + length + " bytes to " + this.terminal.getIp()
+                    + ", attempt " + attempt + ": " + failure);
+            if (attempt < this.maxAttempts) {
+                this.terminal.metrics().retransmit(CommandCodeEnum.CMD_DATA);
+            }
+        }
+        throw new IOException("Buffer upload of " + length + " bytes failed after " + this.maxAttempts + " attempt(s): " + failure);
+    }
+
+    /**
+     * @return контрольная сумма буфера по данным устройства или -1, если устройство её не сообщило
+     */
+    private long transfer(byte[] data, int offset, int length) throws IOException {
+        // остаток прошлой (прерванной) передачи не должен попасть в буфер
+        this.terminal.exchange(CommandCodeEnum.CMD_FREE_DATA, null);
+
+        ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(length);
+        ZKReplyFrame reply = this.terminal.exchange(CommandCodeEnum.CMD_PREPARE_DATA, size.array());
+        if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+            throw new IOException("Device refused CMD_PREPARE_DATA for " + length + " bytes, reply " + reply.getRawCode());
+        }
+
+        int sent = 0;
+        int chunks = 0;
+        while (sent < length) {
+            int first = -1;
+            int inFlight = 0;
+            while (inFlight < this.window && sent < length) {
+                int n = Math.min(this.chunkSize, length - sent);
+                int replyId = this.terminal.post(CommandCodeEnum.CMD_DATA, data, offset + sent, n);
+                if (inFlight == 0) {
+                    first = replyId;
+                }
+                inFlight++;
+                sent += n;
+            }
+            this.terminal.awaitAcks(first, inFlight);
+            chunks += inFlight;
+        }
+        this.terminal.metrics().chunks(CommandCodeEnum.CMD_DATA, chunks);
+
+        reply = this.terminal.exchange(CommandCodeEnum.CMD_CHECKSUM_BUFFER, null);
+        if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+            throw new IOException("Device refused CMD_CHECKSUM_BUFFER, reply " + reply.getRawCode());
+        }
+        if (reply.payloadLength() < 4) {
+            return -1;
+        }
+        ByteBuffer payload = reply.payload().order(ByteOrder.LITTLE_ENDIAN);
+        return payload.getInt(payload.position()) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Контрольная сумма буфера так, как её считает устройство: сумма байт по модулю 2^32.
+     * Это не контрольная сумма пакета ({@link ZKCommand#checksum}), а сумма содержимого буфера.
+     */
+    public static long bufferChecksum(byte[] data, int offset, int length) {
+        long sum = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            sum += data[i] & 255;
+        }
+        return sum & 0xFFFFFFFFL;
+    }
+}
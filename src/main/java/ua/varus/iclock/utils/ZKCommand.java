@@ -1,73 +1,97 @@
 package ua.varus.iclock.utils;
 
-import com.zkteco.utils.SecurityUtils;
-
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class ZKCommand {
     public static final int[] PACKET_START = new int[]{80, 80, 130, 125};
+    public static final int HEADER_SIZE = 8;
+    private static final int USHRT_MAX = 65535;
 
-    public static int[] getPacket(CommandCodeEnum commandCode, int sessionId, int replyNumber, int[] data) {
-        int[] payloadForChecksum = new int[6 + (data == null ? 0 : data.length)];
-        int[] finalPayload = new int[8 + (data == null ? 0 : data.length)];
-        byte[] commandBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(commandCode.getCode()).array();
-        byte[] sessionIdBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(sessionId).array();
-        byte[] replyNumberBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(replyNumber).array();
-        payloadForChecksum[0] = commandBytes[0] & 255;
-        payloadForChecksum[1] = commandBytes[1] & 255;
-        finalPayload[0] = commandBytes[0] & 255;
-        finalPayload[1] = commandBytes[1] & 255;
-        payloadForChecksum[2] = sessionIdBytes[0] & 255;
-        payloadForChecksum[3] = sessionIdBytes[1] & 255;
-        finalPayload[4] = sessionIdBytes[0] & 255;
-        finalPayload[5] = sessionIdBytes[1] & 255;
-        payloadForChecksum[4] = replyNumberBytes[0] & 255;
-        payloadForChecksum[5] = replyNumberBytes[1] & 255;
-        finalPayload[6] = replyNumberBytes[0] & 255;
-        finalPayload[7] = replyNumberBytes[1] & 255;
-        if (data != null) {
-            System.arraycopy(data, 0, payloadForChecksum, 6, data.length);
-            System.arraycopy(data, 0, finalPayload, 8, data.length);
-        }
+    /**
+     * Кодирует пакет команды в переданный буфер без промежуточных массивов.
+     * Буфер очищается, заполняется заголовком, данными и контрольной суммой,
+     * после чего переводится в режим чтения (flip) и готов к отправке.
+     *
+     * @param out         переиспользуемый буфер (heap или direct)
+     * @param commandCode код команды
+     * @param sessionId   идентификатор сессии
+     * @param replyNumber номер ответа
+     * @param data        полезная нагрузка или null
+     * @return тот же буфер, позиция 0, limit = длина пакета
+     */
+    public static ByteBuffer encode(ByteBuffer out, CommandCodeEnum commandCode, int sessionId, int replyNumber, byte[] data) {
+        return encode(out, commandCode, sessionId, replyNumber, data, 0, data == null ? 0 : data.length);
+    }
 
-        int checksum = SecurityUtils.calculateChecksum(payloadForChecksum);
-        byte[] checksumBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(checksum).array();
-        finalPayload[2] = checksumBytes[0] & 255;
-        finalPayload[3] = checksumBytes[1] & 255;
-        return finalPayload;
+    public static ByteBuffer encode(ByteBuffer out, CommandCodeEnum commandCode, int sessionId, int replyNumber, byte[] data, int offset, int length) {
+        out.clear().order(ByteOrder.LITTLE_ENDIAN);
+        out.putShort((short) commandCode.getCode());
+        out.putShort((short) 0);
+        out.putShort((short) sessionId);
+        out.putShort((short) replyNumber);
+        if (data != null && length > 0) {
+            out.put(data, offset, length);
+        }
+        out.flip();
+        out.putShort(2, (short) checksum(out, 0, out.limit()));
+        return out;
     }
 
-    public static int[] getPacketByte(CommandCodeEnum commandCode, int sessionId, int replyNumber, byte[] data) {
-        int[] payloadForChecksum = new int[6 + (data == null ? 0 : data.length)];
-        int[] finalPayload = new int[8 + (data == null ? 0 : data.length)];
-        byte[] commandBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(commandCode.getCode()).array();
-        byte[] sessionIdBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(sessionId).array();
-        byte[] replyNumberBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(replyNumber).array();
-        payloadForChecksum[0] = commandBytes[0] & 255;
-        payloadForChecksum[1] = commandBytes[1] & 255;
-        finalPayload[0] = commandBytes[0] & 255;
-        finalPayload[1] = commandBytes[1] & 255;
-        payloadForChecksum[2] = sessionIdBytes[0] & 255;
-        payloadForChecksum[3] = sessionIdBytes[1] & 255;
-        finalPayload[4] = sessionIdBytes[0] & 255;
-        finalPayload[5] = sessionIdBytes[1] & 255;
-        payloadForChecksum[4] = replyNumberBytes[0] & 255;
-        payloadForChecksum[5] = replyNumberBytes[1] & 255;
-        finalPayload[6] = replyNumberBytes[0] & 255;
-        finalPayload[7] = replyNumberBytes[1] & 255;
+    public static ByteBuffer encode(ByteBuffer out, CommandCodeEnum commandCode, int sessionId, int replyNumber, int[] data) {
+        out.clear().order(ByteOrder.LITTLE_ENDIAN);
+        out.putShort((short) commandCode.getCode());
+        out.putShort((short) 0);
+        out.putShort((short) sessionId);
+        out.putShort((short) replyNumber);
         if (data != null) {
-            for(int i = 0; i < data.length; ++i) {
-                payloadForChecksum[6 + i] = data[i] & 255;
-                finalPayload[8 + i] = data[i] & 255;
+            for (int value : data) {
+                out.put((byte) value);
             }
         }
+        out.flip();
+        out.putShort(2, (short) checksum(out, 0, out.limit()));
+        return out;
+    }
 
-        int checksum = SecurityUtils.calculateChecksum(payloadForChecksum);
-        byte[] checksumBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(checksum).array();
-        finalPayload[2] = checksumBytes[0] & 255;
-        finalPayload[3] = checksumBytes[1] & 255;
-        ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(finalPayload.length).array();
-        return finalPayload;
+    /**
+     * Контрольная сумма пакета ZK (та же, что и SecurityUtils.calculateChecksum):
+     * сумма 16-битных little-endian слов с переносом, затем инверсия.
+     * Поле контрольной суммы (байты 2-3) должно быть обнулено перед вызовом.
+     */
+    public static int checksum(ByteBuffer packet, int from, int to) {
+        int sum = 0;
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            sum += (packet.get(i) & 255) | (packet.get(i + 1) & 255) << 8;
+            if (sum > USHRT_MAX) {
+                sum -= USHRT_MAX;
+            }
+        }
+        if (i < to) {
+            sum += packet.get(i) & 255;
+        }
+        while (sum > USHRT_MAX) {
+            sum -= USHRT_MAX;
+        }
+        return ~sum & USHRT_MAX;
+    }
+
+    public static int[] getPacket(CommandCodeEnum commandCode, int sessionId, int replyNumber, int[] data) {
+        ByteBuffer packet = encode(ByteBuffer.allocate(HEADER_SIZE + (data == null ? 0 : data.length)), commandCode, sessionId, replyNumber, data);
+        return toUnsignedInts(packet);
+    }
+
+    public static int[] getPacketByte(CommandCodeEnum commandCode, int sessionId, int replyNumber, byte[] data) {
+        ByteBuffer packet = encode(ByteBuffer.allocate(HEADER_SIZE + (data == null ? 0 : data.length)), commandCode, sessionId, replyNumber, data);
+        return toUnsignedInts(packet);
+    }
+
+    private static int[] toUnsignedInts(ByteBuffer packet) {
+        int[] result = new int[packet.limit()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = packet.get(i) & 255;
+        }
+        return result;
     }
-}
\ No newline at end of file
+}
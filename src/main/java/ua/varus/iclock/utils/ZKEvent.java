@@ -0,0 +1,168 @@
+package ua.varus.iclock.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * Событие реального времени (CMD_REG_EVENT), разбираемое прямо в буфере приёма.
+ * <p>
+ * Один экземпляр переиспользуется для всех пакетов соединения и действителен только
+ * во время вызова {@link ZKEventListener#onEvent}. Числовые поля читаются без выделения памяти;
+ * {@link #userId()} и {@link #time()} создают объекты и вызываются по необходимости.
+ * Код события приходит в поле номера сессии заголовка.
+ * <p>
+ * Отметка (EF_ATTLOG) бывает нескольких форматов — по длине данных:
+ * <ul>
+ *     <li>10, 14: [user_sn(2)][verify(1)][state(1)][time(6)]...</li>
+ *     <li>12: [user_sn(4)][verify(1)][state(1)][time(6)]</li>
+ *     <li>32 и больше: [user_id(24)][verify(1)][state(1)][time(6)]...</li>
+ * </ul>
+ * Время — 6 байт: год от 2000, месяц, день, час, минута, секунда.
+ */
+public final class ZKEvent {
+
+    private static final int USER_ID_LENGTH = 24;
+
+    private int type;
+    private ByteBuffer payload;
+    private int offset;
+    private int length;
+
+    void wrap(ZKReplyFrame frame) {
+        this.type = frame.getSessionId();
+        this.payload = frame.payloadBuffer();
+        this.offset = this.payload.position();
+        this.length = this.payload.remaining();
+    }
+
+    /**
+     * Код события — одно из значений EventCode (EF_ATTLOG, EF_VERIFY, EF_FINGER, EF_ALARM...).
+     */
+    public int type() {
+        return this.type;
+    }
+
+    public boolean is(int eventCode) {
+        return this.type == eventCode;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Данные события как срез буфера приёма (без копирования).
+     */
+    public ByteBuffer payload() {
+        return this.payload.slice(this.offset, this.length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Отметка: внутренний номер пользователя для коротких форматов, иначе -1.
+     */
+    public int userSn() {
+        if (this.length == 12) {
+            return this.payload.getInt(this.offset);
+        }
+        if (this.length == 10 || this.length == 14) {
+            return this.payload.getShort(this.offset) & 0xFFFF;
+        }
+        if (this.length >= 4 && this.length < 10) {
+            // EF_VERIFY: [user_sn(4)], 0xFFFFFFFF — пользователь не опознан
+            return this.payload.getInt(this.offset);
+        }
+        return -1;
+    }
+
+    /**
+     * Отметка: способ подтверждения (палец, пароль, карта...).
+     */
+    public int verifyType() {
+        return this.byteAt(this.fieldsOffset());
+    }
+
+    /**
+     * Отметка: состояние (приход, уход...).
+     */
+    public int state() {
+        return this.byteAt(this.fieldsOffset() + 1);
+    }
+
+    /**
+     * Отметка: время в упакованном виде {@link ZKTime}, можно сравнивать с временем записей журнала.
+     */
+    public long packedTime() {
+        int base = this.fieldsOffset() + 2;
+        if (base + 6 > this.length) {
+            return -1;
+        }
+        long packed = this.byteAt(base);
+        packed = packed * 12 + (this.byteAt(base + 1) - 1);
+        packed = packed * 31 + (this.byteAt(base + 2) - 1);
+        packed = packed * 24 + this.byteAt(base + 3);
+        packed = packed * 60 + this.byteAt(base + 4);
+        return packed * 60 + this.byteAt(base + 5);
+    }
+
+    public LocalDateTime time() {
+        long packed = this.packedTime();
+        return packed < 0 ? null : ZKTime.toLocalDateTime(packed);
+    }
+
+    /**
+     * Формат отметки с user ID (32 байта и больше); короткие форматы несут только {@link #userSn()}.
+     */
+    public boolean hasUserId() {
+        return this.length >= 32;
+    }
+
+    /**
+     * Отметка: user ID строкой; для коротких форматов — внутренний номер пользователя строкой.
+     * Это не user ID: у копии той же отметки в журнале будет настоящий user ID, поэтому для
+     * сопоставления с журналом номер переводится через таблицу пользователей ({@link UserDirectory#byUid}).
+     */
+    public String userId() {
+        if (this.length < 32) {
+            int sn = this.userSn();
+            return sn < 0 ? null : Integer.toString(sn);
+        }
+        int end = 0;
+        while (end < USER_ID_LENGTH && this.payload.get(this.offset + end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end];
+        this.payload.get(this.offset, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Тревога (EF_ALARM): тип тревоги из первых байт данных, -1 если данных нет.
+     */
+    public int alarmType() {
+        if (this.length >= 4) {
+            return this.payload.getInt(this.offset);
+        }
+        if (this.length >= 2) {
+            return this.payload.getShort(this.offset) & 0xFFFF;
+        }
+        return this.length == 1 ? this.byteAt(0) : -1;
+    }
+
+    private int fieldsOffset() {
+        if (this.length >= 32) {
+            return USER_ID_LENGTH;
+        }
+        return this.length == 12 ? 4 : 2;
+    }
+
+    private int byteAt(int index) {
+        return index < this.length ? this.payload.get(this.offset + index) & 255 : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "ZKEvent[type=" + this.type + ", length=" + this.length + "]";
+    }
+}
@@ -0,0 +1,82 @@
+package ua.varus.iclock.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Раздаёт события реального времени одного терминала подписчикам по маске кодов событий.
+ * Разбор и раздача не выделяют память: все подписчики получают один и тот же {@link ZKEvent}.
+ */
+public final class ZKEventDispatcher {
+
+    private static final Logger log = Logger.getLogger(ZKEventDispatcher.class.getName());
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ZKEvent event = new ZKEvent();
+    private final AtomicLong dispatched = new AtomicLong();
+
+    /**
+     * Подписка; {@link #close()} отменяет её.
+     */
+    public final class Subscription implements AutoCloseable {
+
+        private final int mask;
+        private final ZKEventListener listener;
+
+        private Subscription(int mask, ZKEventListener listener) {
+            this.mask = mask;
+            this.listener = listener;
+        }
+
+        @Override
+        public void close() {
+            ZKEventDispatcher.this.subscriptions.remove(this);
+        }
+    }
+
+    /**
+     * @param mask объединение кодов EventCode, которые нужны подписчику
+     */
+    public Subscription subscribe(int mask, ZKEventListener listener) {
+        Subscription subscription = new Subscription(mask, listener);
+        this.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Объединённая маска всех подписок — какие события регистрировать на устройстве.
+     */
+    public int mask() {
+        int mask = 0;
+        for (Subscription subscription : this.subscriptions) {
+            mask |= subscription.mask;
+        }
+        return mask;
+    }
+
+    public long dispatchedCount() {
+        return this.dispatched.get();
+    }
+
+    /**
+     * Передаёт пакет события подписчикам. Ошибка подписчика не мешает остальным.
+     */
+    void dispatch(ZKReplyFrame frame) {
+        this.event.wrap(frame);
+        int type = this.event.type();
+        for (Subscription subscription : this.subscriptions) {
+            if ((subscription.mask & type) == 0) {
+                continue;
+            }
+            try {
+                subscription.listener.onEvent(this.event);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Event listener failed on " + this.event, e);
+            }
+        }
+        this.dispatched.incrementAndGet();
+    }
+}
@@ -0,0 +1,15 @@
+package ua.varus.iclock.utils;
+
+/**
+ * Получатель событий реального времени. Вызывается в потоке, читающем соединение;
+ * пока он не вернётся, событие не подтверждается и следующие пакеты не читаются —
+ * медленный получатель притормаживает устройство, а не копит очередь.
+ */
+@FunctionalInterface
+public interface ZKEventListener {
+
+    /**
+     * @param event представление пакета, действительное только во время вызова
+     */
+    void onEvent(ZKEvent event);
+}
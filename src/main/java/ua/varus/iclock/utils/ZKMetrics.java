@@ -0,0 +1,48 @@
+package ua.varus.iclock.utils;
+
+/**
+ * Наблюдатель обмена с терминалом: вызывается из потока команды на каждом пакете,
+ * поэтому реализация должна быть дешёвой и не бросать исключений.
+ * По умолчанию ничего не делает ({@link #NONE}).
+ */
+public interface ZKMetrics {
+
+    ZKMetrics NONE = new ZKMetrics() {
+    };
+
+    /**
+     * Отправлен пакет команды (включая повторные отправки и куски CMD_DATA).
+     */
+    default void sent(CommandCodeEnum command, int bytes) {
+    }
+
+    /**
+     * Принят пакет в ответ на команду (или событие — с командой CMD_REG_EVENT).
+     */
+    default void received(CommandCodeEnum command, int bytes) {
+    }
+
+    /**
+     * Команда получила ответ: время от первой отправки до ответа и код ответа.
+     */
+    default void exchange(CommandCodeEnum command, int replyCode, long nanos) {
+    }
+
+    /**
+     * Многопакетная передача по команде завершилась: сколько пакетов данных прошло.
+     */
+    default void chunks(CommandCodeEnum command, int count) {
+    }
+
+    /**
+     * Команда (или вся передача буфера) отправлена повторно.
+     */
+    default void retransmit(CommandCodeEnum command) {
+    }
+
+    /**
+     * Устройство не ответило на команду за все попытки.
+     */
+    default void timeout(CommandCodeEnum command) {
+    }
+}
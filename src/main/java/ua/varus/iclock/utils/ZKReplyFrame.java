@@ -0,0 +1,123 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.commands.ZKCommandReply;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Ответ устройства, разобранный без копирования: заголовок читается
+ * напрямую из буфера, а полезная нагрузка доступна как срез (view) исходного буфера.
+ * Срез действителен, пока буфер приёма не переиспользован следующим чтением.
+ */
+public final class ZKReplyFrame {
+
+    private final int rawCode;
+    private final int sessionId;
+    private final int replyId;
+    private final ByteBuffer payload;
+
+    private ZKReplyFrame(int rawCode, int sessionId, int replyId, ByteBuffer payload) {
+        this.rawCode = rawCode;
+        this.sessionId = sessionId;
+        this.replyId = replyId;
+        this.payload = payload;
+    }
+
+    /**
+     * Разбирает пакет из буфера в диапазоне [position, limit).
+     */
+    public static ZKReplyFrame decode(ByteBuffer frame) {
+        int start = frame.position();
+        int length = frame.remaining();
+        if (length < ZKCommand.HEADER_SIZE) {
+            throw new IllegalArgumentException("Reply too short: " + length + " bytes");
+        }
+        ByteBuffer le = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int rawCode = le.getShort(start) & 0xFFFF;
+        int sessionId = le.getShort(start + 4) & 0xFFFF;
+        int replyId = le.getShort(start + 6) & 0xFFFF;
+        le.position(start + ZKCommand.HEADER_SIZE);
+        ByteBuffer payload = le.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return new ZKReplyFrame(rawCode, sessionId, replyId, payload);
+    }
+
+    public CommandReplyCodeEnum getCode() {
+        return CommandReplyCodeEnum.decode(this.rawCode);
+    }
+
+    public int getRawCode() {
+        return this.rawCode;
+    }
+
+    public int getSessionId() {
+        return this.sessionId;
+    }
+
+    public int getReplyId() {
+        return this.replyId;
+    }
+
+    /**
+     * Длина всего пакета вместе с 8-байтным заголовком.
+     */
+    public int length() {
+        return ZKCommand.HEADER_SIZE + this.payload.remaining();
+    }
+
+    public int payloadLength() {
+        return this.payload.remaining();
+    }
+
+    /**
+     * Полезная нагрузка как независимый по позиции view (little-endian).
+     */
+    public ByteBuffer payload() {
+        return this.payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Сам буфер полезной нагрузки, без копии view; только для чтения по абсолютным индексам.
+     */
+    ByteBuffer payloadBuffer() {
+        return this.payload;
+    }
+
+    public int payloadByte(int index) {
+        return this.payload.get(index) & 255;
+    }
+
+    public String payloadAsString(Charset charset) {
+        ByteBuffer view = this.payload();
+        if (view.hasArray()) {
+            return new String(view.array(), view.arrayOffset() + view.position(), view.remaining(), charset);
+        }
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    public byte[] payloadAsBytes() {
+        byte[] bytes = new byte[this.payload.remaining()];
+        this.payload().get(bytes);
+        return bytes;
+    }
+
+    public int[] payloadAsInts() {
+        int[] ints = new int[this.payload.remaining()];
+        for (int i = 0; i < ints.length; ++i) {
+            ints[i] = this.payload.get(i) & 255;
+        }
+        return ints;
+    }
+
+    /**
+     * Конвертация в ZKCommandReply из ZKTeco4J. Конструктор библиотечного класса
+     * принимает только int[], поэтому копия делается один раз и только на границе публичного API.
+     */
+    public ZKCommandReply toCommandReply(int sessionId) {
+        return new ZKCommandReply(this.getCode(), sessionId, this.replyId, this.payloadAsInts());
+    }
+}
@@ -2,8 +2,6 @@ package ua.varus.iclock.utils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.zkteco.Enum.AttendanceStateEnum;
-import com.zkteco.Enum.AttendanceTypeEnum;
 import com.zkteco.Enum.CommandReplyCodeEnum;
 import com.zkteco.Enum.OnOffenum;
 import com.zkteco.Enum.UserRoleEnum;
@@ -16,45 +14,125 @@ import com.zkteco.commands.UserInfo;
 import com.zkteco.commands.ZKCommandReply;
 import com.zkteco.utils.HexUtils;
 import com.zkteco.utils.SecurityUtils;
-import org.apache.commons.lang3.StringUtils;
+import ua.varus.iclock.transport.ZKTransport;
+import ua.varus.iclock.transport.ZKTransportSettings;
 
 import java.io.FileWriter;
+import java.io.Flushable;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ZKTerminalV {
 
     private static final Logger log = Logger.getLogger(ZKTerminalV.class.getName());
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /** Таблица шаблонов отпечатков для CMD_DB_RRQ. */
+    private static final int FCT_FINGERTMP = 2;
+    /** Наибольший кусок буфера устройства за один CMD_DATA_RDY. */
+    private static final int UDP_MAX_CHUNK = 16 * 1024;
+    private static final int TCP_MAX_CHUNK = 0xFFC0;
+    private static final int DEFAULT_OPTIONS_PIPELINE_DEPTH = 8;
+    /**
+     * Команды, запускающие передачу данных. Устройство не узнаёт повтор по номеру ответа,
+     * поэтому повтор такой команды начал бы вторую передачу или дописал буфер ещё раз.
+     */
+    private static final Set<CommandCodeEnum> TRANSFER_COMMANDS = EnumSet.of(CommandCodeEnum.CMD_ATTLOG_RRQ,
+            CommandCodeEnum.CMD_USERTEMP_RRQ, CommandCodeEnum.CMD_DATA_RDY, CommandCodeEnum.CMD_DATA);
+    /** Сколько тишины в канале считать концом досылаемых устройством пакетов. */
+    private static final int DRAIN_QUIET_MILLIS = 200;
+    /** Поля JSON-копии {@link #createBackup(Path)} и соответствующие им параметры устройства. */
+    private static final Map<String, String> BACKUP_OPTIONS = backupOptions();
     
-    private DatagramSocket socket;
-    private InetAddress address;
+    private ZKTransport transport;
+    private final ZKTransportSettings settings;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
     private final String ip;
     private final int port;
     private int sessionId;
     private int replyNo;
+    private int lastReplyNo;
+    private final UserDirectory userDirectory = new UserDirectory();
+    private final ZKEventDispatcher events = new ZKEventDispatcher();
+    /** Подтверждения событий кодируются отдельно, чтобы не затереть sendBuffer (он нужен для повтора команды). */
+    private final ByteBuffer ackBuffer = ByteBuffer.allocate(ZKCommand.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /** События, зарегистрированные на устройстве в текущей сессии. */
+    private int realtimeMask;
+    private ZKMetrics metrics = ZKMetrics.NONE;
+    /** Последняя отправленная команда и время её первой отправки — для метрик обмена. */
+    private CommandCodeEnum lastCommand = CommandCodeEnum.CMD_CONNECT;
+    private long lastSentNanos;
+    /** Запросов CMD_OPTIONS_RRQ в полёте одновременно. */
+    private int optionsPipelineDepth = DEFAULT_OPTIONS_PIPELINE_DEPTH;
+    private DeviceInfo deviceInfo;
+    private long deviceInfoNanos;
+    private Duration deviceInfoTtl = Duration.ofMinutes(1);
+    private boolean bufferChecksum = true;
+    private Supplier<ZKTransport> transportFactory;
 
     public ZKTerminalV(String ip, int port) {
+        this(ip, port, ZKTransportSettings.DEFAULT);
+    }
+
+    public ZKTerminalV(String ip, int port, ZKTransportSettings settings) {
         this.ip = ip;
         this.port = port;
+        this.settings = settings;
+    }
+
+    /**
+     * Подключает наблюдателя обмена (задержки, объёмы, повторы по каждой команде).
+     */
+    public void setMetrics(ZKMetrics metrics) {
+        this.metrics = metrics != null ? metrics : ZKMetrics.NONE;
+    }
+
+    ZKMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Сверять ли контрольную сумму буфера после загрузки ({@link #bufferWriter()}). Выключается только
+     * для прошивок, которые считают сумму буфера не так, как {@link ZKBufferWriter#bufferChecksum}.
+     */
+    public void setBufferChecksum(boolean verify) {
+        this.bufferChecksum = verify;
+    }
+
+    /**
+     * Откуда брать транспорт при {@link #connect()}; {@code null} — из настроек
+     * ({@link ZKTransportSettings#newTransport()}). Действует со следующего подключения.
+     */
+    public void setTransportFactory(Supplier<ZKTransport> factory) {
+        this.transportFactory = factory;
     }
 
     public ZKCommandReply connect() throws IOException, DeviceNotConnectException {
@@ -63,31 +141,24 @@ public class ZKTerminalV {
         } else {
             this.sessionId = 0;
             this.replyNo = 0;
-            this.socket = new DatagramSocket(this.port);
-            this.address = InetAddress.getByName(this.ip);
-            int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_CONNECT, this.sessionId, this.replyNo, (int[])null);
-            byte[] buf = new byte[toSend.length];
-            int index = 0;
-
-            for(int byteToSend : toSend) {
-                buf[index++] = (byte)byteToSend;
-            }
-
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-            this.socket.send(packet);
-            ++this.replyNo;
-            int[] response = this.readResponse();
-            CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-            this.sessionId = response[4] + response[5] * 256;
-            int replyId = response[6] + response[7] * 256;
-            int[] payloads = new int[response.length - 8];
-            System.arraycopy(response, 8, payloads, 0, payloads.length);
+            this.transport = this.transportFactory != null ? this.transportFactory.get() : this.settings.newTransport();
+            this.transport.open(InetAddress.getByName(this.ip), this.port, this.settings.connectTimeoutMillis());
+            this.sendCommand(CommandCodeEnum.CMD_CONNECT, (byte[])null);
+            ZKReplyFrame reply = this.readReply(this.settings.connectTimeoutMillis());
+            CommandReplyCodeEnum replyCode = reply.getCode();
+            this.sessionId = reply.getSessionId();
+            int replyId = reply.getReplyId();
+            int[] payloads = reply.payloadAsInts();
             return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
         }
     }
 
     public boolean testPing() {
         try {
+            // локальный симулятор: процесс ping не нужен (и его может не быть в контейнере)
+            if (InetAddress.getByName(this.ip).isLoopbackAddress()) {
+                return true;
+            }
             Process process;
             if (System.getProperty("os.name").toLowerCase().contains("win")) {
                 process = Runtime.getRuntime().exec("ping -n 1 " + this.ip);
@@ -104,85 +175,59 @@ public class ZKTerminalV {
     }
 
     public void disconnect() throws IOException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_EXIT, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+        this.sendCommand(CommandCodeEnum.CMD_EXIT, (byte[])null);
+        this.closeSocket();
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+    public void socketClose() {
+        if (this.transport != null && this.transport.isOpen()) {
+            this.closeSocket();
         }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        this.socket.close();
     }
 
-    public void socketClose() {
-        if (!this.socket.isClosed()) {
-            this.socket.close();
-        }
+    /**
+     * Сокет открыт и сессия получена от устройства.
+     */
+    public boolean isConnected() {
+        return this.transport != null && this.transport.isOpen() && this.sessionId != 0;
+    }
 
+    public String getIp() {
+        return this.ip;
     }
 
-    public ZKCommandReply enableDevice() throws IOException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_ENABLEDEVICE, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    public int getPort() {
+        return this.port;
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+    private void closeSocket() {
+        this.sessionId = 0;
+        this.realtimeMask = 0;
+        try {
+            this.transport.close();
+        } catch (IOException e) {
+            log.log(Level.FINE, "Transport close failed", e);
         }
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+    public ZKCommandReply enableDevice() throws IOException {
+        this.sendCommand(CommandCodeEnum.CMD_ENABLEDEVICE, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        return reply.toCommandReply(this.sessionId);
     }
 
     public ZKCommandReply disableDevice() throws IOException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_DISABLEDEVICE, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+        this.sendCommand(CommandCodeEnum.CMD_DISABLEDEVICE, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        return reply.toCommandReply(this.sessionId);
     }
 
     public ZKCommandReply connectAuth(int comKey) throws IOException {
         int[] key = SecurityUtils.authKey(comKey, this.sessionId);
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_AUTH, this.sessionId, this.replyNo, key);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+        this.sendCommand(CommandCodeEnum.CMD_AUTH, key);
+        ZKReplyFrame reply = this.readFrame();
+        return reply.toCommandReply(this.sessionId);
     }
 
     public ZKCommandReply enableRealtime(EventCode... events) throws IOException {
@@ -192,936 +237,498 @@ public class ZKTerminalV {
             allEvents |= event.getCode();
         }
 
-        String hex = StringUtils.leftPad(Integer.toHexString(allEvents), 8, "0");
-        int[] eventReg = new int[4];
-
-        for(int index = 3; hex.length() > 0; hex = hex.substring(2)) {
-            eventReg[index] = (int)Long.parseLong(hex.substring(0, 2), 16);
-            --index;
-        }
+        return this.enableRealtime(allEvents);
+    }
 
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_REG_EVENT, this.sessionId, this.replyNo, eventReg);
-        byte[] buf = new byte[toSend.length];
-        int var16 = 0;
+    public ZKCommandReply enableRealtimeAtt() throws IOException, ParseException {
+        return this.enableRealtime(EventCode.EF_ATTLOG.getCode());
+    }
 
-        for(int byteToSend : toSend) {
-            buf[var16++] = (byte)byteToSend;
+    /**
+     * Регистрирует события реального времени по маске кодов EventCode (CMD_REG_EVENT, 4 байта little-endian).
+     * Пришедшие события раздаются подписчикам {@link #events()} — во время ожидания ответов на команды
+     * и в {@link #pollEvents(int)}.
+     */
+    public ZKCommandReply enableRealtime(int eventMask) throws IOException {
+        byte[] eventReg = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(eventMask).array();
+        this.sendCommand(CommandCodeEnum.CMD_REG_EVENT, eventReg);
+        ZKReplyFrame reply = this.readFrame();
+        if (reply.getCode() == CommandReplyCodeEnum.CMD_ACK_OK) {
+            this.realtimeMask = eventMask;
         }
+        return reply.toCommandReply(this.sessionId);
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+    /**
+     * Маска событий, зарегистрированных в текущей сессии; после переподключения — 0.
+     */
+    public int getRealtimeMask() {
+        return this.realtimeMask;
     }
 
-    public ZKCommandReply enableRealtimeAtt() throws IOException, ParseException {
-        int allEvents = EventCode.EF_ATTLOG.getCode();
-        String hex = StringUtils.leftPad(Integer.toHexString(allEvents), 8, "0");
-        int[] eventReg = new int[4];
+    public ZKEventDispatcher events() {
+        return this.events;
+    }
 
-        for(int index = 3; hex.length() > 0; hex = hex.substring(2)) {
-            eventReg[index] = (int)Long.parseLong(hex.substring(0, 2), 16);
-            --index;
+    /**
+     * Ждёт события реального времени в течение {@code timeoutMillis} и раздаёт их подписчикам.
+     * Пакеты, не являющиеся событиями (запоздавшие ответы), отбрасываются.
+     *
+     * @return количество полученных событий
+     */
+    public int pollEvents(int timeoutMillis) throws IOException {
+        long before = this.events.dispatchedCount();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        try {
+            while (true) {
+                int remaining = (int) ((deadline - System.nanoTime()) / 1_000_000L);
+                if (remaining <= 0) {
+                    break;
+                }
+                ZKReplyFrame frame = this.transport.receive(remaining);
+                if (frame.getRawCode() == CommandCodeEnum.CMD_REG_EVENT.getCode()) {
+                    this.handleEvent(frame);
+                } else {
+                    log.fine("Discarding unsolicited reply " + frame.getRawCode() + " #" + frame.getReplyId());
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // событий больше нет
         }
+        return (int) (this.events.dispatchedCount() - before);
+    }
 
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_REG_EVENT, this.sessionId, this.replyNo, eventReg);
-        byte[] buf = new byte[toSend.length];
-        int var12 = 0;
+    /**
+     * Раздаёт событие и подтверждает его устройству (иначе оно будет прислано повторно).
+     */
+    private void handleEvent(ZKReplyFrame frame) throws IOException {
+        this.metrics.received(CommandCodeEnum.CMD_REG_EVENT, frame.length());
+        this.events.dispatch(frame);
+        ZKCommand.encode(this.ackBuffer, CommandCodeEnum.CMD_ACK_OK, this.sessionId, 0xFFFE, (byte[]) null);
+        this.transport.send(this.ackBuffer);
+    }
 
-        for(int byteToSend : toSend) {
-            buf[var12++] = (byte)byteToSend;
+    /**
+     * Следующий пакет, не являющийся событием; события по пути раздаются подписчикам.
+     */
+    private ZKReplyFrame receive(int timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (true) {
+            ZKReplyFrame frame = this.transport.receive(timeoutMillis);
+            if (frame.getRawCode() != CommandCodeEnum.CMD_REG_EVENT.getCode()) {
+                this.metrics.received(this.lastCommand, frame.length());
+                return frame;
+            }
+            this.handleEvent(frame);
+            timeoutMillis = (int) ((deadline - System.nanoTime()) / 1_000_000L);
+            if (timeoutMillis <= 0) {
+                throw new SocketTimeoutException(this.ip + ":" + this.port + " sent only events within the read timeout");
+            }
         }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
     public ZKCommandReply Poweroff() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_POWEROFF, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+        this.sendCommand(CommandCodeEnum.CMD_POWEROFF, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
-        this.socket.close();
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+        ZKCommandReply commandReply = reply.toCommandReply(this.sessionId);
+        this.closeSocket();
+        return commandReply;
     }
 
     public ZKCommandReply restart() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_RESTART, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+        this.sendCommand(CommandCodeEnum.CMD_RESTART, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
-        this.socket.close();
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+        ZKCommandReply commandReply = reply.toCommandReply(this.sessionId);
+        this.closeSocket();
+        return commandReply;
     }
 
     public List<AttendanceRecord> getAttendanceRecords() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_ATTLOG_RRQ, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
         List<AttendanceRecord> attendanceRecords = new ArrayList();
-        StringBuilder attendanceBuffer = new StringBuilder();
-        if (replyCode == CommandReplyCodeEnum.CMD_PREPARE_DATA) {
-            boolean first = true;
-
-            int lastDataRead;
-            do {
-                int[] readData = this.readResponse();
-                lastDataRead = readData.length;
-                String readPacket = HexUtils.bytesToHex(readData);
-                attendanceBuffer.append(readPacket.substring(first ? 24 : 16));
-                first = false;
-            } while(lastDataRead == 1032);
-        } else {
-            attendanceBuffer.append(HexUtils.bytesToHex(response).substring(24));
-        }
-
-        String attendance = attendanceBuffer.toString();
-
-        while(attendance.length() > 0) {
-            String record = attendance.substring(0, 80);
-            int seq = Integer.valueOf(record.substring(2, 4) + record.substring(0, 2), 16);
-            record = record.substring(4);
-            String userId = Character.toString((char)Integer.valueOf(record.substring(0, 2), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(2, 4), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(4, 6), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(6, 8), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(8, 10), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(10, 12), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(12, 14), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(14, 16), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(16, 18), 16).intValue());
-            record = record.substring(48);
-            int method = Integer.valueOf(record.substring(0, 2), 16);
-            AttendanceTypeEnum attendanceType = AttendanceTypeEnum.values()[method];
-            record = record.substring(2);
-            long encDate = (long)Integer.valueOf(record.substring(6, 8), 16) * 16777216L + (long)Integer.valueOf(record.substring(4, 6), 16) * 65536L + (long)Integer.valueOf(record.substring(2, 4), 16) * 256L + (long)Integer.valueOf(record.substring(0, 2), 16);
-            Date attendanceDate = HexUtils.extractDate(encDate);
-            record = record.substring(8);
-            int operation = Integer.valueOf(record.substring(0, 2), 16);
-            AttendanceStateEnum attendanceState = AttendanceStateEnum.values()[operation];
-            attendance = attendance.substring(80);
-            AttendanceRecord attendanceRecord = new AttendanceRecord(seq, userId.trim(), attendanceType, attendanceDate, attendanceState);
-            attendanceRecords.add(attendanceRecord);
-        }
-
+        this.streamAttendanceRecords(attendanceRecords::add);
         return attendanceRecords;
     }
 
-    public List<AttendanceRecord> getAttendanceRecordsForDateRange(String startTime, String endTime) throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_ATTLOG_RRQ, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        List<AttendanceRecord> attendanceRecords = new ArrayList();
-        StringBuilder attendanceBuffer = new StringBuilder();
-        if (replyCode == CommandReplyCodeEnum.CMD_PREPARE_DATA) {
-            boolean first = true;
-
-            int lastDataRead;
-            do {
-                int[] readData = this.readResponse();
-                lastDataRead = readData.length;
-                String readPacket = HexUtils.bytesToHex(readData);
-                attendanceBuffer.append(readPacket.substring(first ? 24 : 16));
-                first = false;
-            } while(lastDataRead == 1032);
-        } else {
-            attendanceBuffer.append(HexUtils.bytesToHex(response).substring(24));
-        }
-
-        String attendance = attendanceBuffer.toString();
-
-        while(attendance.length() > 0) {
-            String record = attendance.substring(0, 80);
-            int seq = Integer.valueOf(record.substring(2, 4) + record.substring(0, 2), 16);
-            record = record.substring(4);
-            String userId = Character.toString((char)Integer.valueOf(record.substring(0, 2), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(2, 4), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(4, 6), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(6, 8), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(8, 10), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(10, 12), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(12, 14), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(14, 16), 16).intValue())
-                    + Character.toString((char)Integer.valueOf(record.substring(16, 18), 16).intValue());
-            record = record.substring(48);
-            int method = Integer.valueOf(record.substring(0, 2), 16);
-            AttendanceTypeEnum attendanceType = AttendanceTypeEnum.values()[method];
-            record = record.substring(2);
-            long encDate = (long)Integer.valueOf(record.substring(6, 8), 16) * 16777216L + (long)Integer.valueOf(record.substring(4, 6), 16) * 65536L + (long)Integer.valueOf(record.substring(2, 4), 16) * 256L + (long)Integer.valueOf(record.substring(0, 2), 16);
-            Date attendanceDate = HexUtils.extractDate(encDate);
-            record = record.substring(8);
-            int operation = Integer.valueOf(record.substring(0, 2), 16);
-            AttendanceStateEnum attendanceState = AttendanceStateEnum.values()[operation];
-            attendance = attendance.substring(80);
-            AttendanceRecord attendanceRecord = new AttendanceRecord(seq, userId.trim(), attendanceType, attendanceDate, attendanceState);
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            Date startDate = dateFormat.parse(startTime);
-            Date endDate = dateFormat.parse(endTime);
-            if (attendanceDate.after(startDate) && attendanceDate.before(endDate)) {
-                attendanceRecords.add(attendanceRecord);
-            }
-        }
-
-        return attendanceRecords;
+    /**
+     * Читает журнал посещений без накопления в памяти: каждая запись передаётся получателю
+     * сразу после прихода пакета, в котором она закончилась. Памяти нужно не больше одного пакета,
+     * а обработка идёт параллельно с передачей остальных данных.
+     *
+     * @param consumer получатель записей; вызывается в потоке чтения
+     * @return количество переданных записей
+     */
+    public int streamAttendanceRecords(Consumer<AttendanceRecord> consumer) throws IOException {
+        int[] count = new int[1];
+        this.streamAttendanceLog((record, offset) -> {
+            consumer.accept(AttendanceLogParser.toAttendanceRecord(record, offset));
+            count[0]++;
+        });
+        return count[0];
     }
 
-    public ZKCommandReply clearAdminData() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_CLEAR_ADMIN, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-        }
-
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+    /**
+     * Низкоуровневый вариант {@link #streamAttendanceRecords(Consumer)}: получатель видит сырую
+     * 40-байтную запись в буфере приёма и сам решает, какие поля декодировать.
+     */
+    public void streamAttendanceLog(AttendanceLogParser.RecordVisitor visitor) throws IOException {
+        AttendanceLogParser parser = new AttendanceLogParser();
+        this.readTable(CommandCodeEnum.CMD_ATTLOG_RRQ, chunk -> parser.feed(chunk, visitor));
     }
 
-    public ZKCommandReply clearOpLogData() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_CLEAR_OPLOG, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-        }
-
-        this.socket.close();
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+    /**
+     * Таблица (CMD_ATTLOG_RRQ, CMD_USERTEMP_RRQ) сырыми кусками без заголовка размера,
+     * как они пришли от устройства.
+     */
+    void readTable(CommandCodeEnum command, Consumer<ByteBuffer> chunkConsumer) throws IOException {
+        this.sendCommand(command, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        this.readDataStream(reply, chunkConsumer);
     }
 
-    public ZKCommandReply resetDevice() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_CLEAR_DATA, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-        }
-
-        this.socket.close();
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+    /**
+     * Таблица шаблонов отпечатков сырыми кусками вместе с 4-байтным заголовком размера;
+     * разбирается {@link TemplateTableParser}.
+     */
+    void readTemplateTable(Consumer<ByteBuffer> chunkConsumer) throws IOException {
+        this.readWithBuffer(CommandCodeEnum.CMD_DB_RRQ, FCT_FINGERTMP, 0, chunkConsumer);
     }
 
-    public ZKCommandReply clearAttLogData() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_CLEAR_ATTLOG, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-        }
-
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+    /**
+     * Сырой ответ CMD_GET_FREE_SIZES (счётчики и ёмкости, не меньше 92 байт) или пустой массив.
+     */
+    byte[] readFreeSizes() throws IOException {
+        this.sendCommand(CommandCodeEnum.CMD_GET_FREE_SIZES, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        return reply.getCode() == CommandReplyCodeEnum.CMD_ACK_OK ? reply.payloadAsBytes() : new byte[0];
     }
 
-    public String IsOnlyRFMachine() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~IsOnlyRFMachine".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+    /**
+     * Записи в диапазоне времени; включать ли записи ровно на границах, задаёт {@link AttendanceRange}.
+     */
+    public List<AttendanceRecord> getAttendanceRecords(AttendanceRange range) throws IOException {
+        List<AttendanceRecord> attendanceRecords = new ArrayList();
+        this.streamAttendanceRecords(range, attendanceRecords::add);
+        return attendanceRecords;
     }
 
-    public String getFirmwareVersion() throws IOException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_GET_VERSION, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return "";
-        } else {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
+    /**
+     * Потоковая выборка по диапазону. У записи сначала читается только упакованное время;
+     * остальные поля декодируются лишь для попавших в диапазон.
+     *
+     * @return количество переданных записей
+     */
+    public int streamAttendanceRecords(AttendanceRange range, Consumer<AttendanceRecord> consumer) throws IOException {
+        int[] count = new int[1];
+        this.streamAttendanceLog((record, offset) -> {
+            if (range.contains(AttendanceLogParser.packedTime(record, offset))) {
+                consumer.accept(AttendanceLogParser.toAttendanceRecord(record, offset));
+                count[0]++;
             }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            return responseString.trim();
-        }
+        });
+        return count[0];
     }
 
-    public String getProductTime() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~ProductTime".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+    /**
+     * Записи строго между {@code startTime} и {@code endTime} (формат {@code yyyy-MM-dd HH:mm:ss});
+     * записи ровно на границах не попадают. Для включающих границ используйте
+     * {@link #getAttendanceRecords(AttendanceRange)}.
+     */
+    public List<AttendanceRecord> getAttendanceRecordsForDateRange(String startTime, String endTime) throws IOException, ParseException {
+        return this.getAttendanceRecords(AttendanceRange.of(
+                parseDateTime(startTime), false, parseDateTime(endTime), false));
     }
 
-    public String getDeviceName() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~DeviceName".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
+    private static LocalDateTime parseDateTime(String text) throws ParseException {
+        try {
+            return LocalDateTime.parse(text, DATE_TIME_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new ParseException(e.getMessage(), e.getErrorIndex());
         }
-
-        return "";
     }
 
-    public String getPIN2Width() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~PIN2Width".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+    /**
+     * Инкрементальная синхронизация журнала: передаёт получателю только записи, появившиеся
+     * после прошлой синхронизации этого терминала (по серийному номеру).
+     * <p>
+     * Журнал читается целиком (отдельной команды "только новые" в протоколе нет), но у старых записей
+     * читаются лишь номер и упакованное время, без декодирования остальных полей. Новые — записи
+     * после отметки по позиции в журнале, независимо от их времени. Если под отметкой уже другая
+     * запись (журнал очищен и заполнен заново, обрезан или сдвинут при переполнении), передаются
+     * записи после последнего места отметки в журнале, а если её нет — журнал целиком; всё это
+     * за одно чтение журнала (см. {@link AttendanceCursor}).
+     * Отметка сохраняется только после успешного чтения, так что при обрыве записи будут переданы повторно.
+     *
+     * @return количество новых записей
+     */
+    public int syncAttendanceRecords(AttendanceSyncStore store, Consumer<AttendanceRecord> consumer) throws IOException {
+        return this.syncAttendanceLog(store,
+                (record, offset) -> consumer.accept(AttendanceLogParser.toAttendanceRecord(record, offset)), null);
     }
 
-    public String getShowState() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~ShowState".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+    /**
+     * Низкоуровневый вариант {@link #syncAttendanceRecords}: новые записи передаются сырыми,
+     * а перед сохранением отметки вызывается {@code beforeCommit} (например, сброс буферизованного
+     * приёмника). Если он бросит исключение, отметка не сдвигается и записи будут переданы повторно.
+     *
+     * @param beforeCommit может быть {@code null}
+     * @return количество новых записей
+     */
+    public int syncAttendanceLog(AttendanceSyncStore store, AttendanceLogParser.RecordVisitor visitor,
+                                 Flushable beforeCommit) throws IOException {
+        String serialNumber = this.getSerialNumber();
+        AttendanceSyncStore.Watermark watermark = store.load(serialNumber);
+        AttendanceCursor cursor = new AttendanceCursor(watermark, visitor);
+        this.streamAttendanceLog(cursor);
+        if (!cursor.anchored()) {
+            // под отметкой другая запись или журнал короче отметки: он очищен, обрезан или сдвинут
+            log.warning(serialNumber + ": attendance log changed under the sync watermark " + watermark
+                    + (cursor.foundAt >= 0 ? ", resuming after record " + cursor.foundAt : ", delivering the whole log"));
+            cursor.deliverHeld();
         }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
+        if (beforeCommit != null && cursor.delivered > 0) {
+            beforeCommit.flush();
         }
-
-        return "";
+        store.save(serialNumber, cursor.count > 0
+                ? new AttendanceSyncStore.Watermark(cursor.count - 1, cursor.lastSeq, cursor.lastTime)
+                : AttendanceSyncStore.Watermark.EMPTY);
+        return cursor.delivered;
     }
 
-    public String getDeviceIP() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "IPAddress".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
+    /**
+     * Проход по журналу при синхронизации. Записи после позиции отметки передаются сразу, если запись
+     * под отметкой совпала с ней. Пока это не известно (и если не совпала), записи после последнего
+     * места отметки в журнале копируются во внутренний буфер (40 байт на запись) и передаются
+     * {@link #deliverHeld()} в конце прохода — без второго чтения журнала. При совпадении буфер
+     * сбрасывается, так что в обычном случае он живёт только до позиции отметки.
+     */
+    private static final class AttendanceCursor implements AttendanceLogParser.RecordVisitor {
+
+        private final AttendanceSyncStore.Watermark watermark;
+        private final AttendanceLogParser.RecordVisitor visitor;
+        /** Позиция отметки пройдена, и запись под ней совпала. */
+        private boolean anchored;
+        private boolean decided;
+        /** Последняя позиция, где встретилась запись отметки. */
+        private int foundAt = -1;
+        /** Записи после {@link #foundAt} (или с начала журнала), ожидающие решения. */
+        private ByteBuffer held = ByteBuffer.allocate(0);
+        private int count;
+        private int delivered;
+        private int lastSeq = -1;
+        private long lastTime = -1L;
+
+        private AttendanceCursor(AttendanceSyncStore.Watermark watermark, AttendanceLogParser.RecordVisitor visitor) {
+            this.watermark = watermark;
+            this.visitor = visitor;
+            this.decided = watermark.isEmpty();
+            this.anchored = watermark.isEmpty();
+        }
+
+        @Override
+        public void visit(ByteBuffer record, int offset) {
+            int i = this.count++;
+            this.lastSeq = AttendanceLogParser.seq(record, offset);
+            this.lastTime = AttendanceLogParser.packedTime(record, offset);
+            boolean matches = !this.watermark.isEmpty() && this.watermark.matches(this.lastSeq, this.lastTime);
+            if (matches) {
+                this.foundAt = i;
+                // записи до отметки (включительно) уже переданы раньше
+                this.held.clear();
+            }
+            if (i == this.watermark.lastIndex()) {
+                this.decided = true;
+                this.anchored = this.foundAt == i;
+                if (this.anchored) {
+                    this.held = ByteBuffer.allocate(0);
+                }
             }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
+            if (this.decided && this.anchored) {
+                if (i > this.watermark.lastIndex()) {
+                    this.visitor.visit(record, offset);
+                    this.delivered++;
+                }
+            } else if (!matches) {
+                this.hold(record, offset);
             }
         }
 
-        return "";
-    }
-
-    public String getDevicePORT() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "UDPPort".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
+        private void hold(ByteBuffer record, int offset) {
+            if (this.held.remaining() < AttendanceLogParser.RECORD_SIZE) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(64 * AttendanceLogParser.RECORD_SIZE,
+                        this.held.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+                bigger.put(this.held.flip());
+                this.held = bigger;
             }
+            this.held.put(this.held.position(), record, offset, AttendanceLogParser.RECORD_SIZE);
+            this.held.position(this.held.position() + AttendanceLogParser.RECORD_SIZE);
         }
 
-        return "";
-    }
-
-    public String getCommKey() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "COMKey".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+        private boolean anchored() {
+            return this.decided && this.anchored;
         }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
+        /**
+         * Передаёт записи после последнего места отметки, а если её нет — весь журнал.
+         */
+        private void deliverHeld() {
+            for (int offset = 0; offset < this.held.position(); offset += AttendanceLogParser.RECORD_SIZE) {
+                this.visitor.visit(this.held, offset);
+                this.delivered++;
             }
+            this.held = ByteBuffer.allocate(0);
         }
-
-        return "";
     }
 
-    public String getDeviceId() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "DeviceID".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+    public ZKCommandReply clearAdminData() throws IOException, ParseException {
+        this.sendCommand(CommandCodeEnum.CMD_CLEAR_ADMIN, (byte[])null);
+        this.userDirectory.invalidate();
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
         }
 
-        return "";
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
+        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
-    public String iSDHCP() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "DHCP".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+    public ZKCommandReply clearOpLogData() throws IOException, ParseException {
+        this.sendCommand(CommandCodeEnum.CMD_CLEAR_OPLOG, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
         }
 
-        return "";
+        ZKCommandReply commandReply = reply.toCommandReply(this.sessionId);
+        this.closeSocket();
+        return commandReply;
     }
 
-    public String getDNS() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "DNS".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+    public ZKCommandReply resetDevice() throws IOException, ParseException {
+        this.sendCommand(CommandCodeEnum.CMD_CLEAR_DATA, (byte[])null);
+        this.userDirectory.invalidate();
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
         }
 
-        return "";
+        ZKCommandReply commandReply = reply.toCommandReply(this.sessionId);
+        this.closeSocket();
+        return commandReply;
     }
 
-    public String isEnableProxyServer() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "EnableProxyServer".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+    public ZKCommandReply clearAttLogData() throws IOException, ParseException {
+        this.sendCommand(CommandCodeEnum.CMD_CLEAR_ATTLOG, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
         }
 
-        return "";
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
+        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
-    public String getProxyServerIP() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "ProxyServerIP".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+    public String IsOnlyRFMachine() throws IOException {
+        return this.getOption("~IsOnlyRFMachine");
     }
 
-    public String getProxyServerPort() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "ProxyServerPort".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
+    public String getFirmwareVersion() throws IOException {
+        this.sendCommand(CommandCodeEnum.CMD_GET_VERSION, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        if (replyCode != CommandReplyCodeEnum.CMD_ACK_OK) {
+            return "";
+        } else {
+            String responseString = reply.payloadAsString(StandardCharsets.US_ASCII);
+            return responseString.trim();
         }
-
-        return "";
     }
 
-    public String isDaylightSavingTime() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "DaylightSavingTime".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+    public String getProductTime() throws IOException {
+        return this.getOption("~ProductTime");
     }
 
-    public String getLanguage() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "Language".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
+    public String getDeviceName() throws IOException {
+        return this.getOption("~DeviceName");
+    }
 
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
+    public String getPIN2Width() throws IOException {
+        return this.getOption("~PIN2Width");
+    }
 
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
+    public String getShowState() throws IOException {
+        return this.getOption("~ShowState");
+    }
 
-        return "";
+    public String getDeviceIP() throws IOException {
+        return this.getOption("IPAddress");
     }
 
-    public String isLockPowerKey() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "LockPowerKey".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    public String getDevicePORT() throws IOException {
+        return this.getOption("UDPPort");
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
+    public String getCommKey() throws IOException {
+        return this.getOption("COMKey");
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
+    public String getDeviceId() throws IOException {
+        return this.getOption("DeviceID");
+    }
 
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
+    public String iSDHCP() throws IOException {
+        return this.getOption("DHCP");
+    }
 
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
+    public String getDNS() throws IOException {
+        return this.getOption("DNS");
+    }
 
-        return "";
+    public String isEnableProxyServer() throws IOException {
+        return this.getOption("EnableProxyServer");
     }
 
-    public String isVoiceOn() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "VoiceOn".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    public String getProxyServerIP() throws IOException {
+        return this.getOption("ProxyServerIP");
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
+    public String getProxyServerPort() throws IOException {
+        return this.getOption("ProxyServerPort");
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
+    public String isDaylightSavingTime() throws IOException {
+        return this.getOption("DaylightSavingTime");
+    }
 
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
+    public String getLanguage() throws IOException {
+        return this.getOption("Language");
+    }
 
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
+    public String isLockPowerKey() throws IOException {
+        return this.getOption("LockPowerKey");
+    }
 
-        return "";
+    public String isVoiceOn() throws IOException {
+        return this.getOption("VoiceOn");
     }
 
     public ZKCommandReply setIPAddress(String ipaddress) throws IOException {
         byte[] ipaddressbyte = ("IPAddress=" + ipaddress).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, ipaddressbyte);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, ipaddressbyte);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1130,21 +737,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setCommKey(int key) throws IOException {
         byte[] COMKeybyte = ("COMKey=" + key).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, COMKeybyte);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, COMKeybyte);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1153,21 +750,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setVoiceOnOff(OnOffenum state) throws IOException {
         byte[] voiceOn = ("VoiceOn=" + state.getOnOffState()).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, voiceOn);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, voiceOn);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1176,21 +763,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setShowStateOnOff(OnOffenum state) throws IOException {
         byte[] ShowState = ("~ShowState=" + state.getOnOffState()).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, ShowState);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, ShowState);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1198,53 +775,16 @@ public class ZKTerminalV {
     }
 
     public String getPlatform() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~Platform".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+        return this.getOption("~Platform");
     }
 
     public ZKCommandReply setLockPowerKey(OnOffenum state) throws IOException {
         byte[] LockPowerKey = ("LockPowerKey=" + state.getOnOffState()).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, LockPowerKey);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, LockPowerKey);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1253,21 +793,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setDaylightSavingTime(OnOffenum state) throws IOException {
         byte[] DaylightSavingTime = ("DaylightSavingTime=" + state.getOnOffState()).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, DaylightSavingTime);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, DaylightSavingTime);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1276,21 +806,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setProxyServerPort(int devport) throws IOException {
         byte[] ProxyServerPort = ("ProxyServerPort=" + devport).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, ProxyServerPort);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, ProxyServerPort);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1299,21 +819,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setProxyServerIP(String devIP) throws IOException {
         byte[] ProxyServerIP = ("ProxyServerIP=" + devIP).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, ProxyServerIP);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, ProxyServerIP);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1322,21 +832,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setEnableProxyServer(OnOffenum state) throws IOException {
         byte[] EnableProxyServer = ("EnableProxyServer=" + state.getOnOffState()).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, EnableProxyServer);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, EnableProxyServer);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1345,21 +845,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setDNS(String DNS) throws IOException {
         byte[] DNSbyte = ("DNS=" + DNS).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, DNSbyte);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, DNSbyte);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1368,21 +858,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setDHCP(OnOffenum state) throws IOException {
         byte[] DHCPbyte = ("DHCP=" + state.getOnOffState()).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, DHCPbyte);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, DHCPbyte);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1391,21 +871,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply setDeviceID(int DeviceID) throws IOException {
         byte[] DeviceIDbyte = ("DeviceID=" + DeviceID).getBytes();
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_WRQ, this.sessionId, this.replyNo, DeviceIDbyte);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_WRQ, DeviceIDbyte);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1413,163 +883,210 @@ public class ZKTerminalV {
     }
 
     public String getSerialNumber() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~SerialNumber".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
-
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
-            }
-        }
-
-        return "";
+        return this.getOption("~SerialNumber");
     }
 
     public String getMAC() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "MAC".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+        return this.getOption("MAC");
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
+    public String getFaceVersion() throws IOException {
+        return this.getOption("ZKFaceVersion");
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
+    public int getFPVersion() throws IOException {
+        try {
+            return Integer.parseInt(this.getOption("~ZKFPVersion"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
+    public String getOEMVendor() throws IOException {
+        return this.getOption("~OEMVendor");
+    }
 
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
+    /**
+     * Значение одного параметра устройства (CMD_OPTIONS_RRQ); пустая строка, если устройство его не знает.
+     */
+    public String getOption(String key) throws IOException {
+        this.sendCommand(CommandCodeEnum.CMD_OPTIONS_RRQ, key.getBytes(StandardCharsets.US_ASCII));
+        ZKReplyFrame reply = this.readFrame();
+        if (reply.getCode() == CommandReplyCodeEnum.CMD_ACK_OK) {
+            String value = optionValue(reply.payloadBuffer());
+            if (value != null) {
+                return value;
             }
         }
-
         return "";
     }
 
-    public String getFaceVersion() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "ZKFaceVersion".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
-
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
+    /**
+     * Значения нескольких параметров устройства одним вызовом. Запросы CMD_OPTIONS_RRQ уходят
+     * пачками по {@link #setOptionsPipelineDepth глубине конвейера}, не дожидаясь ответов, и ответы
+     * сопоставляются по номерам; ответ {@code key=value\0} разбирается прямо в буфере приёма.
+     * Если устройство теряет запросы из пачки (прошивка обрабатывает только по одному),
+     * недополученные параметры дочитываются по одному, и дальше сессия читает без конвейера.
+     *
+     * @return значения в порядке ключей; параметры, которых устройство не знает, отсутствуют
+     */
+    public Map<String, String> getOptions(Collection<String> keys) throws IOException {
+        List<String> names = List.copyOf(keys);
+        String[] values = new String[names.size()];
+        for (int from = 0; from < names.size(); ) {
+            int to = Math.min(names.size(), from + Math.max(1, this.optionsPipelineDepth));
+            if (to - from > 1) {
+                this.readOptionsPipelined(names, from, to, values);
+            } else {
+                this.readOptionsSequential(names, from, to, values);
             }
+            from = to;
+        }
 
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                options.put(names.get(i), values[i]);
             }
         }
-
-        return "";
+        return options;
     }
 
-    public int getFPVersion() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~ZKFPVersion".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+    private void readOptionsSequential(List<String> names, int from, int to, String[] values) throws IOException {
+        for (int i = from; i < to; i++) {
+            this.sendCommand(CommandCodeEnum.CMD_OPTIONS_RRQ, names.get(i).getBytes(StandardCharsets.US_ASCII));
+            ZKReplyFrame reply = this.readFrame();
+            if (reply.getCode() == CommandReplyCodeEnum.CMD_ACK_OK) {
+                values[i] = optionValue(reply.payloadBuffer());
+            }
         }
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteResponse = new byte[response.length - 8];
-
-            for(int i = 0; i < byteResponse.length; ++i) {
-                byteResponse[i] = (byte)response[i + 8];
+    /**
+     * Отправляет запросы {@code names[from, to)} подряд и собирает ответы в любом порядке.
+     * Каждый запрос кодируется в sendBuffer и сразу отправляется: повторять их не нужно,
+     * потерянные дочитываются последовательно.
+     */
+    private void readOptionsPipelined(List<String> names, int from, int to, String[] values) throws IOException {
+        int count = to - from;
+        int firstReplyNo = this.replyNo & 0xFFFF;
+        long[] sentNanos = new long[count];
+        boolean[] answered = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            ZKCommand.encode(this.sendBuffer, CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo,
+                    names.get(from + i).getBytes(StandardCharsets.US_ASCII));
+            this.transmit(CommandCodeEnum.CMD_OPTIONS_RRQ);
+            sentNanos[i] = this.lastSentNanos;
+        }
+
+        int pending = count;
+        long deadline = System.nanoTime() + this.settings.readTimeoutMillis() * 1_000_000L;
+        try {
+            while (pending > 0) {
+                int remaining = (int) Math.max(1, (deadline - System.nanoTime()) / 1_000_000L);
+                ZKReplyFrame frame = this.receive(remaining);
+                int slot = (frame.getReplyId() - firstReplyNo) & 0xFFFF;
+                if (slot >= count || answered[slot]) {
+                    log.fine("Discarding stale reply " + frame.getReplyId() + " to pipelined option read");
+                    continue;
+                }
+                answered[slot] = true;
+                pending--;
+                this.metrics.exchange(CommandCodeEnum.CMD_OPTIONS_RRQ, frame.getRawCode(), System.nanoTime() - sentNanos[slot]);
+                if (frame.getCode() == CommandReplyCodeEnum.CMD_ACK_OK) {
+                    values[from + slot] = optionValue(frame.payloadBuffer());
+                }
             }
-
-            String responseString = new String(byteResponse, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                try {
-                    return Integer.parseInt(responseParts[1].split("\u0000")[0]);
-                } catch (NumberFormatException var11) {
+        } catch (SocketTimeoutException e) {
+            this.metrics.timeout(CommandCodeEnum.CMD_OPTIONS_RRQ);
+            log.info(this.ip + ":" + this.port + " answered " + (count - pending) + " of " + count
+                    + " pipelined option reads, reading options one at a time from now on");
+            this.optionsPipelineDepth = 1;
+            for (int i = 0; i < count; i++) {
+                if (!answered[i]) {
+                    this.readOptionsSequential(names, from + i, from + i + 1, values);
                 }
             }
         }
-
-        return 0;
     }
 
-    public String getOEMVendor() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "~OEMVendor".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    /**
+     * Сколько запросов параметров отправляется, не дожидаясь ответов; 1 — без конвейера.
+     * Сбрасывается в 1 автоматически, если прошивка не отвечает на запросы пачкой.
+     */
+    public void setOptionsPipelineDepth(int depth) {
+        this.optionsPipelineDepth = Math.max(1, depth);
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+    /**
+     * Сведения об устройстве из кэша, если они моложе {@link #setDeviceInfoTtl TTL}; иначе читаются заново.
+     * Кэш сбрасывается при любой записи параметров (CMD_OPTIONS_WRQ) через этот клиент.
+     */
+    public DeviceInfo getDeviceInfo() throws IOException {
+        DeviceInfo info = this.deviceInfo;
+        if (info != null && System.nanoTime() - this.deviceInfoNanos < this.deviceInfoTtl.toNanos()) {
+            return info;
         }
+        return this.refreshDeviceInfo();
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteArray = new byte[response.length - 8];
+    /**
+     * Читает сведения с устройства в обход кэша: параметры одним {@link #getOptions} и версию прошивки.
+     */
+    public DeviceInfo refreshDeviceInfo() throws IOException {
+        Map<String, String> options = this.getOptions(DeviceInfo.OPTION_KEYS);
+        String firmwareVersion = this.getFirmwareVersion();
+        this.deviceInfo = DeviceInfo.of(options, firmwareVersion, Instant.now());
+        this.deviceInfoNanos = System.nanoTime();
+        return this.deviceInfo;
+    }
 
-            for(int i = 0; i < byteArray.length; ++i) {
-                byteArray[i] = (byte)(response[8 + i] & 255);
-            }
+    /**
+     * Сбрасывает кэш сведений, если параметры менялись в обход этого клиента.
+     */
+    public void invalidateDeviceInfo() {
+        this.deviceInfo = null;
+    }
 
-            String responseString = new String(byteArray, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return responseParts[1].split("\u0000")[0];
+    public void setDeviceInfoTtl(Duration ttl) {
+        this.deviceInfoTtl = ttl;
+    }
+
+    /**
+     * Значение из {@code key=value\0...}: от первого '=' до первого нуля; {@code null}, если '=' нет.
+     */
+    static String optionValue(ByteBuffer payload) {
+        int limit = payload.limit();
+        int start = -1;
+        for (int i = payload.position(); i < limit; i++) {
+            byte b = payload.get(i);
+            if (b == 0) {
+                return null;
+            }
+            if (b == '=') {
+                start = i + 1;
+                break;
             }
         }
-
-        return "";
+        if (start < 0) {
+            return null;
+        }
+        int end = start;
+        while (end < limit && payload.get(end) != 0) {
+            end++;
+        }
+        if (payload.hasArray()) {
+            return new String(payload.array(), payload.arrayOffset() + start, end - start, StandardCharsets.US_ASCII);
+        }
+        byte[] bytes = new byte[end - start];
+        payload.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
     }
 
+    /**
+     * Все пользователи устройства. Таблица выгружается, только если изменились счётчики
+     * пользователей или отпечатков либо были локальные изменения; иначе возвращается кэш.
+     */
     public List<UserInfo> getAllUsers() throws IOException, ParseException {
         Map<String, Integer> deviceStatus = this.getDeviceStatus();
         Integer userCountObj = deviceStatus.get("userCount");
@@ -1578,128 +1095,128 @@ public class ZKTerminalV {
             return Collections.emptyList();
         }
         int usercount = userCountObj;
+        int fpCount = deviceStatus.getOrDefault("fpCount", -1);
+        if (this.userDirectory.isFresh(usercount, fpCount)) {
+            return new ArrayList<>(this.userDirectory.users());
+        }
         if (usercount == 0) {
-            return Collections.emptyList();
+            this.userDirectory.update(Collections.emptyList(), usercount, fpCount);
+            return new ArrayList<>();
         } else {
-            int[] toSend = com.zkteco.commands.ZKCommand.getPacket(com.zkteco.Enum.CommandCodeEnum.CMD_USERTEMP_RRQ, this.sessionId, this.replyNo, (int[])null);
-            byte[] buf = new byte[toSend.length];
-            int index = 0;
-
-            for(int byteToSend : toSend) {
-                buf[index++] = (byte)byteToSend;
-            }
-
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-            this.socket.send(packet);
-            ++this.replyNo;
-            int[] response = this.readResponse();
-            CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-            StringBuilder userBuffer = new StringBuilder();
+            this.sendCommand(CommandCodeEnum.CMD_USERTEMP_RRQ, (byte[])null);
+            ZKReplyFrame reply = this.readFrame();
+            CommandReplyCodeEnum replyCode = reply.getCode();
             List<UserInfo> userList = new ArrayList();
             if (replyCode == CommandReplyCodeEnum.CMD_PREPARE_DATA) {
-                boolean first = true;
-
-                int lastDataRead;
-                do {
-                    int[] readData = this.readResponse();
-                    lastDataRead = readData.length;
-                    String readPacket = HexUtils.bytesToHex(readData);
-                    userBuffer.append(readPacket.substring(first ? 24 : 16));
-                    first = false;
-                } while(lastDataRead == 1032);
-
-                String usersHex = userBuffer.toString();
-                byte[] usersData = HexUtils.hexStringToByteArray(usersHex);
-                ByteBuffer buffer = ByteBuffer.wrap(usersData);
-
-                while(buffer.remaining() >= 72) {
-                    ByteBuffer userBuffer1 = ByteBuffer.allocate(72);
-                    buffer.get(userBuffer1.array());
-                    UserInfo user = UserInfo.encodeUser(userBuffer1, 72);
-                    userList.add(user);
+                UserTableParser parser = new UserTableParser();
+                UserTableParser.RecordVisitor visitor =
+                        userRecord -> userList.add(UserInfo.encodeUser(userRecord, UserTableParser.RECORD_SIZE));
+                this.readDataStream(reply, chunk -> parser.feed(chunk, visitor));
+                if (parser.pendingBytes() > 0) {
+                    log.warning("User table ended with " + parser.pendingBytes() + " bytes of incomplete record");
                 }
+                this.userDirectory.update(userList, usercount, fpCount);
             } else {
                 System.out.println("Data Fetch failed or null");
             }
 
-            int replyId = response[6] + response[7] * 256;
-            System.out.println(replyId);
-            int[] payloads = new int[response.length - 8];
-            System.arraycopy(response, 8, payloads, 0, payloads.length);
             return userList;
         }
     }
 
-    public boolean getWorkCode() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, this.sessionId, this.replyNo, "WorkCode".getBytes());
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    /**
+     * Пользователь по user ID из кэша (с проверкой актуальности); {@code null}, если не найден.
+     */
+    public UserInfo findUser(String userId) throws IOException, ParseException {
+        this.getAllUsers();
+        return this.userDirectory.byUserId(userId);
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
+    /**
+     * Пользователь по внутреннему номеру (UID); {@code null}, если не найден.
+     */
+    public UserInfo findUserByUid(int uid) throws IOException, ParseException {
+        this.getAllUsers();
+        return this.userDirectory.byUid(uid);
+    }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteResponse = new byte[response.length - 8];
+    /**
+     * Кэш таблицы пользователей без обращения к устройству — для обработчиков событий, где команду
+     * отправить нельзя; {@code null}, если таблица не выгружалась или сброшена.
+     */
+    public UserDirectory cachedUsers() {
+        return this.userDirectory.isValid() ? this.userDirectory : null;
+    }
 
-            for(int i = 0; i < byteResponse.length; ++i) {
-                byteResponse[i] = (byte)response[i + 8];
-            }
+    /**
+     * Сбрасывает кэш пользователей, если таблица менялась в обход этого клиента.
+     */
+    public void invalidateUserCache() {
+        this.userDirectory.invalidate();
+    }
 
-            String responseString = new String(byteResponse, StandardCharsets.US_ASCII);
-            String[] responseParts = responseString.split("=", 2);
-            if (responseParts.length == 2) {
-                return "1".equals(responseParts[1].split("\u0000")[0]);
-            }
-        }
+    /**
+     * Все шаблоны отпечатков устройства одной передачей через буфер устройства
+     * (CMD_DATA_WRRQ / CMD_DATA_RDY / CMD_FREE_DATA) вместо запроса по каждому пальцу.
+     * Шаблоны передаются получателю по мере прихода пакетов.
+     *
+     * @return количество переданных шаблонов
+     */
+    public int streamFingerTemplates(Consumer<FingerTemplate> consumer) throws IOException {
+        int[] count = new int[1];
+        this.streamFingerTemplates((uid, finger, flag, template) -> {
+            byte[] bytes = new byte[template.remaining()];
+            template.get(bytes);
+            consumer.accept(new FingerTemplate(uid, finger, flag, bytes));
+            count[0]++;
+        });
+        return count[0];
+    }
 
-        return false;
+    /**
+     * Низкоуровневый вариант {@link #streamFingerTemplates(Consumer)}: шаблон виден как срез буфера приёма.
+     */
+    public void streamFingerTemplates(TemplateTableParser.TemplateVisitor visitor) throws IOException {
+        TemplateTableParser parser = new TemplateTableParser();
+        this.readWithBuffer(CommandCodeEnum.CMD_DB_RRQ, FCT_FINGERTMP, 0, chunk -> parser.feed(chunk, visitor));
+        if (parser.pendingBytes() > 0) {
+            log.warning("Template table ended with " + parser.pendingBytes() + " bytes of incomplete record");
+        }
     }
 
+    public List<FingerTemplate> getAllFingerTemplates() throws IOException {
+        List<FingerTemplate> templates = new ArrayList<>();
+        this.streamFingerTemplates(templates::add);
+        return templates;
+    }
 
-    public Map<String, Integer> getDeviceStatus() throws IOException {
-        int[] toSend = com.zkteco.commands.ZKCommand.getPacketByte(com.zkteco.Enum.CommandCodeEnum.CMD_GET_FREE_SIZES, this.sessionId, this.replyNo, (byte[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    public boolean getWorkCode() throws IOException {
+        return "1".equals(this.getOption("WorkCode"));
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
 
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+    public Map<String, Integer> getDeviceStatus() throws IOException {
+        this.sendCommand(CommandCodeEnum.CMD_GET_FREE_SIZES, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
-            byte[] byteResponse = new byte[response.length - 8];
-
-            for(int i = 0; i < byteResponse.length; ++i) {
-                byteResponse[i] = (byte)response[i + 8];
-            }
-
-            ByteBuffer buffer = ByteBuffer.wrap(byteResponse);
+            ByteBuffer buffer = reply.payload();
             if (buffer.remaining() >= 92) {
                 Map<String, Integer> statusMap = new HashMap();
-                statusMap.put("adminCount", Integer.reverseBytes(buffer.getInt(48)));
-                statusMap.put("userCount", Integer.reverseBytes(buffer.getInt(16)));
-                statusMap.put("fpCount", Integer.reverseBytes(buffer.getInt(24)));
-                statusMap.put("pwdCount", Integer.reverseBytes(buffer.getInt(52)));
-                statusMap.put("oplogCount", Integer.reverseBytes(buffer.getInt(40)));
-                statusMap.put("attlogCount", Integer.reverseBytes(buffer.getInt(32)));
-                statusMap.put("fpCapacity", Integer.reverseBytes(buffer.getInt(56)));
-                statusMap.put("userCapacity", Integer.reverseBytes(buffer.getInt(60)));
-                statusMap.put("attlogCapacity", Integer.reverseBytes(buffer.getInt(64)));
-                statusMap.put("remainingFp", Integer.reverseBytes(buffer.getInt(68)));
-                statusMap.put("remainingUser", Integer.reverseBytes(buffer.getInt(72)));
-                statusMap.put("remainingAttlog", Integer.reverseBytes(buffer.getInt(76)));
-                statusMap.put("faceCount", Integer.reverseBytes(buffer.getInt(80)));
-                statusMap.put("faceCapacity", Integer.reverseBytes(buffer.getInt(88)));
+                statusMap.put("adminCount", buffer.getInt(48));
+                statusMap.put("userCount", buffer.getInt(16));
+                statusMap.put("fpCount", buffer.getInt(24));
+                statusMap.put("pwdCount", buffer.getInt(52));
+                statusMap.put("oplogCount", buffer.getInt(40));
+                statusMap.put("attlogCount", buffer.getInt(32));
+                statusMap.put("fpCapacity", buffer.getInt(56));
+                statusMap.put("userCapacity", buffer.getInt(60));
+                statusMap.put("attlogCapacity", buffer.getInt(64));
+                statusMap.put("remainingFp", buffer.getInt(68));
+                statusMap.put("remainingUser", buffer.getInt(72));
+                statusMap.put("remainingAttlog", buffer.getInt(76));
+                statusMap.put("faceCount", buffer.getInt(80));
+                statusMap.put("faceCapacity", buffer.getInt(88));
                 return statusMap;
             }
         }
@@ -1708,21 +1225,11 @@ public class ZKTerminalV {
     }
 
     public ZKCommandReply setStartVerify() throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_STARTVERIFY, this.sessionId, this.replyNo, (byte[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_STARTVERIFY, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1730,64 +1237,32 @@ public class ZKTerminalV {
     }
 
     public Date getDeviceTime() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_GET_TIME, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        this.sendCommand(CommandCodeEnum.CMD_GET_TIME, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         GetTimeReply gettime = new GetTimeReply(replyCode, this.sessionId, replyId, payloads);
         return gettime.getDeviceDate();
     }
 
     public int getState() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_STATE_RRQ, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        this.sendCommand(CommandCodeEnum.CMD_STATE_RRQ, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         String payloadsStr = HexUtils.bytesToHex(payloads);
         System.out.println(payloadsStr);
         return 0;
     }
 
     public ZKCommandReply cancelEnrollment() throws IOException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_CANCELCAPTURE, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)(byteToSend & 255);
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_CANCELCAPTURE, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
@@ -1797,22 +1272,11 @@ public class ZKTerminalV {
     public ZKCommandReply syncTime() throws IOException {
         long encodedTime = HexUtils.convertToSeconds();
         int[] timeBytes = HexUtils.convertLongToLittleEndian(encodedTime);
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_SET_TIME, this.sessionId, this.replyNo, timeBytes);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)(byteToSend & 255);
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        this.sendCommand(CommandCodeEnum.CMD_SET_TIME, timeBytes);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
 
         try {
             System.out.println(HexUtils.extractDate(encodedTime));
@@ -1828,22 +1292,12 @@ public class ZKTerminalV {
 
     public ZKCommandReply delUser(int delUId) throws IOException {
         int[] delUIdArray = new int[]{delUId & 255, delUId >> 8 & 255};
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_DELETE_USER, this.sessionId, this.replyNo, delUIdArray);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)(byteToSend & 255);
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        this.sendCommand(CommandCodeEnum.CMD_DELETE_USER, delUIdArray);
+        this.userDirectory.invalidate();
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
             return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
         } else {
@@ -1876,18 +1330,10 @@ public class ZKTerminalV {
         byte[] userIdBytes = userid != null ? userid.getBytes() : new byte[0];
         commandBuffer.position(48);
         commandBuffer.put(userIdBytes, 0, Math.min(userIdBytes.length, 9));
-        int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_USER_WRQ, this.sessionId, this.replyNo, commandBuffer.array());
-        byte[] buf = new byte[toSend.length];
-
-        for(int i = 0; i < toSend.length; ++i) {
-            buf[i] = (byte)toSend[i];
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+        this.sendCommand(CommandCodeEnum.CMD_USER_WRQ, commandBuffer.array());
+        this.userDirectory.invalidate();
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         return replyCode == CommandReplyCodeEnum.CMD_ACK_OK ? new ZKCommandReply(replyCode, this.sessionId, this.replyNo, (int[])null) : null;
     }
 
@@ -1945,6 +1391,7 @@ public class ZKTerminalV {
         buf.position(53);
         buf.put(new byte[19]); // заполняем оставшееся нулями
 
+        this.userDirectory.invalidate();
         return sendSimpleCommand(CommandCodeEnum.CMD_USER_WRQ, buf.array());
     }
 
@@ -2065,45 +1512,24 @@ public class ZKTerminalV {
             byte[] contentBytes = newSms.getContent().getBytes(StandardCharsets.UTF_8);
             commandBuffer.put(contentBytes, 0, Math.min(contentBytes.length, 60));
             SecurityUtils.printHexDump(commandBuffer.array());
-            int[] toSend = ZKCommand.getPacketByte(CommandCodeEnum.CMD_SMS_WRQ, this.sessionId, this.replyNo, commandBuffer.array());
-            byte[] buf = new byte[toSend.length];
-
-            for(int i = 0; i < toSend.length; ++i) {
-                buf[i] = (byte)toSend[i];
-            }
-
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-            this.socket.send(packet);
-            ++this.replyNo;
-            int[] response = this.readResponse();
-            CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+            this.sendCommand(CommandCodeEnum.CMD_SMS_WRQ, commandBuffer.array());
+            ZKReplyFrame reply = this.readFrame();
+            CommandReplyCodeEnum replyCode = reply.getCode();
             return new ZKCommandReply(replyCode, this.sessionId, this.replyNo, (int[])null);
         }
     }
 
     public SmsInfo getSms(int smsUId) throws IOException, ParseException {
         int[] smsIdArray = new int[]{smsUId & 255, smsUId >> 8 & 255};
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_SMS_RRQ, this.sessionId, this.replyNo, smsIdArray);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)(byteToSend & 255);
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        if (response[0] + response[1] * 256 == 4993) {
+        this.sendCommand(CommandCodeEnum.CMD_SMS_RRQ, smsIdArray);
+        ZKReplyFrame reply = this.readFrame();
+        if (reply.getRawCode() == 4993) {
             return null;
         } else {
-            CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-            int replyId = response[6] + response[7] * 256;
+            CommandReplyCodeEnum replyCode = reply.getCode();
+            int[] response = toIntArray(reply);
             byte[] byteResponse = SecurityUtils.convertIntArrayToByteArray(response);
             SecurityUtils.printHexDump(byteResponse);
-            int[] payloads = new int[response.length - 8];
-            System.arraycopy(response, 8, payloads, 0, payloads.length);
             if (replyCode != CommandReplyCodeEnum.CMD_ACK_OK) {
                 return null;
             } else {
@@ -2137,22 +1563,11 @@ public class ZKTerminalV {
 
     public ZKCommandReply delSMS(int smsId) throws IOException {
         int[] delsmsIdArray = new int[]{smsId & 255, smsId >> 8 & 255};
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_DELETE_SMS, this.sessionId, this.replyNo, delsmsIdArray);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)(byteToSend & 255);
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        this.sendCommand(CommandCodeEnum.CMD_DELETE_SMS, delsmsIdArray);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         return replyCode == CommandReplyCodeEnum.CMD_ACK_OK ? new ZKCommandReply(replyCode, this.sessionId, replyId, payloads) : new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
@@ -2166,178 +1581,474 @@ public class ZKTerminalV {
         byte[] combinedArray = new byte[enroll_dat.length + startEnrollCommand.length];
         System.arraycopy(enroll_dat, 0, combinedArray, 0, enroll_dat.length);
         System.arraycopy(startEnrollCommand, 0, combinedArray, enroll_dat.length, startEnrollCommand.length);
-        int[] startEnrollPacket = ZKCommand.getPacketByte(CommandCodeEnum.CMD_STARTENROLL, this.sessionId, this.replyNo, combinedArray);
-        byte[] buf = new byte[startEnrollPacket.length];
-
-        for(int i = 0; i < startEnrollPacket.length; ++i) {
-            buf[i] = (byte)startEnrollPacket[i];
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = Arrays.copyOfRange(response, 8, response.length);
+        this.sendCommand(CommandCodeEnum.CMD_STARTENROLL, combinedArray);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
         return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
-    private void sendPacket(int[] packetData) throws IOException {
-        byte[] buf = new byte[packetData.length];
+    /**
+     * Пакет остаётся в sendBuffer до следующей команды — для повторной отправки из {@link #readFrame()}.
+     */
+    private void sendCommand(CommandCodeEnum commandCode, byte[] data) throws IOException {
+        ZKCommand.encode(this.sendBuffer, commandCode, this.sessionId, this.replyNo, data);
+        this.transmit(commandCode);
+    }
+
+    private void sendCommand(CommandCodeEnum commandCode, int[] data) throws IOException {
+        ZKCommand.encode(this.sendBuffer, commandCode, this.sessionId, this.replyNo, data);
+        this.transmit(commandCode);
+    }
 
-        for(int i = 0; i < packetData.length; ++i) {
-            buf[i] = (byte)packetData[i];
+    private void transmit(CommandCodeEnum commandCode) throws IOException {
+        if (commandCode == CommandCodeEnum.CMD_OPTIONS_WRQ) {
+            this.deviceInfo = null;
         }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
+        this.lastReplyNo = this.replyNo & 0xFFFF;
+        ++this.replyNo;
+        this.lastCommand = commandCode;
+        this.lastSentNanos = System.nanoTime();
+        this.transport.send(this.sendBuffer);
+        this.metrics.sent(commandCode, this.sendBuffer.remaining());
     }
 
     public ZKCommandReply testVoice(int voice) throws IOException {
         int[] voiceArray = new int[]{voice};
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_TESTVOICE, this.sessionId, this.replyNo, voiceArray);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)(byteToSend & 255);
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
+        this.sendCommand(CommandCodeEnum.CMD_TESTVOICE, voiceArray);
+        ZKReplyFrame reply = this.readFrame();
+        return reply.toCommandReply(this.sessionId);
     }
 
     public ZKCommandReply RefreshData() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_REFRESHDATA, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+        this.sendCommand(CommandCodeEnum.CMD_REFRESHDATA, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
     public ZKCommandReply FreeDeviceBuffer() throws IOException, ParseException {
-        int[] toSend = ZKCommand.getPacket(CommandCodeEnum.CMD_FREE_DATA, this.sessionId, this.replyNo, (int[])null);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
-
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
-        }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
+        this.sendCommand(CommandCodeEnum.CMD_FREE_DATA, (byte[])null);
+        ZKReplyFrame reply = this.readFrame();
+        CommandReplyCodeEnum replyCode = reply.getCode();
         if (replyCode == CommandReplyCodeEnum.CMD_ACK_OK) {
         }
 
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
+        int replyId = reply.getReplyId();
+        int[] payloads = reply.payloadAsInts();
         return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
+    /**
+     * @deprecated используйте {@link DeviceSnapshot}: сжатый архив с сырыми таблицами вместо JSON
+     */
+    @Deprecated
     public void createBackup() {
+        this.createBackup(Path.of("device_backup.json"));
+    }
+
+    /**
+     * Сохраняет настройки и журнал устройства в JSON-файл; для нескольких терминалов
+     * у каждого должен быть свой файл. Параметры читаются одним {@link #getOptions}.
+     *
+     * @deprecated используйте {@link DeviceSnapshot}: сжатый архив с сырыми таблицами вместо JSON
+     */
+    @Deprecated
+    public void createBackup(Path file) {
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
 
-        try {
-            FileWriter writer = new FileWriter("device_backup.json");
+        try (FileWriter writer = new FileWriter(file.toFile())) {
+            Map<String, String> options = this.getOptions(BACKUP_OPTIONS.values());
+            Map<String, Object> deviceInfoMap = new LinkedHashMap<>();
+            deviceInfoMap.put("firmwareVersion", this.getFirmwareVersion());
+            BACKUP_OPTIONS.forEach((name, key) -> deviceInfoMap.put(name, options.getOrDefault(key, "")));
+            deviceInfoMap.put("workCode", "1".equals(options.get("WorkCode")));
+            deviceInfoMap.put("deviceStatus", this.getDeviceStatus());
+            deviceInfoMap.put("attendanceRecords", this.getAttendanceRecords());
+            objectMapper.writeValue(writer, deviceInfoMap);
+            log.info("Device information backup created: " + file);
+        } catch (ParseException | IOException e) {
+            log.log(Level.WARNING, "Error creating device information backup " + file, e);
+        }
+    }
+
+    private static Map<String, String> backupOptions() {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("isOnlyRFMachine", "~IsOnlyRFMachine");
+        options.put("productTime", "~ProductTime");
+        options.put("deviceName", "~DeviceName");
+        options.put("pin2Width", "~PIN2Width");
+        options.put("showState", "~ShowState");
+        options.put("deviceIP", "IPAddress");
+        options.put("devicePort", "UDPPort");
+        options.put("commKey", "COMKey");
+        options.put("deviceId", "DeviceID");
+        options.put("isDHCP", "DHCP");
+        options.put("dns", "DNS");
+        options.put("enableProxyServer", "EnableProxyServer");
+        options.put("proxyServerIP", "ProxyServerIP");
+        options.put("proxyServerPort", "ProxyServerPort");
+        options.put("daylightSavingTime", "DaylightSavingTime");
+        options.put("language", "Language");
+        options.put("lockPowerKey", "LockPowerKey");
+        options.put("voiceOn", "VoiceOn");
+        options.put("platform", "~Platform");
+        options.put("serialNumber", "~SerialNumber");
+        options.put("mac", "MAC");
+        options.put("faceVersion", "ZKFaceVersion");
+        options.put("fpVersion", "~ZKFPVersion");
+        options.put("oemVendor", "~OEMVendor");
+        options.put("workCode", "WorkCode");
+        return Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Следующий пакет от устройства как есть, без проверки номера ответа и без таймаута
+     * (например, события реального времени).
+     */
+    public int[] readResponse() throws IOException {
+        return toIntArray(this.transport.receive(0));
+    }
+
+    private static int[] toIntArray(ZKReplyFrame reply) {
+        int[] response = new int[reply.length()];
+        response[0] = reply.getRawCode() & 255;
+        response[1] = reply.getRawCode() >> 8 & 255;
+        response[4] = reply.getSessionId() & 255;
+        response[5] = reply.getSessionId() >> 8 & 255;
+        response[6] = reply.getReplyId() & 255;
+        response[7] = reply.getReplyId() >> 8 & 255;
+        for(int i = 8; i < response.length; ++i) {
+            response[i] = reply.payloadByte(i - 8);
+        }
+
+        return response;
+    }
+
+    /**
+     * Принимает ответ на последнюю отправленную команду.
+     * Возвращаемый кадр ссылается на буфер транспорта и действителен до следующего чтения,
+     * поэтому разбор выполняется прямо по принятым байтам без копирования.
+     */
+    private ZKReplyFrame readFrame() throws IOException {
+        return this.readReply(this.settings.readTimeoutMillis());
+    }
 
+    /**
+     * Ждёт пакет с номером ответа последней команды; запоздавшие ответы на прежние команды
+     * и дубликаты отбрасываются. По UDP при отсутствии ответа команда повторяется
+     * с тем же номером (устройство отвечает на повтор так же), ожидание каждый раз удваивается.
+     * Команды из {@link #TRANSFER_COMMANDS} не повторяются: вместо этого одно ожидание на всё время повторов.
+     */
+    private ZKReplyFrame readReply(int timeoutMillis) throws IOException {
+        int retries = this.transport.isReliable() ? 0 : this.settings.retries();
+        if (retries > 0 && TRANSFER_COMMANDS.contains(this.lastCommand)) {
+            timeoutMillis = (int) Math.min(Integer.MAX_VALUE, (long) timeoutMillis * ((1L << (retries + 1)) - 1));
+            retries = 0;
+        }
+        int attempt = 0;
+        while (true) {
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
             try {
-                Map<String, Object> deviceInfoMap = new HashMap();
-                deviceInfoMap.put("isOnlyRFMachine", this.IsOnlyRFMachine());
-                deviceInfoMap.put("firmwareVersion", this.getFirmwareVersion());
-                deviceInfoMap.put("productTime", this.getProductTime());
-                deviceInfoMap.put("deviceName", this.getDeviceName());
-                deviceInfoMap.put("pin2Width", this.getPIN2Width());
-                deviceInfoMap.put("attendanceRecords", this.getAttendanceRecords());
-                deviceInfoMap.put("isOnlyRFMachine", this.IsOnlyRFMachine());
-                deviceInfoMap.put("firmwareVersion", this.getFirmwareVersion());
-                deviceInfoMap.put("productTime", this.getProductTime());
-                deviceInfoMap.put("deviceName", this.getDeviceName());
-                deviceInfoMap.put("pin2Width", this.getPIN2Width());
-                deviceInfoMap.put("showState", this.getShowState());
-                deviceInfoMap.put("deviceIP", this.getDeviceIP());
-                deviceInfoMap.put("devicePort", this.getDevicePORT());
-                deviceInfoMap.put("commKey", this.getCommKey());
-                deviceInfoMap.put("deviceId", this.getDeviceId());
-                deviceInfoMap.put("isDHCP", this.iSDHCP());
-                deviceInfoMap.put("dns", this.getDNS());
-                deviceInfoMap.put("enableProxyServer", this.isEnableProxyServer());
-                deviceInfoMap.put("proxyServerIP", this.getProxyServerIP());
-                deviceInfoMap.put("proxyServerPort", this.getProxyServerPort());
-                deviceInfoMap.put("daylightSavingTime", this.isDaylightSavingTime());
-                deviceInfoMap.put("language", this.getLanguage());
-                deviceInfoMap.put("lockPowerKey", this.isLockPowerKey());
-                deviceInfoMap.put("voiceOn", this.isVoiceOn());
-                deviceInfoMap.put("platform", this.getPlatform());
-                deviceInfoMap.put("serialNumber", this.getSerialNumber());
-                deviceInfoMap.put("mac", this.getMAC());
-                deviceInfoMap.put("faceVersion", this.getFaceVersion());
-                deviceInfoMap.put("fpVersion", this.getFPVersion());
-                deviceInfoMap.put("oemVendor", this.getOEMVendor());
-                deviceInfoMap.put("workCode", this.getWorkCode());
-                deviceInfoMap.put("deviceStatus", this.getDeviceStatus());
-                deviceInfoMap.put("state", this.getState());
-                objectMapper.writeValue(writer, deviceInfoMap);
-                System.out.println("Device information backup created successfully.");
-            } catch (Throwable var6) {
-                try {
-                    writer.close();
-                } catch (Throwable var5) {
-                    var6.addSuppressed(var5);
+                while (true) {
+                    int remaining = (int) Math.max(1, (deadline - System.nanoTime()) / 1_000_000L);
+                    ZKReplyFrame frame = this.receive(remaining);
+                    if (frame.getReplyId() == this.lastReplyNo) {
+                        this.metrics.exchange(this.lastCommand, frame.getRawCode(), System.nanoTime() - this.lastSentNanos);
+                        return frame;
+                    }
+                    log.fine("Discarding stale reply " + frame.getReplyId() + ", expecting " + this.lastReplyNo);
+                }
+            } catch (SocketTimeoutException e) {
+                if (attempt >= retries) {
+                    this.metrics.timeout(this.lastCommand);
+                    throw new SocketTimeoutException(this.ip + ":" + this.port + " did not reply to command #"
+                            + this.lastReplyNo + " after " + (attempt + 1) + " attempt(s)");
                 }
+                attempt++;
+                timeoutMillis *= 2;
+                log.fine("Retransmitting command #" + this.lastReplyNo + ", attempt " + (attempt + 1));
+                this.transport.send(this.sendBuffer);
+                this.metrics.retransmit(this.lastCommand);
+                this.metrics.sent(this.lastCommand, this.sendBuffer.remaining());
+            }
+        }
+    }
+
+    /**
+     * Отправляет последнюю команду ещё раз как новую — со следующим номером ответа,
+     * чтобы пакеты прежней попытки отбрасывались как чужие.
+     */
+    private void resendAsNewCommand() throws IOException {
+        this.sendBuffer.putShort(2, (short) 0).putShort(6, (short) this.replyNo);
+        this.sendBuffer.putShort(2, (short) ZKCommand.checksum(this.sendBuffer, 0, this.sendBuffer.limit()));
+        this.transmit(this.lastCommand);
+    }
 
-                throw var6;
+    /**
+     * Пропускает пакеты, которые устройство ещё досылает, пока канал не затихнет
+     * (но не дольше времени чтения).
+     */
+    private void drain() throws IOException {
+        long deadline = System.nanoTime() + this.settings.readTimeoutMillis() * 1_000_000L;
+        int quiet = Math.min(DRAIN_QUIET_MILLIS, this.settings.readTimeoutMillis());
+        int drained = 0;
+        try {
+            while (System.nanoTime() < deadline) {
+                this.receive(quiet);
+                drained++;
             }
+        } catch (SocketTimeoutException e) {
+            // канал затих
+        }
+        log.fine("Drained " + drained + " packet(s) from " + this.ip + ":" + this.port);
+    }
 
-            writer.close();
-        } catch (ParseException | IOException e) {
-            ((Exception)e).printStackTrace();
-            System.out.println("Error creating device information backup.");
+    /**
+     * Читает табличные данные (пользователи, журнал и т.п.) и отдаёт полезную нагрузку
+     * каждого пакета как срез буфера, без промежуточных hex-строк.
+     * Первые 4 байта таблицы (общий размер) пропускаются.
+     * <p>
+     * Принимаются только пакеты с номером ответа команды. Передача сверяется с размером из
+     * CMD_PREPARE_DATA: если пакет потерялся, чтение завершается ошибкой, а не обрезанной таблицей.
+     * Второй CMD_PREPARE_DATA значит, что устройство начало ту же передачу ещё раз и пакеты двух
+     * передач не различить: оставшееся вычитывается, и, если получателю ещё ничего не отдано,
+     * команда отправляется заново с новым номером, иначе чтение завершается ошибкой.
+     */
+    private void readDataStream(ZKReplyFrame reply, Consumer<ByteBuffer> chunkConsumer) throws IOException {
+        if (reply.getCode() != CommandReplyCodeEnum.CMD_PREPARE_DATA) {
+            ByteBuffer chunk = reply.payload();
+            chunk.position(Math.min(4, chunk.limit()));
+            chunkConsumer.accept(chunk);
+            return;
+        }
+        CommandCodeEnum command = this.lastCommand;
+        int expected = announcedSize(reply);
+        int received = 0;
+        int chunks = 0;
+        boolean restarted = false;
+
+        while (true) {
+            ZKReplyFrame data = this.receive(this.settings.readTimeoutMillis());
+            if (data.getReplyId() != this.lastReplyNo) {
+                log.fine("Discarding stale packet " + data.getRawCode() + " #" + data.getReplyId()
+                        + " during " + command + " #" + this.lastReplyNo);
+                continue;
+            }
+            CommandReplyCodeEnum code = data.getCode();
+            if (code == CommandReplyCodeEnum.CMD_PREPARE_DATA) {
+                this.drain();
+                if (received > 0 || restarted) {
+                    throw new IOException(this.ip + ":" + this.port + " started " + command
+                            + " transfer again after " + received + " bytes");
+                }
+                log.info(this.ip + ":" + this.port + " started " + command + " transfer twice, requesting it again");
+                this.resendAsNewCommand();
+                ZKReplyFrame restart = this.readFrame();
+                if (restart.getCode() != CommandReplyCodeEnum.CMD_PREPARE_DATA) {
+                    throw new IOException("Unexpected reply " + restart.getRawCode() + " to repeated " + command);
+                }
+                expected = announcedSize(restart);
+                restarted = true;
+                continue;
+            }
+            // подтверждение в конце передачи
+            if (code == CommandReplyCodeEnum.CMD_ACK_OK) {
+                if (expected >= 0 && received < expected) {
+                    throw new IOException(this.ip + ":" + this.port + " " + command + " transfer incomplete: "
+                            + received + " of " + expected + " bytes");
+                }
+                break;
+            }
+            if (data.getRawCode() != CommandCodeEnum.CMD_DATA.getCode()) {
+                throw new IOException("Unexpected packet " + data.getRawCode() + " during " + command + " transfer");
+            }
+            ByteBuffer chunk = data.payload();
+            int length = chunk.remaining();
+            if (received == 0) {
+                chunk.position(Math.min(4, chunk.limit()));
+            }
+            received += length;
+            if (expected >= 0 && received > expected) {
+                throw new IOException(this.ip + ":" + this.port + " " + command + " transfer overran: "
+                        + received + " of " + expected + " bytes");
+            }
+            chunkConsumer.accept(chunk);
+            chunks++;
+            if (expected >= 0 ? received == expected : data.length() != 1032) {
+                break;
+            }
         }
+        this.metrics.chunks(command, chunks);
+    }
 
+    /**
+     * Размер передачи из ответа CMD_PREPARE_DATA или -1, если устройство его не сообщило.
+     */
+    private static int announcedSize(ZKReplyFrame prepare) {
+        if (prepare.payloadLength() < 4) {
+            return -1;
+        }
+        ByteBuffer payload = prepare.payload();
+        return payload.getInt(payload.position());
     }
 
-    public int[] readResponse() throws IOException {
-        byte[] buf = new byte[1000000];
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
-        this.socket.receive(packet);
-        int[] response = new int[packet.getLength()];
+    /**
+     * Чтение таблицы через буфер устройства: CMD_DATA_WRRQ готовит данные целиком,
+     * затем они забираются кусками CMD_DATA_RDY и буфер освобождается CMD_FREE_DATA.
+     * Небольшие таблицы устройство возвращает сразу в ответе CMD_DATA.
+     * Первые 4 байта таблицы (общий размер) получатель видит сам.
+     */
+    private void readWithBuffer(CommandCodeEnum command, int fct, int ext, Consumer<ByteBuffer> chunkConsumer) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(11).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 1)
+                .putShort((short) command.getCode())
+                .putInt(fct)
+                .putInt(ext);
+        this.sendCommand(CommandCodeEnum.CMD_DATA_WRRQ, request.array());
+        ZKReplyFrame reply = this.readFrame();
+        if (reply.getRawCode() == CommandCodeEnum.CMD_DATA.getCode()) {
+            chunkConsumer.accept(reply.payload());
+            return;
+        }
+        if (reply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK || reply.payloadLength() < 5) {
+            throw new IOException("Device refused buffered read of " + command + ", reply code " + reply.getRawCode());
+        }
+        ByteBuffer header = reply.payload().order(ByteOrder.LITTLE_ENDIAN);
+        int size = header.getInt(header.position() + 1);
+        int maxChunk = this.transport.isReliable() ? TCP_MAX_CHUNK : UDP_MAX_CHUNK;
+        // по UDP кусок собирается целиком, чтобы при потере пакета его можно было запросить заново
+        ByteBuffer assembly = this.transport.isReliable() ? null : ByteBuffer.allocate(Math.min(maxChunk, size));
 
-        for(int i = 0; i < response.length; ++i) {
-            response[i] = buf[i] & 255;
+        try {
+            int packets = 0;
+            for (int start = 0; start < size; start += maxChunk) {
+                packets += this.readBufferChunk(start, Math.min(maxChunk, size - start), assembly, chunkConsumer);
+            }
+            this.metrics.chunks(command, packets);
+        } finally {
+            this.sendCommand(CommandCodeEnum.CMD_FREE_DATA, (byte[]) null);
+            this.readFrame();
         }
+    }
 
-        return response;
+    /**
+     * Забирает кусок буфера устройства командой CMD_DATA_RDY.
+     * По UDP кусок отдаётся получателю только целиком: если пакет потерялся (таймаут
+     * или ACK_OK раньше, чем пришли все байты), кусок запрашивается заново с новым номером ответа,
+     * не больше {@link ZKTransportSettings#retries()} раз.
+     *
+     * @param assembly буфер сборки куска по UDP или {@code null} по TCP
+     * @return число принятых пакетов данных
+     */
+    private int readBufferChunk(int start, int size, ByteBuffer assembly, Consumer<ByteBuffer> chunkConsumer) throws IOException {
+        byte[] request = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(start)
+                .putInt(size)
+                .array();
+        int retries = assembly == null ? 0 : this.settings.retries();
+        for (int attempt = 0; ; attempt++) {
+            this.sendCommand(CommandCodeEnum.CMD_DATA_RDY, request);
+            int packets;
+            try {
+                packets = this.receiveBufferChunk(start, size, assembly, chunkConsumer);
+            } catch (SocketTimeoutException e) {
+                if (assembly == null) {
+                    throw e;
+                }
+                packets = -1;
+            }
+            if (packets >= 0) {
+                if (assembly != null) {
+                    chunkConsumer.accept(assembly.flip());
+                }
+                return packets;
+            }
+            if (attempt >= retries) {
+                throw new IOException(this.ip + ":" + this.port + " buffer chunk at " + start + " (" + size
+                        + " bytes) incomplete after " + (attempt + 1) + " attempt(s)");
+            }
+            log.fine("Requesting buffer chunk at " + start + " again, attempt " + (attempt + 2));
+            this.metrics.retransmit(CommandCodeEnum.CMD_DATA_RDY);
+        }
+    }
+
+    /**
+     * Принимает один кусок в ответ на CMD_DATA_RDY. Учитываются только пакеты с номером ответа
+     * этого запроса; кусок завершён, когда пришли все {@code size} байт.
+     *
+     * @return число принятых пакетов или -1, если устройство закончило кусок раньше
+     */
+    private int receiveBufferChunk(int start, int size, ByteBuffer assembly, Consumer<ByteBuffer> chunkConsumer) throws IOException {
+        if (assembly != null) {
+            assembly.clear().limit(size);
+        }
+        ZKReplyFrame reply = this.receiveOwnReply();
+        this.metrics.exchange(this.lastCommand, reply.getRawCode(), System.nanoTime() - this.lastSentNanos);
+        if (reply.getRawCode() == CommandCodeEnum.CMD_DATA.getCode()) {
+            acceptChunk(reply.payload(), assembly, chunkConsumer);
+            return 1;
+        }
+        if (reply.getCode() != CommandReplyCodeEnum.CMD_PREPARE_DATA) {
+            throw new IOException("Unexpected reply " + reply.getRawCode() + " to buffer chunk at " + start);
+        }
+        int remaining = size;
+        int packets = 0;
+        while (remaining > 0) {
+            ZKReplyFrame data = this.receiveOwnReply();
+            if (data.getRawCode() != CommandCodeEnum.CMD_DATA.getCode()) {
+                if (data.getCode() == CommandReplyCodeEnum.CMD_ACK_OK) {
+                    log.fine(this.ip + ":" + this.port + " ended buffer chunk at " + start + " with "
+                            + remaining + " of " + size + " bytes missing");
+                    return -1;
+                }
+                throw new IOException("Unexpected packet " + data.getRawCode() + " in buffer chunk at " + start);
+            }
+            if (data.payloadLength() > remaining) {
+                throw new IOException(this.ip + ":" + this.port + " buffer chunk at " + start + " overran: "
+                        + (size - remaining + data.payloadLength()) + " of " + size + " bytes");
+            }
+            remaining -= data.payloadLength();
+            acceptChunk(data.payload(), assembly, chunkConsumer);
+            packets++;
+        }
+        // завершающий ACK_OK отбросит проверка номера ответа следующей команды
+        return packets;
+    }
+
+    private static void acceptChunk(ByteBuffer payload, ByteBuffer assembly, Consumer<ByteBuffer> chunkConsumer) {
+        if (assembly == null) {
+            chunkConsumer.accept(payload);
+        } else {
+            assembly.put(payload);
+        }
+    }
+
+    /**
+     * Следующий пакет с номером ответа последней команды без повтора команды;
+     * пакеты с другими номерами отбрасываются.
+     */
+    private ZKReplyFrame receiveOwnReply() throws IOException {
+        long deadline = System.nanoTime() + this.settings.readTimeoutMillis() * 1_000_000L;
+        while (true) {
+            int remaining = (int) Math.max(1, (deadline - System.nanoTime()) / 1_000_000L);
+            ZKReplyFrame frame = this.receive(remaining);
+            if (frame.getReplyId() == this.lastReplyNo) {
+                return frame;
+            }
+            log.fine("Discarding stale packet " + frame.getRawCode() + " #" + frame.getReplyId()
+                    + ", expecting " + this.lastReplyNo);
+        }
     }
 
     /**
@@ -2351,96 +2062,141 @@ public class ZKTerminalV {
      * @throws IOException при ошибке ввода-вывода
      */
     public ZKCommandReply uploadFp(String userId, int fpIndex, int fpFlag, byte[] template) throws IOException, ParseException {
-        // 1. Отключаем устройство согласно протоколу
+        // 1. Получаем userSn по userId
+        int userSn = idToSn(userId);
+        if (userSn == -1) {
+            throw new IOException("User not found: " + userId);
+        }
+
+        // 2. Отключаем устройство согласно протоколу
         ZKCommandReply disableReply = disableDevice();
         if (disableReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
             return disableReply;
         }
+        try {
+            // 3–5. Шаблон в буфер устройства с проверкой контрольной суммы
+            this.bufferWriter().load(template);
 
-                    // 2. Получаем userSn по userId
-            int userSn = idToSn(userId);
-            if (userSn == -1) {
-                throw new IOException("User not found: " + userId);
-            }
-
-        // 3. Подготовка данных согласно протоколу
-        // prep_data: [data_size(2LE)][fixed(2LE)=0000]
-        short fpSize = (short) template.length;
-        ByteBuffer prepData = ByteBuffer.allocate(4)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putShort(fpSize)      // data_size (2 bytes, little-endian)
-                .putShort((short) 0);  // fixed value 0000 (2 bytes)
-
-        ZKCommandReply prepReply = sendSimpleCommand(CommandCodeEnum.CMD_PREPARE_DATA, prepData.array());
-        if (prepReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return prepReply;
-        }
-
-        // 4. Отправка шаблона
-        ZKCommandReply dataReply = sendSimpleCommand(CommandCodeEnum.CMD_DATA, template);
-        if (dataReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return dataReply;
-        }
-
-        // 5. Запрос контрольной суммы
-        ZKCommandReply checksumReply = sendSimpleCommand(CommandCodeEnum.CMD_CHECKSUM_BUFFER, null);
-        if (checksumReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return checksumReply;
-        }
-
-                    // 6. Запрос на запись согласно протоколу
-            // tmp_wreq: [user_sn(2LE)][fp_index(1)][fp_flag(1)][fp_size(2LE)]
+            // 6. Запрос на запись: [user_sn(2LE)][fp_index(1)][fp_flag(1)][fp_size(2LE)]
             ByteBuffer tmpWreqData = ByteBuffer.allocate(6)
                     .order(ByteOrder.LITTLE_ENDIAN)
-                    .putShort((short) userSn)      // user_sn (2 bytes, little-endian)
-                    .put((byte) fpIndex)   // fp_index (1 byte)
-                    .put((byte) fpFlag)    // fp_flag (1 byte)
-                    .putShort(fpSize);     // fp_size (2 bytes, little-endian)
+                    .putShort((short) userSn)
+                    .put((byte) fpIndex)
+                    .put((byte) fpFlag)
+                    .putShort((short) template.length);
 
-        ZKCommandReply writeReply = sendSimpleCommand(CommandCodeEnum.CMD_TMP_WRITE, tmpWreqData.array());
-        if (writeReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+            ZKCommandReply writeReply = sendSimpleCommand(CommandCodeEnum.CMD_TMP_WRITE, tmpWreqData.array());
+            if (writeReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                return writeReply;
+            }
+
+            // 7. Освобождение буфера
+            ZKCommandReply freeReply = sendSimpleCommand(CommandCodeEnum.CMD_FREE_DATA, null);
+            if (freeReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                return freeReply;
+            }
+
+            // 8. Обновление данных согласно протоколу
+            ZKCommandReply refreshReply = sendSimpleCommand(CommandCodeEnum.CMD_REFRESHDATA, null);
+            if (refreshReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                return refreshReply;
+            }
             return writeReply;
+        } finally {
+            // 9. Включаем устройство и при ошибке загрузки, иначе на нём нельзя отметиться
+            enableDevice();
         }
+    }
 
-        // 7. Освобождение буфера
-        ZKCommandReply freeReply = sendSimpleCommand(CommandCodeEnum.CMD_FREE_DATA, null);
-        if (freeReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return freeReply;
-        }
+    public ZKCommandReply sendSimpleCommand(CommandCodeEnum cmd, byte[] payload) throws IOException {
+        this.sendCommand(cmd, payload);
+        ZKReplyFrame reply = this.readFrame();
+        return reply.toCommandReply(this.sessionId);
+    }
 
-        // 8. Обновление данных согласно протоколу
-        ZKCommandReply refreshReply = sendSimpleCommand(CommandCodeEnum.CMD_REFRESHDATA, null);
-        if (refreshReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return refreshReply;
-        }
+    /**
+     * Команда и ответ на неё в виде кадра (с исходным кодом ответа); кадр действителен до следующего чтения.
+     */
+    ZKReplyFrame exchange(CommandCodeEnum cmd, byte[] payload) throws IOException {
+        this.sendCommand(cmd, payload);
+        return this.readFrame();
+    }
 
-        // 9. Включаем устройство обратно
-        ZKCommandReply enableReply = enableDevice();
-        if (enableReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            return enableReply;
+    /**
+     * Отправляет команду без ожидания ответа (для конвейерной передачи).
+     *
+     * @return номер ответа, с которым придёт подтверждение
+     */
+    int post(CommandCodeEnum cmd, byte[] data, int offset, int length) throws IOException {
+        ZKCommand.encode(this.sendBuffer, cmd, this.sessionId, this.replyNo, data, offset, length);
+        this.transmit(cmd);
+        return this.lastReplyNo;
+    }
+
+    /**
+     * Ждёт подтверждения на {@code count} (не больше 64) команд, отправленных {@link #post} подряд начиная
+     * с номера {@code firstReplyId}; порядок прихода не важен, дубликаты и чужие ответы отбрасываются.
+     *
+     * @throws SocketTimeoutException если за время чтения пришли не все подтверждения
+     */
+    void awaitAcks(int firstReplyId, int count) throws IOException {
+        long pending = count == 64 ? -1L : (1L << count) - 1;
+        long deadline = System.nanoTime() + this.settings.readTimeoutMillis() * 1_000_000L;
+        while (pending != 0) {
+            int remaining = (int) ((deadline - System.nanoTime()) / 1_000_000L);
+            if (remaining <= 0) {
+                this.metrics.timeout(this.lastCommand);
+                throw new SocketTimeoutException(this.ip + ":" + this.port + " did not acknowledge "
+                        + Long.bitCount(pending) + " of " + count + " pipelined command(s)");
+            }
+            ZKReplyFrame frame = this.receive(remaining);
+            int index = (frame.getReplyId() - firstReplyId) & 0xFFFF;
+            if (index >= count || (pending & 1L << index) == 0) {
+                continue;
+            }
+            if (frame.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                this.metrics.exchange(this.lastCommand, frame.getRawCode(), System.nanoTime() - this.lastSentNanos);
+                throw new IOException("Command #" + frame.getReplyId() + " rejected, reply " + frame.getRawCode());
+            }
+            pending &= ~(1L << index);
         }
+    }
 
-        return writeReply;
+    /**
+     * Загрузчик больших данных в буфер устройства: куски по размеру транспорта,
+     * конвейерная отправка и проверка контрольной суммы.
+     */
+    public ZKBufferWriter bufferWriter() {
+        return new ZKBufferWriter(this, this.transport.isReliable(), ZKBufferWriter.DEFAULT_CHUNK_SIZE, this.settings.retries() + 1,
+                this.bufferChecksum);
     }
 
-    public ZKCommandReply sendSimpleCommand(CommandCodeEnum cmd, byte[] payload) throws IOException {
-        int[] toSend = ZKCommand.getPacketByte(cmd, this.sessionId, this.replyNo, payload);
-        byte[] buf = new byte[toSend.length];
-        int index = 0;
+    /**
+     * Открывает пакетную загрузку: устройство отключается один раз на всю сессию,
+     * а обновление данных и включение выполняются при её закрытии.
+     */
+    public TemplateUploadSession beginTemplateUpload() throws IOException {
+        return new TemplateUploadSession(this);
+    }
 
-        for(int byteToSend : toSend) {
-            buf[index++] = (byte)byteToSend;
+    /**
+     * Загружает пользователей, затем их шаблоны (по user ID) одной сессией.
+     *
+     * @param templates user ID → шаблоны пользователя
+     * @return результат по каждому пользователю и шаблону
+     */
+    public List<TemplateUploadSession.ItemResult> uploadUsersWithTemplates(List<UserInfo> users, Map<String, List<FingerTemplate>> templates) throws IOException {
+        try (TemplateUploadSession session = this.beginTemplateUpload()) {
+            for (UserInfo user : users) {
+                session.writeUser(user);
+            }
+            for (Map.Entry<String, List<FingerTemplate>> entry : templates.entrySet()) {
+                for (FingerTemplate template : entry.getValue()) {
+                    session.writeTemplate(entry.getKey(), template.fingerIndex(), template.flag(), template.template());
+                }
+            }
+            return session.results();
         }
-
-        DatagramPacket packet = new DatagramPacket(buf, buf.length, this.address, this.port);
-        this.socket.send(packet);
-        ++this.replyNo;
-        int[] response = this.readResponse();
-        CommandReplyCodeEnum replyCode = CommandReplyCodeEnum.decode(response[0] + response[1] * 256);
-        int replyId = response[6] + response[7] * 256;
-        int[] payloads = new int[response.length - 8];
-        System.arraycopy(response, 8, payloads, 0, payloads.length);
-        return new ZKCommandReply(replyCode, this.sessionId, replyId, payloads);
     }
 
     public ZKCommandReply startVerify(int userId, int fingerIndex) throws IOException {
@@ -2451,31 +2207,16 @@ public class ZKTerminalV {
     }
 
     public ZKCommandReply uploadFpNew(int userId, int fpIndex, int fpFlag, byte[] fpTemplate) throws IOException {
-        // 1) резервируем буфер на устройстве
-        ZKCommandReply r1 = prepareData(fpTemplate.length);
-        if (r1.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-            throw new RuntimeException("prepareData failed: " + r1.getCode());
-        }
-
-        // 2) нарезаем и шлём payload кусками по ~1000 байт
-        int offset = 0, chunkSize = 1000;
-        while (offset < fpTemplate.length) {
-            int len = Math.min(chunkSize, fpTemplate.length - offset);
-            byte[] chunk = Arrays.copyOfRange(fpTemplate, offset, offset + len);
-            ZKCommandReply r2 = sendDataChunk(chunk);
-            if (r2.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
-                throw new RuntimeException("sendDataChunk failed at offset " + offset + ": " + r2.getCode());
-            }
-            offset += len;
-        }
+        // 1) шаблон в буфер устройства кусками с проверкой контрольной суммы
+        this.bufferWriter().load(fpTemplate);
 
-        // 3) завершаем передачу
+        // 2) освобождаем буфер
         ZKCommandReply r3 = freeData();
         if (r3.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
             throw new RuntimeException("freeData failed: " + r3.getCode());
         }
 
-        // 4) теперь привязываем этот загруженный шаблон к пользователю
+        // 3) теперь привязываем этот загруженный шаблон к пользователю
         //    payload: [userId(4LE), fpIndex(1), fpFlag(1)]
         ByteBuffer p = ByteBuffer.allocate(4 + 1 + 1).order(ByteOrder.LITTLE_ENDIAN);
         p.putInt(userId);
@@ -2488,6 +2229,12 @@ public class ZKTerminalV {
         return r4;
     }
 
+    /**
+     * Загружает шаблон через буфер устройства ({@link #bufferWriter()}: куски окном и сверка контрольной суммы)
+     * и записывает его пользователю командой CMD_TMP_WRITE.
+     *
+     * @throws IOException если пользователь не найден или устройство отклонило запись
+     */
     public void uploadFp(String userId, byte[] fp, byte fpIndex, byte fpFlag) throws IOException, ParseException {
         // 1. Получаем userSn по userId
         int userSn = idToSn(userId);
@@ -2497,49 +2244,42 @@ public class ZKTerminalV {
 
         // 2. Отключаем устройство
         disableDevice();
+        try {
+            // 3–5. Шаблон в буфер устройства с проверкой контрольной суммы
+            this.bufferWriter().load(fp);
 
-        // 3. Подготовка данных
-        short fpSize = (short) fp.length;
-        ByteBuffer prepData = ByteBuffer.allocate(4)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putShort(fpSize)
-                .putShort((short) 0);  // 2 нулевых байта
-
-        sendSimpleCommand(CommandCodeEnum.CMD_PREPARE_DATA, prepData.array());
-
-        // 4. Отправка шаблона
-        sendSimpleCommand(CommandCodeEnum.CMD_DATA, fp);
-
-        // 5. Запрос контрольной суммы
-        sendSimpleCommand(CommandCodeEnum.CMD_CHECKSUM_BUFFER, null);
-
-        // 6. Формирование и отправка запроса на запись
-        ByteBuffer tmpWreqData = ByteBuffer.allocate(6)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .putShort((short) userSn)
-                .put(fpIndex)
-                .put(fpFlag)
-                .putShort(fpSize);
+            // 6. Запрос на запись: [user_sn(2LE)][fp_index(1)][fp_flag(1)][fp_size(2LE)]
+            ByteBuffer tmpWreqData = ByteBuffer.allocate(6)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .putShort((short) userSn)
+                    .put(fpIndex)
+                    .put(fpFlag)
+                    .putShort((short) fp.length);
 
-        sendSimpleCommand(CommandCodeEnum.CMD_TMP_WRITE, tmpWreqData.array());
+            ZKCommandReply writeReply = sendSimpleCommand(CommandCodeEnum.CMD_TMP_WRITE, tmpWreqData.array());
+            if (writeReply.getCode() != CommandReplyCodeEnum.CMD_ACK_OK) {
+                throw new IOException("Device refused template " + fpIndex + " of user " + userId + ": " + writeReply.getCode());
+            }
 
-        // 7. Освобождение буфера
-        sendSimpleCommand(CommandCodeEnum.CMD_FREE_DATA, null);
+            // 7. Освобождение буфера
+            sendSimpleCommand(CommandCodeEnum.CMD_FREE_DATA, null);
 
-        // 8. Обновление данных
-        refreshData();
+            // 8. Обновление данных
+            refreshData();
+        } finally {
+            enableDevice();
+        }
     }
 
     // Вспомогательные методы
     public int idToSn(String userId) throws IOException, ParseException {
         try {
-            for (UserInfo user : getAllUsers()) {
-                if (user.getUserid().equals(userId)) {
-                    // Согласно протоколу, userSn - это внутренний серийный номер
-                    // В большинстве случаев он равен uid, но может отличаться
-                    // Для совместимости с протоколом используем uid как userSn
-                    return user.getUid();
-                }
+            UserInfo user = this.findUser(userId);
+            if (user != null) {
+                // Согласно протоколу, userSn - это внутренний серийный номер
+                // В большинстве случаев он равен uid, но может отличаться
+                // Для совместимости с протоколом используем uid как userSn
+                return user.getUid();
             }
         } catch (Exception e) {
             System.out.println("Error getting users list: " + e.getMessage());
@@ -2774,26 +2514,27 @@ public class ZKTerminalV {
 
     /**
      * Детальная проверка отпечатков пальцев пользователя.
-     * Проверяет все пальцы (0-9) и возвращает подробную информацию.
+     * Все пальцы (0-9) проверяются по таблице шаблонов, прочитанной одной передачей через буфер устройства.
      *
      * @param userId ID пользователя в устройстве
-     * @return Map с информацией о каждом пальце (индекс -> есть ли отпечаток)
+     * @return Map с информацией о каждом пальце (индекс -> есть ли отпечаток); для неизвестного пользователя все false
      * @throws IOException при ошибке ввода-вывода
      */
-    public Map<Integer, Boolean> getUserFingerprintsStatus(String userId) throws IOException {
-        Map<Integer, Boolean> fingerprints = new HashMap<>();
-        
-        // Проверяем все пальцы от 0 до 9
+    public Map<Integer, Boolean> getUserFingerprintsStatus(String userId) throws IOException, ParseException {
+        Map<Integer, Boolean> fingerprints = new TreeMap<>();
         for (int fingerIndex = 0; fingerIndex < 10; fingerIndex++) {
-            try {
-                boolean hasTemplate = hasUserTemplate(userId, fingerIndex);
-                fingerprints.put(fingerIndex, hasTemplate);
-            } catch (Exception e) {
-                // Если ошибка при проверке конкретного пальца, считаем что отпечатка нет
-                fingerprints.put(fingerIndex, false);
-            }
+            fingerprints.put(fingerIndex, false);
         }
-        
+        UserInfo user = this.findUser(userId);
+        if (user == null) {
+            return fingerprints;
+        }
+        int uid = user.getUid();
+        this.streamFingerTemplates((templateUid, finger, flag, template) -> {
+            if (templateUid == uid && finger >= 0 && finger < 10) {
+                fingerprints.put(finger, true);
+            }
+        });
         return fingerprints;
     }
 
@@ -2808,14 +2549,7 @@ public class ZKTerminalV {
         StringBuilder info = new StringBuilder();
         
         // Получаем информацию о пользователе
-        List<UserInfo> users = getAllUsers();
-        UserInfo user = null;
-        for (UserInfo u : users) {
-            if (u.getUserid().equals(userId)) {
-                user = u;
-                break;
-            }
-        }
+        UserInfo user = findUser(userId);
         
         if (user == null) {
             return "Пользователь с ID " + userId + " не найден";
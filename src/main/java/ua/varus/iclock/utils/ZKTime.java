@@ -0,0 +1,46 @@
+package ua.varus.iclock.utils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Упакованное время устройства ZK: секунды в смешанной системе счисления
+ * (год с 2000, месяц по 31 день, сутки по 24 часа). Время локальное для терминала.
+ */
+public final class ZKTime {
+
+    private ZKTime() {
+    }
+
+    public static LocalDateTime toLocalDateTime(long packed) {
+        int second = (int) (packed % 60);
+        packed /= 60;
+        int minute = (int) (packed % 60);
+        packed /= 60;
+        int hour = (int) (packed % 24);
+        packed /= 24;
+        int day = (int) (packed % 31) + 1;
+        packed /= 31;
+        int month = (int) (packed % 12) + 1;
+        packed /= 12;
+        int year = (int) packed + 2000;
+        return LocalDateTime.of(year, month, day, hour, minute, second);
+    }
+
+    /**
+     * Обратное преобразование; доли секунды отбрасываются.
+     */
+    public static long pack(LocalDateTime time) {
+        long packed = time.getYear() - 2000L;
+        packed = packed * 12 + (time.getMonthValue() - 1);
+        packed = packed * 31 + (time.getDayOfMonth() - 1);
+        packed = packed * 24 + time.getHour();
+        packed = packed * 60 + time.getMinute();
+        return packed * 60 + time.getSecond();
+    }
+
+    public static Date toDate(long packed) {
+        return Date.from(toLocalDateTime(packed).atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,95 @@
+package ua.varus.iclock;
+
+import com.zkteco.command.events.EventCode;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import ua.varus.iclock.config.ZktecoProperties;
+import ua.varus.iclock.device.DeviceEvent;
+import ua.varus.iclock.device.DeviceRegistry;
+import ua.varus.iclock.device.ManagedDevice;
+import ua.varus.iclock.utils.ZKEvents;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Мост событий устройств в потоки SSE: буфер подписчика, отмена подписки и проверка запроса.
+ */
+class RealtimeEventServiceTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 3, 1, 9, 0);
+
+    @Test
+    void slowSubscriberLosesOldestEvents() {
+        RealtimeEventService service = service(4);
+        List<String> received = new CopyOnWriteArrayList<>();
+        BaseSubscriber<DeviceEvent> slow = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                // ничего не запрашивает, пока не «проснётся»
+            }
+
+            @Override
+            protected void hookOnNext(DeviceEvent event) {
+                received.add(event.userId());
+            }
+        };
+        service.stream(null, EventCode.EF_ATTLOG.getCode()).subscribe(slow);
+
+        for (int i = 1; i <= 10; i++) {
+            service.dispatch("store-1", ZKEvents.attendance(String.valueOf(i), TIME));
+        }
+        slow.request(Long.MAX_VALUE);
+
+        assertEquals(List.of("7", "8", "9", "10"), received);
+        slow.dispose();
+    }
+
+    @Test
+    void cancelledStreamUnsubscribes() {
+        RealtimeEventService service = service(16);
+        List<DeviceEvent> received = new CopyOnWriteArrayList<>();
+        Disposable stream = service.stream("store-1", EventCode.EF_ATTLOG.getCode()).subscribe(received::add);
+        service.dispatch("store-2", ZKEvents.attendance("1", TIME));
+        service.dispatch("store-1", ZKEvents.attendance("2", TIME));
+        assertEquals(1, service.subscriberCount());
+
+        stream.dispose();
+        service.dispatch("store-1", ZKEvents.attendance("3", TIME));
+
+        assertEquals(0, service.subscriberCount());
+        assertEquals(List.of("2"), received.stream().map(DeviceEvent::userId).toList());
+    }
+
+    @Test
+    void unknownDeviceAndUnregisteredEventsAreRejected() {
+        ZktecoProperties properties = new ZktecoProperties();
+        DeviceRegistry registry = new DeviceRegistry(List.of(new ManagedDevice("store-1", "127.0.0.1", 4370, 0)));
+        DeviceEventController controller = new DeviceEventController(
+                new RealtimeEventService(registry, properties), registry, properties);
+
+        ResponseStatusException unknown = assertThrows(ResponseStatusException.class,
+                () -> controller.deviceEvents("store-9", null));
+        assertEquals(HttpStatus.NOT_FOUND, unknown.getStatusCode());
+        // по умолчанию на устройствах регистрируется только EF_ATTLOG
+        ResponseStatusException unregistered = assertThrows(ResponseStatusException.class,
+                () -> controller.events(List.of(EventCode.EF_ATTLOG, EventCode.EF_ALARM)));
+        assertEquals(HttpStatus.BAD_REQUEST, unregistered.getStatusCode());
+        assertTrue(unregistered.getReason().contains("EF_ALARM"), unregistered.getReason());
+    }
+
+    private static RealtimeEventService service(int subscriberBuffer) {
+        ZktecoProperties properties = new ZktecoProperties();
+        properties.getRealtime().setSubscriberBuffer(subscriberBuffer);
+        return new RealtimeEventService(new DeviceRegistry(List.of()), properties);
+    }
+}
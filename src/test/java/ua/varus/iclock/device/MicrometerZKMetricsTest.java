@@ -0,0 +1,37 @@
+package ua.varus.iclock.device;
+
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ua.varus.iclock.utils.CommandCodeEnum;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MicrometerZKMetricsTest {
+
+    @Test
+    void exchangesAreTaggedByDeviceCommandAndReply() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerZKMetrics metrics = new MicrometerZKMetrics(registry, "store-001");
+
+        metrics.sent(CommandCodeEnum.CMD_ATTLOG_RRQ, 8);
+        metrics.exchange(CommandCodeEnum.CMD_ATTLOG_RRQ, 1500, TimeUnit.MILLISECONDS.toNanos(12));
+        metrics.chunks(CommandCodeEnum.CMD_ATTLOG_RRQ, 3);
+        metrics.exchange(CommandCodeEnum.CMD_USER_WRQ, 2001, TimeUnit.MILLISECONDS.toNanos(4));
+
+        assertEquals(8, registry.get("zkteco.bytes.sent").tags("device", "store-001", "command", "CMD_ATTLOG_RRQ").counter().count());
+        assertEquals(1, registry.get("zkteco.command.duration").tags("command", "CMD_ATTLOG_RRQ", "reply", "CMD_PREPARE_DATA").timer().count());
+        assertEquals(3, registry.get("zkteco.transfer.chunks").tag("command", "CMD_ATTLOG_RRQ").counter().count());
+        assertEquals(1, registry.get("zkteco.command.rejected").tags("command", "CMD_USER_WRQ", "reply", "CMD_ACK_ERROR").counter().count());
+        assertNull(registry.find("zkteco.command.rejected").tag("command", "CMD_ATTLOG_RRQ").counter());
+        // только заданные границы, без сотни рядов процентильной гистограммы
+        CountAtBucket[] buckets = registry.get("zkteco.command.duration").tag("command", "CMD_ATTLOG_RRQ").timer()
+                .takeSnapshot().histogramCounts();
+        assertEquals(MicrometerZKMetrics.DURATION_BUCKETS.length, buckets.length);
+        assertEquals(0, buckets[0].count());
+        assertEquals(1, buckets[1].count(), "12 ms falls into the 20 ms bucket");
+    }
+}
@@ -0,0 +1,89 @@
+package ua.varus.iclock.device;
+
+import com.zkteco.Enum.UserRoleEnum;
+import com.zkteco.commands.UserInfo;
+import org.junit.jupiter.api.Test;
+import ua.varus.iclock.utils.FingerTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserDiffTest {
+
+    @Test
+    void newUserKeepsFreeSourceUidAndGetsNextFreeOtherwise() {
+        UserSnapshot source = snapshot(List.of(user(5, "100"), user(7, "200")),
+                Map.of(7, List.of(template(7, 0, 1))));
+        // UID 7 на целевом занят другим пользователем
+        UserSnapshot target = snapshot(List.of(user(7, "300"), user(9, "400")), Map.of());
+
+        UserDiff diff = UserDiff.compute(source, target);
+
+        assertEquals(2, diff.users().size());
+        assertEquals("100", diff.users().get(0).getUserid());
+        assertEquals(5, diff.users().get(0).getUid());
+        assertEquals("200", diff.users().get(1).getUserid());
+        assertEquals(10, diff.users().get(1).getUid());
+        // шаблон переносится на UID, выданный на целевом
+        assertEquals(1, diff.templates().size());
+        assertEquals(10, diff.templates().get(0).uid());
+        assertEquals(List.of("300", "400"), diff.extra().stream().map(UserInfo::getUserid).toList());
+    }
+
+    @Test
+    void usersAreMatchedByUserIdAcrossDifferentUids() {
+        FingerTemplate finger = template(3, 1, 1);
+        UserSnapshot source = snapshot(List.of(user(3, "100")), Map.of(3, List.of(finger)));
+        // тот же пользователь под другим UID, user ID дополнен нулями, как в таблице устройства
+        UserSnapshot target = snapshot(List.of(user(42, "100\0\0\0\0\0")),
+                Map.of(42, List.of(new FingerTemplate(42, 1, 1, finger.template()))));
+
+        UserDiff diff = UserDiff.compute(source, target);
+
+        assertTrue(diff.isEmpty(), "same user under another UID must not be rewritten");
+        assertTrue(diff.extra().isEmpty());
+    }
+
+    @Test
+    void changedUserAndTemplatesAreWrittenUnderTargetUid() {
+        FingerTemplate unchanged = template(3, 0, 1);
+        FingerTemplate changed = template(3, 1, 1);
+        UserSnapshot source = snapshot(List.of(new UserInfo(3, "100", "New name", "", UserRoleEnum.USER_DEFAULT, 0)),
+                Map.of(3, List.of(unchanged, changed, template(3, 2, 3))));
+        byte[] previous = changed.template().clone();
+        previous[0] ^= 1;
+        UserSnapshot target = snapshot(List.of(user(42, "100")), Map.of(42, List.of(
+                new FingerTemplate(42, 0, 1, unchanged.template()),
+                new FingerTemplate(42, 1, 1, previous))));
+
+        UserDiff diff = UserDiff.compute(source, target);
+
+        assertEquals(1, diff.users().size());
+        assertEquals(42, diff.users().get(0).getUid());
+        assertEquals("New name", diff.users().get(0).getName());
+        // палец 0 совпадает, палец 1 отличается байтами, пальца 2 на целевом нет
+        assertEquals(List.of(1, 2), diff.templates().stream().map(FingerTemplate::fingerIndex).toList());
+        assertTrue(diff.templates().stream().allMatch(template -> template.uid() == 42));
+        assertArrayEquals(changed.template(), diff.templates().get(0).template());
+    }
+
+    private static UserSnapshot snapshot(List<UserInfo> users, Map<Integer, List<FingerTemplate>> templates) {
+        return new UserSnapshot(users, templates);
+    }
+
+    private static UserInfo user(int uid, String userId) {
+        return new UserInfo(uid, userId, "User " + userId.trim(), "", UserRoleEnum.USER_DEFAULT, 0);
+    }
+
+    private static FingerTemplate template(int uid, int finger, int flag) {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (uid * 10 + finger + i);
+        }
+        return new FingerTemplate(uid, finger, flag, bytes);
+    }
+}
@@ -0,0 +1,86 @@
+package ua.varus.iclock.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttendancePipelineTest {
+
+    @Test
+    void duplicatesAreDroppedAndFailedBatchIsRetried() throws Exception {
+        List<List<AttendancePunch>> batches = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger(1);
+        AttendanceSink sink = batch -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("sink down");
+            }
+            batches.add(List.copyOf(batch));
+        };
+
+        try (AttendancePipeline pipeline = new AttendancePipeline(sink, 2, Duration.ofMinutes(1), 16, 16,
+                Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofSeconds(10), 3, null)) {
+            assertTrue(pipeline.offer(new AttendancePunch("SN1", 1, "42", 1, 0, 1000)));
+            // то же событие реального времени без номера записи — повтор
+            assertFalse(pipeline.offer(new AttendancePunch("SN1", -1, "42", 1, 0, 1000)));
+            assertTrue(pipeline.offer(new AttendancePunch("SN1", 2, "43", 1, 0, 1000)));
+            assertTrue(pipeline.offer(new AttendancePunch("SN2", 1, "42", 1, 0, 1000)));
+            pipeline.flush();
+
+            assertEquals(3, pipeline.writtenCount());
+            assertEquals(2, batches.size());
+            assertEquals(List.of("42", "43"), batches.get(0).stream().map(AttendancePunch::userId).toList());
+            assertEquals("SN2", batches.get(1).get(0).deviceSerial());
+        }
+    }
+
+    @Test
+    void batchFailingEveryAttemptGoesToDeadLetterAndFailsTheFlush(@TempDir Path deadLetter) throws Exception {
+        List<AttendancePunch> written = new ArrayList<>();
+        AtomicBoolean rejectBad = new AtomicBoolean(true);
+        AttendanceSink sink = batch -> {
+            if (rejectBad.get() && batch.stream().anyMatch(punch -> punch.userId().equals("bad"))) {
+                throw new IOException("constraint violation");
+            }
+            written.addAll(batch);
+        };
+
+        try (AttendancePipeline pipeline = new AttendancePipeline(sink, 1, Duration.ofMinutes(1), 16, 16,
+                Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofSeconds(10), 3, deadLetter)) {
+            pipeline.offer(new AttendancePunch("SN1", 1, "bad", 1, 0, 1000));
+            pipeline.offer(new AttendancePunch("SN1", 2, "42", 1, 0, 1000));
+            // отметка синхронизации не должна сдвинуться за недоставленную отметку
+            assertThrows(IOException.class, pipeline::flush);
+
+            assertEquals(List.of("42"), written.stream().map(AttendancePunch::userId).toList());
+            assertEquals(1, pipeline.deadLetteredCount());
+            try (var files = Files.list(deadLetter)) {
+                List<String> lines = Files.readAllLines(files.findFirst().orElseThrow());
+                assertEquals(2, lines.size());
+                assertTrue(lines.get(1).startsWith("SN1,1,bad,"), lines.get(1));
+            }
+
+            pipeline.offer(new AttendancePunch("SN1", 3, "43", 1, 0, 1000));
+            pipeline.flush();
+            assertEquals(2, pipeline.writtenCount());
+
+            // следующая выгрузка журнала читает ту же запись снова: она не повтор и доходит до приёмника
+            rejectBad.set(false);
+            assertTrue(pipeline.offer(new AttendancePunch("SN1", 1, "bad", 1, 0, 1000)));
+            pipeline.flush();
+            assertEquals(List.of("42", "43", "bad"), written.stream().map(AttendancePunch::userId).toList());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ua.varus.iclock.ingest;
+
+import com.zkteco.Enum.UserRoleEnum;
+import com.zkteco.commands.UserInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import ua.varus.iclock.utils.AttendanceLogParser;
+import ua.varus.iclock.utils.UserDirectory;
+import ua.varus.iclock.utils.ZKEvents;
+import ua.varus.iclock.utils.ZKTime;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JdbcAttendanceSinkTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 3, 1, 9, 15, 30);
+
+    @Test
+    void shortFormatEventAndItsLogRecordAreOneRow() throws Exception {
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:punch;DB_CLOSE_DELAY=-1"));
+        UserDirectory users = new UserDirectory();
+        // в таблице устройства user ID дополнен нулями
+        users.update(List.of(new UserInfo(7, "1042\0\0\0\0\0", "User", "", UserRoleEnum.USER_DEFAULT, 0)), 1, 0);
+
+        JdbcAttendanceSink sink = new JdbcAttendanceSink(jdbc);
+
+        // событие несёт только внутренний номер 7, журнал — настоящий user ID
+        AttendancePunch event = AttendancePunch.of("SN1", ZKEvents.attendance(7, TIME), users);
+        AttendancePunch logged = AttendancePunch.of("SN1", logRecord(15, "1042", TIME), 0);
+        // один ключ: конвейер отбросит копию как повтор
+        assertEquals(logged.key(), event.key());
+        // а если копия всё же дошла (после перезапуска), приёмник лишь проставит номер записи
+        sink.write(List.of(event));
+        sink.write(List.of(logged));
+
+        List<Map<String, Object>> rows = jdbc.queryForList("SELECT user_id, seq FROM attendance_punch");
+        assertEquals(1, rows.size());
+        assertEquals("1042", rows.get(0).get("USER_ID"));
+        assertEquals(15, rows.get(0).get("SEQ"));
+    }
+
+    @Test
+    void shortFormatEventWithUnknownUserIsLeftToTheLog() {
+        assertNull(AttendancePunch.of("SN1", ZKEvents.attendance(7, TIME), null));
+        assertNull(AttendancePunch.of("SN1", ZKEvents.attendance(8, TIME), new UserDirectory()));
+    }
+
+    /**
+     * Запись журнала: [seq(2)][user_id(24)][verify(1)][time(4)][state(1)][reserved(8)].
+     */
+    private static ByteBuffer logRecord(int seq, String userId, LocalDateTime time) {
+        ByteBuffer record = ByteBuffer.allocate(AttendanceLogParser.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putShort((short) seq).put(userId.getBytes(StandardCharsets.US_ASCII));
+        record.position(26);
+        record.put((byte) 1).putInt((int) ZKTime.pack(time)).put((byte) 0);
+        return record.clear();
+    }
+}
@@ -0,0 +1,467 @@
+package ua.varus.iclock.simulator;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.command.events.EventCode;
+import com.zkteco.utils.SecurityUtils;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKCommand;
+import ua.varus.iclock.utils.ZKReplyFrame;
+import ua.varus.iclock.utils.ZKTime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Сессия одного клиента с симулированным терминалом: разбирает команду и отправляет ответ
+ * так, как это делает прошивка. Команды одной сессии обрабатываются последовательно;
+ * {@link #pushEvent} может вызываться из другого потока.
+ * <p>
+ * Табличные чтения (CMD_ATTLOG_RRQ, CMD_USERTEMP_RRQ) идут как CMD_PREPARE_DATA, пакеты CMD_DATA
+ * по 1024 байта и завершающий CMD_ACK_OK; чтение через буфер (CMD_DATA_WRRQ / CMD_DATA_RDY) —
+ * одним пакетом CMD_DATA по TCP и пакетами по 1024 байта по UDP. Повтор команды с тем же номером
+ * ответа (UDP) не выполняется второй раз: отправляется сохранённый ответ.
+ */
+final class DeviceSession {
+
+    /** Полезная нагрузка пакета табличной передачи; клиент ждёт следующий, пока кадр ровно 1032 байта. */
+    static final int DATA_PACKET_SIZE = 1024;
+    /** Больше этого буфер загрузки не принимает, как и прошивка с 16 МБ под буфер. */
+    private static final int MAX_UPLOAD = 16 * 1024 * 1024;
+    private static final int ACK_OK = CommandReplyCodeEnum.CMD_ACK_OK.getCode();
+    private static final int ACK_ERROR = CommandReplyCodeEnum.CMD_ACK_ERROR.getCode();
+    private static final int ACK_UNAUTH = CommandReplyCodeEnum.CMD_ACK_UNAUTH.getCode();
+    private static final int ACK_UNKNOWN = CommandReplyCodeEnum.CMD_ACK_UNKNOWN.getCode();
+    private static final int PREPARE_DATA = CommandReplyCodeEnum.CMD_PREPARE_DATA.getCode();
+    private static final int DATA = CommandCodeEnum.CMD_DATA.getCode();
+    private static final int REG_EVENT = CommandCodeEnum.CMD_REG_EVENT.getCode();
+    private static final int REPLY_CACHE_SIZE = 64;
+    private static final Map<Integer, CommandCodeEnum> COMMANDS = new LinkedHashMap<>();
+
+    static {
+        for (CommandCodeEnum command : CommandCodeEnum.values()) {
+            COMMANDS.putIfAbsent(command.getCode(), command);
+        }
+    }
+
+    /**
+     * Канал к клиенту: датаграммы на его адрес или TCP-соединение. Должен допускать вызовы из разных потоков.
+     */
+    interface Link {
+
+        /**
+         * Отправляет пакет из диапазона [position, limit).
+         */
+        void send(ByteBuffer packet) throws IOException;
+
+        boolean isReliable();
+    }
+
+    private final SimulatedDevice device;
+    private final SimulatorSettings settings;
+    private final Link link;
+    private final ByteBuffer out = ByteBuffer.allocate(ZKCommand.HEADER_SIZE + 0xFFFF).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer eventOut = ByteBuffer.allocate(ZKCommand.HEADER_SIZE + 32).order(ByteOrder.LITTLE_ENDIAN);
+    /** Номер ответа → отправленный одиночный ответ, для повторов по UDP. */
+    private final Map<Integer, byte[]> replies = new LinkedHashMap<>(REPLY_CACHE_SIZE * 2, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return this.size() > REPLY_CACHE_SIZE;
+        }
+    };
+
+    private int sessionId;
+    private boolean authenticated;
+    private volatile int eventMask;
+    private volatile boolean closed;
+    private int lastReplyId = -1;
+    private int lastCommand = -1;
+    /** Данные, принимаемые CMD_PREPARE_DATA / CMD_DATA. */
+    private byte[] upload;
+    private int uploaded;
+    /** Таблица, подготовленная CMD_DATA_WRRQ, вместе с 4-байтным заголовком. */
+    private ByteBuffer prepared;
+
+    DeviceSession(SimulatedDevice device, SimulatorSettings settings, Link link) {
+        this.device = device;
+        this.settings = settings;
+        this.link = link;
+    }
+
+    int sessionId() {
+        return this.sessionId;
+    }
+
+    int eventMask() {
+        return this.eventMask;
+    }
+
+    /**
+     * Клиент отправил CMD_EXIT.
+     */
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Обрабатывает одну команду клиента и отправляет ответ (или несколько пакетов).
+     */
+    void handle(ZKReplyFrame request) throws IOException {
+        int code = request.getRawCode();
+        int replyId = request.getReplyId();
+        if (code == ACK_OK) {
+            // подтверждение события реального времени
+            return;
+        }
+        if (replyId == this.lastReplyId && code == this.lastCommand && code != CommandCodeEnum.CMD_CONNECT.getCode()) {
+            byte[] cached = this.replies.get(replyId);
+            if (cached != null) {
+                this.link.send(ByteBuffer.wrap(cached));
+                return;
+            }
+            // многопакетные ответы не сохраняются: это чтения, их можно выполнить ещё раз
+        }
+        this.lastReplyId = replyId;
+        this.lastCommand = code;
+
+        CommandCodeEnum command = COMMANDS.get(code);
+        if (command == null) {
+            this.reply(ACK_UNKNOWN, replyId, null);
+            return;
+        }
+        if (!this.authenticated && command != CommandCodeEnum.CMD_CONNECT && command != CommandCodeEnum.CMD_AUTH
+                && command != CommandCodeEnum.CMD_EXIT) {
+            this.reply(ACK_UNAUTH, replyId, null);
+            return;
+        }
+        ByteBuffer payload = request.payload();
+        switch (command) {
+            case CMD_CONNECT -> this.connect(replyId);
+            case CMD_AUTH -> this.auth(replyId, payload);
+            case CMD_EXIT -> {
+                this.closed = true;
+                this.eventMask = 0;
+                this.reply(ACK_OK, replyId, null);
+            }
+            case CMD_OPTIONS_RRQ -> this.readOption(replyId, payload);
+            case CMD_OPTIONS_WRQ -> this.writeOption(replyId, payload);
+            case CMD_GET_FREE_SIZES -> this.reply(ACK_OK, replyId, ByteBuffer.wrap(this.device.freeSizes()));
+            case CMD_GET_VERSION -> this.reply(ACK_OK, replyId, ascii("Ver 6.60 Sep 18 2019\0"));
+            case CMD_GET_TIME -> this.reply(ACK_OK, replyId, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(0, (int) ZKTime.pack(LocalDateTime.now())));
+            case CMD_STATE_RRQ -> this.reply(ACK_OK, replyId, ByteBuffer.allocate(4));
+            case CMD_REG_EVENT -> {
+                this.eventMask = payload.remaining() >= 4 ? payload.getInt(payload.position()) : 0;
+                this.reply(ACK_OK, replyId, null);
+            }
+            case CMD_ATTLOG_RRQ -> this.stream(replyId, this.device.attlogRecords());
+            case CMD_USERTEMP_RRQ -> this.stream(replyId, this.device.userRecords());
+            case CMD_DATA_WRRQ -> this.prepareRead(replyId, payload);
+            case CMD_DATA_RDY -> this.sendPrepared(replyId, payload);
+            case CMD_FREE_DATA -> {
+                this.prepared = null;
+                this.upload = null;
+                this.uploaded = 0;
+                this.reply(ACK_OK, replyId, null);
+            }
+            case CMD_PREPARE_DATA -> this.prepareUpload(replyId, payload);
+            case CMD_DATA -> this.receiveData(replyId, payload);
+            case CMD_CHECKSUM_BUFFER -> this.checksum(replyId);
+            case CMD_TMP_WRITE -> this.writeTemplate(replyId, payload);
+            case CMD_USER_WRQ -> this.writeUser(replyId, payload);
+            case CMD_DELETE_USER -> this.reply(payload.remaining() >= 2
+                    && this.device.deleteUser(payload.getShort(payload.position()) & 0xFFFF) ? ACK_OK : ACK_ERROR, replyId, null);
+            case CMD_CLEAR_ATTLOG -> {
+                this.device.clearAttlog();
+                this.reply(ACK_OK, replyId, null);
+            }
+            case CMD_ENABLEDEVICE, CMD_DISABLEDEVICE, CMD_REFRESHDATA, CMD_REFRESHOPTION, CMD_SET_TIME,
+                 CMD_ENABLE_CLOCK, CMD_STARTVERIFY, CMD_CANCELCAPTURE, CMD_TESTVOICE -> this.reply(ACK_OK, replyId, null);
+            default -> this.reply(ACK_UNKNOWN, replyId, null);
+        }
+    }
+
+    private void connect(int replyId) throws IOException {
+        this.sessionId = 1 + ThreadLocalRandom.current().nextInt(0xFFFE);
+        this.authenticated = this.settings.commKey() == 0;
+        this.closed = false;
+        this.eventMask = 0;
+        this.prepared = null;
+        this.upload = null;
+        this.replies.clear();
+        this.reply(this.authenticated ? ACK_OK : ACK_UNAUTH, replyId, null);
+    }
+
+    /**
+     * Ключ проверяется функцией библиотеки, если она его вычисляет; иначе принимается любой.
+     */
+    private void auth(int replyId, ByteBuffer payload) throws IOException {
+        int[] expected = SecurityUtils.authKey(this.settings.commKey(), this.sessionId);
+        boolean valid = true;
+        if (expected != null) {
+            valid = payload.remaining() == expected.length;
+            for (int i = 0; valid && i < expected.length; i++) {
+                valid = (payload.get(payload.position() + i) & 255) == (expected[i] & 255);
+            }
+        }
+        this.authenticated = valid;
+        this.reply(valid ? ACK_OK : ACK_UNAUTH, replyId, null);
+    }
+
+    private void readOption(int replyId, ByteBuffer payload) throws IOException {
+        String key = cString(payload);
+        String value = this.device.option(key);
+        if (value == null) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        this.reply(ACK_OK, replyId, ascii(key + "=" + value + "\0"));
+    }
+
+    private void writeOption(int replyId, ByteBuffer payload) throws IOException {
+        String pair = cString(payload);
+        int eq = pair.indexOf('=');
+        if (eq <= 0) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        this.device.setOption(pair.substring(0, eq), pair.substring(eq + 1));
+        this.reply(ACK_OK, replyId, null);
+    }
+
+    /**
+     * Табличная передача: [размер(4)][записи] пакетами по {@link #DATA_PACKET_SIZE} байт.
+     * CMD_PREPARE_DATA сообщает размер всей передачи, вместе с 4-байтным заголовком.
+     */
+    private void stream(int replyId, ByteBuffer records) throws IOException {
+        int total = records.remaining();
+        this.reply(PREPARE_DATA, replyId, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 4 + total));
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, total);
+        this.sendData(replyId, header, records);
+        this.send(ACK_OK, replyId, null);
+    }
+
+    /**
+     * CMD_DATA_WRRQ: [1][команда(2)][fct(4)][ext(4)]. Поддерживается таблица шаблонов (CMD_DB_RRQ, FCT_FINGERTMP).
+     */
+    private void prepareRead(int replyId, ByteBuffer payload) throws IOException {
+        int start = payload.position();
+        if (payload.remaining() < 7 || (payload.getShort(start + 1) & 0xFFFF) != CommandCodeEnum.CMD_DB_RRQ.getCode()
+                || payload.getInt(start + 3) != 2) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        ByteBuffer records = this.device.templateRecords();
+        ByteBuffer table = ByteBuffer.allocate(4 + records.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(records.remaining()).put(records).flip();
+        if (table.remaining() <= DATA_PACKET_SIZE) {
+            this.reply(DATA, replyId, table);
+            return;
+        }
+        this.prepared = table;
+        this.reply(ACK_OK, replyId, ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN).put(0, (byte) 0).putInt(1, table.remaining()));
+    }
+
+    /**
+     * CMD_DATA_RDY: [начало(4)][размер(4)] из таблицы, подготовленной CMD_DATA_WRRQ.
+     */
+    private void sendPrepared(int replyId, ByteBuffer payload) throws IOException {
+        if (this.prepared == null || payload.remaining() < 8) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        int start = payload.getInt(payload.position());
+        int size = payload.getInt(payload.position() + 4);
+        if (start < 0 || size < 0 || start + size > this.prepared.limit()) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        ByteBuffer chunk = this.prepared.slice(start, size);
+        if (this.link.isReliable() && size <= this.out.capacity() - ZKCommand.HEADER_SIZE) {
+            this.send(DATA, replyId, chunk);
+            return;
+        }
+        this.reply(PREPARE_DATA, replyId, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, size));
+        this.sendData(replyId, null, chunk);
+        this.send(ACK_OK, replyId, null);
+    }
+
+    private void prepareUpload(int replyId, ByteBuffer payload) throws IOException {
+        int size = payload.remaining() >= 4 ? payload.getInt(payload.position()) : -1;
+        if (size < 0 || size > MAX_UPLOAD) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        this.upload = new byte[size];
+        this.uploaded = 0;
+        this.reply(ACK_OK, replyId, null);
+    }
+
+    private void receiveData(int replyId, ByteBuffer payload) throws IOException {
+        int n = payload.remaining();
+        if (this.upload == null || this.uploaded + n > this.upload.length) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        payload.get(this.upload, this.uploaded, n);
+        this.uploaded += n;
+        this.reply(ACK_OK, replyId, null);
+    }
+
+    private void checksum(int replyId) throws IOException {
+        if (this.upload == null) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        // своя сумма, а не ZKBufferWriter.bufferChecksum: симулятор не должен подтверждать клиента его же кодом
+        int sum = 0;
+        for (int i = 0; i < this.uploaded; i++) {
+            sum += this.upload[i] & 0xFF;
+        }
+        this.reply(ACK_OK, replyId, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, sum));
+    }
+
+    /**
+     * CMD_TMP_WRITE: [uid(2)][палец(1)][флаг(1)][размер(2)] — шаблон из буфера загрузки.
+     */
+    private void writeTemplate(int replyId, ByteBuffer payload) throws IOException {
+        if (payload.remaining() < 6 || this.upload == null) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        int start = payload.position();
+        int uid = payload.getShort(start) & 0xFFFF;
+        int finger = payload.get(start + 2) & 255;
+        int flag = payload.get(start + 3) & 255;
+        int size = payload.getShort(start + 4) & 0xFFFF;
+        if (size > this.uploaded || finger > 9 || !this.device.hasUser(uid)) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        this.device.putTemplate(uid, finger, flag, this.upload, size);
+        this.reply(ACK_OK, replyId, null);
+    }
+
+    private void writeUser(int replyId, ByteBuffer payload) throws IOException {
+        if (payload.remaining() != SimulatedDevice.USER_RECORD_SIZE) {
+            this.reply(ACK_ERROR, replyId, null);
+            return;
+        }
+        byte[] record = new byte[SimulatedDevice.USER_RECORD_SIZE];
+        payload.get(record);
+        this.device.putUser(record);
+        this.reply(ACK_OK, replyId, null);
+    }
+
+    /**
+     * Новая отметка в журнале и событие EF_ATTLOG, если сессия на него подписана.
+     * Формат события: [user_id(24)][verify(1)][state(1)][время(6)].
+     *
+     * @return {@code false}, если сессия не подписана на отметки
+     */
+    boolean pushEvent(String userId, int verifyType, int state) throws IOException {
+        if (this.closed || (this.eventMask & EventCode.EF_ATTLOG.getCode()) == 0) {
+            return false;
+        }
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        this.device.appendPunch(userId, verifyType, state, now);
+        byte[] id = Arrays.copyOf(userId.getBytes(StandardCharsets.US_ASCII), 24);
+        ByteBuffer event = ByteBuffer.allocate(32)
+                .put(id)
+                .put((byte) verifyType)
+                .put((byte) state)
+                .put((byte) (now.getYear() - 2000))
+                .put((byte) now.getMonthValue())
+                .put((byte) now.getDayOfMonth())
+                .put((byte) now.getHour())
+                .put((byte) now.getMinute())
+                .put((byte) now.getSecond())
+                .flip();
+        synchronized (this.eventOut) {
+            encode(this.eventOut, REG_EVENT, EventCode.EF_ATTLOG.getCode(), 0, event);
+            this.link.send(this.eventOut);
+        }
+        return true;
+    }
+
+    /**
+     * Ответ на команду; сохраняется для повторной отправки, если клиент повторит команду.
+     */
+    private void reply(int code, int replyId, ByteBuffer payload) throws IOException {
+        encode(this.out, code, this.sessionId, replyId, payload);
+        this.replies.put(replyId, Arrays.copyOf(this.out.array(), this.out.limit()));
+        this.link.send(this.out);
+    }
+
+    private void send(int code, int replyId, ByteBuffer payload) throws IOException {
+        encode(this.out, code, this.sessionId, replyId, payload);
+        this.link.send(this.out);
+    }
+
+    /**
+     * Пакеты CMD_DATA по {@link #DATA_PACKET_SIZE} байт: сначала {@code head} (если есть), затем {@code body}.
+     */
+    private void sendData(int replyId, ByteBuffer head, ByteBuffer body) throws IOException {
+        this.replies.remove(replyId);
+        ByteBuffer packet = ByteBuffer.allocate(DATA_PACKET_SIZE);
+        ByteBuffer source = body.duplicate();
+        boolean sent = false;
+        while (!sent || (head != null && head.hasRemaining()) || source.hasRemaining()) {
+            packet.clear();
+            if (head != null) {
+                int n = Math.min(head.remaining(), packet.remaining());
+                packet.put(packet.position(), head, head.position(), n);
+                packet.position(packet.position() + n);
+                head.position(head.position() + n);
+            }
+            int n = Math.min(source.remaining(), packet.remaining());
+            packet.put(packet.position(), source, source.position(), n);
+            packet.position(packet.position() + n);
+            source.position(source.position() + n);
+            this.send(DATA, replyId, packet.flip());
+            sent = true;
+        }
+    }
+
+    private static void encode(ByteBuffer out, int code, int sessionId, int replyId, ByteBuffer payload) {
+        out.clear();
+        out.putShort((short) code)
+                .putShort((short) 0)
+                .putShort((short) sessionId)
+                .putShort((short) replyId);
+        if (payload != null) {
+            out.put(payload.duplicate());
+        }
+        out.flip();
+        out.putShort(2, (short) ZKCommand.checksum(out, 0, out.limit()));
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Строка до первого нулевого байта.
+     */
+    private static String cString(ByteBuffer payload) {
+        int start = payload.position();
+        int end = start;
+        while (end < payload.limit() && payload.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        payload.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return this.device.serialNumber() + "#" + this.sessionId;
+    }
+}
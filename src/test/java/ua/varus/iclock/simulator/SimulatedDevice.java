@@ -0,0 +1,319 @@
+package ua.varus.iclock.simulator;
+
+import ua.varus.iclock.utils.AttendanceLogParser;
+import ua.varus.iclock.utils.ZKTime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Данные одного симулированного терминала: пользователи, шаблоны, журнал посещений и параметры.
+ * Общие для всех сессий, подключённых к этому терминалу; все методы потокобезопасны.
+ * <p>
+ * Форматы записей те же, что отдаёт прошивка:
+ * <ul>
+ *     <li>пользователь, 72 байта: [uid(2)][role(1)][password(8)][name(24)][card(4)][pad(1)][group(7)][pad(1)][user_id(24)];</li>
+ *     <li>шаблон: [size(2)][uid(2)][finger(1)][flag(1)][template], size — длина всей записи;</li>
+ *     <li>отметка, 40 байт: [seq(2)][user_id(24)][verify(1)][time(4)][state(1)][pad(8)].</li>
+ * </ul>
+ * Таблицы отдаются без 4-байтного заголовка размера — его добавляет сессия при передаче.
+ * Шаблоны берутся из записанных с терминала файлов {@code 46633_t1}, {@code 46633_t2}.
+ */
+public final class SimulatedDevice {
+
+    private static final Logger log = Logger.getLogger(SimulatedDevice.class.getName());
+
+    public static final int USER_RECORD_SIZE = 72;
+    static final List<String> TEMPLATE_FILES = List.of("/46633_t1", "/46633_t2");
+    private static final LocalDateTime LOG_START = LocalDateTime.of(2025, 1, 1, 8, 0);
+
+    private final String serialNumber;
+    private final Map<String, String> options = new LinkedHashMap<>();
+    /** uid → 72-байтная запись. */
+    private final TreeMap<Integer, byte[]> users = new TreeMap<>();
+    /** uid * 16 + палец → запись таблицы шаблонов целиком, с заголовком. */
+    private final TreeMap<Integer, byte[]> templates = new TreeMap<>();
+    private byte[] userTable;
+    private byte[] templateTable;
+    /** Журнал растёт только в конец, поэтому выданные срезы не меняются. */
+    private byte[] attlog;
+    private int attlogCount;
+    private int nextSeq = 1;
+
+    public SimulatedDevice(String serialNumber, SimulatorSettings settings) {
+        this.serialNumber = serialNumber;
+        this.initOptions();
+        Random random = new Random(settings.seed() ^ serialNumber.hashCode());
+        byte[][] recorded = recordedTemplates();
+        for (int uid = 1; uid <= settings.users(); uid++) {
+            this.users.put(uid, userRecord(uid, Integer.toString(uid), "User " + uid, 1_000_000 + uid));
+            for (int finger = 0; finger < settings.fingersPerUser(); finger++) {
+                byte[] template = recorded[random.nextInt(recorded.length)];
+                this.templates.put(templateKey(uid, finger), templateRecord(uid, finger, 1, template));
+            }
+        }
+        this.attlog = new byte[Math.max(AttendanceLogParser.RECORD_SIZE * 64, AttendanceLogParser.RECORD_SIZE * settings.attlogRecords())];
+        for (int i = 0; i < settings.attlogRecords(); i++) {
+            int uid = settings.users() > 0 ? 1 + random.nextInt(settings.users()) : 1;
+            this.appendPunch(Integer.toString(uid), 1, i % 2, LOG_START.plusSeconds(37L * i));
+        }
+    }
+
+    private void initOptions() {
+        this.options.put("~SerialNumber", this.serialNumber);
+        this.options.put("~DeviceName", "SIM-F18");
+        this.options.put("~Platform", "ZMM220_TFT");
+        this.options.put("~OEMVendor", "ZKTeco Inc.");
+        this.options.put("~ProductTime", "2019-03-01 20:00:00");
+        this.options.put("~ZKFPVersion", "10");
+        this.options.put("~IsOnlyRFMachine", "0");
+        this.options.put("~PIN2Width", "9");
+        this.options.put("~ShowState", "1");
+        this.options.put("ZKFaceVersion", "");
+        this.options.put("MAC", "00:17:61:" + String.format("%02x:%02x:%02x",
+                this.serialNumber.hashCode() >> 16 & 255, this.serialNumber.hashCode() >> 8 & 255, this.serialNumber.hashCode() & 255));
+        this.options.put("IPAddress", "127.0.0.1");
+        this.options.put("UDPPort", "4370");
+        this.options.put("COMKey", "0");
+        this.options.put("DeviceID", "1");
+        this.options.put("DHCP", "0");
+        this.options.put("DNS", "0.0.0.0");
+        this.options.put("EnableProxyServer", "0");
+        this.options.put("ProxyServerIP", "0.0.0.0");
+        this.options.put("ProxyServerPort", "0");
+        this.options.put("DaylightSavingTime", "0");
+        this.options.put("Language", "73");
+        this.options.put("LockPowerKey", "0");
+        this.options.put("VoiceOn", "1");
+        this.options.put("WorkCode", "0");
+    }
+
+    public String serialNumber() {
+        return this.serialNumber;
+    }
+
+    /**
+     * Значение параметра; {@code null}, если такого параметра у терминала нет.
+     */
+    public synchronized String option(String key) {
+        return this.options.get(key);
+    }
+
+    public synchronized void setOption(String key, String value) {
+        this.options.put(key, value);
+    }
+
+    public synchronized int userCount() {
+        return this.users.size();
+    }
+
+    public synchronized int templateCount() {
+        return this.templates.size();
+    }
+
+    public synchronized int attlogCount() {
+        return this.attlogCount;
+    }
+
+    public synchronized boolean hasUser(int uid) {
+        return this.users.containsKey(uid);
+    }
+
+    /**
+     * Создаёт или заменяет пользователя по uid из первых двух байт записи.
+     */
+    public synchronized void putUser(byte[] record) {
+        if (record.length != USER_RECORD_SIZE) {
+            throw new IllegalArgumentException("User record must be " + USER_RECORD_SIZE + " bytes: " + record.length);
+        }
+        int uid = (record[0] & 255) | (record[1] & 255) << 8;
+        this.users.put(uid, record.clone());
+        this.userTable = null;
+    }
+
+    /**
+     * Удаляет пользователя вместе с его шаблонами.
+     *
+     * @return {@code false}, если пользователя нет
+     */
+    public synchronized boolean deleteUser(int uid) {
+        if (this.users.remove(uid) == null) {
+            return false;
+        }
+        this.userTable = null;
+        if (this.templates.subMap(templateKey(uid, 0), templateKey(uid + 1, 0)).size() > 0) {
+            this.templates.subMap(templateKey(uid, 0), templateKey(uid + 1, 0)).clear();
+            this.templateTable = null;
+        }
+        return true;
+    }
+
+    public synchronized void putTemplate(int uid, int finger, int flag, byte[] template, int length) {
+        this.templates.put(templateKey(uid, finger), templateRecord(uid, finger, flag, Arrays.copyOf(template, length)));
+        this.templateTable = null;
+    }
+
+    /**
+     * Шаблон пальца пользователя или {@code null}.
+     */
+    public synchronized byte[] template(int uid, int finger) {
+        byte[] record = this.templates.get(templateKey(uid, finger));
+        return record == null ? null : Arrays.copyOfRange(record, 6, record.length);
+    }
+
+    /**
+     * Добавляет отметку в журнал.
+     *
+     * @return копия 40-байтной записи
+     */
+    public synchronized byte[] appendPunch(String userId, int verifyType, int state, LocalDateTime time) {
+        int offset = this.attlogCount * AttendanceLogParser.RECORD_SIZE;
+        if (offset + AttendanceLogParser.RECORD_SIZE > this.attlog.length) {
+            this.attlog = Arrays.copyOf(this.attlog, this.attlog.length * 2);
+        }
+        ByteBuffer record = ByteBuffer.wrap(this.attlog, offset, AttendanceLogParser.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putShort((short) this.nextSeq++);
+        putText(record, userId, 24);
+        record.put((byte) verifyType)
+                .putInt((int) ZKTime.pack(time))
+                .put((byte) state);
+        this.attlogCount++;
+        return Arrays.copyOfRange(this.attlog, offset, offset + AttendanceLogParser.RECORD_SIZE);
+    }
+
+    public synchronized void clearAttlog() {
+        this.attlog = new byte[AttendanceLogParser.RECORD_SIZE * 64];
+        this.attlogCount = 0;
+    }
+
+    /**
+     * Записи таблицы пользователей (CMD_USERTEMP_RRQ) без заголовка; только для чтения.
+     */
+    public synchronized ByteBuffer userRecords() {
+        if (this.userTable == null) {
+            this.userTable = concat(this.users.values());
+        }
+        return ByteBuffer.wrap(this.userTable).asReadOnlyBuffer();
+    }
+
+    /**
+     * Записи таблицы шаблонов (CMD_DB_RRQ, FCT_FINGERTMP) без заголовка; только для чтения.
+     */
+    public synchronized ByteBuffer templateRecords() {
+        if (this.templateTable == null) {
+            this.templateTable = concat(this.templates.values());
+        }
+        return ByteBuffer.wrap(this.templateTable).asReadOnlyBuffer();
+    }
+
+    /**
+     * Записи журнала (CMD_ATTLOG_RRQ) на момент вызова без заголовка; только для чтения.
+     */
+    public synchronized ByteBuffer attlogRecords() {
+        return ByteBuffer.wrap(this.attlog, 0, this.attlogCount * AttendanceLogParser.RECORD_SIZE).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Ответ на CMD_GET_FREE_SIZES: 23 четырёхбайтных счётчика, смещения те же, что читает клиент.
+     */
+    public synchronized byte[] freeSizes() {
+        int userCapacity = 10_000;
+        int fpCapacity = 10_000;
+        int attlogCapacity = 200_000;
+        return ByteBuffer.allocate(92).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(16, this.users.size())
+                .putInt(24, this.templates.size())
+                .putInt(32, this.attlogCount)
+                .putInt(40, 0)
+                .putInt(48, 0)
+                .putInt(52, 0)
+                .putInt(56, fpCapacity)
+                .putInt(60, Math.max(userCapacity, this.users.size()))
+                .putInt(64, Math.max(attlogCapacity, this.attlogCount))
+                .putInt(68, Math.max(0, fpCapacity - this.templates.size()))
+                .putInt(72, Math.max(0, userCapacity - this.users.size()))
+                .putInt(76, Math.max(0, attlogCapacity - this.attlogCount))
+                .putInt(80, 0)
+                .putInt(88, 0)
+                .array();
+    }
+
+    static byte[] userRecord(int uid, String userId, String name, int card) {
+        ByteBuffer record = ByteBuffer.allocate(USER_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putShort((short) uid).put((byte) 0);
+        putText(record, "", 8);
+        putText(record, name, 24);
+        record.putInt(card).put((byte) 0);
+        putText(record, "1", 7);
+        record.put((byte) 0);
+        putText(record, userId, 24);
+        return record.array();
+    }
+
+    private static byte[] templateRecord(int uid, int finger, int flag, byte[] template) {
+        return ByteBuffer.allocate(6 + template.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort((short) (6 + template.length))
+                .putShort((short) uid)
+                .put((byte) finger)
+                .put((byte) flag)
+                .put(template)
+                .array();
+    }
+
+    private static int templateKey(int uid, int finger) {
+        return uid * 16 + finger;
+    }
+
+    private static void putText(ByteBuffer target, String text, int width) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        int n = Math.min(bytes.length, width);
+        target.put(bytes, 0, n);
+        target.position(target.position() + width - n);
+    }
+
+    private static byte[] concat(Iterable<byte[]> records) {
+        int size = 0;
+        for (byte[] record : records) {
+            size += record.length;
+        }
+        ByteBuffer table = ByteBuffer.allocate(size);
+        for (byte[] record : records) {
+            table.put(record);
+        }
+        return table.array();
+    }
+
+    /**
+     * Шаблоны из записанных файлов [size(4)][reserved(4)][template(size)]; если файлов нет
+     * на classpath, — случайные данные той же длины, чтобы симулятор запускался и без ресурсов.
+     */
+    public static byte[][] recordedTemplates() {
+        byte[][] templates = new byte[TEMPLATE_FILES.size()][];
+        for (int i = 0; i < templates.length; i++) {
+            try (InputStream in = SimulatedDevice.class.getResourceAsStream(TEMPLATE_FILES.get(i))) {
+                if (in != null) {
+                    byte[] file = in.readAllBytes();
+                    int size = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+                    templates[i] = Arrays.copyOfRange(file, 8, 8 + size);
+                    continue;
+                }
+            } catch (IOException e) {
+                log.warning("Cannot read " + TEMPLATE_FILES.get(i) + ": " + e.getMessage());
+            }
+            templates[i] = new byte[1024];
+            new Random(i).nextBytes(templates[i]);
+        }
+        return templates;
+    }
+}
@@ -0,0 +1,63 @@
+package ua.varus.iclock.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Несколько симулированных терминалов на подряд идущих портах, по одному на «магазин».
+ * Серийные номера — {@code SIM0000000001}, {@code SIM0000000002}...; данные у каждого свои.
+ */
+public final class SimulatedFleet implements Closeable {
+
+    private static final Logger log = Logger.getLogger(SimulatedFleet.class.getName());
+
+    private final List<ZKDeviceSimulator> devices;
+
+    private SimulatedFleet(List<ZKDeviceSimulator> devices) {
+        this.devices = Collections.unmodifiableList(devices);
+    }
+
+    /**
+     * @param firstPort порт первого терминала; 0 — свободные порты, выбранные системой
+     */
+    public static SimulatedFleet start(InetAddress bind, int firstPort, int count, SimulatorSettings settings) throws IOException {
+        List<ZKDeviceSimulator> devices = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                String serial = String.format("SIM%010d", i + 1);
+                devices.add(ZKDeviceSimulator.start(bind, firstPort == 0 ? 0 : firstPort + i, serial, settings.withSeed(settings.seed() + i)));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ZKDeviceSimulator device : devices) {
+                device.close();
+            }
+            throw e;
+        }
+        return new SimulatedFleet(devices);
+    }
+
+    public List<ZKDeviceSimulator> devices() {
+        return this.devices;
+    }
+
+    public List<Integer> ports() {
+        return this.devices.stream().map(ZKDeviceSimulator::port).toList();
+    }
+
+    @Override
+    public void close() {
+        for (ZKDeviceSimulator device : this.devices) {
+            try {
+                device.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Simulator on port " + device.port() + " did not close cleanly", e);
+            }
+        }
+    }
+}
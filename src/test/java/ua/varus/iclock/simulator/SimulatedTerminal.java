@@ -0,0 +1,64 @@
+package ua.varus.iclock.simulator;
+
+import com.zkteco.Exception.DeviceNotConnectException;
+import ua.varus.iclock.transport.ZKTransportSettings;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.io.IOException;
+
+/**
+ * Симулятор и подключённый к нему клиент для тестов: подключается при создании,
+ * при закрытии отключается и останавливает симулятор.
+ * <pre>{@code
+ * try (SimulatedTerminal sim = SimulatedTerminal.start(SimulatorSettings.DEFAULT, Protocol.UDP)) {
+ *     sim.terminal().getSerialNumber();
+ * }
+ * }</pre>
+ */
+public final class SimulatedTerminal implements AutoCloseable {
+
+    private final ZKDeviceSimulator simulator;
+    private final ZKTerminalV terminal;
+
+    private SimulatedTerminal(ZKDeviceSimulator simulator, ZKTerminalV terminal) {
+        this.simulator = simulator;
+        this.terminal = terminal;
+    }
+
+    public static SimulatedTerminal start(SimulatorSettings settings, ZKTransportSettings.Protocol protocol)
+            throws IOException, DeviceNotConnectException {
+        return start(settings, new ZKTransportSettings(protocol, 2000, 2000, 3));
+    }
+
+    public static SimulatedTerminal start(SimulatorSettings settings, ZKTransportSettings transport)
+            throws IOException, DeviceNotConnectException {
+        ZKDeviceSimulator simulator = ZKDeviceSimulator.start(0, settings);
+        try {
+            ZKTerminalV terminal = new ZKTerminalV("127.0.0.1", simulator.port(), transport);
+            terminal.connect();
+            return new SimulatedTerminal(simulator, terminal);
+        } catch (IOException | DeviceNotConnectException | RuntimeException e) {
+            simulator.close();
+            throw e;
+        }
+    }
+
+    public ZKDeviceSimulator simulator() {
+        return this.simulator;
+    }
+
+    public SimulatedDevice device() {
+        return this.simulator.device();
+    }
+
+    public ZKTerminalV terminal() {
+        return this.terminal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (this.simulator) {
+            this.terminal.disconnect();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ua.varus.iclock.simulator;
+
+import java.time.Duration;
+
+/**
+ * Параметры симулированного терминала.
+ *
+ * @param users          сколько пользователей создать при запуске
+ * @param fingersPerUser шаблонов отпечатков на пользователя (из записанных файлов по кругу)
+ * @param attlogRecords  записей в журнале посещений при запуске
+ * @param latency        задержка ответа на каждую команду
+ * @param jitter         случайное отклонение задержки в обе стороны
+ * @param lossRate       доля датаграмм, теряемых в каждую сторону (только UDP), от 0 до 1
+ * @param eventInterval  период отметок реального времени для подписанных сессий; {@link Duration#ZERO} — не слать
+ * @param commKey        ключ связи; если не 0, после CMD_CONNECT требуется CMD_AUTH
+ * @param seed           зерно генератора, чтобы данные и потери повторялись от запуска к запуску
+ */
+public record SimulatorSettings(int users, int fingersPerUser, int attlogRecords,
+                                Duration latency, Duration jitter, double lossRate,
+                                Duration eventInterval, int commKey, long seed) {
+
+    public static final SimulatorSettings DEFAULT = new SimulatorSettings(
+            1000, 2, 10_000, Duration.ZERO, Duration.ZERO, 0, Duration.ZERO, 0, 46633);
+
+    public SimulatorSettings {
+        if (users < 0 || fingersPerUser < 0 || fingersPerUser > 10 || attlogRecords < 0) {
+            throw new IllegalArgumentException("Invalid record counts: users=" + users
+                    + ", fingersPerUser=" + fingersPerUser + ", attlogRecords=" + attlogRecords);
+        }
+        if (users > 0xFFFF) {
+            throw new IllegalArgumentException("uid is 16-bit, at most 65535 users: " + users);
+        }
+        if (lossRate < 0 || lossRate >= 1) {
+            throw new IllegalArgumentException("lossRate must be in [0, 1): " + lossRate);
+        }
+    }
+
+    public SimulatorSettings withRecords(int users, int fingersPerUser, int attlogRecords) {
+        return new SimulatorSettings(users, fingersPerUser, attlogRecords, this.latency, this.jitter,
+                this.lossRate, this.eventInterval, this.commKey, this.seed);
+    }
+
+    public SimulatorSettings withNetwork(Duration latency, Duration jitter, double lossRate) {
+        return new SimulatorSettings(this.users, this.fingersPerUser, this.attlogRecords, latency, jitter,
+                lossRate, this.eventInterval, this.commKey, this.seed);
+    }
+
+    public SimulatorSettings withEventInterval(Duration eventInterval) {
+        return new SimulatorSettings(this.users, this.fingersPerUser, this.attlogRecords, this.latency, this.jitter,
+                this.lossRate, eventInterval, this.commKey, this.seed);
+    }
+
+    public SimulatorSettings withCommKey(int commKey) {
+        return new SimulatorSettings(this.users, this.fingersPerUser, this.attlogRecords, this.latency, this.jitter,
+                this.lossRate, this.eventInterval, commKey, this.seed);
+    }
+
+    public SimulatorSettings withSeed(long seed) {
+        return new SimulatorSettings(this.users, this.fingersPerUser, this.attlogRecords, this.latency, this.jitter,
+                this.lossRate, this.eventInterval, this.commKey, seed);
+    }
+}
@@ -0,0 +1,342 @@
+package ua.varus.iclock.simulator;
+
+import ua.varus.iclock.utils.ZKBufferPool;
+import ua.varus.iclock.utils.ZKCommand;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Симулятор терминала ZKTeco: UDP и TCP на одном порту, как у прошивки (4370 по умолчанию).
+ * <p>
+ * Каждый клиент (UDP-адрес или TCP-соединение) получает свою {@link DeviceSession};
+ * команды сессии выполняются по очереди в отдельном виртуальном потоке, перед каждым ответом
+ * выдерживается задержка {@code latency ± jitter}. По UDP датаграммы теряются с вероятностью
+ * {@code lossRate} в обе стороны, а длинные передачи идут с небольшими паузами, чтобы не переполнить
+ * буфер приёма клиента — у настоящего терминала канал ещё медленнее.
+ * <pre>{@code
+ * try (ZKDeviceSimulator simulator = ZKDeviceSimulator.start(0, SimulatorSettings.DEFAULT)) {
+ *     ZKTerminalV terminal = new ZKTerminalV("127.0.0.1", simulator.port());
+ *     ...
+ * }
+ * }</pre>
+ */
+public final class ZKDeviceSimulator implements Closeable {
+
+    private static final Logger log = Logger.getLogger(ZKDeviceSimulator.class.getName());
+
+    private static final int TCP_PACKET_START = 0x7D825050;
+    /** Пакетов подряд по UDP до короткой паузы. */
+    private static final int UDP_BURST = 4;
+    private static final long UDP_BURST_PAUSE_NANOS = 100_000;
+    /** UDP-сессия без CMD_EXIT забывается после стольких секунд тишины. */
+    private static final int UDP_IDLE_SECONDS = 300;
+
+    private final SimulatedDevice device;
+    private final SimulatorSettings settings;
+    private final DatagramSocket udp;
+    private final ServerSocket tcp;
+    private final Random random;
+    private final Map<SocketAddress, UdpClient> udpClients = new ConcurrentHashMap<>();
+    private final Map<Socket, DeviceSession> tcpClients = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService events;
+    /** Наибольшее число команд одного клиента, принятых, пока предыдущие ещё не отвечены. */
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+    private volatile boolean running = true;
+
+    private ZKDeviceSimulator(SimulatedDevice device, SimulatorSettings settings, InetAddress bind, int port) throws IOException {
+        this.device = device;
+        this.settings = settings;
+        this.random = new Random(settings.seed());
+        this.tcp = new ServerSocket(port, 256, bind);
+        try {
+            this.udp = new DatagramSocket(new InetSocketAddress(bind, this.tcp.getLocalPort()));
+            this.udp.setReceiveBufferSize(4 * 1024 * 1024);
+        } catch (IOException e) {
+            this.tcp.close();
+            throw e;
+        }
+        Thread.ofPlatform().daemon().name("zk-sim-udp-" + this.port()).start(this::receiveUdp);
+        Thread.ofPlatform().daemon().name("zk-sim-tcp-" + this.port()).start(this::acceptTcp);
+        if (settings.eventInterval().isPositive()) {
+            this.events = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("zk-sim-events-" + this.port()).factory());
+            long period = settings.eventInterval().toNanos();
+            this.events.scheduleAtFixedRate(this::pushEvents, period, period, TimeUnit.NANOSECONDS);
+        } else {
+            this.events = null;
+        }
+        log.info("ZK simulator " + device.serialNumber() + " listening on " + bind.getHostAddress() + ":" + this.port()
+                + " (UDP, TCP): " + device.userCount() + " users, " + device.templateCount() + " templates, "
+                + device.attlogCount() + " attendance records");
+    }
+
+    /**
+     * Запускает симулятор на локальном адресе.
+     *
+     * @param port порт UDP и TCP; 0 — свободный, см. {@link #port()}
+     */
+    public static ZKDeviceSimulator start(int port, SimulatorSettings settings) throws IOException {
+        return start(InetAddress.getLoopbackAddress(), port, "SIM" + String.format("%010d", port), settings);
+    }
+
+    public static ZKDeviceSimulator start(InetAddress bind, int port, String serialNumber, SimulatorSettings settings) throws IOException {
+        return new ZKDeviceSimulator(new SimulatedDevice(serialNumber, settings), settings, bind, port);
+    }
+
+    public int port() {
+        return this.tcp.getLocalPort();
+    }
+
+    public SimulatedDevice device() {
+        return this.device;
+    }
+
+    /**
+     * Открытые сессии: UDP-клиенты, ещё не отправившие CMD_EXIT, и TCP-соединения.
+     */
+    public int sessionCount() {
+        return this.udpClients.size() + this.tcpClients.size();
+    }
+
+    /**
+     * Наибольшее число команд одного клиента, одновременно ожидавших ответа:
+     * больше 1 только если клиент отправлял следующие команды, не дожидаясь ответов.
+     * По TCP видно лишь, пришло ли что-то ещё до ответа, поэтому там значение не больше 2.
+     */
+    public int maxOutstandingRequests() {
+        return this.maxOutstanding.get();
+    }
+
+    private void receiveUdp() {
+        byte[] buffer = new byte[ZKBufferPool.MAX_FRAME_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (this.running) {
+            try {
+                packet.setLength(buffer.length);
+                this.udp.receive(packet);
+                if (packet.getLength() < ZKCommand.HEADER_SIZE || this.lost()) {
+                    continue;
+                }
+                SocketAddress address = packet.getSocketAddress();
+                UdpClient client = this.udpClients.computeIfAbsent(address, UdpClient::new);
+                this.maxOutstanding.accumulateAndGet(client.outstanding.incrementAndGet(), Math::max);
+                client.inbox.offer(Arrays.copyOf(buffer, packet.getLength()));
+            } catch (IOException e) {
+                if (this.running) {
+                    log.log(Level.WARNING, "UDP receive failed on port " + this.port(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * UDP-клиент: очередь датаграмм и поток, выполняющий их по порядку.
+     */
+    private final class UdpClient implements DeviceSession.Link {
+
+        private final SocketAddress address;
+        private final BlockingQueue<byte[]> inbox = new LinkedBlockingQueue<>();
+        /** Принятые, но ещё не обработанные команды. */
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final DeviceSession session;
+        private int burst;
+
+        private UdpClient(SocketAddress address) {
+            this.address = address;
+            this.session = new DeviceSession(ZKDeviceSimulator.this.device, ZKDeviceSimulator.this.settings, this);
+            Thread.ofVirtual().name("zk-sim-udp-" + address).start(this::run);
+        }
+
+        private void run() {
+            try {
+                int idle = 0;
+                while (ZKDeviceSimulator.this.running && idle < UDP_IDLE_SECONDS) {
+                    byte[] request = this.inbox.poll(1, TimeUnit.SECONDS);
+                    if (request == null) {
+                        idle++;
+                        continue;
+                    }
+                    idle = 0;
+                    ZKDeviceSimulator.this.delay();
+                    this.burst = 0;
+                    try {
+                        this.session.handle(ZKReplyFrame.decode(ByteBuffer.wrap(request)));
+                    } finally {
+                        this.outstanding.decrementAndGet();
+                    }
+                    if (this.session.isClosed() && this.inbox.isEmpty()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.FINE, "UDP session " + this.address + " failed", e);
+            } finally {
+                ZKDeviceSimulator.this.udpClients.remove(this.address, this);
+            }
+        }
+
+        @Override
+        public void send(ByteBuffer packet) throws IOException {
+            if (ZKDeviceSimulator.this.lost()) {
+                return;
+            }
+            if (++this.burst % UDP_BURST == 0) {
+                LockSupport.parkNanos(UDP_BURST_PAUSE_NANOS);
+            }
+            DatagramPacket datagram = new DatagramPacket(packet.array(), packet.arrayOffset() + packet.position(),
+                    packet.remaining(), this.address);
+            ZKDeviceSimulator.this.udp.send(datagram);
+        }
+
+        @Override
+        public boolean isReliable() {
+            return false;
+        }
+    }
+
+    private void acceptTcp() {
+        while (this.running) {
+            try {
+                Socket socket = this.tcp.accept();
+                socket.setTcpNoDelay(true);
+                Thread.ofVirtual().name("zk-sim-tcp-" + socket.getRemoteSocketAddress()).start(() -> this.serveTcp(socket));
+            } catch (IOException e) {
+                if (this.running) {
+                    log.log(Level.WARNING, "TCP accept failed on port " + this.port(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * TCP: каждый пакет в обёртке [50 50 82 7D][длина(4)].
+     */
+    private void serveTcp(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            ByteBuffer frame = ByteBuffer.allocate(8 + ZKBufferPool.MAX_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            DeviceSession session = new DeviceSession(this.device, this.settings, new DeviceSession.Link() {
+                @Override
+                public void send(ByteBuffer packet) throws IOException {
+                    synchronized (frame) {
+                        frame.clear();
+                        frame.putInt(TCP_PACKET_START).putInt(packet.remaining()).put(packet.duplicate());
+                        out.write(frame.array(), 0, frame.position());
+                    }
+                }
+
+                @Override
+                public boolean isReliable() {
+                    return true;
+                }
+            });
+            this.tcpClients.put(socket, session);
+            byte[] header = new byte[8];
+            byte[] request = new byte[ZKBufferPool.MAX_FRAME_SIZE];
+            while (this.running) {
+                in.readFully(header);
+                ByteBuffer le = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int length = le.getInt(4);
+                if (le.getInt(0) != TCP_PACKET_START || length < ZKCommand.HEADER_SIZE || length > request.length) {
+                    throw new IOException("Invalid TCP packet header from " + socket.getRemoteSocketAddress());
+                }
+                in.readFully(request, 0, length);
+                this.delay();
+                this.maxOutstanding.accumulateAndGet(in.available() > 0 ? 2 : 1, Math::max);
+                session.handle(ZKReplyFrame.decode(ByteBuffer.wrap(request, 0, length)));
+                if (session.isClosed()) {
+                    break;
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // клиент закрыл соединение
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.FINE, "TCP session " + socket.getRemoteSocketAddress() + " failed", e);
+        } finally {
+            this.tcpClients.remove(socket);
+        }
+    }
+
+    /**
+     * Отметка от случайного пользователя каждой сессии, подписанной на EF_ATTLOG.
+     */
+    private void pushEvents() {
+        int users = Math.max(1, this.device.userCount());
+        for (DeviceSession session : this.sessions()) {
+            try {
+                session.pushEvent(Integer.toString(1 + this.random.nextInt(users)), 1, this.random.nextInt(2));
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.FINE, "Event push to " + session + " failed", e);
+            }
+        }
+    }
+
+    private Iterable<DeviceSession> sessions() {
+        return () -> Stream.concat(
+                this.udpClients.values().stream().map(client -> client.session),
+                this.tcpClients.values().stream()).iterator();
+    }
+
+    private boolean lost() {
+        return this.settings.lossRate() > 0 && this.random.nextDouble() < this.settings.lossRate();
+    }
+
+    private void delay() {
+        long nanos = this.settings.latency().toNanos();
+        long jitter = this.settings.jitter().toNanos();
+        if (jitter > 0) {
+            nanos += (long) ((this.random.nextDouble() * 2 - 1) * jitter);
+        }
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        if (this.events != null) {
+            this.events.shutdownNow();
+        }
+        this.udp.close();
+        try {
+            this.tcp.close();
+        } finally {
+            for (Socket socket : this.tcpClients.keySet()) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ua.varus.iclock.simulator;
+
+import com.zkteco.command.events.EventCode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ua.varus.iclock.transport.ZKTransportSettings;
+import ua.varus.iclock.transport.ZKUdpEventLoop;
+import ua.varus.iclock.utils.FingerTemplate;
+import ua.varus.iclock.utils.TemplateUploadSession;
+import ua.varus.iclock.utils.ZKTerminalV;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZKDeviceSimulatorTest {
+
+    @ParameterizedTest
+    @EnumSource(ZKTransportSettings.Protocol.class)
+    void clientReadsTablesWritesTemplatesAndReceivesEvents(ZKTransportSettings.Protocol protocol) throws Exception {
+        SimulatorSettings settings = SimulatorSettings.DEFAULT
+                .withRecords(300, 2, 5000)
+                .withEventInterval(Duration.ofMillis(20));
+        try (SimulatedTerminal sim = SimulatedTerminal.start(settings, protocol)) {
+            ZKTerminalV terminal = sim.terminal();
+            assertEquals(sim.device().serialNumber(), terminal.getSerialNumber());
+            Map<String, Integer> status = terminal.getDeviceStatus();
+            assertEquals(300, status.get("userCount"));
+            assertEquals(600, status.get("fpCount"));
+            assertEquals(5000, status.get("attlogCount"));
+
+            AtomicInteger punches = new AtomicInteger();
+            terminal.streamAttendanceLog((buffer, offset) -> punches.incrementAndGet());
+            assertEquals(5000, punches.get());
+
+            List<FingerTemplate> templates = terminal.getAllFingerTemplates();
+            assertEquals(600, templates.size());
+            assertArrayEquals(sim.device().template(1, 0), templates.get(0).template());
+
+            byte[] template = templates.get(1).template();
+            try (TemplateUploadSession upload = terminal.beginTemplateUpload()) {
+                assertTrue(upload.writeTemplate(new FingerTemplate(7, 9, 1, template)));
+            }
+            assertArrayEquals(template, sim.device().template(7, 9));
+
+            terminal.enableRealtime(EventCode.EF_ATTLOG);
+            List<String> events = new ArrayList<>();
+            terminal.events().subscribe(EventCode.EF_ATTLOG.getCode(), event -> events.add(event.userId()));
+            terminal.pollEvents(300);
+            assertTrue(events.size() >= 2, "events received: " + events.size());
+        }
+    }
+
+    @Test
+    void terminalsShareOneEventLoopChannel() throws Exception {
+        SimulatorSettings settings = SimulatorSettings.DEFAULT.withRecords(200, 1, 3000);
+        ZKTransportSettings udp = new ZKTransportSettings(ZKTransportSettings.Protocol.UDP, 2000, 2000, 3);
+        try (SimulatedFleet fleet = SimulatedFleet.start(InetAddress.getLoopbackAddress(), 0, 2, settings);
+             ZKUdpEventLoop loop = new ZKUdpEventLoop()) {
+            List<CompletableFuture<Integer>> downloads = new ArrayList<>();
+            for (ZKDeviceSimulator device : fleet.devices()) {
+                ZKTerminalV terminal = new ZKTerminalV("127.0.0.1", device.port(), udp);
+                terminal.setTransportFactory(loop::newTransport);
+                downloads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        terminal.connect();
+                        assertEquals(device.device().serialNumber(), terminal.getSerialNumber());
+                        AtomicInteger punches = new AtomicInteger();
+                        terminal.streamAttendanceLog((buffer, offset) -> punches.incrementAndGet());
+                        terminal.disconnect();
+                        return punches.get();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+            }
+            for (CompletableFuture<Integer> download : downloads) {
+                assertEquals(3000, download.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals(0, loop.pendingCount());
+        }
+    }
+}
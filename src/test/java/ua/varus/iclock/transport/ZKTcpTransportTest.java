@@ -0,0 +1,74 @@
+package ua.varus.iclock.transport;
+
+import org.junit.jupiter.api.Test;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKCommand;
+import ua.varus.iclock.utils.ZKReplyFrame;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ZKTcpTransportTest {
+
+    @Test
+    void packetsAreWrappedAndUnwrapped() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             ZKTcpTransport transport = new ZKTcpTransport()) {
+            transport.open(InetAddress.getLoopbackAddress(), server.getLocalPort(), 1000);
+            ByteBuffer packet = ZKCommand.encode(ByteBuffer.allocate(64), CommandCodeEnum.CMD_GET_TIME, 7, 3, (byte[]) null);
+            transport.send(packet);
+
+            try (Socket device = server.accept()) {
+                DataInputStream in = new DataInputStream(device.getInputStream());
+                byte[] header = new byte[8];
+                in.readFully(header);
+                assertArrayEquals(new byte[]{0x50, 0x50, (byte) 0x82, 0x7D, 8, 0, 0, 0}, header);
+                in.readFully(new byte[8]);
+
+                ByteBuffer reply = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+                reply.put(new byte[]{0x50, 0x50, (byte) 0x82, 0x7D}).putInt(12)
+                        .putShort((short) 2000).putShort((short) 0).putShort((short) 7).putShort((short) 3)
+                        .putInt(0x12345678);
+                OutputStream out = device.getOutputStream();
+                out.write(reply.array());
+                out.flush();
+
+                ZKReplyFrame frame = transport.receive(1000);
+                assertEquals(2000, frame.getRawCode());
+                assertEquals(3, frame.getReplyId());
+                assertEquals(0x12345678, frame.payload().getInt(0));
+                assertThrows(SocketTimeoutException.class, () -> transport.receive(50));
+            }
+        }
+    }
+
+    @Test
+    void timeoutInTheMiddleOfAPacketClosesTheConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             ZKTcpTransport transport = new ZKTcpTransport()) {
+            transport.open(InetAddress.getLoopbackAddress(), server.getLocalPort(), 1000);
+            try (Socket device = server.accept()) {
+                OutputStream out = device.getOutputStream();
+                // заголовок обёртки и половина пакета; остаток придёт позже
+                out.write(new byte[]{0x50, 0x50, (byte) 0x82, 0x7D, 12, 0, 0, 0, (byte) 0xD0, 0x07, 0, 0});
+                out.flush();
+
+                IOException failure = assertThrows(IOException.class, () -> transport.receive(100));
+                assertFalse(failure instanceof SocketTimeoutException);
+                assertFalse(transport.isOpen());
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ua.varus.iclock.transport;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import com.zkteco.commands.ZKCommandReply;
+import org.junit.jupiter.api.Test;
+import ua.varus.iclock.utils.CommandCodeEnum;
+import ua.varus.iclock.utils.ZKCommand;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ZKUdpEventLoopTest {
+
+    private static final ZKTransportSettings SETTINGS =
+            new ZKTransportSettings(ZKTransportSettings.Protocol.UDP, 1000, 50, 2);
+
+    private static Thread fakeDevice(DatagramSocket socket, int session) {
+        return fakeDevice(socket, session, request -> false);
+    }
+
+    /**
+     * Эмулятор терминала: выдаёт сессию на CMD_CONNECT и отвечает CMD_ACK_OK с тем же replyId.
+     *
+     * @param drop запросы (от начала заголовка), на которые ответ «теряется»
+     */
+    private static Thread fakeDevice(DatagramSocket socket, int session, Predicate<ByteBuffer> drop) {
+        Thread thread = new Thread(() -> {
+            byte[] in = new byte[2048];
+            ByteBuffer out = ByteBuffer.allocate(64);
+            try {
+                while (!socket.isClosed()) {
+                    DatagramPacket packet = new DatagramPacket(in, in.length);
+                    socket.receive(packet);
+                    ByteBuffer request = ByteBuffer.wrap(in, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+                    if (drop.test(request)) {
+                        continue;
+                    }
+                    int replyId = request.getShort(6) & 0xFFFF;
+                    out.clear().order(ByteOrder.LITTLE_ENDIAN)
+                            .putShort((short) 2000).putShort((short) 0).putShort((short) session).putShort((short) replyId)
+                            .flip();
+                    socket.send(new DatagramPacket(out.array(), out.limit(), packet.getSocketAddress()));
+                }
+            } catch (Exception ignored) {
+                // сокет закрыт
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    void sessionsOnOneChannelAreCorrelatedIndependently() throws Exception {
+        try (DatagramSocket first = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket second = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             ZKUdpEventLoop loop = new ZKUdpEventLoop()) {
+            fakeDevice(first, 0x1111);
+            fakeDevice(second, 0x2222);
+
+            ZKAsyncSession a = loop.openSession("127.0.0.1", first.getLocalPort());
+            ZKAsyncSession b = loop.openSession("127.0.0.1", second.getLocalPort());
+            a.connect();
+            b.connect();
+            List<CompletableFuture<ZKCommandReply>> replies = List.of(
+                    a.send(CommandCodeEnum.CMD_GET_TIME, null),
+                    b.send(CommandCodeEnum.CMD_GET_TIME, null),
+                    a.send(CommandCodeEnum.CMD_GET_FREE_SIZES, null));
+
+            for (CompletableFuture<ZKCommandReply> reply : replies) {
+                assertEquals(CommandReplyCodeEnum.CMD_ACK_OK, reply.get(5, TimeUnit.SECONDS).getCode());
+            }
+            assertEquals(0x1111, a.getSessionId());
+            assertEquals(0x2222, b.getSessionId());
+            assertEquals(0, loop.pendingCount());
+        }
+    }
+
+    @Test
+    void lostReplyIsRetransmittedWithTheSameReplyNumber() throws Exception {
+        List<Integer> getTime = new CopyOnWriteArrayList<>();
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             ZKUdpEventLoop loop = new ZKUdpEventLoop()) {
+            // первый CMD_GET_TIME остаётся без ответа
+            fakeDevice(socket, 0x1111, request -> isGetTime(request) && record(getTime, request) == 1);
+            ZKAsyncSession session = loop.openSession("127.0.0.1", socket.getLocalPort(), SETTINGS);
+            session.connect();
+
+            ZKCommandReply reply = session.send(CommandCodeEnum.CMD_GET_TIME, null).get(5, TimeUnit.SECONDS);
+            assertEquals(CommandReplyCodeEnum.CMD_ACK_OK, reply.getCode());
+            assertEquals(2, getTime.size());
+            assertEquals(getTime.get(0), getTime.get(1));
+            assertEquals(0, loop.pendingCount());
+        }
+    }
+
+    @Test
+    void exchangeWithoutReplyExpiresAndReleasesTheSession() throws Exception {
+        List<Integer> getTime = new CopyOnWriteArrayList<>();
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             ZKUdpEventLoop loop = new ZKUdpEventLoop()) {
+            fakeDevice(socket, 0x1111, request -> isGetTime(request) && record(getTime, request) > 0);
+            ZKAsyncSession session = loop.openSession("127.0.0.1", socket.getLocalPort(), SETTINGS);
+            session.connect();
+
+            CompletableFuture<ZKCommandReply> lost = session.send(CommandCodeEnum.CMD_GET_TIME, null);
+            CompletableFuture<ZKCommandReply> next = session.send(CommandCodeEnum.CMD_GET_FREE_SIZES, null);
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(SocketTimeoutException.class, failure.getCause());
+            assertEquals(1 + SETTINGS.retries(), getTime.size());
+            // очередь сессии не остановилась на потерянном ответе
+            assertEquals(CommandReplyCodeEnum.CMD_ACK_OK, next.get(5, TimeUnit.SECONDS).getCode());
+            // следующая команда уходит сразу после отказа, поэтому счёт проверяется после её ответа
+            assertEquals(0, loop.pendingCount());
+        }
+    }
+
+    private static boolean isGetTime(ByteBuffer request) {
+        return (request.getShort(0) & 0xFFFF) == CommandCodeEnum.CMD_GET_TIME.getCode();
+    }
+
+    /**
+     * Запоминает номер ответа запроса и возвращает, который это по счёту.
+     */
+    private static int record(List<Integer> replyIds, ByteBuffer request) {
+        replyIds.add(request.getShort(6) & 0xFFFF);
+        return replyIds.size();
+    }
+}
@@ -0,0 +1,69 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AttendanceLogParserTest {
+
+    @Test
+    void recordsSplitAcrossChunksAreDecodedOnce() {
+        ByteBuffer log = ByteBuffer.allocate(3 * AttendanceLogParser.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putRecord(log, 1, "42", 1, packed(2024, 3, 15, 8, 30, 5), 0);
+        putRecord(log, 2, "123456789", 0, packed(2024, 3, 15, 18, 0, 0), 1);
+        putRecord(log, 65535, "7", 2, packed(2025, 12, 31, 23, 59, 59), 4);
+        log.flip();
+
+        List<String> decoded = new ArrayList<>();
+        AttendanceLogParser parser = new AttendanceLogParser();
+        AttendanceLogParser.RecordVisitor visitor = (buffer, offset) -> decoded.add(
+                AttendanceLogParser.seq(buffer, offset) + "|"
+                        + AttendanceLogParser.userId(buffer, offset) + "|"
+                        + AttendanceLogParser.verifyType(buffer, offset) + "|"
+                        + ZKTime.toLocalDateTime(AttendanceLogParser.packedTime(buffer, offset)) + "|"
+                        + AttendanceLogParser.state(buffer, offset));
+
+        // пакеты неудобной длины, чтобы записи попадали на границы
+        int[] cuts = {17, 23, 41, 39};
+        for (int cut : cuts) {
+            ByteBuffer chunk = log.slice(log.position(), Math.min(cut, log.remaining()));
+            log.position(log.position() + chunk.remaining());
+            parser.feed(chunk, visitor);
+        }
+        parser.feed(log, visitor);
+
+        assertEquals(List.of(
+                "1|42|1|2024-03-15T08:30:05|0",
+                "2|123456789|0|2024-03-15T18:00|1",
+                "65535|7|2|2025-12-31T23:59:59|4"), decoded);
+        assertEquals(0, parser.pendingBytes());
+    }
+
+    static long packed(int year, int month, int day, int hour, int minute, int second) {
+        return ((((((long) (year - 2000) * 12 + (month - 1)) * 31 + (day - 1)) * 24 + hour) * 60 + minute) * 60) + second;
+    }
+
+    static void putRecord(ByteBuffer log, int seq, String userId, int verifyType, long packedTime, int state) {
+        int start = log.position();
+        log.putShort((short) seq);
+        byte[] id = userId.getBytes(StandardCharsets.US_ASCII);
+        log.put(id);
+        log.position(start + 26);
+        log.put((byte) verifyType);
+        log.putInt((int) packedTime);
+        log.put((byte) state);
+        log.position(start + AttendanceLogParser.RECORD_SIZE);
+    }
+
+    @Test
+    void packedTimeRoundTrips() {
+        assertEquals(LocalDateTime.of(2030, 1, 1, 0, 0, 0), ZKTime.toLocalDateTime(packed(2030, 1, 1, 0, 0, 0)));
+    }
+}
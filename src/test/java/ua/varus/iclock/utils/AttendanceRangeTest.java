@@ -0,0 +1,49 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttendanceRangeTest {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2024, 2, 29, 9, 0, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2024, 3, 1, 9, 0, 0);
+
+    @Test
+    void boundaryPunchesFollowInclusiveFlags() {
+        long atFrom = ZKTime.pack(FROM);
+        long atTo = ZKTime.pack(TO);
+
+        AttendanceRange closed = AttendanceRange.closed(FROM, TO);
+        assertTrue(closed.contains(atFrom));
+        assertTrue(closed.contains(atTo));
+
+        AttendanceRange open = AttendanceRange.of(FROM, false, TO, false);
+        assertFalse(open.contains(atFrom));
+        assertFalse(open.contains(atTo));
+        assertTrue(open.contains(atFrom + 1));
+        assertTrue(open.contains(ZKTime.pack(TO.minusSeconds(1))));
+
+        AttendanceRange halfOpen = AttendanceRange.halfOpen(FROM, TO);
+        assertTrue(halfOpen.contains(atFrom));
+        assertFalse(halfOpen.contains(atTo));
+    }
+
+    @Test
+    void fractionalBoundsRoundToWholeSeconds() {
+        AttendanceRange range = AttendanceRange.closed(FROM.plusNanos(500_000_000), TO.plusNanos(500_000_000));
+        assertFalse(range.contains(ZKTime.pack(FROM)));
+        assertTrue(range.contains(ZKTime.pack(FROM.plusSeconds(1))));
+        assertTrue(range.contains(ZKTime.pack(TO)));
+        assertFalse(AttendanceRange.of(TO, true, FROM, true).contains(ZKTime.pack(FROM)));
+    }
+
+    @Test
+    void packRoundTripsAcrossMonthBoundary() {
+        assertTrue(ZKTime.pack(FROM) < ZKTime.pack(TO));
+        assertTrue(ZKTime.toLocalDateTime(ZKTime.pack(TO)).equals(TO));
+    }
+}
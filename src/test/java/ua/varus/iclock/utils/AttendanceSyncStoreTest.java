@@ -0,0 +1,100 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.varus.iclock.simulator.SimulatedDevice;
+import ua.varus.iclock.simulator.SimulatedTerminal;
+import ua.varus.iclock.simulator.SimulatorSettings;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttendanceSyncStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void watermarkIsStoredPerSerialNumber() throws Exception {
+        AttendanceSyncStore store = new AttendanceSyncStore(dir);
+        assertEquals(AttendanceSyncStore.Watermark.EMPTY, store.load("CGXM/203860024"));
+
+        AttendanceSyncStore.Watermark watermark = new AttendanceSyncStore.Watermark(41, 42, 812345678L);
+        store.save("CGXM/203860024", watermark);
+
+        assertEquals(watermark, new AttendanceSyncStore(dir).load("CGXM/203860024"));
+        assertEquals(AttendanceSyncStore.Watermark.EMPTY, store.load("OTHER"));
+    }
+
+    @Test
+    void watermarkRecordIsRecognisedBySeqAndTime() {
+        AttendanceSyncStore.Watermark watermark = new AttendanceSyncStore.Watermark(5, 17, 1000L);
+        assertTrue(watermark.matches(17, 1000L));
+        assertFalse(watermark.matches(18, 1000L));
+        assertFalse(watermark.matches(17, 999L));
+        // отметка, сохранённая до появления номера записи
+        assertTrue(new AttendanceSyncStore.Watermark(5, -1, 1000L).matches(3, 1000L));
+        assertTrue(AttendanceSyncStore.Watermark.EMPTY.isEmpty());
+    }
+
+    @Test
+    void recordsAfterTheWatermarkAreNewWhateverTheirTime() throws Exception {
+        AttendanceSyncStore store = new AttendanceSyncStore(dir);
+        try (SimulatedTerminal sim = SimulatedTerminal.start(SimulatorSettings.DEFAULT.withRecords(10, 1, 20),
+                ZKTransportSettings.Protocol.TCP)) {
+            ZKTerminalV terminal = sim.terminal();
+            SimulatedDevice device = sim.device();
+            List<String> users = new ArrayList<>();
+            AttendanceLogParser.RecordVisitor collect = (record, offset) -> users.add(AttendanceLogParser.userId(record, offset));
+            AtomicInteger downloads = new AtomicInteger();
+            terminal.setMetrics(new ZKMetrics() {
+                @Override
+                public void sent(CommandCodeEnum command, int bytes) {
+                    if (command == CommandCodeEnum.CMD_ATTLOG_RRQ) {
+                        downloads.incrementAndGet();
+                    }
+                }
+            });
+
+            assertEquals(20, terminal.syncAttendanceLog(store, collect, null));
+            assertEquals(0, terminal.syncAttendanceLog(store, collect, null));
+
+            // часы перевели назад и терминал выгрузил накопленные без связи отметки
+            device.appendPunch("901", 1, 0, LocalDateTime.of(2001, 1, 1, 0, 0));
+            device.appendPunch("902", 1, 0, LocalDateTime.of(2001, 1, 1, 0, 0));
+            users.clear();
+            assertEquals(2, terminal.syncAttendanceLog(store, collect, null));
+            assertEquals(List.of("901", "902"), users);
+
+            // журнал очищен и заполнен заново до того же числа записей
+            device.clearAttlog();
+            for (int i = 0; i < 22; i++) {
+                device.appendPunch("7" + i, 1, 0, LocalDateTime.of(2030, 1, 1, 0, 0).plusMinutes(i));
+            }
+            users.clear();
+            downloads.set(0);
+            assertEquals(22, terminal.syncAttendanceLog(store, collect, null));
+            assertEquals("70", users.get(0));
+            // отметка не совпала, но журнал прочитан один раз
+            assertEquals(1, downloads.get());
+
+            // журнал стал короче отметки
+            device.clearAttlog();
+            device.appendPunch("801", 1, 0, LocalDateTime.of(2030, 2, 1, 0, 0));
+            users.clear();
+            downloads.set(0);
+            assertEquals(1, terminal.syncAttendanceLog(store, collect, null));
+            assertEquals(List.of("801"), users);
+            assertEquals(1, downloads.get());
+            assertEquals(0, terminal.syncAttendanceLog(store, collect, null));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.OnOffenum;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ua.varus.iclock.simulator.SimulatedTerminal;
+import ua.varus.iclock.simulator.SimulatorSettings;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceInfoTest {
+
+    @ParameterizedTest
+    @EnumSource(ZKTransportSettings.Protocol.class)
+    void deviceInfoIsReadInOnePipelinedCallAndCachedUntilOptionsChange(ZKTransportSettings.Protocol protocol) throws Exception {
+        // задержка ответа, чтобы конвейерные запросы успели прийти до ответа на первый
+        SimulatorSettings settings = SimulatorSettings.DEFAULT.withRecords(10, 1, 10)
+                .withNetwork(Duration.ofMillis(2), Duration.ZERO, 0);
+        try (SimulatedTerminal sim = SimulatedTerminal.start(settings, protocol)) {
+            ZKTerminalV terminal = sim.terminal();
+            AtomicInteger optionReads = new AtomicInteger();
+            terminal.setMetrics(new ZKMetrics() {
+                @Override
+                public void exchange(CommandCodeEnum command, int replyCode, long nanos) {
+                    if (command == CommandCodeEnum.CMD_OPTIONS_RRQ) {
+                        optionReads.incrementAndGet();
+                    }
+                }
+            });
+            assertEquals(1, sim.simulator().maxOutstandingRequests());
+
+            DeviceInfo info = terminal.getDeviceInfo();
+            assertEquals(sim.device().serialNumber(), info.serialNumber());
+            assertEquals("SIM-F18", info.deviceName());
+            assertEquals(10, info.fingerprintVersion());
+            assertEquals(4370, info.udpPort());
+            assertEquals(9, info.pin2Width());
+            assertTrue(info.voiceOn());
+            assertFalse(info.dhcp());
+            assertTrue(info.firmwareVersion().startsWith("Ver"));
+            assertEquals(DeviceInfo.OPTION_KEYS.size(), optionReads.get());
+            // запросы параметров ушли, не дожидаясь ответов на предыдущие
+            int inFlight = sim.simulator().maxOutstandingRequests();
+            assertTrue(inFlight > 1, "requests in flight together: " + inFlight);
+
+            assertSame(info, terminal.getDeviceInfo());
+            assertEquals(DeviceInfo.OPTION_KEYS.size(), optionReads.get());
+
+            terminal.setVoiceOnOff(OnOffenum.OFF);
+            DeviceInfo changed = terminal.getDeviceInfo();
+            assertNotSame(info, changed);
+            assertFalse(changed.voiceOn());
+
+            // после конвейерного чтения обычные команды получают свои ответы
+            assertEquals(sim.device().serialNumber(), terminal.getSerialNumber());
+            Map<String, String> options = terminal.getOptions(List.of("~DeviceName", "NoSuchOption", "MAC"));
+            assertEquals(List.of("~DeviceName", "MAC"), List.copyOf(options.keySet()));
+
+            terminal.setDeviceInfoTtl(Duration.ZERO);
+            assertNotSame(changed, terminal.getDeviceInfo());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.varus.iclock.simulator.SimulatedDevice;
+import ua.varus.iclock.simulator.SimulatedTerminal;
+import ua.varus.iclock.simulator.SimulatorSettings;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceSnapshotTest {
+
+    @Test
+    void snapshotKeepsRawTablesAndOptions(@TempDir Path dir) throws Exception {
+        SimulatorSettings settings = SimulatorSettings.DEFAULT.withRecords(300, 2, 5000);
+        try (SimulatedTerminal sim = SimulatedTerminal.start(settings, ZKTransportSettings.Protocol.UDP)) {
+            SimulatedDevice device = sim.device();
+            DeviceSnapshot.Summary summary = DeviceSnapshot.write(sim.terminal(), dir, 1);
+
+            assertEquals(device.serialNumber(), summary.serialNumber());
+            assertEquals(300, summary.users());
+            assertEquals(5000, summary.attendanceRecords());
+            assertEquals(600, summary.templates());
+            assertEquals(dir.resolve(device.serialNumber()), summary.file().getParent());
+            try (Stream<Path> files = Files.list(summary.file().getParent())) {
+                assertEquals(1, files.count());
+            }
+
+            DeviceSnapshot.Archive archive = DeviceSnapshot.read(summary.file());
+            assertEquals(DeviceSnapshot.FORMAT_VERSION, archive.version());
+            assertEquals(device.serialNumber(), archive.options().get("~SerialNumber"));
+            assertTrue(archive.firmwareVersion().startsWith("Ver"));
+            assertArrayEquals(bytes(device.userRecords()), archive.users());
+            assertArrayEquals(bytes(device.attlogRecords()), archive.attendanceLog());
+            assertEquals(device.freeSizes().length, archive.freeSizes().length);
+
+            AtomicInteger templates = new AtomicInteger();
+            new TemplateTableParser().feed(ByteBuffer.wrap(archive.templates()),
+                    (uid, finger, flag, template) -> templates.incrementAndGet());
+            assertEquals(600, templates.get());
+            assertTrue(summary.bytes() < archive.users().length + archive.attendanceLog().length + archive.templates().length);
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,86 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Терминал, который отвечает только то, что велит тест.
+ */
+final class ScriptedDevice implements AutoCloseable {
+
+    private static final int SESSION_ID = 0x1234;
+    private static final int ACK_OK = CommandReplyCodeEnum.CMD_ACK_OK.getCode();
+
+    private final DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    private final byte[] in = new byte[2048];
+    private final ByteBuffer out = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+    private SocketAddress client;
+
+    ScriptedDevice() throws SocketException {
+    }
+
+    ZKTerminalV connect(ExecutorService executor, int readTimeoutMillis, int retries) throws Exception {
+        ZKTerminalV terminal = new ZKTerminalV("127.0.0.1", this.socket.getLocalPort(),
+                new ZKTransportSettings(ZKTransportSettings.Protocol.UDP, 1000, readTimeoutMillis, retries));
+        Future<?> connect = executor.submit(() -> terminal.connect());
+        ZKReplyFrame request = this.next();
+        assertEquals(CommandCodeEnum.CMD_CONNECT.getCode(), request.getRawCode());
+        this.send(ACK_OK, request.getReplyId(), null);
+        connect.get(5, TimeUnit.SECONDS);
+        return terminal;
+    }
+
+    ZKReplyFrame next() throws Exception {
+        ZKReplyFrame frame = this.next(5000);
+        if (frame == null) {
+            throw new SocketTimeoutException("client sent nothing");
+        }
+        return frame;
+    }
+
+    /**
+     * Следующая команда клиента или {@code null}, если за это время её не было.
+     */
+    ZKReplyFrame next(int timeoutMillis) throws Exception {
+        DatagramPacket packet = new DatagramPacket(this.in, this.in.length);
+        this.socket.setSoTimeout(timeoutMillis);
+        try {
+            this.socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+        this.client = packet.getSocketAddress();
+        return ZKReplyFrame.decode(ByteBuffer.wrap(Arrays.copyOf(this.in, packet.getLength())));
+    }
+
+    void send(int code, int replyId, ByteBuffer payload) throws Exception {
+        this.out.clear();
+        this.out.putShort((short) code).putShort((short) 0).putShort((short) SESSION_ID).putShort((short) replyId);
+        if (payload != null) {
+            this.out.put(payload.duplicate());
+        }
+        this.out.flip();
+        this.out.putShort(2, (short) ZKCommand.checksum(this.out, 0, this.out.limit()));
+        this.socket.send(new DatagramPacket(this.out.array(), this.out.limit(), this.client));
+    }
+
+    @Override
+    public void close() {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,64 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TemplateTableParserTest {
+
+    @Test
+    void variableLengthRecordsSplitAcrossChunksAreDecodedOnce() {
+        byte[] small = filled(10, 0x11);
+        byte[] large = filled(3000, 0x22);
+        byte[] last = filled(1, 0x33);
+        ByteBuffer table = ByteBuffer.allocate(4 + 3 * 6 + small.length + large.length + last.length).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(table.capacity() - 4);
+        putRecord(table, 1, 0, 1, small);
+        putRecord(table, 513, 9, 3, large);
+        putRecord(table, 2, 5, 1, last);
+        table.flip();
+
+        List<String> decoded = new ArrayList<>();
+        TemplateTableParser parser = new TemplateTableParser();
+        TemplateTableParser.TemplateVisitor visitor = (uid, finger, flag, template) -> {
+            byte[] bytes = new byte[template.remaining()];
+            template.get(bytes);
+            decoded.add(uid + "|" + finger + "|" + flag + "|" + bytes.length + "|" + (bytes[0] & 255));
+        };
+
+        // режем так, чтобы граница попала в размер таблицы, в длину записи и внутрь большого шаблона
+        int[] cuts = {3, 2, 16, 1, 1000, 1000, 500};
+        for (int cut : cuts) {
+            ByteBuffer chunk = table.slice(table.position(), Math.min(cut, table.remaining()));
+            table.position(table.position() + chunk.remaining());
+            parser.feed(chunk, visitor);
+        }
+        parser.feed(table, visitor);
+
+        assertEquals(List.of(
+                "1|0|1|10|17",
+                "513|9|3|3000|34",
+                "2|5|1|1|51"), decoded);
+        assertEquals(0, parser.pendingBytes());
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static void putRecord(ByteBuffer table, int uid, int finger, int flag, byte[] template) {
+        table.putShort((short) (template.length + 6));
+        table.putShort((short) uid);
+        table.put((byte) finger);
+        table.put((byte) flag);
+        table.put(template);
+    }
+}
@@ -0,0 +1,37 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UserTableParserTest {
+
+    @Test
+    void recordsSplitAcrossChunksAreAssembledFromTheStart() {
+        ByteBuffer table = ByteBuffer.allocate(3 * UserTableParser.RECORD_SIZE + 10);
+        for (int i = 0; i < table.capacity(); i++) {
+            table.put(i, (byte) (i / UserTableParser.RECORD_SIZE + 1));
+        }
+
+        List<String> records = new ArrayList<>();
+        UserTableParser parser = new UserTableParser();
+        UserTableParser.RecordVisitor visitor = record -> records.add(record.position() + "|" + record.remaining()
+                + "|" + record.get(0) + "|" + record.get(UserTableParser.RECORD_SIZE - 1));
+
+        // граница внутри первой записи, ровно по концу второй и внутри хвоста
+        int[] cuts = {50, 94, 1, 71, 30};
+        for (int cut : cuts) {
+            ByteBuffer chunk = table.slice(table.position(), Math.min(cut, table.remaining()));
+            table.position(table.position() + chunk.remaining());
+            parser.feed(chunk, visitor);
+            assertEquals(0, chunk.remaining());
+        }
+
+        assertEquals(List.of("0|72|1|1", "0|72|2|2", "0|72|3|3"), records);
+        assertEquals(10, parser.pendingBytes());
+    }
+}
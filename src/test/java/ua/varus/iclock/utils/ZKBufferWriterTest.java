@@ -0,0 +1,174 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Окно подтверждений CMD_DATA и сверка контрольной суммы при загрузке в буфер устройства.
+ */
+class ZKBufferWriterTest {
+
+    private static final int ACK_OK = CommandReplyCodeEnum.CMD_ACK_OK.getCode();
+    private static final int ACK_ERROR = CommandReplyCodeEnum.CMD_ACK_ERROR.getCode();
+    /** Три куска по 1024 байта и неполный четвёртый. */
+    private static final byte[] DATA = data(3 * ZKBufferWriter.DEFAULT_CHUNK_SIZE + 100);
+    private static final long CHECKSUM = ZKBufferWriter.bufferChecksum(DATA, 0, DATA.length);
+
+    @Test
+    void acksInAnyOrderCompleteTheWindow() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 1000, 1);
+            Future<?> load = client.submit(() -> {
+                terminal.bufferWriter().load(DATA);
+                return null;
+            });
+
+            prepare(device);
+            List<ZKReplyFrame> chunks = chunks(device);
+            for (int i = chunks.size() - 1; i >= 0; i--) {
+                device.send(ACK_OK, chunks.get(i).getReplyId(), null);
+            }
+            // повторное подтверждение уже подтверждённого куска ничего не меняет
+            device.send(ACK_OK, chunks.get(0).getReplyId(), null);
+            checksum(device, CHECKSUM);
+
+            load.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void lostAckRepeatsTheWholeTransfer() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 200, 1);
+            Future<?> load = client.submit(() -> {
+                terminal.bufferWriter().load(DATA);
+                return null;
+            });
+
+            prepare(device);
+            List<ZKReplyFrame> chunks = chunks(device);
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i != 2) {
+                    device.send(ACK_OK, chunks.get(i).getReplyId(), null);
+                }
+            }
+            // без подтверждения третьего куска передача начинается заново с CMD_FREE_DATA
+            prepare(device);
+            for (ZKReplyFrame chunk : chunks(device)) {
+                device.send(ACK_OK, chunk.getReplyId(), null);
+            }
+            checksum(device, CHECKSUM);
+
+            load.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void rejectedChunkFailsTheUpload() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 1000, 1);
+            Future<?> load = client.submit(() -> {
+                terminal.bufferWriter().load(DATA);
+                return null;
+            });
+
+            prepare(device);
+            List<ZKReplyFrame> chunks = chunks(device);
+            device.send(ACK_OK, chunks.get(0).getReplyId(), null);
+            device.send(ACK_ERROR, chunks.get(1).getReplyId(), null);
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> load.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, failure.getCause());
+            assertTrue(failure.getCause().getMessage().contains("rejected"), failure.getCause().getMessage());
+            assertNull(device.next(300), "rejected upload was retried");
+        }
+    }
+
+    @Test
+    void checksumMismatchFailsTheUploadEvenWhenRepeatable() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 1000, 1);
+            Future<?> load = client.submit(() -> {
+                terminal.bufferWriter().load(DATA);
+                return null;
+            });
+
+            // одинаковое расхождение на каждой попытке — те же испорченные байты, а не другой алгоритм
+            for (long corrupted : new long[]{CHECKSUM - 1, CHECKSUM - 1}) {
+                prepare(device);
+                for (ZKReplyFrame chunk : chunks(device)) {
+                    device.send(ACK_OK, chunk.getReplyId(), null);
+                }
+                checksum(device, corrupted);
+            }
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> load.get(5, TimeUnit.SECONDS));
+            assertTrue(failure.getCause().getMessage().contains("checksum mismatch"), failure.getCause().getMessage());
+        }
+    }
+
+    /**
+     * CMD_FREE_DATA и CMD_PREPARE_DATA с размером загрузки.
+     */
+    private static void prepare(ScriptedDevice device) throws Exception {
+        ZKReplyFrame free = device.next();
+        assertEquals(CommandCodeEnum.CMD_FREE_DATA.getCode(), free.getRawCode());
+        device.send(ACK_OK, free.getReplyId(), null);
+        ZKReplyFrame prepare = device.next();
+        assertEquals(CommandCodeEnum.CMD_PREPARE_DATA.getCode(), prepare.getRawCode());
+        ByteBuffer size = prepare.payload().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(DATA.length, size.getInt(size.position()));
+        device.send(ACK_OK, prepare.getReplyId(), null);
+    }
+
+    /**
+     * Все куски CMD_DATA: окно UDP вмещает всю загрузку, поэтому они приходят до первого подтверждения.
+     */
+    private static List<ZKReplyFrame> chunks(ScriptedDevice device) throws Exception {
+        List<ZKReplyFrame> chunks = new ArrayList<>();
+        int received = 0;
+        while (received < DATA.length) {
+            ZKReplyFrame chunk = device.next();
+            assertEquals(CommandCodeEnum.CMD_DATA.getCode(), chunk.getRawCode());
+            received += chunk.payloadLength();
+            chunks.add(chunk);
+        }
+        assertEquals(DATA.length, received);
+        return chunks;
+    }
+
+    private static void checksum(ScriptedDevice device, long sum) throws Exception {
+        ZKReplyFrame request = device.next();
+        assertEquals(CommandCodeEnum.CMD_CHECKSUM_BUFFER.getCode(), request.getRawCode());
+        device.send(ACK_OK, request.getReplyId(), ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, (int) sum));
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,58 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZKCommandTest {
+
+    @Test
+    void encodeWritesHeaderPayloadAndValidChecksum() {
+        ByteBuffer out = ByteBuffer.allocateDirect(64);
+        byte[] data = "~SerialNumber".getBytes(StandardCharsets.US_ASCII);
+
+        ZKCommand.encode(out, CommandCodeEnum.CMD_OPTIONS_RRQ, 0x1234, 7, data);
+
+        assertEquals(ZKCommand.HEADER_SIZE + data.length, out.limit());
+        ByteBuffer le = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(CommandCodeEnum.CMD_OPTIONS_RRQ.getCode(), le.getShort(0) & 0xFFFF);
+        assertEquals(0x1234, le.getShort(4) & 0xFFFF);
+        assertEquals(7, le.getShort(6) & 0xFFFF);
+        // сумма пакета вместе с контрольной суммой в дополнительном коде равна 0xFFFF
+        assertEquals(0, ZKCommand.checksum(out, 0, out.limit()));
+    }
+
+    /**
+     * Ожидаемые байты получены прежней реализацией getPacket/getPacketByte
+     * (контрольная сумма — SecurityUtils.calculateChecksum из ZKTeco4J), а не через encode.
+     */
+    @Test
+    void encodeMatchesBaselinePacketBytes() {
+        assertArrayEquals(new int[]{0x12, 0x00, 0xDB, 0xFD, 0x05, 0x00, 0x09, 0x00, 0x01, 0x02, 0x03},
+                ZKCommand.getPacketByte(CommandCodeEnum.CMD_DELETE_USER, 5, 9, new byte[]{1, 2, 3}));
+        // перенос при сложении слов: 0x03E8 + 0xFFFE
+        assertArrayEquals(new int[]{0xE8, 0x03, 0x18, 0xFC, 0x00, 0x00, 0xFE, 0xFF},
+                ZKCommand.getPacket(CommandCodeEnum.CMD_CONNECT, 0, 0xFFFE, null));
+        assertArrayEquals(new int[]{0x0B, 0x00, 0x29, 0xAC, 0x34, 0x12, 0x07, 0x00, 'M', 'A', 'C'},
+                ZKCommand.getPacketByte(CommandCodeEnum.CMD_OPTIONS_RRQ, 0x1234, 7, "MAC".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void replyFrameExposesPayloadAsView() {
+        byte[] raw = new byte[]{(byte) 0xD0, 0x07, 0, 0, 0x34, 0x12, 0x02, 0x00, 'A', '=', 'B', 0};
+        ZKReplyFrame frame = ZKReplyFrame.decode(ByteBuffer.wrap(raw));
+
+        assertEquals(2000, frame.getRawCode());
+        assertEquals(0x1234, frame.getSessionId());
+        assertEquals(2, frame.getReplyId());
+        assertEquals(4, frame.payloadLength());
+        assertEquals("A=B\u0000", frame.payloadAsString(StandardCharsets.US_ASCII));
+        raw[10] = 'C';
+        assertEquals('C', frame.payloadByte(2));
+    }
+}
@@ -0,0 +1,56 @@
+package ua.varus.iclock.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZKEventTest {
+
+    private static final int EF_ATTLOG = 1;
+    private static final int EF_VERIFY = 128;
+
+    @Test
+    void attendanceEventsAreDecodedInPlace() {
+        ByteBuffer packet = ByteBuffer.allocate(8 + 36).order(ByteOrder.LITTLE_ENDIAN);
+        packet.putShort((short) 500).putShort((short) 0).putShort((short) EF_ATTLOG).putShort((short) 0);
+        packet.put("12345".getBytes(StandardCharsets.US_ASCII));
+        packet.position(8 + 24);
+        packet.put((byte) 1).put((byte) 0).put(new byte[]{24, 3, 15, 8, 30, 5});
+        packet.position(0);
+
+        ZKEventDispatcher dispatcher = new ZKEventDispatcher();
+        List<String> seen = new ArrayList<>();
+        dispatcher.subscribe(EF_ATTLOG, event -> seen.add(event.userId() + "|" + event.verifyType() + "|"
+                + event.state() + "|" + event.time()));
+        dispatcher.subscribe(EF_VERIFY, event -> seen.add("verify"));
+
+        dispatcher.dispatch(ZKReplyFrame.decode(packet));
+
+        assertEquals(List.of("12345|1|0|" + LocalDateTime.of(2024, 3, 15, 8, 30, 5)), seen);
+        assertEquals(1, dispatcher.dispatchedCount());
+        assertEquals(EF_ATTLOG | EF_VERIFY, dispatcher.mask());
+    }
+
+    @Test
+    void shortAttendanceFormatCarriesUserSn() {
+        ByteBuffer packet = ByteBuffer.allocate(8 + 10).order(ByteOrder.LITTLE_ENDIAN);
+        packet.putShort((short) 500).putShort((short) 0).putShort((short) EF_ATTLOG).putShort((short) 0);
+        packet.putShort((short) 513).put((byte) 15).put((byte) 1).put(new byte[]{30, 1, 1, 0, 0, 0});
+        packet.flip();
+
+        ZKEvent event = new ZKEvent();
+        event.wrap(ZKReplyFrame.decode(packet));
+
+        assertEquals(513, event.userSn());
+        assertEquals("513", event.userId());
+        assertEquals(15, event.verifyType());
+        assertEquals(ZKTime.pack(LocalDateTime.of(2030, 1, 1, 0, 0, 0)), event.packedTime());
+    }
+}
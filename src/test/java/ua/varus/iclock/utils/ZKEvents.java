@@ -0,0 +1,47 @@
+package ua.varus.iclock.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * События реального времени для тестов вне этого пакета: {@link ZKEvent} получается только разбором пакета.
+ */
+public final class ZKEvents {
+
+    private ZKEvents() {
+    }
+
+    /**
+     * Отметка EF_ATTLOG в формате с user ID: [user_id(24)][verify(1)][state(1)][time(6)][резерв(4)].
+     */
+    public static ZKEvent attendance(String userId, LocalDateTime time) {
+        ByteBuffer packet = ByteBuffer.allocate(ZKCommand.HEADER_SIZE + 36).order(ByteOrder.LITTLE_ENDIAN);
+        packet.putShort((short) CommandCodeEnum.CMD_REG_EVENT.getCode()).putShort((short) 0)
+                .putShort((short) 1).putShort((short) 0);
+        packet.put(userId.getBytes(StandardCharsets.US_ASCII));
+        packet.position(ZKCommand.HEADER_SIZE + 24);
+        packet.put((byte) 1).put((byte) 0)
+                .put((byte) (time.getYear() - 2000)).put((byte) time.getMonthValue()).put((byte) time.getDayOfMonth())
+                .put((byte) time.getHour()).put((byte) time.getMinute()).put((byte) time.getSecond());
+        ZKEvent event = new ZKEvent();
+        event.wrap(ZKReplyFrame.decode(packet.position(0)));
+        return event;
+    }
+
+    /**
+     * Отметка EF_ATTLOG в коротком формате: [user_sn(2)][verify(1)][state(1)][time(6)].
+     */
+    public static ZKEvent attendance(int userSn, LocalDateTime time) {
+        ByteBuffer packet = ByteBuffer.allocate(ZKCommand.HEADER_SIZE + 10).order(ByteOrder.LITTLE_ENDIAN);
+        packet.putShort((short) CommandCodeEnum.CMD_REG_EVENT.getCode()).putShort((short) 0)
+                .putShort((short) 1).putShort((short) 0);
+        packet.putShort((short) userSn).put((byte) 1).put((byte) 0)
+                .put((byte) (time.getYear() - 2000)).put((byte) time.getMonthValue()).put((byte) time.getDayOfMonth())
+                .put((byte) time.getHour()).put((byte) time.getMinute()).put((byte) time.getSecond());
+        ZKEvent event = new ZKEvent();
+        event.wrap(ZKReplyFrame.decode(packet.position(0)));
+        return event;
+    }
+}
@@ -0,0 +1,239 @@
+package ua.varus.iclock.utils;
+
+import com.zkteco.Enum.CommandReplyCodeEnum;
+import org.junit.jupiter.api.Test;
+import ua.varus.iclock.simulator.SimulatedTerminal;
+import ua.varus.iclock.simulator.SimulatorSettings;
+import ua.varus.iclock.transport.ZKTransportSettings;
+
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Обмен по UDP при потерях, запоздавших ответах и повторных передачах.
+ */
+class ZKTerminalVUdpTest {
+
+    private static final int ACK_OK = CommandReplyCodeEnum.CMD_ACK_OK.getCode();
+    private static final int PREPARE_DATA = CommandReplyCodeEnum.CMD_PREPARE_DATA.getCode();
+    private static final int DATA = CommandCodeEnum.CMD_DATA.getCode();
+
+    @Test
+    void lostDatagramsAreRecoveredByRetransmits() throws Exception {
+        SimulatorSettings settings = SimulatorSettings.DEFAULT.withRecords(10, 1, 10)
+                .withNetwork(Duration.ZERO, Duration.ZERO, 0.1);
+        ZKTransportSettings transport = new ZKTransportSettings(ZKTransportSettings.Protocol.UDP, 1000, 50, 6);
+        try (SimulatedTerminal sim = SimulatedTerminal.start(settings, transport)) {
+            AtomicInteger retransmits = new AtomicInteger();
+            sim.terminal().setMetrics(new ZKMetrics() {
+                @Override
+                public void retransmit(CommandCodeEnum command) {
+                    retransmits.incrementAndGet();
+                }
+            });
+            for (int i = 0; i < 40; i++) {
+                assertEquals(sim.device().serialNumber(), sim.terminal().getSerialNumber());
+            }
+            assertTrue(retransmits.get() > 0, "no datagram was lost");
+        }
+    }
+
+    @Test
+    void staleAndDuplicateRepliesAreDiscarded() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 100, 3);
+
+            Future<String> first = client.submit(terminal::getSerialNumber);
+            ZKReplyFrame request = device.next();
+            // ответ на прежнюю команду перед своим
+            device.send(ACK_OK, request.getReplyId() - 1, ascii("~SerialNumber=STALE\0"));
+            device.send(ACK_OK, request.getReplyId(), ascii("~SerialNumber=FIRST\0"));
+            assertEquals("FIRST", first.get(5, TimeUnit.SECONDS));
+
+            // первый запрос «потерян», ответ на него приходит вместе с ответом на повтор
+            Future<String> second = client.submit(terminal::getSerialNumber);
+            request = device.next();
+            ZKReplyFrame retransmit = device.next();
+            assertEquals(request.getReplyId(), retransmit.getReplyId());
+            device.send(ACK_OK, request.getReplyId(), ascii("~SerialNumber=SECOND\0"));
+            device.send(ACK_OK, request.getReplyId(), ascii("~SerialNumber=SECOND\0"));
+            assertEquals("SECOND", second.get(5, TimeUnit.SECONDS));
+
+            Future<String> third = client.submit(terminal::getSerialNumber);
+            request = device.next();
+            device.send(ACK_OK, request.getReplyId(), ascii("~SerialNumber=THIRD\0"));
+            assertEquals("THIRD", third.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void transferCommandsAreNotRetransmitted() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 50, 2);
+
+            Future<?> read = client.submit(() -> {
+                terminal.streamAttendanceLog((record, offset) -> { });
+                return null;
+            });
+            assertEquals(CommandCodeEnum.CMD_ATTLOG_RRQ.getCode(), device.next().getRawCode());
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> read.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(SocketTimeoutException.class, failure.getCause());
+            assertNull(device.next(200), "transfer command was sent again");
+        }
+    }
+
+    @Test
+    void duplicatePrepareDataRestartsTheTransfer() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 1000, 3);
+            ByteBuffer table = attendanceTable("1", "2", "3");
+
+            Future<List<String>> read = client.submit(() -> {
+                List<String> users = new ArrayList<>();
+                terminal.streamAttendanceLog((record, offset) -> users.add(AttendanceLogParser.userId(record, offset)));
+                return users;
+            });
+            ZKReplyFrame request = device.next();
+            // устройство начало передачу дважды, пакеты двух передач перемешаны
+            device.send(PREPARE_DATA, request.getReplyId(), size(table.remaining()));
+            device.send(PREPARE_DATA, request.getReplyId(), size(table.remaining()));
+            device.send(DATA, request.getReplyId(), table.slice(0, 44));
+            device.send(DATA, request.getReplyId(), table.slice(0, 44));
+            device.send(DATA, request.getReplyId(), table.slice(44, table.remaining() - 44));
+
+            ZKReplyFrame again = device.next();
+            assertEquals(CommandCodeEnum.CMD_ATTLOG_RRQ.getCode(), again.getRawCode());
+            assertEquals((request.getReplyId() + 1) & 0xFFFF, again.getReplyId());
+            // запоздавший хвост первой попытки отбрасывается по номеру ответа
+            device.send(DATA, request.getReplyId(), table.slice(44, table.remaining() - 44));
+            device.send(PREPARE_DATA, again.getReplyId(), size(table.remaining()));
+            device.send(DATA, again.getReplyId(), table.slice(0, 44));
+            device.send(DATA, again.getReplyId(), table.slice(44, table.remaining() - 44));
+            device.send(ACK_OK, again.getReplyId(), null);
+
+            assertEquals(List.of("1", "2", "3"), read.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void transferWithALostPacketFailsInsteadOfTruncating() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 1000, 3);
+            ByteBuffer table = attendanceTable("1", "2", "3");
+
+            Future<?> read = client.submit(() -> {
+                terminal.streamAttendanceLog((record, offset) -> { });
+                return null;
+            });
+            ZKReplyFrame request = device.next();
+            device.send(PREPARE_DATA, request.getReplyId(), size(table.remaining()));
+            device.send(DATA, request.getReplyId(), table.slice(0, 44));
+            device.send(ACK_OK, request.getReplyId(), null);
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> read.get(5, TimeUnit.SECONDS));
+            assertTrue(failure.getCause().getMessage().contains("incomplete"), failure.getCause().getMessage());
+        }
+    }
+
+    @Test
+    void lostBufferChunkPacketIsRequestedAgain() throws Exception {
+        try (ScriptedDevice device = new ScriptedDevice();
+             ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            ZKTerminalV terminal = device.connect(client, 1000, 3);
+            ByteBuffer table = templateTable(7, 8);
+
+            Future<List<String>> read = client.submit(() -> {
+                List<String> templates = new ArrayList<>();
+                terminal.streamFingerTemplates(fp -> templates.add(fp.uid() + ":" + fp.template().length));
+                return templates;
+            });
+            ZKReplyFrame request = device.next();
+            assertEquals(CommandCodeEnum.CMD_DATA_WRRQ.getCode(), request.getRawCode());
+            device.send(ACK_OK, request.getReplyId(), ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(1, table.remaining()));
+
+            ZKReplyFrame chunk = device.next();
+            assertEquals(CommandCodeEnum.CMD_DATA_RDY.getCode(), chunk.getRawCode());
+            device.send(PREPARE_DATA, chunk.getReplyId(), size(table.remaining()));
+            // запоздавший ACK_OK прежней команды не завершает кусок
+            device.send(ACK_OK, request.getReplyId(), null);
+            device.send(DATA, chunk.getReplyId(), table.slice(0, 100));
+            // второй пакет потерян, устройство закончило кусок
+            device.send(ACK_OK, chunk.getReplyId(), null);
+
+            ZKReplyFrame again = device.next();
+            assertEquals(CommandCodeEnum.CMD_DATA_RDY.getCode(), again.getRawCode());
+            assertEquals((chunk.getReplyId() + 1) & 0xFFFF, again.getReplyId());
+            device.send(PREPARE_DATA, again.getReplyId(), size(table.remaining()));
+            device.send(DATA, again.getReplyId(), table.slice(0, 100));
+            device.send(DATA, again.getReplyId(), table.slice(100, table.remaining() - 100));
+            device.send(ACK_OK, again.getReplyId(), null);
+
+            ZKReplyFrame free = device.next();
+            assertEquals(CommandCodeEnum.CMD_FREE_DATA.getCode(), free.getRawCode());
+            device.send(ACK_OK, free.getReplyId(), null);
+
+            assertEquals(List.of("7:120", "8:120"), read.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Таблица журнала, как её передаёт устройство: [размер(4)][записи по 40 байт].
+     */
+    private static ByteBuffer attendanceTable(String... userIds) {
+        ByteBuffer table = ByteBuffer.allocate(4 + userIds.length * AttendanceLogParser.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(userIds.length * AttendanceLogParser.RECORD_SIZE);
+        for (int i = 0; i < userIds.length; i++) {
+            byte[] id = Arrays.copyOf(userIds[i].getBytes(StandardCharsets.US_ASCII), 24);
+            table.putShort((short) (i + 1)).put(id).put((byte) 1)
+                    .putInt((int) ZKTime.pack(LocalDateTime.of(2024, 3, 1, 9, i)))
+                    .put((byte) 0).put(new byte[8]);
+        }
+        return table.flip();
+    }
+
+    /**
+     * Таблица шаблонов: [размер(4)][записи size(2) uid(2) finger(1) flag(1) template].
+     */
+    private static ByteBuffer templateTable(int... uids) {
+        int record = 6 + 120;
+        ByteBuffer table = ByteBuffer.allocate(4 + uids.length * record).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(uids.length * record);
+        for (int uid : uids) {
+            table.putShort((short) record).putShort((short) uid).put((byte) 0).put((byte) 1).put(new byte[120]);
+        }
+        return table.flip();
+    }
+
+    private static ByteBuffer size(int size) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, size);
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}